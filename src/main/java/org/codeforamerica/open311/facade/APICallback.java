@@ -0,0 +1,27 @@
+package org.codeforamerica.open311.facade;
+
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
+
+/**
+ * Receives the result of an operation performed through an
+ * {@link AsyncAPIWrapper}. Only one of its methods will be called, and only
+ * once.
+ *
+ * @param <T> Type of the result of the operation.
+ */
+public interface APICallback<T> {
+
+    /**
+     * Called when the operation finished successfully.
+     *
+     * @param result Result of the operation.
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called if there was any problem (data parsing, I/O...).
+     *
+     * @param exception Cause of the failure.
+     */
+    void onFailure(APIWrapperException exception);
+}
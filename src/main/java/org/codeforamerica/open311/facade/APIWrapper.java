@@ -2,12 +2,30 @@ package org.codeforamerica.open311.facade;
 
 import okhttp3.HttpUrl;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.codeforamerica.open311.facade.data.Attribute;
 import org.codeforamerica.open311.facade.data.POSTServiceRequestResponse;
@@ -24,15 +42,26 @@ import org.codeforamerica.open311.facade.exceptions.DataParsingException;
 import org.codeforamerica.open311.facade.exceptions.GeoReportV2Error;
 import org.codeforamerica.open311.facade.exceptions.InvalidValueError;
 import org.codeforamerica.open311.internals.caching.Cache;
+import org.codeforamerica.open311.internals.concurrent.DaemonThreadFactory;
+import org.codeforamerica.open311.internals.concurrent.SingleFlight;
 import org.codeforamerica.open311.internals.logging.LogManager;
+import org.codeforamerica.open311.internals.network.HTTPNetworkManager;
 import org.codeforamerica.open311.internals.network.NetworkManager;
+import org.codeforamerica.open311.internals.network.NetworkResponse;
+import org.codeforamerica.open311.internals.network.RateLimitedNetworkManager;
+import org.codeforamerica.open311.internals.network.StreamingNetworkManager;
 import org.codeforamerica.open311.internals.network.URLBuilder;
+import org.codeforamerica.open311.internals.network.Validators;
 import org.codeforamerica.open311.internals.parsing.DataParser;
 import org.codeforamerica.open311.internals.parsing.DataParserFactory;
 
 /**
  * Base class of the API. This is the entry point to the system. You can build
  * objects of this class using the {@link APIWrapperFactory} class.
+ * <p/>
+ * Instances are thread-safe: every operation builds its own parser from the
+ * format of the response it received, so one wrapper can be shared by all
+ * the threads of an application.
  *
  * @author Santiago Munín <santimunin@gmail.com>
  */
@@ -42,14 +71,60 @@ public class APIWrapper {
     private String apiKey;
     private String jurisdictionId;
     private EndpointType type;
-    private DataParser dataParser;
     private NetworkManager networkManager;
-    private URLBuilder urlBuilder;
+    /**
+     * Replaced (never modified) when the format changes, so the operations
+     * which are running keep a consistent builder.
+     */
+    private volatile URLBuilder urlBuilder;
     private Cache cache;
+    /**
+     * Executor of the refreshes used when the user doesn't provide one.
+     */
+    private static ExecutorService defaultRefreshExecutor;
+    /**
+     * Runs the refreshes of the stale cached data.
+     */
+    private volatile Executor refreshExecutor = getDefaultRefreshExecutor();
+    /**
+     * Sends the operations of the batch requests in parallel. The batch
+     * requests block until their operations finish, so it can't be the
+     * executor of the asynchronous callbacks.
+     */
+    private volatile Executor batchExecutor = BatchResult.getDefaultExecutor();
+    /**
+     * Keys of the stale cached data which is being refreshed.
+     */
+    private final Set<String> refreshing = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     /**
      * Useful to log events.
      */
     private LogManager logManager = LogManager.getInstance();
+    /**
+     * Bytes of a streamed response which are kept to be able to parse it again
+     * as an error. API errors are tiny documents.
+     */
+    private static final int ERROR_MARK_LIMIT = 64 * 1024;
+    /**
+     * GET operations which are running, shared by all the wrappers.
+     */
+    private static final SingleFlight IN_FLIGHT = new SingleFlight();
+    /**
+     * Maximum length of the urls of the batch requests, most servers accept
+     * at least 2000 characters.
+     */
+    /* package */ static final int MAX_URL_LENGTH = 2000;
+    /**
+     * Number of GET Service Requests operations of a batch request which are
+     * sent at the same time.
+     */
+    /* package */ static final int BATCH_PARALLELISM = 4;
+    /**
+     * Default number of service definitions fetched at the same time by
+     * {@link #prefetchServiceDefinitions(List)}.
+     */
+    public static final int DEFAULT_PREFETCH_PARALLELISM = 4;
 
     /**
      * Builds an API wrapper from its components. Note that this constructor
@@ -74,12 +149,29 @@ public class APIWrapper {
         this.apiKey = apiKey;
         this.urlBuilder = new URLBuilder(endpointUrl, this.jurisdictionId,
                 format);
+        if (networkManager instanceof RateLimitedNetworkManager
+                && apiKey != null && apiKey.length() > 0) {
+            // GET operations don't send the key, bind it to the endpoint.
+            ((RateLimitedNetworkManager) networkManager).setApiKey(
+                    endpointUrl, apiKey);
+        }
+        if (networkManager instanceof HTTPNetworkManager) {
+            ((HTTPNetworkManager) networkManager).addEndpoint(endpointUrl);
+        }
     }
 
     public String getEndpointUrl() {
         return endpointUrl;
     }
 
+    /**
+     * @return The jurisdiction id sent with every operation, it can be
+     * <code>null</code>.
+     */
+    public String getJurisdictionId() {
+        return jurisdictionId;
+    }
+
     /**
      * Returns a string with some info.
      *
@@ -98,6 +190,65 @@ public class APIWrapper {
         return cache;
     }
 
+    /**
+     * Sets the executor which refreshes the stale data served by the cache
+     * (check {@link Cache#setStaleTimeToLive(Cache.CacheableOperation, int)}).
+     * By default it is a process-wide pool which builds threads on demand: a
+     * refresh blocks until the endpoint answers, so it mustn't take the
+     * threads of the {@link AsyncAPIWrapper} callbacks.
+     *
+     * @param refreshExecutor Executor of the refreshes.
+     */
+    public void setRefreshExecutor(Executor refreshExecutor) {
+        if (refreshExecutor != null) {
+            this.refreshExecutor = refreshExecutor;
+        }
+    }
+
+    /**
+     * Returns the executor of the batch operations, which also runs the
+     * blocking operations of the {@link AsyncAPIWrapper}.
+     *
+     * @return The executor of the batch operations.
+     */
+    /* package */ Executor getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    /**
+     * Returns the executor of the refreshes shared by the wrappers. Its
+     * threads are daemons and they die after a minute idle.
+     *
+     * @return A cached thread pool.
+     */
+    private static synchronized ExecutorService getDefaultRefreshExecutor() {
+        if (defaultRefreshExecutor == null) {
+            defaultRefreshExecutor = Executors.newCachedThreadPool(
+                    new DaemonThreadFactory("open311-refresh-"));
+        }
+        return defaultRefreshExecutor;
+    }
+
+    /**
+     * Sets the executor which sends the operations of a batch request in
+     * parallel (check {@link #getServiceRequestsByIds(Collection)} and
+     * {@link #prefetchServiceDefinitions(List, int)}). By default it is a
+     * process-wide pool which builds threads on demand, so a batch request
+     * never waits for a thread held by another one.
+     * <p/>
+     * The batch requests block until their operations finish: the given
+     * executor mustn't run the code which calls them (for example, the
+     * executor of the {@link AsyncAPIWrapper} callbacks), otherwise they can
+     * wait forever for a thread.
+     *
+     * @param batchExecutor Executor of the batch operations.
+     */
+    public void setBatchExecutor(Executor batchExecutor) {
+        if (batchExecutor != null) {
+            this.batchExecutor = batchExecutor;
+        }
+    }
+
     /**
      * Updates the format of the wrapper. A new {@link URLBuilder} will be
      * instantiated.
@@ -132,7 +283,9 @@ public class APIWrapper {
      * href="http://wiki.open311.org/GeoReport_v2#GET_Service_List">More
      * info</a>
      *
-     * @return List of fetched services.
+     * @return List of fetched services. It is unmodifiable because it may be
+     * shared with other callers and with the cache (copy it to sort or
+     * filter it).
      * @throws APIWrapperException If there was any problem (data parsing, I/O...).
      */
     public List<Service> getServiceList() throws APIWrapperException, IOException, ClassNotFoundException {
@@ -141,18 +294,28 @@ public class APIWrapper {
         result = cache
                 .retrieveCachedServiceList(this.endpointUrl);
         if (result == null) {
-            result = askEndpointForTheServiceList();
-            cache.saveListOfServices(endpointUrl, result);
+            result = cache.retrieveStaleServiceList(endpointUrl);
+            if (result != null) {
+                refreshInBackground("GET Service List", new Refresh() {
+                    @Override
+                    public void run() throws APIWrapperException {
+                        askEndpointForTheServiceList();
+                    }
+                });
+            } else {
+                result = askEndpointForTheServiceList();
+            }
         }
         if (result != null) {
             RelationshipManager.getInstance().addServiceWrapperRelationship(
                     result, this);
         }
-        return result;
+        return unmodifiable(result);
     }
 
     /**
-     * Makes a network operation to ask the endpoint for the service list.
+     * Makes a network operation to ask the endpoint for the service list and
+     * caches it.
      *
      * @return The list of services of the endpoint.
      * @throws APIWrapperException If there was any problem (data parsing, I/O...).
@@ -161,20 +324,100 @@ public class APIWrapper {
             throws APIWrapperException {
         logManager.logInfo(this, "GET Service List is not cached, asking endpoint.");
 
-        String rawServiceListData = "";
         try {
             HttpUrl serviceListUrl = urlBuilder.buildGetServiceListUrl();
-            rawServiceListData = networkGet(serviceListUrl);
-            return dataParser.parseServiceList(rawServiceListData);
-        } catch (DataParsingException e) {
-            tryToParseError(rawServiceListData);
-            return null;
+            return coalescedGet(serviceListUrl,
+                    new FetchOperation<List<Service>>() {
+                        @Override
+                        public List<Service> parse(DataParser parser,
+                                                   InputStream data) throws DataParsingException {
+                            return parser.parseServiceList(data);
+                        }
+
+                        @Override
+                        public void save(List<Service> result,
+                                         Validators validators) {
+                            cache.saveListOfServices(endpointUrl, result,
+                                    validators);
+                        }
+
+                        @Override
+                        public Validators getValidators() {
+                            return cache
+                                    .retrieveServiceListValidators(endpointUrl);
+                        }
+
+                        @Override
+                        public List<Service> renew() {
+                            return cache.renewServiceList(endpointUrl);
+                        }
+                    });
         } catch (MalformedURLException e) {
             throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER,
                     null);
         }
     }
 
+    /**
+     * Fetches the service definitions of the given services which have
+     * metadata, {@link #DEFAULT_PREFETCH_PARALLELISM} at a time, so they are
+     * cached before they are needed (check
+     * {@link #prefetchServiceDefinitions(List, int)}).
+     *
+     * @param services Services, usually the result of
+     *                 {@link #getServiceList()}.
+     * @return The definitions and failures by service code.
+     */
+    public BatchResult<String, ServiceDefinition> prefetchServiceDefinitions(
+            List<Service> services) {
+        return prefetchServiceDefinitions(services,
+                DEFAULT_PREFETCH_PARALLELISM);
+    }
+
+    /**
+     * Fetches the service definitions of the given services which have
+     * metadata in parallel (with the batch executor, check
+     * {@link #setBatchExecutor(Executor)}), so they are cached before they
+     * are needed. Cached definitions are not fetched again. A failure doesn't
+     * abort the rest of the definitions.
+     * <p/>
+     * It blocks until every definition has been fetched, but never on the
+     * executor of the {@link AsyncAPIWrapper} callbacks, so it can be called
+     * from them.
+     *
+     * @param services    Services, usually the result of
+     *                    {@link #getServiceList()}.
+     * @param parallelism Maximum number of definitions fetched at the same
+     *                    time.
+     * @return The definitions and failures by service code.
+     */
+    public BatchResult<String, ServiceDefinition> prefetchServiceDefinitions(
+            List<Service> services, int parallelism) {
+        if (services == null) {
+            throw new InvalidValueError("The given parameter is null");
+        }
+        if (parallelism < 1) {
+            throw new InvalidValueError("The parallelism must be positive");
+        }
+        Map<String, Callable<ServiceDefinition>> operations = new LinkedHashMap<String, Callable<ServiceDefinition>>();
+        for (Service service : services) {
+            final String serviceCode = service != null ? service
+                    .getServiceCode() : null;
+            if (serviceCode != null && Boolean.TRUE.equals(service.hasMetadata())
+                    && !operations.containsKey(serviceCode)) {
+                operations.put(serviceCode, new Callable<ServiceDefinition>() {
+                    @Override
+                    public ServiceDefinition call() throws Exception {
+                        return getServiceDefinition(serviceCode);
+                    }
+                });
+            }
+        }
+        logManager.logInfo(this, "Prefetching " + operations.size()
+                + " service definitions");
+        return BatchResult.run(operations, batchExecutor, parallelism);
+    }
+
     /**
      * Gets the service definition of a concrete service. <a
      * href="http://wiki.open311.org/GeoReport_v2#GET_Service_Definition">More
@@ -184,7 +427,7 @@ public class APIWrapper {
      * @return All the information related to the given code.
      * @throws APIWrapperException If there was any problem (data parsing, I/O...).
      */
-    public ServiceDefinition getServiceDefinition(String serviceCode)
+    public ServiceDefinition getServiceDefinition(final String serviceCode)
             throws APIWrapperException, IOException, ClassNotFoundException {
         logManager.logInfo(this, "GET Service Definition (service_code: "
                 + serviceCode + ")");
@@ -192,32 +435,110 @@ public class APIWrapper {
         result = cache.retrieveCachedServiceDefinition(
                 endpointUrl, serviceCode);
         if (result == null) {
-            result = askEndpointForAServiceDefinition(serviceCode);
-            cache.saveServiceDefinition(endpointUrl, serviceCode, result);
+            result = cache.retrieveStaleServiceDefinition(endpointUrl,
+                    serviceCode);
+            if (result != null) {
+                refreshInBackground("GET Service Definition " + serviceCode,
+                        new Refresh() {
+                            @Override
+                            public void run() throws APIWrapperException {
+                                askEndpointForAServiceDefinition(serviceCode);
+                            }
+                        });
+            } else {
+                result = askEndpointForAServiceDefinition(serviceCode);
+            }
         }
         return result;
     }
 
     /**
-     * Makes a network operation to ask the endpoint for the service definition.
+     * Runs a refresh of stale cached data in the refresh executor, unless the
+     * same data is already being refreshed. Failures are logged, the stale
+     * data will be served until the next try.
+     *
+     * @param key     Identifies the refreshed data.
+     * @param refresh Fetches and saves the data.
+     */
+    private void refreshInBackground(final String key, final Refresh refresh) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        logManager.logInfo(this, key + " is stale, refreshing it.");
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refresh.run();
+                    } catch (APIWrapperException e) {
+                        logManager.logError(APIWrapper.this, "Error refreshing "
+                                + key + ": " + e.getMessage());
+                    } catch (RuntimeException e) {
+                        logManager.logError(APIWrapper.this, "Error refreshing "
+                                + key + ": " + e.getMessage());
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // Rejected by the executor.
+            refreshing.remove(key);
+            logManager.logError(this, "Error refreshing " + key + ": "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Refresh of stale cached data.
+     */
+    private interface Refresh {
+        void run() throws APIWrapperException;
+    }
+
+    /**
+     * Makes a network operation to ask the endpoint for the service definition
+     * and caches it.
      *
      * @param serviceCode Code of the service of interest.
      * @return All the information related to the given code.
      * @throws APIWrapperException
      */
     private ServiceDefinition askEndpointForAServiceDefinition(
-            String serviceCode) throws APIWrapperException {
+            final String serviceCode) throws APIWrapperException {
         logManager.logInfo(this, "GET Service Definition (service_code: "
                 + serviceCode + ") is not cached, asking endpoint.");
-        String rawServiceDefinitionData = "";
         try {
             HttpUrl serviceDefinitionUrl = urlBuilder
                     .buildGetServiceDefinitionUrl(serviceCode);
-            rawServiceDefinitionData = networkGet(serviceDefinitionUrl);
-            return dataParser.parseServiceDefinition(rawServiceDefinitionData);
-        } catch (DataParsingException e) {
-            tryToParseError(rawServiceDefinitionData);
-            return null;
+            return coalescedGet(serviceDefinitionUrl,
+                    new FetchOperation<ServiceDefinition>() {
+                        @Override
+                        public ServiceDefinition parse(DataParser parser,
+                                                       InputStream data) throws DataParsingException {
+                            return parser.parseServiceDefinition(data);
+                        }
+
+                        @Override
+                        public void save(ServiceDefinition result,
+                                         Validators validators) {
+                            cache.saveServiceDefinition(endpointUrl,
+                                    serviceCode, result, validators);
+                        }
+
+                        @Override
+                        public Validators getValidators() {
+                            return cache.retrieveServiceDefinitionValidators(
+                                    endpointUrl, serviceCode);
+                        }
+
+                        @Override
+                        public ServiceDefinition renew() {
+                            return cache.renewServiceDefinition(endpointUrl,
+                                    serviceCode);
+                        }
+                    });
         } catch (MalformedURLException e) {
             throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER,
                     null);
@@ -235,28 +556,35 @@ public class APIWrapper {
             throws APIWrapperException {
         logManager.logInfo(this, "GET Service Request Id from token (token: "
                 + token + "), asking endpoint.");
-        String rawServiceRequestId = "";
+        HttpUrl serviceDefinitionUrl;
         try {
-            HttpUrl serviceDefinitionUrl = urlBuilder
+            serviceDefinitionUrl = urlBuilder
                     .buildGetServiceRequestIdFromATokenUrl(token);
-            rawServiceRequestId = networkGet(serviceDefinitionUrl);
-            return dataParser
-                    .parseServiceRequestIdFromAToken(rawServiceRequestId);
-        } catch (DataParsingException e) {
-            tryToParseError(rawServiceRequestId);
-            return null;
         } catch (MalformedURLException e) {
             throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER,
                     null);
         }
+        RawResponse response = networkGet(serviceDefinitionUrl);
+        DataParser parser = response.buildDataParser();
+        try {
+            return parser.parseServiceRequestIdFromAToken(response.data);
+        } catch (DataParsingException e) {
+            tryToParseError(response.data, parser);
+            return null;
+        }
     }
 
     /**
-     * Retrieves all the service requests which accord to the given data.
+     * Retrieves all the service requests which accord to the given data. If
+     * the filter has a start and an end date and part of that range is
+     * cached (with the same other arguments), only the missing slices of the
+     * range are asked to the endpoint, in parallel.
      *
      * @param operationData An object with all the desired optional filtering parameters
      *                      to send.
-     * @return A list of service requests.
+     * @return A list of service requests. It is unmodifiable because it may
+     * be shared with other callers and with the cache (copy it to sort or
+     * filter it).
      * @throws APIWrapperException If there was any problem.
      */
     public List<ServiceRequest> getServiceRequests(
@@ -268,35 +596,170 @@ public class APIWrapper {
         result = cache.retrieveCachedServiceRequests(
                 endpointUrl, operationData);
         if (result == null) {
-            result = askEndpointForServiceRequests(operationData);
-            cache.saveServiceRequestList(endpointUrl, operationData, result);
+            List<GETServiceRequestsFilter> missing = cache
+                    .getMissingServiceRequestFilters(endpointUrl, operationData);
+            if (missing.size() == 1 && missing.get(0).equals(operationData)) {
+                result = askEndpointForServiceRequests(operationData);
+            } else {
+                result = getServiceRequestRange(operationData, missing);
+            }
+        }
+        return unmodifiable(result);
+    }
+
+    /**
+     * Assembles the requests of a time range which is partially cached. The
+     * missing slices are asked to the endpoint ({@link #BATCH_PARALLELISM}
+     * at a time) and the covered ones are read from the cache, so nothing is
+     * fetched twice even if a fetched slice can't be cached as a range.
+     *
+     * @param operationData Filter with a start and an end date.
+     * @param missing       Sorted slices of the range which aren't cached.
+     * @return The requests of every slice, in the order of the slices.
+     * @throws APIWrapperException If there was any problem.
+     */
+    private List<ServiceRequest> getServiceRequestRange(
+            GETServiceRequestsFilter operationData,
+            List<GETServiceRequestsFilter> missing) throws APIWrapperException {
+        Map<GETServiceRequestsFilter, Callable<List<ServiceRequest>>> operations = new LinkedHashMap<GETServiceRequestsFilter, Callable<List<ServiceRequest>>>();
+        // The dates are sent without milliseconds.
+        long next = operationData.getStartDate().getTime();
+        for (final GETServiceRequestsFilter slice : missing) {
+            addCachedSlice(operations, operationData, next, slice
+                    .getStartDate().getTime() - 1000);
+            operations.put(slice, new Callable<List<ServiceRequest>>() {
+                @Override
+                public List<ServiceRequest> call() throws APIWrapperException {
+                    return askEndpointForServiceRequests(slice);
+                }
+            });
+            next = slice.getEndDate().getTime() + 1000;
+        }
+        addCachedSlice(operations, operationData, next, operationData
+                .getEndDate().getTime());
+        logManager.logInfo(this, "GET Service Requests, asking endpoint for "
+                + missing.size() + " slices of the range.");
+        BatchResult<GETServiceRequestsFilter, List<ServiceRequest>> batch = BatchResult
+                .run(operations, batchExecutor, BATCH_PARALLELISM);
+        if (!batch.isSuccessful()) {
+            throw unwrap(batch.getFailures().values().iterator().next());
+        }
+        List<ServiceRequest> result = new ArrayList<ServiceRequest>();
+        for (List<ServiceRequest> serviceRequests : batch.getResults().values()) {
+            if (serviceRequests != null) {
+                result.addAll(serviceRequests);
+            }
         }
         return result;
     }
 
     /**
-     * Makes a network operation to ask the endpoint for service requests.
+     * Adds the operation of a slice which should be cached, it only asks the
+     * endpoint if the slice is no longer there.
+     */
+    private void addCachedSlice(
+            Map<GETServiceRequestsFilter, Callable<List<ServiceRequest>>> operations,
+            GETServiceRequestsFilter operationData, long start, long end) {
+        if (start > end) {
+            return;
+        }
+        final GETServiceRequestsFilter slice = new GETServiceRequestsFilter(
+                operationData).setStartDate(new Date(start)).setEndDate(
+                new Date(end));
+        operations.put(slice, new Callable<List<ServiceRequest>>() {
+            @Override
+            public List<ServiceRequest> call() throws APIWrapperException {
+                List<ServiceRequest> result = cache
+                        .retrieveCachedServiceRequests(endpointUrl, slice);
+                return result != null ? result
+                        : askEndpointForServiceRequests(slice);
+            }
+        });
+    }
+
+    /**
+     * Makes a network operation to ask the endpoint for service requests and
+     * caches them.
      *
      * @param operationData Filter to apply to the search in the endpoint.
      * @return A list of service requests.
      * @throws APIWrapperException If there was any problem.
      */
     private List<ServiceRequest> askEndpointForServiceRequests(
-            GETServiceRequestsFilter operationData) throws APIWrapperException {
+            final GETServiceRequestsFilter operationData) throws APIWrapperException {
         logManager
                 .logInfo(this,
                         "GET Service Requests with the given filter is not cached, asking endpoint.");
-        String rawServiceRequests = "";
         try {
             HttpUrl serviceRequestsUrl = operationData != null ? urlBuilder
                     .buildGetServiceRequests(operationData
                             .getOptionalParametersMap()) : urlBuilder
                     .buildGetServiceRequests(null);
-            rawServiceRequests = networkGet(serviceRequestsUrl);
-            return dataParser.parseServiceRequests(rawServiceRequests);
-        } catch (DataParsingException e) {
-            tryToParseError(rawServiceRequests);
-            return null;
+            return coalescedGet(serviceRequestsUrl,
+                    new FetchOperation<List<ServiceRequest>>() {
+                        @Override
+                        public List<ServiceRequest> parse(DataParser parser,
+                                                          InputStream data) throws DataParsingException {
+                            return parser.parseServiceRequests(data);
+                        }
+
+                        @Override
+                        public void save(List<ServiceRequest> result,
+                                         Validators validators) {
+                            cache.saveServiceRequestList(endpointUrl,
+                                    operationData, result);
+                        }
+                    });
+        } catch (MalformedURLException e) {
+            throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER, null);
+        }
+    }
+
+    /**
+     * Retrieves all the service requests which accord to the given data,
+     * handing each of them to the consumer as soon as it is parsed off the
+     * wire. Nothing is accumulated, so memory use doesn't depend on the size
+     * of the response. The cache is bypassed: the requests are always fetched
+     * from the endpoint and they aren't saved.
+     *
+     * @param operationData An object with all the desired optional filtering parameters
+     *                      to send, it can be <code>null</code>.
+     * @param consumer      Receives every service request, in the thread which
+     *                      called this method.
+     * @return Number of service requests handed to the consumer.
+     * @throws APIWrapperException If there was any problem. Some requests may
+     *                             have been consumed before it.
+     */
+    public int streamServiceRequests(GETServiceRequestsFilter operationData,
+                                     final ServiceRequestConsumer consumer) throws APIWrapperException {
+        logManager.logInfo(this, "GET Service Requests (streaming)");
+        if (consumer == null) {
+            throw new InvalidValueError("The given consumer is null");
+        }
+        operationData = operationData == null ? new GETServiceRequestsFilter()
+                : operationData;
+        final int[] count = new int[1];
+        try {
+            HttpUrl serviceRequestsUrl = urlBuilder
+                    .buildGetServiceRequests(operationData
+                            .getOptionalParametersMap());
+            streamingGet(serviceRequestsUrl,
+                    new StreamParsingOperation<Void>() {
+                        @Override
+                        public Void parse(DataParser parser, InputStream data)
+                                throws DataParsingException {
+                            parser.parseServiceRequests(data,
+                                    new ServiceRequestConsumer() {
+                                        @Override
+                                        public void accept(ServiceRequest serviceRequest) {
+                                            count[0]++;
+                                            consumer.accept(serviceRequest);
+                                        }
+                                    });
+                            return null;
+                        }
+                    });
+            return count[0];
         } catch (MalformedURLException e) {
             throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER, null);
         }
@@ -318,39 +781,214 @@ public class APIWrapper {
                 serviceRequestId);
         if (result == null) {
             result = askEndpointForAServiceRequest(serviceRequestId);
-            cache.saveSingleServiceRequest(endpointUrl, serviceRequestId,
-                    result);
         }
         return result;
     }
 
     /**
-     * Makes a network operation to ask the endpoint for a service request.
+     * Makes a network operation to ask the endpoint for a service request and
+     * caches it.
      *
      * @param serviceRequestId Id of the request.
      * @return The info related to the given ID.
      * @throws APIWrapperException If there was any problem.
      */
-    private ServiceRequest askEndpointForAServiceRequest(String serviceRequestId)
+    private ServiceRequest askEndpointForAServiceRequest(final String serviceRequestId)
             throws APIWrapperException {
         logManager.logInfo(this, "GET Service Request (service_request_id: "
                 + serviceRequestId + ") is not cached, asking endpoint.");
-        String rawServiceRequests = "";
+        HttpUrl serviceRequestsUrl;
         try {
-            HttpUrl serviceRequestsUrl = urlBuilder
+            serviceRequestsUrl = urlBuilder
                     .buildGetServiceRequest(serviceRequestId);
-            rawServiceRequests = networkGet(serviceRequestsUrl);
-            List<ServiceRequest> parsedServiceRequests = dataParser
-                    .parseServiceRequests(rawServiceRequests);
-            return parsedServiceRequests.size() > 0 ? parsedServiceRequests
-                    .get(0) : null;
-        } catch (DataParsingException e) {
-            tryToParseError(rawServiceRequests);
-            return null;
         } catch (MalformedURLException e) {
             throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER,
                     null);
         }
+        return coalescedGet(serviceRequestsUrl,
+                new FetchOperation<ServiceRequest>() {
+                    @Override
+                    public ServiceRequest parse(DataParser parser,
+                                                InputStream data) throws DataParsingException {
+                        List<ServiceRequest> parsedServiceRequests = parser
+                                .parseServiceRequests(data);
+                        return parsedServiceRequests.size() > 0 ? parsedServiceRequests
+                                .get(0) : null;
+                    }
+
+                    @Override
+                    public void save(ServiceRequest result,
+                                     Validators validators) {
+                        cache.saveSingleServiceRequest(endpointUrl,
+                                serviceRequestId, result);
+                    }
+                });
+    }
+
+    /**
+     * GET Service Request operation for many ids at once. Cached requests are
+     * served locally, the rest are asked with GET Service Requests operations
+     * whose <code>service_request_id</code> is a comma-delimited list of ids
+     * (as many as fit in a url of {@link #MAX_URL_LENGTH} characters). Those
+     * operations are sent in parallel (check
+     * {@link #setBatchExecutor(Executor)}) and every obtained request is
+     * cached on its own. A failed operation doesn't discard the requests
+     * obtained by the rest.
+     *
+     * @param serviceRequestIds Ids of the requests to be fetched.
+     * @return The found requests by id, in the order of the given ids, and the
+     * failure of every id whose operation failed. Ids unknown to the endpoint
+     * are in neither of them.
+     * @throws APIWrapperException If the operations couldn't be built.
+     */
+    public BatchResult<String, ServiceRequest> getServiceRequestsByIds(
+            Collection<String> serviceRequestIds) throws APIWrapperException {
+        if (serviceRequestIds == null) {
+            throw new InvalidValueError("The given parameter is null");
+        }
+        logManager.logInfo(this, "GET Service Requests by id ("
+                + serviceRequestIds.size() + " ids)");
+        Map<String, ServiceRequest> found = new HashMap<String, ServiceRequest>();
+        Set<String> missing = new LinkedHashSet<String>();
+        for (String serviceRequestId : serviceRequestIds) {
+            if (serviceRequestId == null || serviceRequestId.length() == 0
+                    || found.containsKey(serviceRequestId)) {
+                continue;
+            }
+            ServiceRequest cached = cache.retrieveCachedServiceRequest(
+                    endpointUrl, serviceRequestId);
+            if (cached != null) {
+                found.put(serviceRequestId, cached);
+            } else {
+                missing.add(serviceRequestId);
+            }
+        }
+        Map<HttpUrl, List<String>> operations = buildServiceRequestsByIdsUrls(missing);
+        BatchResult<HttpUrl, List<ServiceRequest>> batch = askEndpointForServiceRequestsByIds(
+                operations.keySet());
+        for (List<ServiceRequest> fetched : batch.getResults().values()) {
+            for (ServiceRequest serviceRequest : fetched) {
+                if (missing.contains(serviceRequest.getServiceRequestId())) {
+                    found.put(serviceRequest.getServiceRequestId(),
+                            serviceRequest);
+                }
+            }
+        }
+        Map<String, Exception> failed = new HashMap<String, Exception>();
+        for (Map.Entry<HttpUrl, Exception> failure : batch.getFailures()
+                .entrySet()) {
+            logManager.logError(this, "GET Service Requests by id failed: "
+                    + failure.getValue());
+            for (String serviceRequestId : operations.get(failure.getKey())) {
+                failed.put(serviceRequestId, unwrap(failure.getValue()));
+            }
+        }
+        Map<String, ServiceRequest> results = new LinkedHashMap<String, ServiceRequest>();
+        Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+        for (String serviceRequestId : serviceRequestIds) {
+            if (found.containsKey(serviceRequestId)) {
+                results.put(serviceRequestId, found.get(serviceRequestId));
+            } else if (failed.containsKey(serviceRequestId)) {
+                failures.put(serviceRequestId, failed.get(serviceRequestId));
+            }
+        }
+        return new BatchResult<String, ServiceRequest>(results, failures);
+    }
+
+    /**
+     * Splits a list of ids into GET Service Requests urls which aren't
+     * longer than {@link #MAX_URL_LENGTH} (unless a single id doesn't fit).
+     *
+     * @return The ids of every url, in order.
+     */
+    private Map<HttpUrl, List<String>> buildServiceRequestsByIdsUrls(
+            Collection<String> serviceRequestIds) throws APIWrapperException {
+        Map<HttpUrl, List<String>> urls = new LinkedHashMap<HttpUrl, List<String>>();
+        try {
+            List<String> chunk = new ArrayList<String>();
+            String ids = null;
+            HttpUrl url = null;
+            for (String serviceRequestId : serviceRequestIds) {
+                String candidateIds = ids != null ? ids + "," + serviceRequestId
+                        : serviceRequestId;
+                HttpUrl candidate = urlBuilder
+                        .buildGetServiceRequests(new GETServiceRequestsFilter()
+                                .setServiceRequestId(candidateIds)
+                                .getOptionalParametersMap());
+                if (url != null
+                        && candidate.toString().length() > MAX_URL_LENGTH) {
+                    urls.put(url, chunk);
+                    chunk = new ArrayList<String>();
+                    ids = serviceRequestId;
+                    url = urlBuilder
+                            .buildGetServiceRequests(new GETServiceRequestsFilter()
+                                    .setServiceRequestId(ids)
+                                    .getOptionalParametersMap());
+                } else {
+                    ids = candidateIds;
+                    url = candidate;
+                }
+                chunk.add(serviceRequestId);
+            }
+            if (url != null) {
+                urls.put(url, chunk);
+            }
+        } catch (MalformedURLException e) {
+            throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER,
+                    null);
+        }
+        return urls;
+    }
+
+    /**
+     * Sends GET Service Requests operations in parallel
+     * ({@link #BATCH_PARALLELISM} at a time) and caches every obtained
+     * request.
+     *
+     * @param urls Urls of the operations.
+     * @return The obtained requests and the failures by url.
+     */
+    private BatchResult<HttpUrl, List<ServiceRequest>> askEndpointForServiceRequestsByIds(
+            Collection<HttpUrl> urls) {
+        if (!urls.isEmpty()) {
+            logManager.logInfo(this, "GET Service Requests by id, asking endpoint ("
+                    + urls.size() + " operations).");
+        }
+        Map<HttpUrl, Callable<List<ServiceRequest>>> operations = new LinkedHashMap<HttpUrl, Callable<List<ServiceRequest>>>();
+        for (final HttpUrl url : urls) {
+            operations.put(url, new Callable<List<ServiceRequest>>() {
+                @Override
+                public List<ServiceRequest> call() throws APIWrapperException {
+                    return coalescedGet(url,
+                            new FetchOperation<List<ServiceRequest>>() {
+                                @Override
+                                public List<ServiceRequest> parse(
+                                        DataParser parser, InputStream data)
+                                        throws DataParsingException {
+                                    List<ServiceRequest> result = parser
+                                            .parseServiceRequests(data);
+                                    return result != null ? result
+                                            : new ArrayList<ServiceRequest>();
+                                }
+
+                                @Override
+                                public void save(List<ServiceRequest> result,
+                                                 Validators validators) {
+                                    if (result == null) {
+                                        return;
+                                    }
+                                    for (ServiceRequest serviceRequest : result) {
+                                        cache.saveSingleServiceRequest(
+                                                endpointUrl,
+                                                serviceRequest.getServiceRequestId(),
+                                                serviceRequest);
+                                    }
+                                }
+                            });
+                }
+            });
+        }
+        return BatchResult.run(operations, batchExecutor, BATCH_PARALLELISM);
     }
 
     /**
@@ -364,18 +1002,10 @@ public class APIWrapper {
     public POSTServiceRequestResponse postServiceRequest(
             POSTServiceRequestData operationData) throws APIWrapperException {
         logManager.logInfo(this, "POST Service Request");
-        if (operationData == null) {
-            throw new InvalidValueError("The given parameter is null");
-        }
-        Map<String, String> optionalArguments = operationData
-                .getBodyRequestParameters() != null ? operationData
-                .getBodyRequestParameters() : new HashMap<String, String>();
-        List<Attribute> attributes = operationData.getAttributes() != null ? operationData
-                .getAttributes() : new LinkedList<Attribute>();
         try {
+            Map<String, String> postArguments = buildPostServiceRequestBody(operationData);
             HttpUrl url = urlBuilder.buildPostServiceRequestUrl();
-            return postServiceRequestInternal(url, optionalArguments,
-                    attributes);
+            return postServiceRequestInternal(url, postArguments);
         } catch (MalformedURLException e) {
             throw new APIWrapperException(e.getMessage(), Error.URL_BUILDER,
                     null);
@@ -383,18 +1013,23 @@ public class APIWrapper {
     }
 
     /**
-     * Performs the POST service request with already built URL and body.
+     * Builds the body of a POST Service Request operation.
      *
-     * @param url        Target.
-     * @param arguments  Pairs (key,value) of optional arguments.
-     * @param attributes List of attributes (check the GeoReport v2 wiki).
-     * @return The server's response.
-     * @throws APIWrapperException   If there was any problem.
+     * @param operationData An object with all the desired parameters and attributes to be
+     *                      sent.
+     * @return Pairs (key, value) ready to be sent.
      * @throws MalformedURLException If any attribute is not valid.
      */
-    private POSTServiceRequestResponse postServiceRequestInternal(HttpUrl url,
-                                                                  Map<String, String> arguments, List<Attribute> attributes)
-            throws APIWrapperException, MalformedURLException {
+    /* package */ Map<String, String> buildPostServiceRequestBody(
+            POSTServiceRequestData operationData) throws MalformedURLException {
+        if (operationData == null) {
+            throw new InvalidValueError("The given parameter is null");
+        }
+        Map<String, String> arguments = operationData
+                .getBodyRequestParameters() != null ? operationData
+                .getBodyRequestParameters() : new HashMap<String, String>();
+        List<Attribute> attributes = operationData.getAttributes() != null ? operationData
+                .getAttributes() : new LinkedList<Attribute>();
         if (apiKey != null) {
             if (apiKey.length() > 0) {
                 arguments.put("api_key", apiKey);
@@ -405,14 +1040,26 @@ public class APIWrapper {
                 arguments.put("jurisdiction_id", jurisdictionId);
             }
         }
-        Map<String, String> postArguments = urlBuilder
-                .buildPostServiceRequestBody(arguments, attributes);
-        String rawPostServiceRequestResponse = networkPost(url, postArguments);
+        return urlBuilder.buildPostServiceRequestBody(arguments, attributes);
+    }
+
+    /**
+     * Performs the POST service request with already built URL and body.
+     *
+     * @param url           Target.
+     * @param postArguments Body of the request.
+     * @return The server's response.
+     * @throws APIWrapperException If there was any problem.
+     */
+    private POSTServiceRequestResponse postServiceRequestInternal(HttpUrl url,
+                                                                  Map<String, String> postArguments)
+            throws APIWrapperException {
+        RawResponse response = networkPost(url, postArguments);
+        DataParser parser = response.buildDataParser();
         try {
-            return dataParser
-                    .parsePostServiceRequestResponse(rawPostServiceRequestResponse);
+            return parser.parsePostServiceRequestResponse(response.data);
         } catch (DataParsingException e) {
-            tryToParseError(rawPostServiceRequestResponse);
+            tryToParseError(response.data, parser);
             return null;
         }
     }
@@ -423,13 +1070,221 @@ public class APIWrapper {
      * (error).
      *
      * @param rawData Obtained data.
+     * @param parser  Parser suitable to the format of the data.
      * @throws APIWrapperException Always throws it, it depends on the content of the given
      *                             <code>rawData</code> the exact {@link Error}.
      */
-    private void tryToParseError(String rawData) throws APIWrapperException {
+    /* package */ void tryToParseError(String rawData, DataParser parser)
+            throws APIWrapperException {
+        logManager.logError(this, "Error occurred, checking GeoReport_v2 API");
+        try {
+            GeoReportV2Error error = parser.parseGeoReportV2Errors(rawData);
+            throw new APIWrapperException("GeoReport_v2 API error", Error.GEO_REPORT_V2, error);
+        } catch (DataParsingException ex) {
+            logManager.logError(this,
+                    "Error is not related to API");
+            throw new APIWrapperException(ex.getMessage(), Error.DATA_PARSING,
+                    null);
+        }
+    }
+
+    /**
+     * Performs a GET operation with {@link #streamingGet(HttpUrl, StreamParsingOperation)}
+     * and saves its result. Identical concurrent calls (same network manager,
+     * cache, kind of wrapper, operation and URL, even from different
+     * wrappers) are coalesced: only one of them asks the endpoint, parses and
+     * saves, and all of them get the same result (which must not be modified)
+     * or exception. Calls which would parse or save differently aren't
+     * coalesced.
+     *
+     * If the operation has the validators of a previous response, the GET is
+     * conditional: when the endpoint answers that the response hasn't been
+     * modified, the cached result is renewed and nothing is parsed.
+     *
+     * @param url       Target.
+     * @param operation Parses the response and saves the result.
+     * @return The parsed result.
+     * @throws APIWrapperException If there was any problem.
+     */
+    private <T> T coalescedGet(final HttpUrl url,
+                               final FetchOperation<T> operation) throws APIWrapperException {
+        try {
+            // The network manager and the cache are compared by identity.
+            return IN_FLIGHT.execute(Arrays.asList(networkManager, cache,
+                    getClass(), operation.getClass(), url),
+                    new Callable<T>() {
+                        @Override
+                        public T call() throws APIWrapperException {
+                            return fetchAndSave(url, operation);
+                        }
+                    });
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIWrapperException("Interrupted while waiting for "
+                    + url, Error.NETWORK_MANAGER, null);
+        }
+    }
+
+    /**
+     * Wraps a list which may be shared (cached or coalesced), so callers can't
+     * modify it.
+     */
+    private static <T> List<T> unmodifiable(List<T> list) {
+        return list != null ? Collections.unmodifiableList(list) : null;
+    }
+
+    /**
+     * Unwraps the failure of an operation which ran in another thread:
+     * unchecked exceptions are thrown as they are.
+     *
+     * @param cause Cause of the failure.
+     * @return The exception to throw.
+     */
+    private static APIWrapperException unwrap(Throwable cause) {
+        if (cause instanceof APIWrapperException) {
+            return (APIWrapperException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof java.lang.Error) {
+            throw (java.lang.Error) cause;
+        }
+        return new APIWrapperException(String.valueOf(cause),
+                Error.NETWORK_MANAGER, null);
+    }
+
+    /**
+     * Asks the endpoint (conditionally if there are validators), then parses
+     * and saves the response or renews the cached one.
+     */
+    private <T> T fetchAndSave(HttpUrl url, FetchOperation<T> operation)
+            throws APIWrapperException {
+        if (!(networkManager instanceof StreamingNetworkManager)) {
+            T result = streamingGet(url, operation);
+            operation.save(result, null);
+            return result;
+        }
+        NetworkResponse response = openStream(url, operation.getValidators());
+        if (response.isNotModified()) {
+            T renewed = operation.renew();
+            if (renewed != null) {
+                logManager.logInfo(this, "Not modified, cached response renewed");
+                return renewed;
+            }
+            // It was evicted meanwhile.
+            response = openStream(url, null);
+        }
+        T result = parseStream(response, operation);
+        operation.save(result, response.getValidators());
+        return result;
+    }
+
+    /**
+     * Performs an HTTP GET operation and parses the response while it is read
+     * from the connection, so big responses are never held in memory as a
+     * String. If the {@link NetworkManager} is not able to stream the
+     * response, the whole body is downloaded first.
+     *
+     * @param url       Target.
+     * @param operation Parses the response.
+     * @return The parsed response.
+     * @throws APIWrapperException If there was any problem with the request or
+     *                             the response is not the expected one.
+     */
+    private <T> T streamingGet(HttpUrl url, StreamParsingOperation<T> operation)
+            throws APIWrapperException {
+        if (!(networkManager instanceof StreamingNetworkManager)) {
+            RawResponse response = networkGet(url);
+            DataParser parser = response.buildDataParser();
+            try {
+                return operation.parse(parser, new ByteArrayInputStream(
+                        response.data.getBytes(DataParser.TEXT_FORMAT)));
+            } catch (DataParsingException e) {
+                tryToParseError(response.data, parser);
+                return null;
+            } catch (UnsupportedEncodingException e) {
+                throw new APIWrapperException(e.getMessage(),
+                        Error.DATA_PARSING, null);
+            }
+        }
+        return parseStream(openStream(url, null), operation);
+    }
+
+    /**
+     * Sends a GET request to a {@link StreamingNetworkManager}.
+     *
+     * @param url        Target.
+     * @param validators Validators of the previous response, with
+     *                   <code>null</code> the request isn't conditional.
+     * @return The response, which has to be closed.
+     * @throws APIWrapperException If there was any problem with the request.
+     */
+    private NetworkResponse openStream(HttpUrl url, Validators validators)
+            throws APIWrapperException {
+        logManager.logInfo(this, "HTTP GET (streaming"
+                + (validators != null ? ", conditional" : "") + ") "
+                + url.toString());
+        StreamingNetworkManager streamingNetworkManager = (StreamingNetworkManager) networkManager;
+        try {
+            return validators != null ? streamingNetworkManager.doGetStream(
+                    url, validators) : streamingNetworkManager.doGetStream(url);
+        } catch (IOException e) {
+            logManager.logError(this, "HTTP GET error: " + e.getMessage());
+            throw new APIWrapperException(e.getMessage(),
+                    Error.NETWORK_MANAGER, null);
+        }
+    }
+
+    /**
+     * Parses a streamed response and closes it.
+     */
+    private <T> T parseStream(NetworkResponse response,
+                              StreamParsingOperation<T> operation) throws APIWrapperException {
+        try {
+            DataParser parser = DataParserFactory.getInstance()
+                    .buildDataParser(response.getFormat());
+            InputStream data = new BufferedInputStream(
+                    sanitizeResponse(response.getBody()));
+            data.mark(ERROR_MARK_LIMIT);
+            try {
+                return operation.parse(parser, data);
+            } catch (DataParsingException e) {
+                tryToParseError(data, parser);
+                return null;
+            }
+        } finally {
+            try {
+                response.close();
+            } catch (IOException e) {
+                logManager.logError(this, "Error closing the response: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #tryToParseError(String, DataParser)} but reads the
+     * error from the beginning of an already consumed (marked) stream.
+     *
+     * @param data   Obtained data, marked at its beginning.
+     * @param parser Parser suitable to the format of the data.
+     * @throws APIWrapperException Always throws it.
+     */
+    private void tryToParseError(InputStream data, DataParser parser)
+            throws APIWrapperException {
         logManager.logError(this, "Error occurred, checking GeoReport_v2 API");
         try {
-            GeoReportV2Error error = dataParser.parseGeoReportV2Errors(rawData);
+            data.reset();
+        } catch (IOException e) {
+            throw new APIWrapperException(
+                    "Unexpected response and too big to be an API error",
+                    Error.DATA_PARSING, null);
+        }
+        try {
+            GeoReportV2Error error = parser.parseGeoReportV2Errors(data);
             throw new APIWrapperException("GeoReport_v2 API error", Error.GEO_REPORT_V2, error);
         } catch (DataParsingException ex) {
             logManager.logError(this,
@@ -443,21 +1298,20 @@ public class APIWrapper {
      * Tries to perform an HTTP GET operation and returns the result.
      *
      * @param url Target.
-     * @return Server response.
+     * @return Server response and its format.
      * @throws APIWrapperException If there was any problem with the request.
      */
-    protected String networkGet(HttpUrl url) throws APIWrapperException {
+    /* package */ RawResponse networkGet(HttpUrl url) throws APIWrapperException {
         logManager.logInfo(this, "HTTP GET " + url.toString());
         try {
-            String response = networkManager.doGet(url);
-            String cutResponse = response.length() > 50 ? response.substring(0,
-                    50) + "..." : response;
+            RawResponse response = fetch(url, null);
+            String cutResponse = response.data.length() > 50 ? response.data
+                    .substring(0, 50) + "..." : response.data;
             logManager.logInfo(this,
                     "HTTP GET response (50 or less first characters)"
                             + cutResponse);
-            dataParser = DataParserFactory.getInstance()
-                    .buildDataParser(networkManager.getFormat());
-            return response;
+            return new RawResponse(sanitizeResponse(response.data),
+                    response.format);
         } catch (IOException e) {
             logManager.logError(this, "HTTP GET error: " + e.getMessage());
             throw new APIWrapperException(e.getMessage(),
@@ -470,22 +1324,21 @@ public class APIWrapper {
      *
      * @param url        Target.
      * @param parameters Parameters of the request.
-     * @return Server response.
+     * @return Server response and its format.
      * @throws APIWrapperException If there was any problem with the request.
      */
-    protected String networkPost(HttpUrl url, Map<String, String> parameters)
-            throws APIWrapperException {
+    /* package */ RawResponse networkPost(HttpUrl url,
+                                          Map<String, String> parameters) throws APIWrapperException {
         logManager.logInfo(this, "HTTP POST " + url.toString());
         try {
-            String response = networkManager.doPost(url, parameters);
-            String cutResponse = response.length() > 50 ? response.substring(0,
-                    50) + "..." : response;
+            RawResponse response = fetch(url, parameters);
+            String cutResponse = response.data.length() > 50 ? response.data
+                    .substring(0, 50) + "..." : response.data;
             logManager.logInfo(this,
                     "HTTP POST response (50 or less first characters)"
                             + cutResponse);
-            dataParser = DataParserFactory.getInstance()
-                    .buildDataParser(networkManager.getFormat());
-            return response;
+            return new RawResponse(sanitizeResponse(response.data),
+                    response.format);
         } catch (IOException e) {
             logManager.logError(this, "HTTP POST error: " + e.getMessage());
             throw new APIWrapperException(e.getMessage(),
@@ -493,7 +1346,143 @@ public class APIWrapper {
         }
     }
 
+    /**
+     * Sends a request and reads the whole response. The format is taken from
+     * the response itself when the {@link NetworkManager} is able to stream,
+     * otherwise it is asked to the network manager right after the request.
+     *
+     * @param url        Target.
+     * @param parameters Body of the request or <code>null</code> to do a GET.
+     * @return The (not sanitized) response and its format.
+     * @throws IOException If there was any problem with the request.
+     */
+    /* package */ RawResponse fetch(HttpUrl url, Map<String, String> parameters)
+            throws IOException {
+        if (networkManager instanceof StreamingNetworkManager) {
+            StreamingNetworkManager streamingNetworkManager = (StreamingNetworkManager) networkManager;
+            NetworkResponse response = parameters == null ? streamingNetworkManager
+                    .doGetStream(url) : streamingNetworkManager.doPostStream(
+                    url, parameters);
+            try {
+                return new RawResponse(response.readBody(),
+                        response.getFormat());
+            } finally {
+                response.close();
+            }
+        }
+        String data = parameters == null ? networkManager.doGet(url)
+                : networkManager.doPost(url, parameters);
+        return new RawResponse(data, networkManager.getFormat());
+    }
+
+    /**
+     * Gives a chance to clean the received data before parsing it. Does
+     * nothing by default.
+     *
+     * @param response Received response.
+     * @return The response ready to be parsed.
+     */
+    /* package */ String sanitizeResponse(String response) {
+        return response;
+    }
+
+    /**
+     * Same as {@link #sanitizeResponse(String)} but for streamed responses.
+     *
+     * @param response Received response.
+     * @return The response ready to be parsed.
+     */
+    /* package */ InputStream sanitizeResponse(InputStream response) {
+        return response;
+    }
+
+    /* package */ URLBuilder getURLBuilder() {
+        return urlBuilder;
+    }
+
+    /* package */ NetworkManager getNetworkManager() {
+        return networkManager;
+    }
+
+    /**
+     * Returns an asynchronous view of this wrapper which uses a default
+     * executor. Operations will be done without blocking the calling thread.
+     *
+     * @return An {@link AsyncAPIWrapper} backed by this instance.
+     */
+    public AsyncAPIWrapper async() {
+        return new AsyncAPIWrapper(this, AsyncAPIWrapper.getDefaultExecutor());
+    }
+
+    /**
+     * Returns an asynchronous view of this wrapper. Cache lookups, parsing and
+     * callbacks will run in the given executor.
+     *
+     * @param executor Executor which will run the non-network work.
+     * @return An {@link AsyncAPIWrapper} backed by this instance.
+     */
+    public AsyncAPIWrapper async(Executor executor) {
+        return new AsyncAPIWrapper(this, executor);
+    }
+
     public String toString() {
         return this.getWrapperInfo();
     }
+
+    /**
+     * A whole response and the format it was received in.
+     */
+    /* package */ static final class RawResponse {
+        /* package */ final String data;
+        /* package */ final Format format;
+
+        /* package */ RawResponse(String data, Format format) {
+            this.data = data;
+            this.format = format;
+        }
+
+        /**
+         * @return A new parser suitable to the format of the response.
+         */
+        /* package */ DataParser buildDataParser() {
+            return DataParserFactory.getInstance().buildDataParser(format);
+        }
+    }
+
+    /**
+     * Parses a streamed response.
+     */
+    private interface StreamParsingOperation<T> {
+        T parse(DataParser parser, InputStream data)
+                throws DataParsingException;
+    }
+
+    /**
+     * Parses a streamed response and saves the result in the cache.
+     * Operations whose cached responses can be revalidated override
+     * {@link #getValidators()} and {@link #renew()}.
+     */
+    private abstract static class FetchOperation<T> implements
+            StreamParsingOperation<T> {
+        public abstract void save(T result, Validators validators);
+
+        /**
+         * @return Validators of the cached response (even if it has expired)
+         * or <code>null</code> to send a regular GET.
+         */
+        public Validators getValidators() {
+            return null;
+        }
+
+        /**
+         * Renews the cached response because the endpoint answered that it
+         * hasn't been modified.
+         *
+         * @return The cached result or <code>null</code> if it isn't cached
+         * anymore.
+         */
+        public T renew() {
+            return null;
+        }
+    }
 }
@@ -3,9 +3,15 @@ package org.codeforamerica.open311.facade;
 import okhttp3.HttpUrl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import org.codeforamerica.open311.facade.data.City;
 import org.codeforamerica.open311.facade.data.Endpoint;
@@ -15,6 +21,8 @@ import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
 import org.codeforamerica.open311.facade.exceptions.APIWrapperException.Error;
 import org.codeforamerica.open311.facade.exceptions.DataParsingException;
 import org.codeforamerica.open311.internals.caching.Cache;
+import org.codeforamerica.open311.internals.concurrent.ResultFuture;
+import org.codeforamerica.open311.internals.concurrent.SingleFlight;
 import org.codeforamerica.open311.internals.logging.LogManager;
 import org.codeforamerica.open311.internals.network.HTTPNetworkManager;
 import org.codeforamerica.open311.internals.network.NetworkManager;
@@ -30,6 +38,10 @@ import org.codeforamerica.open311.internals.platform.PlatformManager;
  * @author Santiago Munin <santimunin@gmail.com>
  */
 public class APIWrapperFactory {
+    /**
+     * Service discoveries which are being downloaded.
+     */
+    private static final SingleFlight DISCOVERIES = new SingleFlight();
     /**
      * Used for the first way of building the {@link APIWrapper} (
      * {@link #APIWrapperFactory(String, String, Format)}).
@@ -229,7 +241,8 @@ public class APIWrapperFactory {
 
     /**
      * Builds an {@link APIWrapper}. <b>WARNING</b>: This operation could
-     * require some time to be done (it could involve network operations).
+     * require some time to be done (it could involve network operations), use
+     * {@link #buildAsync()} to avoid blocking.
      *
      * @return An instance built from the given parameters to this object.
      * @throws APIWrapperException If there was any problem.
@@ -246,6 +259,85 @@ public class APIWrapperFactory {
         return null;
     }
 
+    /**
+     * Builds an {@link APIWrapper} without blocking the calling thread, check
+     * {@link #build()}. The work is done in a process-wide pool which builds
+     * threads on demand (the one of the batch requests of {@link APIWrapper}),
+     * so the builds run in parallel and they can be started from the
+     * {@link AsyncAPIWrapper} callbacks.
+     *
+     * @return A future which will be completed with the built instance.
+     */
+    public Future<APIWrapper> buildAsync() {
+        return buildAsync(BatchResult.getDefaultExecutor(), null);
+    }
+
+    /**
+     * Builds an {@link APIWrapper} in an executor, check {@link #build()}. This
+     * factory mustn't be modified until the build finishes.
+     *
+     * @param executor Executor of the build.
+     * @param callback Notified when the build finishes (can be
+     *                 <code>null</code>).
+     * @return A future which will be completed with the built instance.
+     */
+    public Future<APIWrapper> buildAsync(Executor executor,
+                                         final APICallback<APIWrapper> callback) {
+        final ResultFuture<APIWrapper> future = new ResultFuture<APIWrapper>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    return;
+                }
+                try {
+                    APIWrapper wrapper = build();
+                    if (future.set(wrapper) && callback != null) {
+                        callback.onSuccess(wrapper);
+                    }
+                } catch (APIWrapperException e) {
+                    fail(e);
+                } catch (ClassNotFoundException e) {
+                    fail(new APIWrapperException(e.getMessage(),
+                            Error.DATA_PARSING, null));
+                } catch (RuntimeException e) {
+                    fail(new APIWrapperException(e.toString(),
+                            Error.NETWORK_MANAGER, null));
+                }
+            }
+
+            private void fail(APIWrapperException exception) {
+                if (future.setException(exception) && callback != null) {
+                    callback.onFailure(exception);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Builds the {@link APIWrapper}s of many factories in parallel (for
+     * example, one per city of {@link Servers}), check {@link #build()}. It
+     * returns at once: every future is completed as soon as its wrapper is
+     * ready, so the fast servers can be used while the slow ones are still
+     * resolving their service discovery. Cached service discoveries are reused
+     * and concurrent downloads of the same one are done only once.
+     *
+     * @param factories Factories to build, they mustn't be modified until
+     *                  their builds finish.
+     * @param executor  Executor of the builds. Its number of threads bounds
+     *                  the number of discoveries downloaded at once.
+     * @return A future per factory, in the same order.
+     */
+    public static List<Future<APIWrapper>> buildAsync(
+            List<APIWrapperFactory> factories, Executor executor) {
+        List<Future<APIWrapper>> futures = new ArrayList<Future<APIWrapper>>();
+        for (APIWrapperFactory factory : factories) {
+            futures.add(factory.buildAsync(executor, null));
+        }
+        return futures;
+    }
+
     /**
      * Builds an {@link APIWrapper} ignoring the {@link APIWrapperFactory#server}
      * and {@link APIWrapperFactory#endpointType} parameters.
@@ -308,8 +400,8 @@ public class APIWrapperFactory {
 
                     dataParser = DataParserFactory.getInstance()
                             .buildDataParser(format);
-                    serviceDiscoveryInfo = dataParser
-                            .parseServiceDiscovery(networkManager.doGet(discoveryUrl));
+                    serviceDiscoveryInfo = fetchServiceDiscovery(
+                            discoveryUrl, dataParser, networkManager);
                     cache.saveServiceDiscovery(city.getMock(), serviceDiscoveryInfo);
                     endpoint = serviceDiscoveryInfo
                             .getMoreSuitableEndpoint(endpointType);
@@ -324,6 +416,10 @@ public class APIWrapperFactory {
                             formats
                     );
                 }
+            } else {
+                logManager.logInfo(this, "Using the cached service discovery.");
+                endpoint = serviceDiscoveryInfo
+                        .getMoreSuitableEndpoint(endpointType);
             }
 
             if (endpoint == null) {
@@ -394,8 +490,8 @@ public class APIWrapperFactory {
 
                     dataParser = DataParserFactory.getInstance()
                             .buildDataParser(format);
-                    serviceDiscoveryInfo = dataParser
-                            .parseServiceDiscovery(networkManager.doGet(discoveryUrl));
+                    serviceDiscoveryInfo = fetchServiceDiscovery(
+                            discoveryUrl, dataParser, networkManager);
                     cache.saveServiceDiscovery(server, serviceDiscoveryInfo);
                     endpoint = serviceDiscoveryInfo
                             .getMoreSuitableEndpoint(endpointType);
@@ -409,6 +505,10 @@ public class APIWrapperFactory {
                             formats
                     );
                 }
+            } else {
+                logManager.logInfo(this, "Using the cached service discovery.");
+                endpoint = serviceDiscoveryInfo
+                        .getMoreSuitableEndpoint(endpointType);
             }
 
             if (endpoint == null) {
@@ -439,6 +539,50 @@ public class APIWrapperFactory {
                     Error.NETWORK_MANAGER, null);
         }
     }
+    /**
+     * Downloads and parses a service discovery. Identical concurrent downloads
+     * (same url, format and network manager) are done only once, so building
+     * many wrappers of the same server at the same time doesn't flood it.
+     *
+     * @param discoveryUrl   Url of the service discovery.
+     * @param dataParser     Parser of its format.
+     * @param networkManager Network manager of the wrapper.
+     * @return The parsed service discovery.
+     * @throws IOException          If there was any network problem.
+     * @throws DataParsingException If the response couldn't be parsed.
+     */
+    private ServiceDiscoveryInfo fetchServiceDiscovery(
+            final HttpUrl discoveryUrl, final DataParser dataParser,
+            final NetworkManager networkManager) throws IOException,
+            DataParsingException {
+        try {
+            return DISCOVERIES.execute(Arrays.asList(discoveryUrl, format,
+                    networkManager), new Callable<ServiceDiscoveryInfo>() {
+                @Override
+                public ServiceDiscoveryInfo call() throws Exception {
+                    return dataParser.parseServiceDiscovery(networkManager
+                            .doGet(discoveryUrl));
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof DataParsingException) {
+                throw (DataParsingException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while waiting for the service discovery");
+        }
+    }
+
     /**
      * Selects the given {@link Format} if it is allowed by the {@link Endpoint}
      *
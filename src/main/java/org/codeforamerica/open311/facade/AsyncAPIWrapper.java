@@ -0,0 +1,542 @@
+package org.codeforamerica.open311.facade;
+
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codeforamerica.open311.facade.data.POSTServiceRequestResponse;
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.ServiceRequestIdResponse;
+import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
+import org.codeforamerica.open311.facade.data.operations.POSTServiceRequestData;
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException.Error;
+import org.codeforamerica.open311.facade.exceptions.DataParsingException;
+import org.codeforamerica.open311.internals.caching.Cache;
+import org.codeforamerica.open311.internals.concurrent.DaemonThreadFactory;
+import org.codeforamerica.open311.internals.concurrent.ResultFuture;
+import org.codeforamerica.open311.internals.logging.LogManager;
+import org.codeforamerica.open311.internals.network.AsyncNetworkManager;
+import org.codeforamerica.open311.internals.network.AsyncNetworkManager.ResponseCallback;
+import org.codeforamerica.open311.internals.network.NetworkManager;
+import org.codeforamerica.open311.internals.parsing.DataParser;
+import org.codeforamerica.open311.internals.parsing.DataParserFactory;
+
+/**
+ * Asynchronous view of an {@link APIWrapper}. Every operation returns
+ * immediately a {@link Future} and, optionally, notifies an
+ * {@link APICallback} when it finishes.
+ * <p/>
+ * If the {@link NetworkManager} of the wrapper is an
+ * {@link AsyncNetworkManager}, no thread is blocked while waiting for the
+ * endpoint. Cache lookups, parsing and callbacks run in the executor of this
+ * instance, so a handful of threads are enough to serve a lot of concurrent
+ * operations. Other network managers are called from the executor.
+ * <p/>
+ * The service list and the service definitions run the blocking operations
+ * of the wrapper instead, so they share its stale data, coalesced requests
+ * and conditional requests. They run in the batch executor of the wrapper
+ * (check {@link APIWrapper#setBatchExecutor(Executor)}), which builds
+ * threads on demand, so a fetch doesn't hold a thread of the callbacks.
+ * <p/>
+ * Build instances using {@link APIWrapper#async()} or
+ * {@link APIWrapper#async(Executor)}.
+ */
+public class AsyncAPIWrapper {
+    /**
+     * Executor used when the user doesn't provide one.
+     */
+    private static ExecutorService defaultExecutor;
+    private final APIWrapper wrapper;
+    private final Executor executor;
+    /**
+     * Useful to log events.
+     */
+    private LogManager logManager = LogManager.getInstance();
+
+    /* package */ AsyncAPIWrapper(APIWrapper wrapper, Executor executor) {
+        this.wrapper = wrapper;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the executor shared by all the instances built with
+     * {@link APIWrapper#async()}. Its threads are daemons so they don't prevent
+     * the JVM from exiting.
+     *
+     * @return A fixed thread pool with one thread per available processor.
+     */
+    /* package */
+    static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newFixedThreadPool(Runtime
+                    .getRuntime().availableProcessors(),
+                    new DaemonThreadFactory("open311-async-"));
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Returns the blocking wrapper which backs this instance.
+     *
+     * @return The wrapper this instance was built from.
+     */
+    public APIWrapper getWrapper() {
+        return wrapper;
+    }
+
+    /**
+     * Asynchronous version of {@link APIWrapper#getServiceList()}.
+     *
+     * @return A future list of services.
+     */
+    public Future<List<Service>> getServiceList() {
+        return getServiceList(null);
+    }
+
+    /**
+     * Asynchronous version of {@link APIWrapper#getServiceList()}.
+     *
+     * @param callback Notified when the operation finishes (can be
+     *                 <code>null</code>).
+     * @return A future list of services.
+     */
+    public Future<List<Service>> getServiceList(
+            APICallback<List<Service>> callback) {
+        logManager.logInfo(wrapper, "GET Service List (async)");
+        return submitBlocking(new Callable<List<Service>>() {
+            @Override
+            public List<Service> call() throws Exception {
+                return wrapper.getServiceList();
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of {@link APIWrapper#getServiceDefinition(String)}.
+     *
+     * @param serviceCode Code of the service of interest.
+     * @return The future definition of the service.
+     */
+    public Future<ServiceDefinition> getServiceDefinition(String serviceCode) {
+        return getServiceDefinition(serviceCode, null);
+    }
+
+    /**
+     * Asynchronous version of {@link APIWrapper#getServiceDefinition(String)}.
+     *
+     * @param serviceCode Code of the service of interest.
+     * @param callback    Notified when the operation finishes (can be
+     *                    <code>null</code>).
+     * @return The future definition of the service.
+     */
+    public Future<ServiceDefinition> getServiceDefinition(
+            final String serviceCode, APICallback<ServiceDefinition> callback) {
+        logManager.logInfo(wrapper, "GET Service Definition (async, service_code: "
+                + serviceCode + ")");
+        return submitBlocking(new Callable<ServiceDefinition>() {
+            @Override
+            public ServiceDefinition call() throws Exception {
+                return wrapper.getServiceDefinition(serviceCode);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of
+     * {@link APIWrapper#getServiceRequestIdFromToken(String)}.
+     *
+     * @param token    Given token.
+     * @param callback Notified when the operation finishes (can be
+     *                 <code>null</code>).
+     * @return A future service id.
+     */
+    public Future<ServiceRequestIdResponse> getServiceRequestIdFromToken(
+            final String token, APICallback<ServiceRequestIdResponse> callback) {
+        logManager.logInfo(wrapper, "GET Service Request Id from token (async, token: "
+                + token + ")");
+        return submit(new Operation<ServiceRequestIdResponse>() {
+            @Override
+            HttpUrl buildUrl() throws MalformedURLException {
+                return wrapper.getURLBuilder()
+                        .buildGetServiceRequestIdFromATokenUrl(token);
+            }
+
+            @Override
+            ServiceRequestIdResponse parse(String rawData, DataParser parser)
+                    throws DataParsingException {
+                return parser.parseServiceRequestIdFromAToken(rawData);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of
+     * {@link APIWrapper#getServiceRequests(GETServiceRequestsFilter)}.
+     *
+     * @param filter   An object with all the desired optional filtering
+     *                 parameters to send (can be <code>null</code>).
+     * @param callback Notified when the operation finishes (can be
+     *                 <code>null</code>).
+     * @return A future list of service requests.
+     */
+    public Future<List<ServiceRequest>> getServiceRequests(
+            GETServiceRequestsFilter filter,
+            APICallback<List<ServiceRequest>> callback) {
+        logManager.logInfo(wrapper, "GET Service Requests (async)");
+        final GETServiceRequestsFilter operationData = filter == null ? new GETServiceRequestsFilter()
+                : filter;
+        return submit(new Operation<List<ServiceRequest>>() {
+            @Override
+            List<ServiceRequest> fromCache() {
+                return getCache().retrieveCachedServiceRequests(
+                        wrapper.getEndpointUrl(), operationData);
+            }
+
+            @Override
+            HttpUrl buildUrl() throws MalformedURLException {
+                return wrapper.getURLBuilder().buildGetServiceRequests(
+                        operationData.getOptionalParametersMap());
+            }
+
+            @Override
+            List<ServiceRequest> parse(String rawData, DataParser parser)
+                    throws DataParsingException {
+                return parser.parseServiceRequests(rawData);
+            }
+
+            @Override
+            void save(List<ServiceRequest> result) {
+                getCache().saveServiceRequestList(wrapper.getEndpointUrl(),
+                        operationData, result);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of {@link APIWrapper#getServiceRequest(String)}.
+     *
+     * @param serviceRequestId ID of the request to be fetched.
+     * @param callback         Notified when the operation finishes (can be
+     *                         <code>null</code>).
+     * @return The future service request.
+     */
+    public Future<ServiceRequest> getServiceRequest(
+            final String serviceRequestId, APICallback<ServiceRequest> callback) {
+        logManager.logInfo(wrapper, "GET Service Request (async, service_request_id: "
+                + serviceRequestId + ")");
+        return submit(new Operation<ServiceRequest>() {
+            @Override
+            ServiceRequest fromCache() {
+                return getCache().retrieveCachedServiceRequest(
+                        wrapper.getEndpointUrl(), serviceRequestId);
+            }
+
+            @Override
+            HttpUrl buildUrl() throws MalformedURLException {
+                return wrapper.getURLBuilder().buildGetServiceRequest(
+                        serviceRequestId);
+            }
+
+            @Override
+            ServiceRequest parse(String rawData, DataParser parser)
+                    throws DataParsingException {
+                List<ServiceRequest> parsedServiceRequests = parser
+                        .parseServiceRequests(rawData);
+                return parsedServiceRequests.size() > 0 ? parsedServiceRequests
+                        .get(0) : null;
+            }
+
+            @Override
+            void save(ServiceRequest result) {
+                getCache().saveSingleServiceRequest(wrapper.getEndpointUrl(),
+                        serviceRequestId, result);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronous version of
+     * {@link APIWrapper#postServiceRequest(POSTServiceRequestData)}.
+     *
+     * @param operationData An object with all the desired parameters and
+     *                      attributes to be sent.
+     * @param callback      Notified when the operation finishes (can be
+     *                      <code>null</code>).
+     * @return The future server's response.
+     */
+    public Future<POSTServiceRequestResponse> postServiceRequest(
+            final POSTServiceRequestData operationData,
+            APICallback<POSTServiceRequestResponse> callback) {
+        logManager.logInfo(wrapper, "POST Service Request (async)");
+        return submit(new Operation<POSTServiceRequestResponse>() {
+            @Override
+            HttpUrl buildUrl() throws MalformedURLException {
+                return wrapper.getURLBuilder().buildPostServiceRequestUrl();
+            }
+
+            @Override
+            Map<String, String> postParameters() throws MalformedURLException {
+                return wrapper.buildPostServiceRequestBody(operationData);
+            }
+
+            @Override
+            POSTServiceRequestResponse parse(String rawData, DataParser parser)
+                    throws DataParsingException {
+                return parser.parsePostServiceRequestResponse(rawData);
+            }
+        }, callback);
+    }
+
+    private Cache getCache() {
+        return wrapper.getCache();
+    }
+
+    /**
+     * Runs an operation: cache lookup (in the executor), network request
+     * (non-blocking if possible) and parsing (in the executor).
+     *
+     * @param operation Operation to run.
+     * @param callback  Notified when the operation finishes (can be
+     *                  <code>null</code>).
+     * @return A future which will be completed with the result of the
+     * operation.
+     */
+    private <T> Future<T> submit(final Operation<T> operation,
+                                 final APICallback<T> callback) {
+        final Completion<T> completion = new Completion<T>(callback);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    T cached = operation.fromCache();
+                    if (cached != null) {
+                        completion.succeed(cached);
+                        return;
+                    }
+                    HttpUrl url = operation.buildUrl();
+                    Map<String, String> parameters = operation.postParameters();
+                    request(url, parameters, new ResponseCallback() {
+                        @Override
+                        public void onResponse(final String response,
+                                               final Format format) {
+                            try {
+                                executor.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        parse(operation, response, format,
+                                                completion);
+                                    }
+                                });
+                            } catch (RuntimeException e) {
+                                // Rejected by the executor.
+                                completion.fail(new APIWrapperException(e
+                                        .toString(), Error.NETWORK_MANAGER,
+                                        null));
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(IOException e) {
+                            logManager.logError(wrapper, "HTTP error (async): "
+                                    + e.getMessage());
+                            completion.fail(new APIWrapperException(e
+                                    .getMessage(), Error.NETWORK_MANAGER, null));
+                        }
+                    });
+                } catch (MalformedURLException e) {
+                    completion.fail(new APIWrapperException(e.getMessage(),
+                            Error.URL_BUILDER, null));
+                } catch (RuntimeException e) {
+                    completion.fail(new APIWrapperException(e.toString(),
+                            Error.NETWORK_MANAGER, null));
+                }
+            }
+        });
+        return completion.future;
+    }
+
+    /**
+     * Runs a blocking operation of the wrapper in its batch executor. The
+     * callback is notified from the executor of this instance, like the
+     * rest of the operations.
+     *
+     * @param operation Operation to run.
+     * @param callback  Notified when the operation finishes (can be
+     *                  <code>null</code>).
+     * @return A future which will be completed with the result of the
+     * operation.
+     */
+    private <T> Future<T> submitBlocking(final Callable<T> operation,
+                                         final APICallback<T> callback) {
+        final Completion<T> completion = new Completion<T>(callback);
+        wrapper.getBatchExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                T result = null;
+                APIWrapperException failure = null;
+                try {
+                    result = operation.call();
+                } catch (APIWrapperException e) {
+                    failure = e;
+                } catch (ClassNotFoundException e) {
+                    failure = new APIWrapperException(e.getMessage(),
+                            Error.DATA_PARSING, null);
+                } catch (Exception e) {
+                    failure = new APIWrapperException(e.toString(),
+                            Error.NETWORK_MANAGER, null);
+                }
+                final T finalResult = result;
+                final APIWrapperException finalFailure = failure;
+                Runnable notification = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (finalFailure == null) {
+                            completion.succeed(finalResult);
+                        } else {
+                            completion.fail(finalFailure);
+                        }
+                    }
+                };
+                try {
+                    executor.execute(notification);
+                } catch (RuntimeException e) {
+                    // Rejected by the executor, the result isn't lost.
+                    notification.run();
+                }
+            }
+        });
+        return completion.future;
+    }
+
+    /**
+     * Sends a request using the network manager of the wrapper. This call is
+     * done in the current thread if the network manager doesn't support
+     * non-blocking requests.
+     *
+     * @param url        Target.
+     * @param parameters Body of the request or <code>null</code> to do a GET.
+     * @param callback   Receives the response.
+     */
+    private void request(HttpUrl url, Map<String, String> parameters,
+                         ResponseCallback callback) {
+        NetworkManager networkManager = wrapper.getNetworkManager();
+        logManager.logInfo(wrapper, (parameters == null ? "HTTP GET (async) "
+                : "HTTP POST (async) ") + url.toString());
+        if (networkManager instanceof AsyncNetworkManager) {
+            AsyncNetworkManager asyncNetworkManager = (AsyncNetworkManager) networkManager;
+            if (parameters == null) {
+                asyncNetworkManager.doGetAsync(url, callback);
+            } else {
+                asyncNetworkManager.doPostAsync(url, parameters, callback);
+            }
+            return;
+        }
+        APIWrapper.RawResponse response;
+        try {
+            response = wrapper.fetch(url, parameters);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+        callback.onResponse(response.data, response.format);
+    }
+
+    /**
+     * Parses a response with a parser suitable to its format.
+     *
+     * @param operation  Operation which originated the response.
+     * @param response   Received data.
+     * @param format     Format of the received data.
+     * @param completion Completed with the result of the parsing.
+     */
+    private <T> void parse(Operation<T> operation, String response,
+                           Format format, Completion<T> completion) {
+        String rawData = wrapper.sanitizeResponse(response);
+        DataParser parser = DataParserFactory.getInstance().buildDataParser(
+                format);
+        try {
+            T result = operation.parse(rawData, parser);
+            operation.save(result);
+            completion.succeed(result);
+        } catch (DataParsingException e) {
+            try {
+                wrapper.tryToParseError(rawData, parser);
+            } catch (APIWrapperException ex) {
+                completion.fail(ex);
+            }
+        } catch (RuntimeException e) {
+            completion.fail(new APIWrapperException(e.toString(),
+                    Error.DATA_PARSING, null));
+        }
+    }
+
+    /**
+     * Steps of a GeoReport operation. Only the url and the parsing are
+     * mandatory.
+     *
+     * @param <T> Type of the result.
+     */
+    private abstract static class Operation<T> {
+        /**
+         * @return The cached result or <code>null</code> if it isn't cached.
+         */
+        T fromCache() {
+            return null;
+        }
+
+        abstract HttpUrl buildUrl() throws MalformedURLException;
+
+        /**
+         * @return Body of the request or <code>null</code> if it is a GET.
+         */
+        Map<String, String> postParameters() throws MalformedURLException {
+            return null;
+        }
+
+        abstract T parse(String rawData, DataParser parser)
+                throws DataParsingException;
+
+        /**
+         * Saves a fetched result in the cache.
+         */
+        void save(T result) {
+        }
+    }
+
+    /**
+     * Pair of future and callback which are completed together.
+     *
+     * @param <T> Type of the result.
+     */
+    private static class Completion<T> {
+        private final ResultFuture<T> future = new ResultFuture<T>();
+        private final APICallback<T> callback;
+
+        Completion(APICallback<T> callback) {
+            this.callback = callback;
+        }
+
+        void succeed(T result) {
+            if (future.set(result) && callback != null) {
+                callback.onSuccess(result);
+            }
+        }
+
+        void fail(APIWrapperException exception) {
+            if (future.setException(exception) && callback != null) {
+                callback.onFailure(exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.codeforamerica.open311.facade;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.codeforamerica.open311.internals.concurrent.DaemonThreadFactory;
+
+/**
+ * Outcome of a batch of independent operations: the result of every operation
+ * which succeeded and the failure of every one which didn't. A failure
+ * doesn't abort the rest of the batch.
+ *
+ * @param <K> Type of the keys which identify the operations.
+ * @param <V> Type of the results.
+ */
+public class BatchResult<K, V> {
+    /**
+     * Executor used when the user doesn't provide one.
+     */
+    private static ExecutorService defaultExecutor;
+    private final Map<K, V> results;
+    private final Map<K, Exception> failures;
+
+    /* package */ BatchResult(Map<K, V> results, Map<K, Exception> failures) {
+        this.results = Collections.unmodifiableMap(results);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return Results of the operations which succeeded, in the order of the
+     * batch.
+     */
+    public Map<K, V> getResults() {
+        return results;
+    }
+
+    /**
+     * @return Failures of the operations which didn't succeed, in the order of
+     * the batch.
+     */
+    public Map<K, Exception> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return <code>true</code> if every operation succeeded.
+     */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Returns the executor of the batch operations shared by the wrappers. The
+     * batches block until their operations finish, so it is a pool which
+     * builds threads on demand (the number of threads of every batch is
+     * bounded by its parallelism) instead of the fixed pool of the
+     * {@link AsyncAPIWrapper} callbacks: a batch never waits for a thread held
+     * by the code which started it. Idle threads die after a minute and they
+     * are daemons.
+     *
+     * @return The process-wide executor of the batches.
+     */
+    /* package */
+    static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(
+                    new DaemonThreadFactory("open311-batch-"));
+        }
+        return defaultExecutor;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult [results=" + results.size() + ", failures="
+                + failures.keySet() + "]";
+    }
+
+    /**
+     * Runs a batch of operations in an executor, no more than a given number
+     * at the same time. It waits until all of them have finished. If the
+     * calling thread is interrupted, the unfinished operations are recorded
+     * as failures.
+     *
+     * @param operations  Operations by key.
+     * @param executor    Executor of the operations.
+     * @param parallelism Maximum number of operations running at once.
+     * @return The outcome of every operation.
+     */
+    /* package */ static <K, V> BatchResult<K, V> run(
+            Map<K, ? extends Callable<V>> operations, Executor executor,
+            int parallelism) {
+        return run(operations, executor, parallelism, 0);
+    }
+
+    /**
+     * Runs a batch of operations in an executor, no more than a given number
+     * at the same time, and gives up on the operations which take too long.
+     * An operation which times out is recorded as a failure (a
+     * {@link TimeoutException}) and its thread is interrupted, the rest of the
+     * batch goes on. If the calling thread is interrupted, the unfinished
+     * operations are recorded as failures.
+     *
+     * @param operations    Operations by key.
+     * @param executor      Executor of the operations.
+     * @param parallelism   Maximum number of operations running at once.
+     * @param timeoutMillis Maximum time of every operation, counted from the
+     *                      moment it is submitted, so an operation which
+     *                      waits too long for a thread of the executor also
+     *                      times out (<code>0</code> means no limit).
+     * @return The outcome of every operation.
+     */
+    /* package */ static <K, V> BatchResult<K, V> run(
+            Map<K, ? extends Callable<V>> operations, Executor executor,
+            int parallelism, long timeoutMillis) {
+        Map<K, V> results = new LinkedHashMap<K, V>();
+        Map<K, Exception> failures = new LinkedHashMap<K, Exception>();
+        Set<K> unfinished = new LinkedHashSet<K>(operations.keySet());
+        CompletionService<Outcome<K, V>> completionService = new ExecutorCompletionService<Outcome<K, V>>(
+                executor);
+        Map<Future<Outcome<K, V>>, Task<K, V>> running = new LinkedHashMap<Future<Outcome<K, V>>, Task<K, V>>();
+        Iterator<? extends Map.Entry<K, ? extends Callable<V>>> pending = operations
+                .entrySet().iterator();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (running.size() < parallelism && pending.hasNext()) {
+                submit(completionService, running, pending.next());
+            }
+            while (!running.isEmpty()) {
+                Future<Outcome<K, V>> done = timeoutNanos > 0 ? completionService
+                        .poll(getWait(running.values(), timeoutNanos),
+                                TimeUnit.NANOSECONDS) : completionService.take();
+                if (done == null) {
+                    expire(running, timeoutNanos, timeoutMillis, failures,
+                            unfinished);
+                } else if (running.remove(done) != null) {
+                    // Otherwise, it has already timed out.
+                    Outcome<K, V> outcome = done.get();
+                    unfinished.remove(outcome.key);
+                    if (outcome.failure != null) {
+                        failures.put(outcome.key, outcome.failure);
+                    } else {
+                        results.put(outcome.key, outcome.result);
+                    }
+                }
+                while (running.size() < parallelism && pending.hasNext()) {
+                    submit(completionService, running, pending.next());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<Outcome<K, V>> future : running.keySet()) {
+                future.cancel(true);
+            }
+            for (K key : unfinished) {
+                failures.put(key, e);
+            }
+        } catch (ExecutionException e) {
+            // Operations catch their exceptions, only errors get here.
+            throw (java.lang.Error) e.getCause();
+        }
+        return new BatchResult<K, V>(sort(results, operations.keySet()),
+                sort(failures, operations.keySet()));
+    }
+
+    private static <K, V> void submit(
+            CompletionService<Outcome<K, V>> completionService,
+            Map<Future<Outcome<K, V>>, Task<K, V>> running,
+            Map.Entry<K, ? extends Callable<V>> operation) {
+        Task<K, V> task = new Task<K, V>(operation.getKey(),
+                operation.getValue());
+        running.put(completionService.submit(task), task);
+    }
+
+    /**
+     * @return Nanoseconds until the first running operation times out.
+     */
+    private static <K, V> long getWait(Collection<Task<K, V>> running,
+                                       long timeoutNanos) {
+        long now = System.nanoTime();
+        long wait = timeoutNanos;
+        for (Task<K, V> task : running) {
+            wait = Math.min(wait, task.submittedNanos + timeoutNanos - now);
+        }
+        return Math.max(wait, 0);
+    }
+
+    /**
+     * Cancels the running operations which have timed out.
+     */
+    private static <K, V> void expire(
+            Map<Future<Outcome<K, V>>, Task<K, V>> running, long timeoutNanos,
+            long timeoutMillis, Map<K, Exception> failures, Set<K> unfinished) {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Future<Outcome<K, V>>, Task<K, V>>> iterator = running
+                .entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Future<Outcome<K, V>>, Task<K, V>> entry = iterator.next();
+            Task<K, V> task = entry.getValue();
+            if (now - task.submittedNanos >= timeoutNanos) {
+                iterator.remove();
+                entry.getKey().cancel(true);
+                unfinished.remove(task.key);
+                failures.put(task.key, new TimeoutException(
+                        "The operation didn't finish in " + timeoutMillis
+                                + " ms"));
+            }
+        }
+    }
+
+    private static <K, T> Map<K, T> sort(Map<K, T> map, Set<K> order) {
+        Map<K, T> sorted = new LinkedHashMap<K, T>();
+        for (K key : order) {
+            if (map.containsKey(key)) {
+                sorted.put(key, map.get(key));
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Runs an operation and records when it was submitted.
+     */
+    private static class Task<K, V> implements Callable<Outcome<K, V>> {
+        private final K key;
+        private final Callable<V> operation;
+        private final long submittedNanos = System.nanoTime();
+
+        private Task(K key, Callable<V> operation) {
+            this.key = key;
+            this.operation = operation;
+        }
+
+        @Override
+        public Outcome<K, V> call() {
+            try {
+                return new Outcome<K, V>(key, operation.call(), null);
+            } catch (Exception e) {
+                return new Outcome<K, V>(key, null, e);
+            }
+        }
+    }
+
+    private static class Outcome<K, V> {
+        private final K key;
+        private final V result;
+        private final Exception failure;
+
+        private Outcome(K key, V result, Exception failure) {
+            this.key = key;
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+}
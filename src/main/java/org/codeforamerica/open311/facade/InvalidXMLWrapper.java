@@ -1,13 +1,11 @@
 package org.codeforamerica.open311.facade;
 
-import okhttp3.HttpUrl;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
-import java.util.Map;
-
-import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
 import org.codeforamerica.open311.internals.caching.Cache;
 import org.codeforamerica.open311.internals.network.NetworkManager;
-import org.codeforamerica.open311.internals.parsing.DataParser;
 
 /**
  * Some endpoints return invalid characters in its XML response. Instances of
@@ -16,6 +14,7 @@ import org.codeforamerica.open311.internals.parsing.DataParser;
  * @author Santiago Munín <santimunin@gmail.com>
  */
 public class InvalidXMLWrapper extends APIWrapper {
+    private static final int INVALID_CHARACTER = 0x10;
 
     InvalidXMLWrapper(String endpointUrl, Format format, EndpointType type,
                       NetworkManager networkManager, Cache cache,
@@ -25,32 +24,59 @@ public class InvalidXMLWrapper extends APIWrapper {
     }
 
     /**
-     * GET operation. Calls {@link #sanitizeOutput(String)} right after
-     * receiving the response.
-     */
-    @Override
-    protected String networkGet(HttpUrl url) throws APIWrapperException {
-        return sanitizeOutput(super.networkGet(url));
-    }
-
-    /**
-     * POST operation. Calls {@link #sanitizeOutput(String)} right after
-     * receiving the response.
+     * Skips invalid characters.
+     *
+     * @param response Received response.
+     * @return Same string without the invalid characters.
      */
     @Override
-    protected String networkPost(HttpUrl url, Map<String, String> parameters)
-            throws APIWrapperException {
-        return sanitizeOutput(super.networkPost(url, parameters));
+    /* package */ String sanitizeResponse(String response) {
+        return response.replace("\u0010", "");
     }
 
     /**
-     * Skips invalid characters.
+     * Skips invalid characters while the response is read.
      *
      * @param response Received response.
-     * @return Same string without the invalid characters.
+     * @return Same stream without the invalid characters.
      */
-    private String sanitizeOutput(String response) {
-        return response.replace("\u0010", "");
+    @Override
+    /* package */ InputStream sanitizeResponse(InputStream response) {
+        return new FilterInputStream(response) {
+            @Override
+            public int read() throws IOException {
+                int b;
+                do {
+                    b = super.read();
+                } while (b == INVALID_CHARACTER);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length)
+                    throws IOException {
+                int read;
+                do {
+                    read = super.read(buffer, offset, length);
+                    int valid = offset;
+                    for (int i = offset; i < offset + read; i++) {
+                        if (buffer[i] != INVALID_CHARACTER) {
+                            buffer[valid++] = buffer[i];
+                        }
+                    }
+                    if (read > 0) {
+                        read = valid - offset;
+                    }
+                } while (read == 0 && length > 0);
+                return read;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
     }
 
+
 }
@@ -0,0 +1,23 @@
+package org.codeforamerica.open311.facade;
+
+import org.codeforamerica.open311.facade.data.Server;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+
+/**
+ * Receives the service requests of several servers merged in a single
+ * stream, as soon as each of them is parsed. Check
+ * {@link MultiServerQuery#streamServiceRequests(org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter, MultiServerConsumer)}.
+ */
+public interface MultiServerConsumer {
+
+    /**
+     * Called for every service request of every server. The requests of a
+     * server arrive in the order of its response, the requests of different
+     * servers are interleaved. Calls are serialized, so implementations don't
+     * need to be thread-safe, but a slow one slows down every server.
+     *
+     * @param server         Server which returned the request.
+     * @param serviceRequest Parsed service request.
+     */
+    void accept(Server server, ServiceRequest serviceRequest);
+}
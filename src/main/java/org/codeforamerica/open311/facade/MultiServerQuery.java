@@ -0,0 +1,342 @@
+package org.codeforamerica.open311.facade;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.codeforamerica.open311.facade.data.Server;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
+import org.codeforamerica.open311.facade.exceptions.InvalidValueError;
+import org.codeforamerica.open311.internals.caching.Cache;
+import org.codeforamerica.open311.internals.concurrent.DaemonThreadFactory;
+import org.codeforamerica.open311.internals.logging.LogManager;
+import org.codeforamerica.open311.internals.network.HTTPNetworkManager;
+import org.codeforamerica.open311.internals.network.NetworkManager;
+import org.codeforamerica.open311.internals.platform.PlatformManager;
+
+/**
+ * Queries the service requests of several servers (for example, every city of
+ * {@link Servers}) at the same time. The wrapper of every server is built
+ * (which involves its service discovery) and queried in the executor of this
+ * instance, no more than a given number of servers at once.
+ * <p/>
+ * Every server has its own timeout: a server which is slow or down doesn't
+ * stop the others. The outcome is a {@link BatchResult} with the results of
+ * the servers which answered in time and the failure of every other one
+ * (a <code>TimeoutException</code> if it was too slow).
+ * <p/>
+ * The wrappers are built once and reused by the next queries. Thread-safe.
+ */
+public class MultiServerQuery {
+    /**
+     * Default maximum time of every server, discovery included.
+     */
+    public static final long DEFAULT_TIMEOUT = 30000;
+    /**
+     * Default maximum number of servers queried at once.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+    private final List<Server> servers;
+    private final EndpointType endpointType;
+    private final ConcurrentMap<Server, APIWrapper> wrappers = new ConcurrentHashMap<Server, APIWrapper>();
+    private volatile NetworkManager networkManager = new HTTPNetworkManager();
+    private volatile Cache cache = PlatformManager.getInstance().buildCache();
+    private volatile Format format = null;
+    /**
+     * Executor of this instance, used unless the user provides one. It has a
+     * thread per server processed at once.
+     */
+    private final ThreadPoolExecutor ownExecutor;
+    private volatile Executor executor;
+    private volatile long timeout = DEFAULT_TIMEOUT;
+    private volatile int parallelism = DEFAULT_PARALLELISM;
+    /**
+     * Useful to log events.
+     */
+    private LogManager logManager = LogManager.getInstance();
+
+    /**
+     * Builds a query over the production endpoints of some servers.
+     *
+     * @param servers Servers to query.
+     */
+    public MultiServerQuery(Collection<Server> servers) {
+        this(servers, EndpointType.PRODUCTION);
+    }
+
+    /**
+     * Builds a query over some servers.
+     *
+     * @param servers      Servers to query.
+     * @param endpointType Desired type of the endpoint of every server.
+     */
+    public MultiServerQuery(Collection<Server> servers,
+                            EndpointType endpointType) {
+        if (servers == null) {
+            throw new InvalidValueError("The given servers are null");
+        }
+        this.servers = new ArrayList<Server>(servers);
+        this.endpointType = endpointType;
+        this.ownExecutor = new ThreadPoolExecutor(DEFAULT_PARALLELISM,
+                DEFAULT_PARALLELISM, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(
+                "open311-query-"));
+        this.ownExecutor.allowCoreThreadTimeOut(true);
+        this.executor = ownExecutor;
+    }
+
+    /**
+     * @return The queried servers.
+     */
+    public List<Server> getServers() {
+        return new ArrayList<Server>(servers);
+    }
+
+    /**
+     * Sets the {@link NetworkManager} shared by the wrappers of every server.
+     * It is called from several threads at the same time.
+     *
+     * @param networkManager A thread-safe implementation of the
+     *                       {@link NetworkManager} interface.
+     * @return The same instance.
+     */
+    public MultiServerQuery setNetworkManager(NetworkManager networkManager) {
+        this.networkManager = networkManager;
+        wrappers.clear();
+        return this;
+    }
+
+    /**
+     * Sets the cache shared by the wrappers of every server.
+     *
+     * @param cache Implementation of the {@link Cache} interface.
+     * @return The same instance.
+     */
+    public MultiServerQuery setCache(Cache cache) {
+        if (cache != null) {
+            this.cache = cache;
+            wrappers.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Selects the preferred data exchange format, used by the servers which
+     * allow it.
+     *
+     * @param format Desired format.
+     * @return The same instance.
+     */
+    public MultiServerQuery setFormat(Format format) {
+        this.format = format;
+        wrappers.clear();
+        return this;
+    }
+
+    /**
+     * Sets the executor which builds and queries the wrappers. By default
+     * every instance has its own pool with one thread per server processed at
+     * once (check {@link #setParallelism(int)}), whose idle threads die after
+     * a minute.
+     * <p/>
+     * The queries block until every server has finished or timed out: the
+     * given executor mustn't run the code which calls them (for example, the
+     * executor of the {@link AsyncAPIWrapper} callbacks). Note that a timed
+     * out server may keep its thread busy until its network request gives up.
+     *
+     * @param executor Executor of the servers.
+     * @return The same instance.
+     */
+    public MultiServerQuery setExecutor(Executor executor) {
+        if (executor != null) {
+            this.executor = executor;
+        }
+        return this;
+    }
+
+    /**
+     * Sets the maximum time of every server, counted from the moment the
+     * query submits it to the executor (discovery included), so a server
+     * which waits too long for a thread also times out.
+     * {@link #DEFAULT_TIMEOUT} by default.
+     *
+     * @param timeoutMillis Timeout in milliseconds, <code>0</code> means no
+     *                      limit.
+     * @return The same instance.
+     */
+    public MultiServerQuery setTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new InvalidValueError("The timeout can't be negative");
+        }
+        this.timeout = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of servers processed at once (and the number of
+     * threads of the default executor). {@link #DEFAULT_PARALLELISM} by
+     * default.
+     *
+     * @param parallelism A positive number.
+     * @return The same instance.
+     */
+    public MultiServerQuery setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new InvalidValueError("The parallelism must be positive");
+        }
+        synchronized (ownExecutor) {
+            // The maximum size can't be lower than the core size.
+            if (parallelism > ownExecutor.getMaximumPoolSize()) {
+                ownExecutor.setMaximumPoolSize(parallelism);
+                ownExecutor.setCorePoolSize(parallelism);
+            } else {
+                ownExecutor.setCorePoolSize(parallelism);
+                ownExecutor.setMaximumPoolSize(parallelism);
+            }
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Gets the service requests of every server, check
+     * {@link APIWrapper#getServiceRequests(GETServiceRequestsFilter)}.
+     *
+     * @param operationData An object with all the desired optional filtering
+     *                      parameters to send to every server, it can be
+     *                      <code>null</code>.
+     * @return The requests of every server which answered in time and the
+     * failures of the others, in the order of the servers.
+     */
+    public BatchResult<Server, List<ServiceRequest>> getServiceRequests(
+            GETServiceRequestsFilter operationData) {
+        final GETServiceRequestsFilter filter = copy(operationData);
+        Map<Server, Callable<List<ServiceRequest>>> operations = new LinkedHashMap<Server, Callable<List<ServiceRequest>>>();
+        for (final Server server : servers) {
+            operations.put(server, new Callable<List<ServiceRequest>>() {
+                @Override
+                public List<ServiceRequest> call() throws Exception {
+                    return getWrapper(server).getServiceRequests(filter);
+                }
+            });
+        }
+        return run(operations);
+    }
+
+    /**
+     * Streams the service requests of every server to a consumer, as soon as
+     * each of them is parsed, check
+     * {@link APIWrapper#streamServiceRequests(GETServiceRequestsFilter, ServiceRequestConsumer)}.
+     * Nothing is accumulated and the cache is bypassed.
+     * <p/>
+     * Once a server has timed out (or the query has finished) its requests are
+     * no longer handed to the consumer, but the ones handed before are kept.
+     *
+     * @param operationData An object with all the desired optional filtering
+     *                      parameters to send to every server, it can be
+     *                      <code>null</code>.
+     * @param consumer      Receives the requests of every server, one call at
+     *                      a time.
+     * @return The number of requests handed to the consumer by every server
+     * which answered in time and the failures of the others, in the order of
+     * the servers.
+     */
+    public BatchResult<Server, Integer> streamServiceRequests(
+            GETServiceRequestsFilter operationData,
+            final MultiServerConsumer consumer) {
+        if (consumer == null) {
+            throw new InvalidValueError("The given consumer is null");
+        }
+        final GETServiceRequestsFilter filter = copy(operationData);
+        final boolean[] finished = {false};
+        Map<Server, Callable<Integer>> operations = new LinkedHashMap<Server, Callable<Integer>>();
+        for (final Server server : servers) {
+            operations.put(server, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return getWrapper(server).streamServiceRequests(filter,
+                            new ServiceRequestConsumer() {
+                                @Override
+                                public void accept(ServiceRequest serviceRequest) {
+                                    synchronized (finished) {
+                                        // A timed out server is interrupted.
+                                        if (!finished[0]
+                                                && !Thread.currentThread()
+                                                .isInterrupted()) {
+                                            consumer.accept(server,
+                                                    serviceRequest);
+                                        }
+                                    }
+                                }
+                            });
+                }
+            });
+        }
+        BatchResult<Server, Integer> result = run(operations);
+        synchronized (finished) {
+            finished[0] = true;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the wrapper of a server, building it if it is the first time.
+     *
+     * @param server Desired server.
+     * @return Its wrapper.
+     * @throws Exception If the wrapper couldn't be built.
+     */
+    private APIWrapper getWrapper(Server server) throws Exception {
+        APIWrapper wrapper = wrappers.get(server);
+        if (wrapper == null) {
+            logManager.logInfo(this, "Building the wrapper of "
+                    + server.getName());
+            wrapper = new APIWrapperFactory(server, endpointType)
+                    .setFormat(format)
+                    .setNetworkManager(networkManager)
+                    .setCache(cache)
+                    .setApiKey(server.getApiKey() != null ? server
+                            .getApiKey() : "").build();
+            APIWrapper previous = wrappers.putIfAbsent(server, wrapper);
+            if (previous != null) {
+                wrapper = previous;
+            }
+        }
+        return wrapper;
+    }
+
+    private <V> BatchResult<Server, V> run(
+            Map<Server, Callable<V>> operations) {
+        logManager.logInfo(this, "Querying " + operations.size()
+                + " servers");
+        BatchResult<Server, V> result = BatchResult.run(operations, executor,
+                parallelism, timeout);
+        for (Map.Entry<Server, Exception> failure : result.getFailures()
+                .entrySet()) {
+            logManager.logError(this, failure.getKey().getName()
+                    + " failed: " + failure.getValue());
+        }
+        return result;
+    }
+
+    private static GETServiceRequestsFilter copy(
+            GETServiceRequestsFilter operationData) {
+        return operationData != null ? new GETServiceRequestsFilter(
+                operationData) : new GETServiceRequestsFilter();
+    }
+
+    @Override
+    public String toString() {
+        return "MultiServerQuery - " + servers.size() + " servers";
+    }
+}
@@ -0,0 +1,145 @@
+package org.codeforamerica.open311.facade;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.codeforamerica.open311.facade.data.Server;
+
+/**
+ * Immutable index of a list of servers. Lookups by name, jurisdiction id and
+ * base url are hash lookups, lookups by country are grouped in advance and the
+ * prefix search walks a sorted map of the names. Comparisons ignore case, and
+ * base urls also ignore a trailing slash. If several servers share a key, the
+ * first one of the list wins.
+ *
+ * The indexed servers are copies, and every lookup returns new copies of
+ * them, so changing a returned server (its API key, name...) doesn't affect
+ * the other users of the index nor leave the index stale.
+ */
+/* package */ class ServerIndex {
+    private final List<Server> servers;
+    private final Map<String, Server> byName = new HashMap<String, Server>();
+    private final Map<String, Server> byJurisdictionId = new HashMap<String, Server>();
+    private final Map<String, Server> byBaseUrl = new HashMap<String, Server>();
+    private final Map<String, List<Server>> byCountry = new HashMap<String, List<Server>>();
+    private final TreeMap<String, Server> sortedNames = new TreeMap<String, Server>();
+
+    /**
+     * @param servers Indexed servers, the list and the servers are copied.
+     */
+    /* package */ ServerIndex(List<Server> servers) {
+        List<Server> copy = new ArrayList<Server>();
+        if (servers != null) {
+            for (Server server : servers) {
+                if (server != null) {
+                    Server indexed = new Server(server);
+                    copy.add(indexed);
+                    index(indexed);
+                }
+            }
+        }
+        this.servers = copy;
+    }
+
+    private void index(Server server) {
+        String name = normalize(server.getName());
+        if (name != null && !byName.containsKey(name)) {
+            byName.put(name, server);
+            sortedNames.put(name, server);
+        }
+        String jurisdictionId = normalize(server.getJurisdictionId());
+        if (jurisdictionId != null && !byJurisdictionId.containsKey(jurisdictionId)) {
+            byJurisdictionId.put(jurisdictionId, server);
+        }
+        String baseUrl = normalizeUrl(server.getBaseURL());
+        if (baseUrl != null && !byBaseUrl.containsKey(baseUrl)) {
+            byBaseUrl.put(baseUrl, server);
+        }
+        String country = normalize(server.getCountry());
+        if (country != null) {
+            List<Server> servers = byCountry.get(country);
+            if (servers == null) {
+                servers = new ArrayList<Server>();
+                byCountry.put(country, servers);
+            }
+            servers.add(server);
+        }
+    }
+
+    /* package */ List<Server> getServers() {
+        return copy(servers);
+    }
+
+    /* package */ Server getByName(String name) {
+        String key = normalize(name);
+        return key != null ? copy(byName.get(key)) : null;
+    }
+
+    /* package */ Server getByJurisdictionId(String jurisdictionId) {
+        String key = normalize(jurisdictionId);
+        return key != null ? copy(byJurisdictionId.get(key)) : null;
+    }
+
+    /* package */ Server getByBaseUrl(String baseUrl) {
+        String key = normalizeUrl(baseUrl);
+        return key != null ? copy(byBaseUrl.get(key)) : null;
+    }
+
+    /* package */ List<Server> getByCountry(String country) {
+        String key = normalize(country);
+        List<Server> servers = key != null ? byCountry.get(key) : null;
+        return servers != null ? copy(servers) : Collections
+                .<Server>emptyList();
+    }
+
+    /* package */ List<Server> getByNamePrefix(String prefix) {
+        String key = prefix != null ? prefix.toLowerCase(Locale.ROOT) : null;
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        SortedMap<String, Server> matches = key.length() > 0 ? sortedNames
+                .subMap(key, key + Character.MAX_VALUE) : sortedNames;
+        return copy(matches.values());
+    }
+
+    private static Server copy(Server server) {
+        return server != null ? new Server(server) : null;
+    }
+
+    /**
+     * @return An unmodifiable list with copies of the servers.
+     */
+    private static List<Server> copy(Collection<Server> servers) {
+        List<Server> result = new ArrayList<Server>(servers.size());
+        for (Server server : servers) {
+            result.add(new Server(server));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return The lower case key or <code>null</code> if it is empty.
+     */
+    private static String normalize(String key) {
+        if (key == null) {
+            return null;
+        }
+        key = key.trim().toLowerCase(Locale.ROOT);
+        return key.length() > 0 ? key : null;
+    }
+
+    private static String normalizeUrl(String url) {
+        String key = normalize(url);
+        while (key != null && key.endsWith("/")) {
+            key = normalize(key.substring(0, key.length() - 1));
+        }
+        return key;
+    }
+}
@@ -14,54 +14,125 @@ import java.util.List;
 
 /**
  * Grab the servers.json file and create a java list of objects to be used to select a City or server object.
+ * <p/>
+ * The bundled file is parsed once per process, the first time it is needed,
+ * and indexed (check the lookup methods), so building instances is cheap. The
+ * lookups return copies of the {@link Server} objects: changing them (for
+ * example, setting an API key) doesn't affect the other instances.
  */
 public class Servers {
 
-    List<Server> collection;
+    private volatile ServerIndex index;
 
     public Servers() {
-        try {
-            /*
-             * In IntelliJ IDEA or Android Studio:
-             *   If you get strange errors on Servers or City, clean out the system caches:
-             *     On the main menu, choose File | Invalidate Caches/Restart.
-             *     The Invalidate Caches message appears informing you that the caches will be
-             *     invalidated and rebuilt on the next start.
-             *
-             *     Use buttons in the dialog to invalidate caches, restart IntelliJ IDEA or both.
-             */
-            Reader reader = new InputStreamReader(Servers.class.getResourceAsStream("/servers.json"), "UTF-8");
-            Gson gson = new GsonBuilder().create();
-            Type listType = new TypeToken<ArrayList<Server>>() {
-            }.getType();
-
-            List<Server> result;
-
-            result = gson.fromJson(reader, listType);
-            this.setCollection(result);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        this.index = Bundled.INDEX;
     }
 
-    public Server getServer(String name) {
-        if (name != null) {
-            for (Server b : collection) {
-                if (name.equalsIgnoreCase(b.getName())) {
-                    return b;
+    /**
+     * Lazy holder of the index of the bundled file.
+     */
+    private static class Bundled {
+        private static final ServerIndex INDEX = new ServerIndex(load());
+
+        private static List<Server> load() {
+            try {
+                /*
+                 * In IntelliJ IDEA or Android Studio:
+                 *   If you get strange errors on Servers or City, clean out the system caches:
+                 *     On the main menu, choose File | Invalidate Caches/Restart.
+                 *     The Invalidate Caches message appears informing you that the caches will be
+                 *     invalidated and rebuilt on the next start.
+                 *
+                 *     Use buttons in the dialog to invalidate caches, restart IntelliJ IDEA or both.
+                 */
+                Reader reader = new InputStreamReader(Servers.class.getResourceAsStream("/servers.json"), "UTF-8");
+                try {
+                    Gson gson = new GsonBuilder().create();
+                    Type listType = new TypeToken<ArrayList<Server>>() {
+                    }.getType();
+
+                    return gson.fromJson(reader, listType);
+                } finally {
+                    reader.close();
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
             }
         }
-        return null;
     }
 
+    /**
+     * Looks for a server by name, ignoring case.
+     *
+     * @param name Name of the server (for example, "San Francisco, CA").
+     * @return The server or <code>null</code> if there isn't any.
+     */
+    public Server getServer(String name) {
+        return index.getByName(name);
+    }
+
+    /**
+     * Looks for a server by jurisdiction id, ignoring case.
+     *
+     * @param jurisdictionId Jurisdiction id of the server.
+     * @return The first server with that jurisdiction id or <code>null</code>
+     * if there isn't any.
+     */
+    public Server getServerByJurisdictionId(String jurisdictionId) {
+        return index.getByJurisdictionId(jurisdictionId);
+    }
+
+    /**
+     * Looks for a server by base url, ignoring case and a trailing slash.
+     *
+     * @param baseUrl Base url of the server.
+     * @return The first server with that base url or <code>null</code> if
+     * there isn't any.
+     */
+    public Server getServerByBaseUrl(String baseUrl) {
+        return index.getByBaseUrl(baseUrl);
+    }
+
+    /**
+     * Lists the servers of a country, ignoring case.
+     *
+     * @param country Country code as it appears in servers.json (for example,
+     *                "USA").
+     * @return An unmodifiable list, empty if there isn't any server.
+     */
+    public List<Server> getServersByCountry(String country) {
+        return index.getByCountry(country);
+    }
+
+    /**
+     * Lists the servers whose name starts with a prefix, ignoring case.
+     *
+     * @param prefix Beginning of the name.
+     * @return An unmodifiable list sorted by name, empty if there isn't any
+     * server.
+     */
+    public List<Server> findServers(String prefix) {
+        return index.getByNamePrefix(prefix);
+    }
+
+    /**
+     * @return An unmodifiable list of the servers, in the order of the file.
+     */
     public List<Server> getCollection() {
-        return collection;
+        return index.getServers();
     }
 
+    /**
+     * Replaces the servers of this instance (and only of this one).
+     *
+     * @param collection Servers to index, the list and the servers are
+     *                   copied.
+     * @return The same instance.
+     */
     public Servers setCollection(List<Server> collection) {
-        this.collection = collection;
+        this.index = new ServerIndex(collection);
         return this;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package org.codeforamerica.open311.facade;
+
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+
+/**
+ * A change of a service request found by a {@link ServiceRequestSynchronizer}.
+ */
+public class ServiceRequestChange {
+    private final Type type;
+    private final ServiceRequest previous;
+    private final ServiceRequest current;
+
+    public ServiceRequestChange(Type type, ServiceRequest previous,
+                                ServiceRequest current) {
+        this.type = type;
+        this.previous = previous;
+        this.current = current;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The stored version of the request, <code>null</code> if it is
+     * new.
+     */
+    public ServiceRequest getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return The version of the request returned by the endpoint.
+     */
+    public ServiceRequest getCurrent() {
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + current.getServiceRequestId();
+    }
+
+    public enum Type {
+        /**
+         * The request wasn't stored.
+         */
+        NEW,
+        /**
+         * The request has been updated but its status is the same.
+         */
+        UPDATED,
+        /**
+         * The status of the request has changed to something else than
+         * closed.
+         */
+        STATUS_CHANGED,
+        /**
+         * The request has been closed.
+         */
+        CLOSED
+    }
+}
@@ -0,0 +1,15 @@
+package org.codeforamerica.open311.facade;
+
+/**
+ * Receives the changes found by a {@link ServiceRequestSynchronizer}.
+ */
+public interface ServiceRequestChangeListener {
+
+    /**
+     * Called for every change, once the new version of the request has been
+     * stored. It is called from the thread which synchronizes.
+     *
+     * @param change Found change.
+     */
+    void onChange(ServiceRequestChange change);
+}
@@ -0,0 +1,20 @@
+package org.codeforamerica.open311.facade;
+
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+
+/**
+ * Receives the service requests of a response one by one, as soon as each of
+ * them is parsed. Check
+ * {@link APIWrapper#streamServiceRequests(org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter, ServiceRequestConsumer)}.
+ */
+public interface ServiceRequestConsumer {
+
+    /**
+     * Called for every service request of the response, in the same order.
+     * It is called from the thread which reads the response, so a slow
+     * implementation slows down the reading.
+     *
+     * @param serviceRequest Parsed service request.
+     */
+    void accept(ServiceRequest serviceRequest);
+}
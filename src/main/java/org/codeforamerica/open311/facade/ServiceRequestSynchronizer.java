@@ -0,0 +1,236 @@
+package org.codeforamerica.open311.facade;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.ServiceRequest.Status;
+import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
+import org.codeforamerica.open311.facade.exceptions.InvalidValueError;
+import org.codeforamerica.open311.internals.caching.ServiceRequestStore;
+import org.codeforamerica.open311.internals.logging.LogManager;
+
+/**
+ * Keeps a local mirror of the service requests of an endpoint up to date.
+ * Every synchronization asks the endpoint only for the requests updated since
+ * the latest update seen by the previous one (the <code>updated_after</code>
+ * argument), so its cost depends on the number of changes and not on the
+ * number of mirrored requests. The first synchronization fetches what the
+ * endpoint returns by default.
+ *
+ * Endpoints cap the number of results (often below the requested page size),
+ * so the changes are asked in pages (the <code>page</code> and
+ * <code>page_size</code> arguments) until a page comes back empty, and then
+ * the latest update seen is saved. Many endpoints ignore these arguments and
+ * return the same requests for every page: their response may have been cut,
+ * so the saved update is only the oldest one of the response, and the
+ * following synchronizations ask for the rest. The dates are sent
+ * with a precision of seconds and <code>updated_after</code> is exclusive,
+ * so the boundary is moved one second back and the requests updated in that
+ * second are fetched again.
+ *
+ * The fetched requests are merged by id into a {@link ServiceRequestStore}
+ * and every change is notified to the listeners. Requests which haven't
+ * changed (the ones of the boundary, repeated in several pages or returned by
+ * an endpoint which ignores <code>updated_after</code>) are skipped.
+ *
+ * The cache of the wrapper is bypassed. Thread-safe, synchronizations are
+ * serialized.
+ */
+public class ServiceRequestSynchronizer {
+    /**
+     * Default number of requests asked in every page.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    private final APIWrapper wrapper;
+    private final ServiceRequestStore store;
+    private final GETServiceRequestsFilter filter;
+    private final String mirror;
+    private final List<ServiceRequestChangeListener> listeners = new CopyOnWriteArrayList<ServiceRequestChangeListener>();
+    private volatile int pageSize = DEFAULT_PAGE_SIZE;
+    private LogManager logManager = LogManager.getInstance();
+
+    /**
+     * Builds a synchronizer of all the requests of the endpoint.
+     *
+     * @param wrapper Wrapper of the endpoint.
+     * @param store   Store of the mirror.
+     */
+    public ServiceRequestSynchronizer(APIWrapper wrapper,
+                                      ServiceRequestStore store) {
+        this(wrapper, store, null);
+    }
+
+    /**
+     * Builds a synchronizer of the requests which accord to a filter. Every
+     * filter has its own mirror in the store.
+     *
+     * @param wrapper Wrapper of the endpoint.
+     * @param store   Store of the mirror.
+     * @param filter  Arguments sent in every synchronization (service code,
+     *                status...), it can be <code>null</code>.
+     */
+    public ServiceRequestSynchronizer(APIWrapper wrapper,
+                                      ServiceRequestStore store, GETServiceRequestsFilter filter) {
+        this.wrapper = wrapper;
+        this.store = store;
+        this.filter = filter != null ? new GETServiceRequestsFilter(filter)
+                : new GETServiceRequestsFilter();
+        this.mirror = wrapper.getEndpointUrl() + "|"
+                + (wrapper.getJurisdictionId() != null ? wrapper.getJurisdictionId() : "")
+                + "|" + this.filter.getCacheKey();
+    }
+
+    public void addListener(ServiceRequestChangeListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(ServiceRequestChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the number of requests asked in every page,
+     * {@link #DEFAULT_PAGE_SIZE} by default. Only an empty page is taken as
+     * the last one, so a size above the limit of the endpoint costs more
+     * pages but doesn't leave changes out.
+     *
+     * @param pageSize A positive number.
+     * @return The same instance.
+     */
+    public ServiceRequestSynchronizer setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new InvalidValueError("The page size must be positive");
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * @return Identifier of the mirror of this synchronizer in the store.
+     */
+    public String getMirror() {
+        return mirror;
+    }
+
+    /**
+     * Fetches the requests updated since the last synchronization, page by
+     * page, stores them and notifies the changes. The latest update date is
+     * saved only if the responses were processed.
+     *
+     * @return The changes, in the order of the responses.
+     * @throws APIWrapperException If there was any problem, the changes
+     *                             processed before it are kept.
+     */
+    public synchronized List<ServiceRequestChange> synchronize()
+            throws APIWrapperException {
+        long started = System.currentTimeMillis();
+        Date lastUpdate = store.getLastUpdate(mirror);
+        logManager.logInfo(wrapper, "Synchronizing service requests updated after "
+                + lastUpdate);
+        // updated_after is exclusive and it is sent without milliseconds.
+        Date updatedAfter = lastUpdate != null ? new Date(
+                lastUpdate.getTime() - 1000) : null;
+        final int size = pageSize;
+        final List<ServiceRequestChange> changes = new ArrayList<ServiceRequestChange>();
+        final Set<String> seen = new HashSet<String>();
+        final Date[] latest = {null};
+        final Date[] oldest = {null};
+        Date watermark;
+        for (int page = 1; ; page++) {
+            GETServiceRequestsFilter operationData = new GETServiceRequestsFilter(
+                    filter).setUpdatedAfter(updatedAfter).setPage(page, size);
+            final int[] unseen = new int[1];
+            final boolean first = page == 1;
+            int count = wrapper.streamServiceRequests(operationData,
+                    new ServiceRequestConsumer() {
+                        @Override
+                        public void accept(ServiceRequest serviceRequest) {
+                            if (seen.add(String.valueOf(serviceRequest
+                                    .getServiceRequestId()))) {
+                                unseen[0]++;
+                            }
+                            ServiceRequestChange change = merge(serviceRequest);
+                            if (change != null) {
+                                changes.add(change);
+                                for (ServiceRequestChangeListener listener : listeners) {
+                                    listener.onChange(change);
+                                }
+                            }
+                            Date updated = serviceRequest.getUpdatedDatetime();
+                            if (updated != null) {
+                                if (latest[0] == null || updated.after(latest[0])) {
+                                    latest[0] = updated;
+                                }
+                                if (first && (oldest[0] == null
+                                        || updated.before(oldest[0]))) {
+                                    oldest[0] = updated;
+                                }
+                            }
+                        }
+                    });
+            if (count == 0) {
+                // A request updated during the synchronization may have
+                // moved to a page which was already fetched.
+                watermark = latest[0] != null
+                        && latest[0].getTime() > started ? new Date(started)
+                        : latest[0];
+                break;
+            }
+            if (unseen[0] == 0) {
+                logManager.logInfo(wrapper, "The endpoint ignores the pages,"
+                        + " its response may have been cut.");
+                watermark = oldest[0];
+                break;
+            }
+        }
+        if (watermark != null
+                && (lastUpdate == null || watermark.after(lastUpdate))) {
+            store.saveLastUpdate(mirror, watermark);
+        }
+        return changes;
+    }
+
+    /**
+     * Stores a fetched request if it has changed.
+     *
+     * @return The change or <code>null</code> if there isn't any.
+     */
+    private ServiceRequestChange merge(ServiceRequest current) {
+        if (current.getServiceRequestId() == null) {
+            return null;
+        }
+        ServiceRequest previous = store.getServiceRequest(mirror,
+                current.getServiceRequestId());
+        ServiceRequestChange.Type type;
+        if (previous == null) {
+            type = ServiceRequestChange.Type.NEW;
+        } else if (previous.getStatus() != current.getStatus()) {
+            type = current.getStatus() == Status.CLOSED ? ServiceRequestChange.Type.CLOSED
+                    : ServiceRequestChange.Type.STATUS_CHANGED;
+        } else if (isNewer(current, previous)) {
+            type = ServiceRequestChange.Type.UPDATED;
+        } else {
+            return null;
+        }
+        store.saveServiceRequest(mirror, current);
+        return new ServiceRequestChange(type, previous, current);
+    }
+
+    private static boolean isNewer(ServiceRequest current,
+                                   ServiceRequest previous) {
+        Date updated = current.getUpdatedDatetime();
+        if (updated == null) {
+            return false;
+        }
+        return previous.getUpdatedDatetime() == null
+                || updated.after(previous.getUpdatedDatetime());
+    }
+}
@@ -1,10 +1,10 @@
 package org.codeforamerica.open311.facade.data;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codeforamerica.open311.facade.APIWrapper;
 import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
@@ -30,9 +30,9 @@ public class RelationshipManager {
 	private static RelationshipManager instance = new RelationshipManager();
 	/**
 	 * Maintain a list of pairs (List<{@link Service}>, {@link APIWrapper})
-	 * instances.
+	 * instances. Wrappers can be used from several threads at the same time.
 	 */
-	private Map<List<Service>, APIWrapper> serviceWrapperRelationships = new HashMap<List<Service>, APIWrapper>();
+	private Map<List<Service>, APIWrapper> serviceWrapperRelationships = new ConcurrentHashMap<List<Service>, APIWrapper>();
 
 	private RelationshipManager() {
 
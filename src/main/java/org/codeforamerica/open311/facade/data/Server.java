@@ -43,6 +43,35 @@ public class Server {
     @SerializedName(DataParser.DESCRIPTION_TAG)
     private String description;
 
+    public Server() {
+    }
+
+    /**
+     * Builds a copy of a server, which can be modified without changing the
+     * original one.
+     *
+     * @param server Server to copy.
+     */
+    public Server(Server server) {
+        this.name = server.name;
+        this.title = server.title;
+        this.country = server.country;
+        this.documentation = server.documentation;
+        this.issueTracker = server.issueTracker;
+        this.keyRequest = server.keyRequest;
+        this.discoveryUrl = server.discoveryUrl;
+        this.jurisdictionId = server.jurisdictionId;
+        this.version = server.version;
+        this.baseURL = server.baseURL;
+        this.testURL = server.testURL;
+        this.productionReady = server.productionReady;
+        this.govDomain = server.govDomain;
+        this.apiKey = server.apiKey;
+        this.upload = server.upload;
+        this.map = server.map;
+        this.description = server.description;
+    }
+
     public String getApiKey() {
         return apiKey;
     }
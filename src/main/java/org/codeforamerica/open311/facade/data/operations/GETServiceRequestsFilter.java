@@ -1,9 +1,12 @@
 package org.codeforamerica.open311.facade.data.operations;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.codeforamerica.open311.facade.APIWrapper;
 import org.codeforamerica.open311.facade.data.ServiceRequest.Status;
@@ -24,6 +27,19 @@ public class GETServiceRequestsFilter implements Serializable {
 	private static final long serialVersionUID = 3037178220547056225L;
 	private Map<String, String> parameters = new HashMap<String, String>();
 
+	public GETServiceRequestsFilter() {
+	}
+
+	/**
+	 * Builds a filter with the same arguments as the given one.
+	 * 
+	 * @param filter
+	 *            Filter to copy.
+	 */
+	public GETServiceRequestsFilter(GETServiceRequestsFilter filter) {
+		parameters.putAll(filter.parameters);
+	}
+
 	/**
 	 * Adds one or more service request ids to the filtering parameters.
 	 * 
@@ -62,6 +78,42 @@ public class GETServiceRequestsFilter implements Serializable {
 		return this;
 	}
 
+	/**
+	 * Asks only for the requests updated after the given date. This argument
+	 * isn't part of the GeoReport v2 specification, some endpoints support it
+	 * and the rest ignore it.
+	 * 
+	 * @param updatedAfter
+	 *            Date of the last known update.
+	 * @return The same object with the given parameter added as an argument.
+	 */
+	public GETServiceRequestsFilter setUpdatedAfter(Date updatedAfter) {
+		if (updatedAfter != null) {
+			parameters.put(DataParser.UPDATED_AFTER_TAG,
+					new DateParser().printDate(updatedAfter));
+		}
+		return this;
+	}
+
+	/**
+	 * Asks for a page of the results. These arguments aren't part of the
+	 * GeoReport v2 specification, some endpoints support them and the rest
+	 * ignore them.
+	 * 
+	 * @param page
+	 *            Number of the page, starting at <code>1</code>.
+	 * @param pageSize
+	 *            Maximum number of requests of every page.
+	 * @return The same object with the given parameters added as arguments.
+	 */
+	public GETServiceRequestsFilter setPage(int page, int pageSize) {
+		if (page > 0 && pageSize > 0) {
+			parameters.put(DataParser.PAGE_TAG, String.valueOf(page));
+			parameters.put(DataParser.PAGE_SIZE_TAG, String.valueOf(pageSize));
+		}
+		return this;
+	}
+
 	public GETServiceRequestsFilter setStatus(Status status) {
 		if (status != null) {
 			parameters.put(DataParser.STATUS_TAG, status.toString());
@@ -69,6 +121,22 @@ public class GETServiceRequestsFilter implements Serializable {
 		return this;
 	}
 
+	/**
+	 * @return The start date as it is sent to the endpoint (without
+	 *         milliseconds) or <code>null</code> if it wasn't set.
+	 */
+	public Date getStartDate() {
+		return getDate(DataParser.START_DATE_TAG);
+	}
+
+	/**
+	 * @return The end date as it is sent to the endpoint (without milliseconds)
+	 *         or <code>null</code> if it wasn't set.
+	 */
+	public Date getEndDate() {
+		return getDate(DataParser.END_DATE_TAG);
+	}
+
 	/**
 	 * Builds a map containing all the set arguments.
 	 * 
@@ -79,4 +147,76 @@ public class GETServiceRequestsFilter implements Serializable {
 		result.putAll(parameters);
 		return result;
 	}
+
+	/**
+	 * Builds a key which identifies the set arguments. Two filters with the
+	 * same arguments have the same key, no matter the order in which they were
+	 * set, and it doesn't change between executions.
+	 * 
+	 * @return Sorted pairs (key=value) separated by <code>&</code>, an empty
+	 *         string if there are no arguments.
+	 */
+	public String getCacheKey() {
+		return buildKey(parameters);
+	}
+
+	/**
+	 * Builds a key which identifies the set arguments but the dates. It
+	 * identifies the filters which only differ in their time range.
+	 * 
+	 * @return Same format as {@link #getCacheKey()}.
+	 */
+	public String getCacheKeyWithoutDates() {
+		Map<String, String> dimensions = getOptionalParametersMap();
+		dimensions.remove(DataParser.START_DATE_TAG);
+		dimensions.remove(DataParser.END_DATE_TAG);
+		return buildKey(dimensions);
+	}
+
+	private static String buildKey(Map<String, String> parameters) {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, String> entry : new TreeMap<String, String>(
+				parameters).entrySet()) {
+			if (builder.length() > 0) {
+				builder.append('&');
+			}
+			builder.append(entry.getKey()).append('=')
+					.append(encode(entry.getValue()));
+		}
+		return builder.toString();
+	}
+
+	private Date getDate(String tag) {
+		String date = parameters.get(tag);
+		return date != null ? new DateParser().parseDate(date) : null;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof GETServiceRequestsFilter)) {
+			return false;
+		}
+		return parameters.equals(((GETServiceRequestsFilter) o).parameters);
+	}
+
+	@Override
+	public int hashCode() {
+		return parameters.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return getCacheKey();
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return value;
+		}
+	}
 }
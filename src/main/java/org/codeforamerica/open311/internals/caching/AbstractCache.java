@@ -1,9 +1,15 @@
 package org.codeforamerica.open311.internals.caching;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codeforamerica.open311.facade.data.Server;
 import org.codeforamerica.open311.facade.data.Service;
@@ -11,22 +17,84 @@ import org.codeforamerica.open311.facade.data.ServiceDefinition;
 import org.codeforamerica.open311.facade.data.ServiceDiscoveryInfo;
 import org.codeforamerica.open311.facade.data.ServiceRequest;
 import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
+import org.codeforamerica.open311.internals.caching.ServiceRequestRanges.Segment;
+import org.codeforamerica.open311.internals.network.Validators;
+import org.codeforamerica.open311.internals.parsing.DataParser;
+import org.codeforamerica.open311.internals.platform.PlatformManager;
+import org.joda.time.DateTime;
+
+import net.iharder.Base64;
 
 /**
  * Implements all the operations of the {@link Cache} interface. Classes which
  * extend this will have to implement the abstract methods.
- * 
+ *
+ * There are two tiers: a size-bounded {@link MemoryCache} of deserialized
+ * objects and the persistent properties of the subclass. The persistent tier
+ * is only read when an object is not in memory. Objects returned by the
+ * memory tier are shared: lists are copied when they are saved and they are
+ * returned unmodifiable.
+ *
+ * Lists of service requests whose filter has a start and an end date are
+ * indexed by time ({@link ServiceRequestRanges}), so a range which is covered
+ * by previous responses with the same filter is answered without asking the
+ * endpoint. The index only keeps the bounds of every response, whose requests
+ * are saved in an entry of their own. A response which reaches the limit of
+ * results of the endpoint (check {@link #setServiceRequestsLimit(int)}) may
+ * not cover its whole range, so it is only saved for its exact filter.
+ *
+ * Expired service lists and definitions can still be served, as stale, for
+ * a while if it is configured for their operation (check
+ * {@link #setStaleTimeToLive(CacheableOperation, int)}). They keep the
+ * validators of their response, so they can be revalidated and renewed
+ * instead of fetched again.
+ *
+ * The objects are converted to bytes by a {@link CacheCodec} (a
+ * {@link BinaryCacheCodec} by default). Those bytes are saved as Base64
+ * properties unless the subclass is able to store them as they are.
+ *
  * @author Santiago Munín <santimunin@gmail.com>
- * 
+ *
  */
 public abstract class AbstractCache implements Cache {
 	protected final static String FILE = "cache.prop";
+	/**
+	 * Default number of objects kept in memory.
+	 */
+	public static final int DEFAULT_MEMORY_CACHE_SIZE = 128;
+	/**
+	 * Default maximum number of service requests returned by an endpoint.
+	 */
+	public static final int DEFAULT_SERVICE_REQUESTS_LIMIT = 1000;
 	/**
 	 * Relationship between operations and time to live of the obtained data.
 	 */
-	private final Map<CacheableOperation, Integer> timeToLive = new HashMap<CacheableOperation, Integer>();
+	private final Map<CacheableOperation, Integer> timeToLive = new ConcurrentHashMap<CacheableOperation, Integer>();
+	/**
+	 * Hours which the data of an operation can be served after it expires.
+	 */
+	private final Map<CacheableOperation, Integer> staleTimeToLive = new ConcurrentHashMap<CacheableOperation, Integer>();
+	/**
+	 * Deserialized objects which were saved or retrieved lately.
+	 */
+	private final MemoryCache memoryCache;
+	private volatile CacheCodec codec = new BinaryCacheCodec();
+	/**
+	 * Serializes the updates of the service request ranges.
+	 */
+	private final Object rangesLock = new Object();
+	private volatile int serviceRequestsLimit = DEFAULT_SERVICE_REQUESTS_LIMIT;
 
 	public AbstractCache() {
+		this(DEFAULT_MEMORY_CACHE_SIZE);
+	}
+
+	/**
+	 * @param memoryCacheSize
+	 *            Maximum number of deserialized objects kept in memory.
+	 */
+	protected AbstractCache(int memoryCacheSize) {
+		memoryCache = new MemoryCache(memoryCacheSize);
 		timeToLive.put(CacheableOperation.GET_SERVICE_DISCOVERY, 720);
 		timeToLive.put(CacheableOperation.GET_SERVICE_LIST, 24);
 		timeToLive.put(CacheableOperation.GET_SERVICE_DEFINITION, 24);
@@ -36,22 +104,32 @@ public abstract class AbstractCache implements Cache {
 				1440);
 	}
 
+	/**
+	 * Sets the maximum number of service requests which the endpoints return
+	 * at once. A response of a time range with that many requests may be
+	 * capped, so it isn't used to answer other ranges.
+	 * {@link #DEFAULT_SERVICE_REQUESTS_LIMIT} by default.
+	 *
+	 * @param serviceRequestsLimit
+	 *            A positive number.
+	 */
+	public void setServiceRequestsLimit(int serviceRequestsLimit) {
+		if (serviceRequestsLimit > 0) {
+			this.serviceRequestsLimit = serviceRequestsLimit;
+		}
+	}
+
 	@Override
 	public void saveCitiesInfo(String data) {
-		CacheableObject cacheableObject = new CacheableObject(
-				data,
-				timeToLive
-						.get(CacheableOperation.GET_CITIES_SERVICE_DISCOVERY_URLS));
-		saveProperty(
+		save(CacheableOperation.GET_CITIES_SERVICE_DISCOVERY_URLS,
 				CacheableOperation.GET_CITIES_SERVICE_DISCOVERY_URLS.toString(),
-				cacheableObject.serialize());
+				data);
 	}
 
 	@Override
 	public String retrieveCitiesInfo() {
-		return (String) new CacheableObject(
-				getProperty(CacheableOperation.GET_CITIES_SERVICE_DISCOVERY_URLS
-						.toString())).getObject();
+		return (String) retrieve(CacheableOperation.GET_CITIES_SERVICE_DISCOVERY_URLS
+				.toString());
 	}
     /**
      *
@@ -61,11 +139,9 @@ public abstract class AbstractCache implements Cache {
     public void saveServiceDiscovery(Server server,
                                      ServiceDiscoveryInfo serviceDiscovery) {
         if (server != null && serviceDiscovery != null) {
-            CacheableObject cacheableObject = new CacheableObject(
-                    serviceDiscovery,
-                    timeToLive.get(CacheableOperation.GET_SERVICE_DISCOVERY));
-            saveProperty(CacheableOperation.GET_SERVICE_DISCOVERY.toString()
-                    + server.toString(), cacheableObject.serialize());
+            save(CacheableOperation.GET_SERVICE_DISCOVERY,
+                    CacheableOperation.GET_SERVICE_DISCOVERY.toString()
+                            + server.toString(), serviceDiscovery);
         }
     }
 
@@ -76,54 +152,106 @@ public abstract class AbstractCache implements Cache {
     @Override
     public ServiceDiscoveryInfo retrieveCachedServiceDiscoveryInfo(Server server) {
         if (server != null) {
-            String rawData = getProperty(CacheableOperation.GET_SERVICE_DISCOVERY
+            return (ServiceDiscoveryInfo) retrieve(CacheableOperation.GET_SERVICE_DISCOVERY
                     + server.toString());
-            CacheableObject deserializedObject = new CacheableObject(rawData);
-            return (ServiceDiscoveryInfo) deserializedObject.getObject();
         }
         return null;
     }
 
 	@Override
 	public void saveListOfServices(String endpointUrl, List<Service> services) {
+		saveListOfServices(endpointUrl, services, null);
+	}
+
+	@Override
+	public void saveListOfServices(String endpointUrl, List<Service> services,
+			Validators validators) {
 		if (endpointUrl != null && endpointUrl.length() > 0 && services != null) {
 			Serializable list = (Serializable) services;
-			CacheableObject cacheableObject = new CacheableObject(list,
-					timeToLive.get(CacheableOperation.GET_SERVICE_LIST));
-			saveProperty(CacheableOperation.GET_SERVICE_LIST.toString()
-					+ endpointUrl, cacheableObject.serialize());
+			save(CacheableOperation.GET_SERVICE_LIST,
+					CacheableOperation.GET_SERVICE_LIST.toString()
+							+ endpointUrl, list, validators);
 		}
 	}
 
+	@Override
+	public Validators retrieveServiceListValidators(String endpointUrl) {
+		return retrieveValidators(CacheableOperation.GET_SERVICE_LIST
+				+ endpointUrl);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Service> renewServiceList(String endpointUrl) {
+		return (List<Service>) renew(CacheableOperation.GET_SERVICE_LIST,
+				CacheableOperation.GET_SERVICE_LIST + endpointUrl);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<Service> retrieveCachedServiceList(String endpointUrl) {
-		String rawData = getProperty(CacheableOperation.GET_SERVICE_LIST
+		return (List<Service>) retrieve(CacheableOperation.GET_SERVICE_LIST
 				+ endpointUrl);
-		CacheableObject deserializedObject = new CacheableObject(rawData);
-		return (List<Service>) deserializedObject.getObject();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Service> retrieveStaleServiceList(String endpointUrl) {
+		return (List<Service>) retrieveStale(
+				CacheableOperation.GET_SERVICE_LIST,
+				CacheableOperation.GET_SERVICE_LIST + endpointUrl);
 	}
 
 	@Override
 	public void saveServiceDefinition(String endpointUrl, String serviceCode,
 			ServiceDefinition serviceDefinition) {
+		saveServiceDefinition(endpointUrl, serviceCode, serviceDefinition,
+				null);
+	}
+
+	@Override
+	public void saveServiceDefinition(String endpointUrl, String serviceCode,
+			ServiceDefinition serviceDefinition, Validators validators) {
 		if (endpointUrl != null && endpointUrl.length() > 0
 				&& serviceCode != null && serviceCode.length() > 0
 				&& serviceDefinition != null) {
-			CacheableObject cacheableObject = new CacheableObject(serviceDefinition,
-					timeToLive.get(CacheableOperation.GET_SERVICE_DEFINITION));
-			saveProperty(CacheableOperation.GET_SERVICE_DEFINITION.toString()
-					+ endpointUrl + serviceCode, cacheableObject.serialize());
+			save(CacheableOperation.GET_SERVICE_DEFINITION,
+					CacheableOperation.GET_SERVICE_DEFINITION.toString()
+							+ endpointUrl + serviceCode, serviceDefinition,
+					validators);
 		}
 	}
 
+	@Override
+	public Validators retrieveServiceDefinitionValidators(String endpointUrl,
+			String serviceCode) {
+		return retrieveValidators(CacheableOperation.GET_SERVICE_DEFINITION
+				+ endpointUrl + serviceCode);
+	}
+
+	@Override
+	public ServiceDefinition renewServiceDefinition(String endpointUrl,
+			String serviceCode) {
+		return (ServiceDefinition) renew(
+				CacheableOperation.GET_SERVICE_DEFINITION,
+				CacheableOperation.GET_SERVICE_DEFINITION + endpointUrl
+						+ serviceCode);
+	}
+
 	@Override
 	public ServiceDefinition retrieveCachedServiceDefinition(
 			String endpointUrl, String serviceCode) {
-		String rawData = getProperty(CacheableOperation.GET_SERVICE_DEFINITION
+		return (ServiceDefinition) retrieve(CacheableOperation.GET_SERVICE_DEFINITION
 				+ endpointUrl + serviceCode);
-		CacheableObject deserializedObject = new CacheableObject(rawData);
-		return (ServiceDefinition) deserializedObject.getObject();
+	}
+
+	@Override
+	public ServiceDefinition retrieveStaleServiceDefinition(
+			String endpointUrl, String serviceCode) {
+		return (ServiceDefinition) retrieveStale(
+				CacheableOperation.GET_SERVICE_DEFINITION,
+				CacheableOperation.GET_SERVICE_DEFINITION + endpointUrl
+						+ serviceCode);
 	}
 
 	@Override
@@ -131,12 +259,15 @@ public abstract class AbstractCache implements Cache {
 			GETServiceRequestsFilter filter, List<ServiceRequest> requests) {
 		if (endpointUrl != null && endpointUrl.length() > 0 && filter != null
 				&& requests != null) {
-			Serializable list = (Serializable) requests;
-			CacheableObject cacheableObject = new CacheableObject(list,
-					timeToLive.get(CacheableOperation.GET_SERVICE_REQUEST_LIST));
-			saveProperty(CacheableOperation.GET_SERVICE_REQUEST_LIST
-					+ endpointUrl + CacheableObject.serialize(filter),
-					cacheableObject.serialize());
+			if (isRangeFilter(filter)
+					&& requests.size() < serviceRequestsLimit
+					&& haveRequestedDate(requests)) {
+				saveServiceRequestRange(endpointUrl, filter, requests);
+			} else {
+				Serializable list = (Serializable) requests;
+				save(CacheableOperation.GET_SERVICE_REQUEST_LIST,
+						serviceRequestListKey(endpointUrl, filter), list);
+			}
 		}
 	}
 
@@ -144,10 +275,159 @@ public abstract class AbstractCache implements Cache {
 	@Override
 	public List<ServiceRequest> retrieveCachedServiceRequests(
 			String endpointUrl, GETServiceRequestsFilter filter) {
-		String rawData = getProperty(CacheableOperation.GET_SERVICE_REQUEST_LIST
-				+ endpointUrl + CacheableObject.serialize(filter));
-		CacheableObject deserializedObject = new CacheableObject(rawData);
-		return (List<ServiceRequest>) deserializedObject.getObject();
+		List<ServiceRequest> result = (List<ServiceRequest>) retrieve(serviceRequestListKey(
+				endpointUrl, filter));
+		if (result == null && isRangeFilter(filter)) {
+			result = retrieveServiceRequestRange(endpointUrl, filter);
+		}
+		return result;
+	}
+
+	/**
+	 * Gathers the requests of a time range from the segments which cover it.
+	 *
+	 * @return The requests or <code>null</code> if the range isn't covered
+	 *         (or the entry of one of its segments is gone).
+	 */
+	@SuppressWarnings("unchecked")
+	private List<ServiceRequest> retrieveServiceRequestRange(
+			String endpointUrl, GETServiceRequestsFilter filter) {
+		String key = serviceRequestRangesKey(endpointUrl, filter);
+		ServiceRequestRanges ranges = (ServiceRequestRanges) retrieve(key);
+		if (ranges == null) {
+			return null;
+		}
+		long start = filter.getStartDate().getTime();
+		long end = getEndTime(filter);
+		List<Segment> segments = ranges.get(start, end,
+				System.currentTimeMillis());
+		if (segments == null) {
+			return null;
+		}
+		List<ServiceRequest> result = new ArrayList<ServiceRequest>();
+		for (Segment segment : segments) {
+			List<ServiceRequest> requests = (List<ServiceRequest>) retrieve(segmentKey(
+					key, segment));
+			if (requests == null) {
+				return null;
+			}
+			for (ServiceRequest request : requests) {
+				long time = request.getRequestedDatetime().getTime();
+				if (segment.contains(request) && time >= start && time <= end) {
+					result.add(request);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<GETServiceRequestsFilter> getMissingServiceRequestFilters(
+			String endpointUrl, GETServiceRequestsFilter filter) {
+		if (!isRangeFilter(filter)) {
+			return Collections.singletonList(filter);
+		}
+		ServiceRequestRanges ranges = (ServiceRequestRanges) retrieve(serviceRequestRangesKey(
+				endpointUrl, filter));
+		if (ranges == null) {
+			return Collections.singletonList(filter);
+		}
+		List<GETServiceRequestsFilter> result = new ArrayList<GETServiceRequestsFilter>();
+		for (long[] gap : ranges.getGaps(filter.getStartDate().getTime(),
+				getEndTime(filter), System.currentTimeMillis())) {
+			// Gaps are aligned to seconds, the precision of the sent dates.
+			result.add(new GETServiceRequestsFilter(filter).setStartDate(
+					new Date(gap[0])).setEndDate(new Date(gap[1])));
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the response of a filter with a time range to the ranges of its
+	 * other arguments. Its requests are saved in a new entry, so the ones of
+	 * the previous segments aren't written again. The entries of the segments
+	 * which are replaced or expired are deleted.
+	 */
+	private void saveServiceRequestRange(String endpointUrl,
+			GETServiceRequestsFilter filter, List<ServiceRequest> requests) {
+		String key = serviceRequestRangesKey(endpointUrl, filter);
+		long now = System.currentTimeMillis();
+		long expiration = new DateTime(now).plusHours(
+				timeToLive.get(CacheableOperation.GET_SERVICE_REQUEST_LIST))
+				.getMillis();
+		synchronized (rangesLock) {
+			// An expired index still knows the entries of its segments.
+			CacheableObject previous = lookup(key);
+			ServiceRequestRanges ranges = previous != null ? (ServiceRequestRanges) previous
+					.getRawObject() : new ServiceRequestRanges();
+			Segment segment = ranges.newSegment(filter.getStartDate()
+					.getTime(), getEndTime(filter), expiration);
+			save(CacheableOperation.GET_SERVICE_REQUEST_LIST,
+					segmentKey(key, segment), (Serializable) requests);
+			ServiceRequestRanges updated = ranges.add(segment, now);
+			save(CacheableOperation.GET_SERVICE_REQUEST_LIST, key, updated);
+			Set<Long> live = new HashSet<Long>();
+			for (Segment current : updated.getSegments()) {
+				live.add(current.id);
+			}
+			for (Segment current : ranges.getSegments()) {
+				if (!live.contains(current.id)) {
+					delete(segmentKey(key, current));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the filter asks for a time range (and not
+	 *         for specific requests).
+	 */
+	private static boolean isRangeFilter(GETServiceRequestsFilter filter) {
+		if (filter == null
+				|| filter.getOptionalParametersMap().containsKey(
+						DataParser.SERVICE_REQUEST_ID_TAG)) {
+			return false;
+		}
+		Date start = filter.getStartDate();
+		Date end = filter.getEndDate();
+		return start != null && end != null && !start.after(end);
+	}
+
+	private static boolean haveRequestedDate(List<ServiceRequest> requests) {
+		for (ServiceRequest request : requests) {
+			if (request.getRequestedDatetime() == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The dates are sent without milliseconds, so the end date includes its
+	 * whole second.
+	 */
+	private static long getEndTime(GETServiceRequestsFilter filter) {
+		return filter.getEndDate().getTime() + 999;
+	}
+
+	private static String serviceRequestRangesKey(String endpointUrl,
+			GETServiceRequestsFilter filter) {
+		return CacheableOperation.GET_SERVICE_REQUEST_LIST + endpointUrl + "#"
+				+ filter.getCacheKeyWithoutDates();
+	}
+
+	private static String segmentKey(String rangesKey, Segment segment) {
+		return rangesKey + "@" + segment.id;
+	}
+
+	/**
+	 * Builds the key of a list of service requests from the canonical key of
+	 * its filter, so equivalent filters share the same entry.
+	 */
+	private static String serviceRequestListKey(String endpointUrl,
+			GETServiceRequestsFilter filter) {
+		return CacheableOperation.GET_SERVICE_REQUEST_LIST + endpointUrl + "?"
+				+ (filter != null ? filter.getCacheKey() : "");
 	}
 
 	@Override
@@ -156,23 +436,17 @@ public abstract class AbstractCache implements Cache {
 		if (endpointUrl != null && endpointUrl.length() > 0
 				&& serviceRequestId != null && serviceRequestId.length() > 0
 				&& request != null) {
-			CacheableObject cacheableServiceRequest = new CacheableObject(
-					request,
-					timeToLive
-							.get(CacheableOperation.GET_SINGLE_SERVICE_REQUEST));
-			saveProperty(CacheableOperation.GET_SINGLE_SERVICE_REQUEST
-					+ endpointUrl + serviceRequestId,
-					cacheableServiceRequest.serialize());
+			save(CacheableOperation.GET_SINGLE_SERVICE_REQUEST,
+					CacheableOperation.GET_SINGLE_SERVICE_REQUEST + endpointUrl
+							+ serviceRequestId, request);
 		}
 	}
 
 	@Override
 	public ServiceRequest retrieveCachedServiceRequest(String endpointUrl,
 			String serviceRequestId) {
-		String rawData = getProperty(CacheableOperation.GET_SINGLE_SERVICE_REQUEST
+		return (ServiceRequest) retrieve(CacheableOperation.GET_SINGLE_SERVICE_REQUEST
 				+ endpointUrl + serviceRequestId);
-		CacheableObject deserializedObject = new CacheableObject(rawData);
-		return (ServiceRequest) deserializedObject.getObject();
 	}
 
 	public void setCustomTimeToLive(CacheableOperation operation,
@@ -182,10 +456,258 @@ public abstract class AbstractCache implements Cache {
 		}
 	}
 
+	@Override
+	public void setStaleTimeToLive(CacheableOperation operation,
+			int staleTimeToLiveInHours) {
+		if (operation != null && staleTimeToLiveInHours >= 0) {
+			staleTimeToLive.put(operation, staleTimeToLiveInHours);
+		}
+	}
+
+	/**
+	 * Sets the codec used to persist the objects. Entries written with the
+	 * previous codec may not be readable anymore (they will be fetched
+	 * again).
+	 *
+	 * @param codec
+	 *            New codec.
+	 */
+	public void setCodec(CacheCodec codec) {
+		if (codec != null) {
+			this.codec = codec;
+		}
+	}
+
+	/**
+	 * Empties the memory tier. Subclasses must call it when they delete their
+	 * persistent data.
+	 */
+	@Override
+	public void deleteCache() {
+		memoryCache.clear();
+	}
+
+	/**
+	 * Saves an object in both tiers. It will live as long as the time to live
+	 * of the given operation.
+	 *
+	 * @param operation
+	 *            Operation which obtained the object.
+	 * @param key
+	 *            Key of the object.
+	 * @param object
+	 *            Object to save.
+	 */
+	private void save(CacheableOperation operation, String key,
+			Serializable object) {
+		save(operation, key, object, null);
+	}
+
+	/**
+	 * Saves an object together with the validators of the response which
+	 * returned it.
+	 *
+	 * @param operation
+	 *            Operation which obtained the object.
+	 * @param key
+	 *            Key of the object.
+	 * @param object
+	 *            Object to save.
+	 * @param validators
+	 *            Validators of the response, it can be <code>null</code>.
+	 */
+	private void save(CacheableOperation operation, String key,
+			Serializable object, Validators validators) {
+		if (object instanceof List) {
+			// The caller keeps its list, the cache has its own copy.
+			object = (Serializable) Collections
+					.unmodifiableList(new ArrayList<Object>((List<?>) object));
+		}
+		CacheableObject cacheableObject = new CacheableObject(object,
+				timeToLive.get(operation), validators);
+		memoryCache.put(key, cacheableObject);
+		try {
+			saveBinaryProperty(key, codec.encode(cacheableObject));
+		} catch (IOException e) {
+			PlatformManager.getInstance().buildLogger()
+					.logError("Error encoding a cached object: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes an object from both tiers.
+	 *
+	 * @param key
+	 *            Key of the object.
+	 */
+	private void delete(String key) {
+		memoryCache.remove(key);
+		deleteProperty(key);
+	}
+
+	/**
+	 * Looks for a live object.
+	 *
+	 * @param key
+	 *            Key of the object.
+	 * @return The object or <code>null</code> if it isn't cached or it has
+	 *         expired.
+	 */
+	private Object retrieve(String key) {
+		CacheableObject cacheableObject = lookup(key);
+		return cacheableObject != null ? unmodifiable(cacheableObject
+				.getObject()) : null;
+	}
+
+	/**
+	 * Looks for an object which has expired less than the stale time to live
+	 * of its operation ago.
+	 *
+	 * @param operation
+	 *            Operation which obtained the object.
+	 * @param key
+	 *            Key of the object.
+	 * @return The object (even if it is still live) or <code>null</code> if
+	 *         it isn't cached or it is too old.
+	 */
+	private Object retrieveStale(CacheableOperation operation, String key) {
+		Integer hours = staleTimeToLive.get(operation);
+		if (hours == null || hours == 0) {
+			return null;
+		}
+		CacheableObject cacheableObject = lookup(key);
+		if (cacheableObject == null) {
+			return null;
+		}
+		Date expirationTime = cacheableObject.getExpirationTime();
+		if (expirationTime == null
+				|| !new DateTime(expirationTime).plusHours(hours).isAfterNow()) {
+			return null;
+		}
+		return unmodifiable(cacheableObject.getRawObject());
+	}
+
+	/**
+	 * Looks for the validators of an object, even if it has expired.
+	 *
+	 * @param key
+	 *            Key of the object.
+	 * @return The validators or <code>null</code> if it isn't cached or it
+	 *         hasn't any.
+	 */
+	private Validators retrieveValidators(String key) {
+		CacheableObject cacheableObject = lookup(key);
+		return cacheableObject != null ? cacheableObject.getValidators() : null;
+	}
+
+	/**
+	 * Saves again an object, even if it has expired, so it lives as long as
+	 * the time to live of its operation from now. Its validators are kept.
+	 *
+	 * @param operation
+	 *            Operation which obtained the object.
+	 * @param key
+	 *            Key of the object.
+	 * @return The object or <code>null</code> if it isn't cached.
+	 */
+	private Object renew(CacheableOperation operation, String key) {
+		CacheableObject cacheableObject = lookup(key);
+		if (cacheableObject == null || cacheableObject.getRawObject() == null) {
+			return null;
+		}
+		save(operation, key, cacheableObject.getRawObject(),
+				cacheableObject.getValidators());
+		return unmodifiable(cacheableObject.getRawObject());
+	}
+
+	/**
+	 * Cached objects are shared (the decoded ones too), so lists are returned
+	 * unmodifiable.
+	 */
+	private static Object unmodifiable(Object object) {
+		return object instanceof List ? Collections
+				.unmodifiableList((List<?>) object) : object;
+	}
+
+	/**
+	 * Looks for an entry in memory and, if it isn't there, in the persistent
+	 * tier. Entries found in the persistent tier are kept in memory (with
+	 * their original expiration time), so they are decoded only once.
+	 *
+	 * @param key
+	 *            Key of the object.
+	 * @return The entry, even if it has expired, or <code>null</code> if it
+	 *         isn't cached.
+	 */
+	private CacheableObject lookup(String key) {
+		CacheableObject cacheableObject = memoryCache.get(key);
+		if (cacheableObject == null) {
+			cacheableObject = decode(key);
+			if (cacheableObject != null) {
+				memoryCache.put(key, cacheableObject);
+			}
+		}
+		return cacheableObject;
+	}
+
+	/**
+	 * Reads and decodes an object of the persistent tier.
+	 *
+	 * @return The object (even if it has expired) or <code>null</code> if it
+	 *         isn't stored or it couldn't be decoded.
+	 */
+	private CacheableObject decode(String key) {
+		byte[] data = getBinaryProperty(key);
+		if (data == null || data.length == 0) {
+			return null;
+		}
+		try {
+			return codec.decode(data);
+		} catch (IOException e) {
+			PlatformManager.getInstance().buildLogger()
+					.logError("Error decoding a cached object: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Saves an encoded object. By default it is saved as a Base64 property,
+	 * subclasses which can store bytes should override this method and
+	 * {@link #getBinaryProperty(String)}.
+	 *
+	 * @param key
+	 *            Key of the property.
+	 * @param value
+	 *            Encoded object.
+	 */
+	protected void saveBinaryProperty(String key, byte[] value) {
+		saveProperty(key, Base64.encodeBytes(value));
+	}
+
+	/**
+	 * Retrieves an encoded object.
+	 *
+	 * @param key
+	 *            Key of the property.
+	 * @return The encoded object or <code>null</code> if the key doesn't
+	 *         exist.
+	 */
+	protected byte[] getBinaryProperty(String key) {
+		String value = getProperty(key);
+		if (value == null || value.length() == 0) {
+			return null;
+		}
+		try {
+			return Base64.decode(value);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	/**
 	 * Saves a property. The given parameters must be valid strings with content
 	 * (empty or <code>null</code> strings are not allowed).
-	 * 
+	 *
 	 * @param key
 	 *            Key of the property.
 	 * @param value
@@ -193,9 +715,20 @@ public abstract class AbstractCache implements Cache {
 	 */
 	protected abstract void saveProperty(String key, String value);
 
+	/**
+	 * Deletes a property, if it exists. By default nothing is deleted:
+	 * subclasses should override it, otherwise the entries of replaced
+	 * service request ranges stay in their storage.
+	 *
+	 * @param key
+	 *            Key of the property.
+	 */
+	protected void deleteProperty(String key) {
+	}
+
 	/**
 	 * Retrieves a property.
-	 * 
+	 *
 	 * @param key
 	 *            Key of the property (empty or <code>null</code> strings are
 	 *            not allowed).
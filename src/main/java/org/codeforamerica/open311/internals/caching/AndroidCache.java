@@ -27,7 +27,7 @@ public class AndroidCache extends AbstractCache {
 	 *            {@link SharedPreferences}.
 	 * @return Unique instance of the class.
 	 */
-	public static AndroidCache getInstance(Context context) {
+	public static synchronized AndroidCache getInstance(Context context) {
 		if (instance == null) {
 			instance = new AndroidCache(context);
 		}
@@ -47,6 +47,7 @@ public class AndroidCache extends AbstractCache {
 
 	@Override
 	public void deleteCache() {
+		super.deleteCache();
 		Editor editor = preferences.edit();
 		editor.clear();
 		editor.commit();
@@ -59,6 +60,13 @@ public class AndroidCache extends AbstractCache {
 		editor.commit();
 	}
 
+	@Override
+	protected void deleteProperty(String key) {
+		Editor editor = preferences.edit();
+		editor.remove(key);
+		editor.commit();
+	}
+
 	@Override
 	protected String getProperty(String key) {
 		return preferences.getString(key, "");
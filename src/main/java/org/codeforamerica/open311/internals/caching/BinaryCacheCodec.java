@@ -0,0 +1,623 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codeforamerica.open311.facade.EndpointType;
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.facade.data.AttributeInfo;
+import org.codeforamerica.open311.facade.data.Endpoint;
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.data.ServiceDiscoveryInfo;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.Value;
+import org.codeforamerica.open311.internals.caching.ServiceRequestRanges.Segment;
+import org.codeforamerica.open311.internals.network.Validators;
+
+/**
+ * Compact {@link CacheCodec} which knows the fields of the GeoReport
+ * objects ({@link Service}, {@link ServiceDefinition}, {@link ServiceRequest},
+ * {@link ServiceDiscoveryInfo}, lists of them, strings and the
+ * {@link ServiceRequestRanges}):
+ * <ul>
+ * <li>Numbers are written as variable-length integers.</li>
+ * <li>Enums (status, types...) are written as their ordinal.</li>
+ * <li>Dates are written as milliseconds since the epoch.</li>
+ * <li>Strings which tend to repeat (service codes and names, agencies...)
+ * are written once per entry, then referenced by their position.</li>
+ * </ul>
+ * Any other object is written with the Java serialization. Entries written
+ * by the {@link SerializationCacheCodec} and by previous versions (without
+ * validators) can be decoded too.
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    private static final int MAGIC = 0x4F;
+    private static final int VERSION = 2;
+    /**
+     * Version without the validators of the response.
+     */
+    private static final int VERSION_1 = 1;
+    private static final String ENCODING = "UTF-8";
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int SERVICE = 2;
+    private static final int SERVICE_DEFINITION = 3;
+    private static final int SERVICE_REQUEST = 4;
+    private static final int SERVICE_DISCOVERY_INFO = 5;
+    private static final int LIST = 6;
+    private static final int SERIALIZED = 7;
+    private static final int SERVICE_REQUEST_RANGES = 8;
+
+    @Override
+    public byte[] encode(CacheableObject cacheableObject) throws IOException {
+        Output output = new Output();
+        output.write(MAGIC);
+        output.write(VERSION);
+        output.writeDate(cacheableObject.getExpirationTime());
+        Validators validators = cacheableObject.getValidators();
+        output.writeString(validators != null ? validators.getETag() : null);
+        output.writeString(validators != null ? validators
+                .getLastModified() : null);
+        try {
+            writeValue(output, cacheableObject.getRawObject());
+        } catch (RuntimeException e) {
+            // An object which doesn't fit the schema (missing fields...).
+            return SerializationCacheCodec.serialize(cacheableObject);
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public CacheableObject decode(byte[] data) throws IOException {
+        if (SerializationCacheCodec.isSerialized(data)) {
+            return new SerializationCacheCodec().decode(data);
+        }
+        Input input = new Input(data);
+        if (input.read() != MAGIC) {
+            throw new IOException("Unknown cache entry format");
+        }
+        int version = input.read();
+        if (version != VERSION && version != VERSION_1) {
+            throw new IOException("Unknown cache entry format");
+        }
+        Date expirationTime = input.readDate();
+        Validators validators = null;
+        if (version != VERSION_1) {
+            validators = Validators.from(input.readString(),
+                    input.readString());
+        }
+        Serializable object = readValue(input);
+        if (!input.isFinished()) {
+            throw new IOException("Unexpected data at the end of the entry");
+        }
+        return new CacheableObject(object, expirationTime, validators);
+    }
+
+    private void writeValue(Output output, Object value) throws IOException {
+        if (value == null) {
+            output.writeVarLong(NULL);
+        } else if (value instanceof String) {
+            output.writeVarLong(STRING);
+            output.writeString((String) value);
+        } else if (value instanceof Service) {
+            output.writeVarLong(SERVICE);
+            writeService(output, (Service) value);
+        } else if (value instanceof ServiceDefinition) {
+            output.writeVarLong(SERVICE_DEFINITION);
+            writeServiceDefinition(output, (ServiceDefinition) value);
+        } else if (value instanceof ServiceRequest) {
+            output.writeVarLong(SERVICE_REQUEST);
+            writeServiceRequest(output, (ServiceRequest) value);
+        } else if (value instanceof ServiceDiscoveryInfo) {
+            output.writeVarLong(SERVICE_DISCOVERY_INFO);
+            writeServiceDiscoveryInfo(output, (ServiceDiscoveryInfo) value);
+        } else if (value instanceof ServiceRequestRanges) {
+            output.writeVarLong(SERVICE_REQUEST_RANGES);
+            writeServiceRequestRanges(output, (ServiceRequestRanges) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            output.writeVarLong(LIST);
+            output.writeVarLong(list.size());
+            for (Object element : list) {
+                writeValue(output, element);
+            }
+        } else {
+            output.writeVarLong(SERIALIZED);
+            output.writeBytes(SerializationCacheCodec
+                    .serialize((Serializable) value));
+        }
+    }
+
+    private Serializable readValue(Input input) throws IOException {
+        int type = input.readVarInt();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return input.readString();
+            case SERVICE:
+                return readService(input);
+            case SERVICE_DEFINITION:
+                return readServiceDefinition(input);
+            case SERVICE_REQUEST:
+                return readServiceRequest(input);
+            case SERVICE_DISCOVERY_INFO:
+                return readServiceDiscoveryInfo(input);
+            case LIST:
+                int size = input.readVarInt();
+                ArrayList<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(input));
+                }
+                return list;
+            case SERVICE_REQUEST_RANGES:
+                return readServiceRequestRanges(input);
+            case SERIALIZED:
+                return (Serializable) SerializationCacheCodec.deserialize(input
+                        .readBytes());
+            default:
+                throw new IOException("Unknown type " + type);
+        }
+    }
+
+    private void writeService(Output output, Service service)
+            throws IOException {
+        output.writeDictionaryString(service.getServiceCode());
+        output.writeDictionaryString(service.getServiceName());
+        output.writeString(service.getDescription());
+        output.writeBoolean(service.hasMetadata());
+        output.writeEnum(service.getType());
+        output.writeString(service.getKeywords());
+        output.writeDictionaryString(service.getGroup());
+    }
+
+    private Service readService(Input input) throws IOException {
+        return new Service(input.readDictionaryString(),
+                input.readDictionaryString(), input.readString(),
+                input.readBoolean(), input.readEnum(Service.Type.values()),
+                input.readString(), input.readDictionaryString());
+    }
+
+    private void writeServiceDefinition(Output output,
+                                        ServiceDefinition serviceDefinition) throws IOException {
+        output.writeDictionaryString(serviceDefinition.getServiceCode());
+        List<AttributeInfo> attributes = serviceDefinition.getAttributes();
+        output.writeSize(attributes);
+        if (attributes != null) {
+            for (AttributeInfo attribute : attributes) {
+                output.writeBoolean(attribute.isVariable());
+                output.writeDictionaryString(attribute.getCode());
+                output.writeEnum(attribute.getDatatype());
+                output.writeBoolean(attribute.isRequired());
+                output.writeString(attribute.getDatatypeDescription());
+                output.writeNullableLong(attribute.getOrder() == null ? null
+                        : Long.valueOf(attribute.getOrder()));
+                output.writeString(attribute.getDescription());
+                Value[] values = attribute.getValues();
+                output.writeVarLong(values == null ? 0 : values.length + 1);
+                if (values != null) {
+                    for (Value value : values) {
+                        output.writeDictionaryString(value.getKey());
+                        output.writeDictionaryString(value.getName());
+                    }
+                }
+            }
+        }
+    }
+
+    private ServiceDefinition readServiceDefinition(Input input)
+            throws IOException {
+        String serviceCode = input.readDictionaryString();
+        int size = input.readSize();
+        List<AttributeInfo> attributes = null;
+        if (size >= 0) {
+            attributes = new ArrayList<AttributeInfo>(size);
+            for (int i = 0; i < size; i++) {
+                Boolean variable = input.readBoolean();
+                String code = input.readDictionaryString();
+                AttributeInfo.Datatype datatype = input
+                        .readEnum(AttributeInfo.Datatype.values());
+                Boolean required = input.readBoolean();
+                String datatypeDescription = input.readString();
+                Long order = input.readNullableLong();
+                String description = input.readString();
+                int valuesLength = input.readVarInt() - 1;
+                Value[] values = null;
+                if (valuesLength >= 0) {
+                    values = new Value[valuesLength];
+                    for (int j = 0; j < valuesLength; j++) {
+                        values[j] = new Value(input.readDictionaryString(),
+                                input.readDictionaryString());
+                    }
+                }
+                attributes.add(new AttributeInfo(variable, code, datatype,
+                        required, datatypeDescription, order == null ? null
+                        : Integer.valueOf(order.intValue()), description,
+                        values));
+            }
+        }
+        return new ServiceDefinition(serviceCode, attributes);
+    }
+
+    private void writeServiceRequest(Output output, ServiceRequest request)
+            throws IOException {
+        output.writeString(request.getServiceRequestId());
+        output.writeEnum(request.getStatus());
+        output.writeString(request.getStatusNotes());
+        output.writeDictionaryString(request.getServiceName());
+        output.writeDictionaryString(request.getServiceCode());
+        output.writeString(request.getDescription());
+        output.writeDictionaryString(request.getAgencyResponsible());
+        output.writeDictionaryString(request.getServiceNotice());
+        output.writeDate(request.getRequestedDatetime());
+        output.writeDate(request.getUpdatedDatetime());
+        output.writeDate(request.getExpectedDatetime());
+        output.writeString(request.getAddress());
+        output.writeNullableLong(request.getAddressId());
+        output.writeNullableLong(request.getZipCode() == null ? null : Long
+                .valueOf(request.getZipCode()));
+        output.writeFloat(request.getLatitude());
+        output.writeFloat(request.getLongitude());
+        output.writeString(request.getMediaUrl() == null ? null : request
+                .getMediaUrl().toString());
+    }
+
+    private ServiceRequest readServiceRequest(Input input) throws IOException {
+        String serviceRequestId = input.readString();
+        ServiceRequest.Status status = input.readEnum(ServiceRequest.Status
+                .values());
+        String statusNotes = input.readString();
+        String serviceName = input.readDictionaryString();
+        String serviceCode = input.readDictionaryString();
+        String description = input.readString();
+        String agencyResponsible = input.readDictionaryString();
+        String serviceNotice = input.readDictionaryString();
+        Date requestedDatetime = input.readDate();
+        Date updatedDatetime = input.readDate();
+        Date expectedDatetime = input.readDate();
+        String address = input.readString();
+        Long addressId = input.readNullableLong();
+        Long zipCode = input.readNullableLong();
+        Float latitude = input.readFloat();
+        Float longitude = input.readFloat();
+        String mediaUrl = input.readString();
+        try {
+            return new ServiceRequest(serviceRequestId, status, statusNotes,
+                    serviceName, serviceCode, description, agencyResponsible,
+                    serviceNotice, requestedDatetime, updatedDatetime,
+                    expectedDatetime, address, addressId, zipCode == null ? null
+                    : Integer.valueOf(zipCode.intValue()), latitude,
+                    longitude, mediaUrl == null ? null : new URL(mediaUrl));
+        } catch (MalformedURLException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private void writeServiceRequestRanges(Output output,
+                                           ServiceRequestRanges ranges) throws IOException {
+        output.writeVarLong(ranges.getNextId());
+        output.writeSize(ranges.getSegments());
+        for (Segment segment : ranges.getSegments()) {
+            output.writeSignedVarLong(segment.start);
+            output.writeSignedVarLong(segment.end);
+            output.writeSignedVarLong(segment.expiration);
+            output.writeVarLong(segment.id);
+        }
+    }
+
+    private ServiceRequestRanges readServiceRequestRanges(Input input)
+            throws IOException {
+        long nextId = input.readVarLong();
+        int size = input.readSize();
+        List<Segment> segments = new ArrayList<Segment>(size);
+        for (int i = 0; i < size; i++) {
+            long start = input.readSignedVarLong();
+            long end = input.readSignedVarLong();
+            long expiration = input.readSignedVarLong();
+            segments.add(new Segment(start, end, expiration, input
+                    .readVarLong()));
+        }
+        return new ServiceRequestRanges(segments, nextId);
+    }
+
+    private void writeServiceDiscoveryInfo(Output output,
+                                           ServiceDiscoveryInfo info) throws IOException {
+        output.writeDate(info.getChangeset());
+        output.writeString(info.getContact());
+        output.writeString(info.getKeyService());
+        List<Endpoint> endpoints = info.getEndpoints();
+        output.writeSize(endpoints);
+        if (endpoints != null) {
+            for (Endpoint endpoint : endpoints) {
+                output.writeDictionaryString(endpoint.getSpecificationUrl());
+                output.writeString(endpoint.getUrl());
+                output.writeDate(endpoint.getChangeset());
+                output.writeEnum(endpoint.getType());
+                long formats = 0;
+                for (Format format : Format.values()) {
+                    if (endpoint.isCompatibleWithFormat(format)) {
+                        formats |= 1L << format.ordinal();
+                    }
+                }
+                output.writeVarLong(formats);
+            }
+        }
+    }
+
+    private ServiceDiscoveryInfo readServiceDiscoveryInfo(Input input)
+            throws IOException {
+        Date changeset = input.readDate();
+        String contact = input.readString();
+        String keyService = input.readString();
+        int size = input.readSize();
+        List<Endpoint> endpoints = null;
+        if (size >= 0) {
+            endpoints = new ArrayList<Endpoint>(size);
+            for (int i = 0; i < size; i++) {
+                String specificationUrl = input.readDictionaryString();
+                String url = input.readString();
+                Date endpointChangeset = input.readDate();
+                EndpointType type = input.readEnum(EndpointType.values());
+                long formatBits = input.readVarLong();
+                List<Format> formats = new ArrayList<Format>();
+                for (Format format : Format.values()) {
+                    if ((formatBits & (1L << format.ordinal())) != 0) {
+                        formats.add(format);
+                    }
+                }
+                endpoints.add(new Endpoint(specificationUrl, url,
+                        endpointChangeset, type == null ? null : type
+                        .toString(), formats));
+            }
+        }
+        return new ServiceDiscoveryInfo(changeset, contact, keyService,
+                endpoints);
+    }
+
+    /**
+     * Buffer which writes the primitive values of an entry. Keeps the
+     * dictionary of the strings written so far.
+     */
+    private static class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+        private void write(int b) {
+            bytes.write(b);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        /**
+         * Zigzag encoded, so small negative numbers are short too.
+         */
+        private void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeNullableLong(Long value) {
+            if (value == null) {
+                write(0);
+            } else {
+                write(1);
+                writeSignedVarLong(value);
+            }
+        }
+
+        private void writeDate(Date date) {
+            writeNullableLong(date == null ? null : date.getTime());
+        }
+
+        private void writeFloat(Float value) {
+            if (value == null) {
+                write(0);
+            } else {
+                write(1);
+                int bits = Float.floatToIntBits(value);
+                for (int i = 24; i >= 0; i -= 8) {
+                    write((bits >>> i) & 0xFF);
+                }
+            }
+        }
+
+        private void writeBoolean(Boolean value) {
+            write(value == null ? 0 : value ? 2 : 1);
+        }
+
+        private void writeEnum(Enum<?> value) {
+            writeVarLong(value == null ? 0 : value.ordinal() + 1);
+        }
+
+        private void writeSize(List<?> list) {
+            writeVarLong(list == null ? 0 : list.size() + 1);
+        }
+
+        private void writeBytes(byte[] data) {
+            writeVarLong(data.length);
+            bytes.write(data, 0, data.length);
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(0);
+            } else {
+                byte[] data = value.getBytes(ENCODING);
+                writeVarLong(data.length + 1);
+                bytes.write(data, 0, data.length);
+            }
+        }
+
+        /**
+         * Writes <code>0</code> for <code>null</code>, <code>1</code> and the
+         * string the first time it appears and <code>2 + position</code>
+         * afterwards.
+         */
+        private void writeDictionaryString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            Integer position = dictionary.get(value);
+            if (position != null) {
+                writeVarLong(position + 2);
+                return;
+            }
+            dictionary.put(value, dictionary.size());
+            writeVarLong(1);
+            writeString(value);
+        }
+
+        private byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Reads what {@link Output} writes.
+     */
+    private static class Input {
+        private final byte[] data;
+        private final List<String> dictionary = new ArrayList<String>();
+        private int position;
+
+        private Input(byte[] data) {
+            this.data = data;
+        }
+
+        private int read() throws IOException {
+            if (position >= data.length) {
+                throw new IOException("Truncated cache entry");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        private boolean isFinished() {
+            return position == data.length;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed number");
+        }
+
+        private int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("Malformed number");
+            }
+            return (int) value;
+        }
+
+        private Long readNullableLong() throws IOException {
+            if (read() == 0) {
+                return null;
+            }
+            return readSignedVarLong();
+        }
+
+        private long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private Date readDate() throws IOException {
+            Long time = readNullableLong();
+            return time == null ? null : new Date(time);
+        }
+
+        private Float readFloat() throws IOException {
+            if (read() == 0) {
+                return null;
+            }
+            int bits = 0;
+            for (int i = 0; i < 4; i++) {
+                bits = (bits << 8) | read();
+            }
+            return Float.intBitsToFloat(bits);
+        }
+
+        private Boolean readBoolean() throws IOException {
+            int value = read();
+            return value == 0 ? null : value == 2;
+        }
+
+        private <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+            int ordinal = readVarInt();
+            if (ordinal > values.length) {
+                throw new IOException("Unknown constant " + ordinal);
+            }
+            return ordinal == 0 ? null : values[ordinal - 1];
+        }
+
+        /**
+         * @return Size of the list or <code>-1</code> if it was
+         * <code>null</code>.
+         */
+        private int readSize() throws IOException {
+            return readVarInt() - 1;
+        }
+
+        private byte[] readBytes() throws IOException {
+            int length = readVarInt();
+            if (length > data.length - position) {
+                throw new IOException("Truncated cache entry");
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(data, position, result, 0, length);
+            position += length;
+            return result;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (length > data.length - position) {
+                throw new IOException("Truncated cache entry");
+            }
+            String result = new String(data, position, length, ENCODING);
+            position += length;
+            return result;
+        }
+
+        private String readDictionaryString() throws IOException {
+            int reference = readVarInt();
+            if (reference == 0) {
+                return null;
+            }
+            if (reference == 1) {
+                String value = readString();
+                dictionary.add(value);
+                return value;
+            }
+            if (reference - 2 >= dictionary.size()) {
+                throw new IOException("Unknown string " + reference);
+            }
+            return dictionary.get(reference - 2);
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.codeforamerica.open311.facade.data.ServiceDefinition;
 import org.codeforamerica.open311.facade.data.ServiceDiscoveryInfo;
 import org.codeforamerica.open311.facade.data.ServiceRequest;
 import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
+import org.codeforamerica.open311.internals.network.Validators;
 
 /**
  * Specifies all the operations needed to do data caching and avoid useless and
@@ -65,6 +66,36 @@ public interface Cache {
      */
     List<Service> retrieveCachedServiceList(String endpointUrl);
 
+    /**
+     * Saves a list of {@link Service} objects together with the validators of
+     * the response, so it can be revalidated once it expires.
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @param services    Obtained services.
+     * @param validators  Validators of the response, it can be
+     *                    <code>null</code>.
+     */
+    void saveListOfServices(String endpointUrl, List<Service> services,
+                            Validators validators);
+
+    /**
+     * Looks for the validators of a cached list of services, even if it has
+     * expired.
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @return The validators or <code>null</code> if there aren't any.
+     */
+    Validators retrieveServiceListValidators(String endpointUrl);
+
+    /**
+     * Restarts the time to live of a cached list of services (even if it has
+     * expired) because the endpoint answered that it hasn't been modified.
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @return The renewed list or <code>null</code> if it isn't cached.
+     */
+    List<Service> renewServiceList(String endpointUrl);
+
     /**
      * Saves a service definition.
      *
@@ -85,6 +116,64 @@ public interface Cache {
     ServiceDefinition retrieveCachedServiceDefinition(
             String endpointUrl, String serviceCode);
 
+    /**
+     * Saves a service definition together with the validators of the
+     * response, so it can be revalidated once it expires.
+     *
+     * @param endpointUrl       Url of the endpoint.
+     * @param serviceCode       Code of the service.
+     * @param serviceDefinition Obtained definition from the server.
+     * @param validators        Validators of the response, it can be
+     *                          <code>null</code>.
+     */
+    void saveServiceDefinition(String endpointUrl, String serviceCode,
+                               ServiceDefinition serviceDefinition, Validators validators);
+
+    /**
+     * Looks for the validators of a cached service definition, even if it has
+     * expired.
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @param serviceCode Code of the service.
+     * @return The validators or <code>null</code> if there aren't any.
+     */
+    Validators retrieveServiceDefinitionValidators(String endpointUrl,
+                                                   String serviceCode);
+
+    /**
+     * Restarts the time to live of a cached service definition (even if it
+     * has expired) because the endpoint answered that it hasn't been
+     * modified.
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @param serviceCode Code of the service.
+     * @return The renewed definition or <code>null</code> if it isn't cached.
+     */
+    ServiceDefinition renewServiceDefinition(String endpointUrl,
+                                             String serviceCode);
+
+    /**
+     * Looks for a cached GET service list response which has expired but can
+     * still be served while it is refreshed (check
+     * {@link #setStaleTimeToLive(CacheableOperation, int)}).
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @return The expired list or <code>null</code> if there isn't any.
+     */
+    List<Service> retrieveStaleServiceList(String endpointUrl);
+
+    /**
+     * Looks for a cached GET service definition response which has expired
+     * but can still be served while it is refreshed (check
+     * {@link #setStaleTimeToLive(CacheableOperation, int)}).
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @param serviceCode Code of the service.
+     * @return The expired definition or <code>null</code> if there isn't any.
+     */
+    ServiceDefinition retrieveStaleServiceDefinition(String endpointUrl,
+                                                     String serviceCode);
+
     /**
      * Saves a list of service requests.
      *
@@ -106,6 +195,19 @@ public interface Cache {
     List<ServiceRequest> retrieveCachedServiceRequests(
             String endpointUrl, GETServiceRequestsFilter filter);
 
+    /**
+     * Looks for the parts of a GET service requests operation which have to be
+     * fetched from the endpoint: saving their responses should be enough to
+     * answer the given filter from the cache.
+     *
+     * @param endpointUrl Url of the endpoint.
+     * @param filter      The desired filter.
+     * @return Filters to send to the endpoint (the given filter if nothing
+     * useful is cached, an empty list if it is fully cached).
+     */
+    List<GETServiceRequestsFilter> getMissingServiceRequestFilters(
+            String endpointUrl, GETServiceRequestsFilter filter);
+
     /**
      * Saves a service request.
      *
@@ -140,6 +242,18 @@ public interface Cache {
     void setCustomTimeToLive(CacheableOperation operation,
                              int timeToLiveInHours);
 
+    /**
+     * Sets how long the data of an operation can be served after it has
+     * expired, while it is refreshed in the background. By default (0 hours)
+     * expired data is never served.
+     *
+     * @param operation              Operation which stale time to live will be
+     *                               changed.
+     * @param staleTimeToLiveInHours Hours after the expiration (0 to disable).
+     */
+    void setStaleTimeToLive(CacheableOperation operation,
+                            int staleTimeToLiveInHours);
+
     /**
      * Set of operations which will be cached.
      *
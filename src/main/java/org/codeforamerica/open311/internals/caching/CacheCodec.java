@@ -0,0 +1,27 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.io.IOException;
+
+/**
+ * Converts the cached objects to the bytes which are persisted and back.
+ * Implementations must be thread-safe.
+ */
+public interface CacheCodec {
+    /**
+     * Encodes an object and its expiration time.
+     *
+     * @param cacheableObject Object to encode.
+     * @return Its bytes.
+     * @throws IOException If the object couldn't be encoded.
+     */
+    byte[] encode(CacheableObject cacheableObject) throws IOException;
+
+    /**
+     * Decodes an object encoded by {@link #encode(CacheableObject)}.
+     *
+     * @param data Encoded bytes.
+     * @return The decoded object.
+     * @throws IOException If the data is not valid.
+     */
+    CacheableObject decode(byte[] data) throws IOException;
+}
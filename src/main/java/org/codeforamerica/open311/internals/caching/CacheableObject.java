@@ -6,10 +6,13 @@ import java.util.Date;
 
 import net.iharder.Base64;
 
+import org.codeforamerica.open311.internals.network.Validators;
 import org.joda.time.DateTime;
 
 /**
- * A pair of serializable, expiration date.
+ * A pair of serializable, expiration date. It can keep the
+ * {@link Validators} of the response which returned the object, so it can be
+ * revalidated with a conditional GET once it expires.
  *
  * @author Santiago Munín <santimunin@gmail.com>
  */
@@ -18,11 +21,41 @@ public class CacheableObject implements Serializable {
     private static final long serialVersionUID = -108175395476829305L;
     private Serializable object;
     private Date expirationTime;
+    private Validators validators;
 
     public CacheableObject(Serializable object, int hoursToLive) {
+        this(object, hoursToLive, null);
+    }
+
+    /**
+     * @param object      Cached object.
+     * @param hoursToLive Time to live.
+     * @param validators  Validators of the response which returned the
+     *                    object, it can be <code>null</code>.
+     */
+    /* package */ CacheableObject(Serializable object, int hoursToLive,
+                                  Validators validators) {
+        this(object, new DateTime().plusHours(hoursToLive).toDate(),
+                validators);
+    }
+
+    /**
+     * Builds an object which expires at a given time, used by the
+     * {@link CacheCodec} implementations.
+     *
+     * @param object         Cached object.
+     * @param expirationTime Expiration time.
+     */
+    /* package */ CacheableObject(Serializable object, Date expirationTime) {
+        this(object, expirationTime, null);
+    }
+
+    /* package */ CacheableObject(Serializable object, Date expirationTime,
+                                  Validators validators) {
         super();
         this.object = object;
-        this.expirationTime = new DateTime().plusHours(hoursToLive).toDate();
+        this.expirationTime = expirationTime;
+        this.validators = validators;
     }
 
     public CacheableObject(String base64object) {
@@ -31,6 +64,7 @@ public class CacheableObject implements Serializable {
                 CacheableObject thisObject = (CacheableObject) Base64.decodeToObject(base64object);
                 this.object = thisObject.object;
                 this.expirationTime = thisObject.expirationTime;
+                this.validators = thisObject.validators;
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -44,6 +78,27 @@ public class CacheableObject implements Serializable {
         return null;
     }
 
+    /**
+     * Returns the object even if it has expired.
+     *
+     * @return The cached object.
+     */
+    /* package */ Serializable getRawObject() {
+        return object;
+    }
+
+    /* package */ Date getExpirationTime() {
+        return expirationTime;
+    }
+
+    /**
+     * @return Validators of the response which returned the object or
+     * <code>null</code> if it didn't have any.
+     */
+    /* package */ Validators getValidators() {
+        return validators;
+    }
+
     /**
      * Return a serialized version of the object.
      *
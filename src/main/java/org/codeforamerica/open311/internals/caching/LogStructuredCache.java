@@ -0,0 +1,395 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.codeforamerica.open311.internals.platform.PlatformManager;
+
+/**
+ * Persistent implementation of the {@link Cache} interface which never
+ * rewrites its file: every saved property is appended to a log and an
+ * in-memory index keeps the position of the last value of every key. Saving
+ * a property costs as much as the size of the property.
+ *
+ * Overwritten values stay in the log until it is compacted, which happens
+ * when the log doubles the size of the live data. The live records are
+ * written to a new file which replaces the old one.
+ *
+ * Every record carries a checksum. When the log is opened, it is scanned to
+ * rebuild the index and anything after the last valid record (an append
+ * interrupted by a crash) is discarded.
+ *
+ * Record layout: key length (int), value length (int), key (UTF-8), value
+ * (bytes given by the {@link CacheCodec}, no Base64), CRC32 of both lengths,
+ * the key and the value (long). A record without value deletes its key.
+ *
+ * Only one instance must use a file at the same time. Thread-safe.
+ */
+public class LogStructuredCache extends AbstractCache {
+	/**
+	 * Default file of the log.
+	 */
+	private static final String LOG_FILE = "cache.log";
+	/**
+	 * Logs smaller than this are never compacted.
+	 */
+	public static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+	private static final String COMPACTION_SUFFIX = ".compact";
+	private static final String ENCODING = "UTF-8";
+	/**
+	 * Lengths (two ints) and checksum (a long).
+	 */
+	private static final int RECORD_OVERHEAD = 4 + 4 + 8;
+	/**
+	 * Unique instance of the class which uses the default file.
+	 */
+	private static LogStructuredCache instance;
+	private final File file;
+	private final long minCompactionSize;
+	private final Map<String, Location> index = new HashMap<String, Location>();
+	private RandomAccessFile log;
+	/**
+	 * Bytes of the log used by the last value of every key.
+	 */
+	private long liveBytes;
+
+	/**
+	 * Returns the instance which uses the default file, opening it the first
+	 * time.
+	 */
+	public static synchronized LogStructuredCache getInstance() {
+		if (instance == null) {
+			instance = new LogStructuredCache(new File(LOG_FILE));
+		}
+		return instance;
+	}
+
+	/**
+	 * Opens (or creates) a log.
+	 *
+	 * @param file
+	 *            File of the log.
+	 */
+	public LogStructuredCache(File file) {
+		this(file, MIN_COMPACTION_SIZE);
+	}
+
+	/**
+	 * Opens (or creates) a log.
+	 *
+	 * @param file
+	 *            File of the log.
+	 * @param minCompactionSize
+	 *            Logs smaller than this (in bytes) are never compacted.
+	 */
+	public LogStructuredCache(File file, long minCompactionSize) {
+		super();
+		this.file = file;
+		this.minCompactionSize = minCompactionSize;
+		try {
+			recoverCompaction();
+			open();
+		} catch (IOException e) {
+			logError("Error loading the cache: " + e.getMessage());
+			throw new Error("Couldn't create/load the cache file.");
+		}
+	}
+
+	@Override
+	protected void saveProperty(String key, String value) {
+		if (value != null) {
+			try {
+				saveBinaryProperty(key, value.getBytes(ENCODING));
+			} catch (UnsupportedEncodingException e) {
+				logError("Error saving a property: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	protected String getProperty(String key) {
+		byte[] value = getBinaryProperty(key);
+		try {
+			return value == null ? null : new String(value, ENCODING);
+		} catch (UnsupportedEncodingException e) {
+			logError("Error reading a property: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Values are stored as they are, without Base64.
+	 */
+	@Override
+	protected synchronized void saveBinaryProperty(String key, byte[] value) {
+		if (key != null && key.length() > 0 && value != null
+				&& value.length > 0) {
+			try {
+				append(key, value);
+				if (log.length() > minCompactionSize
+						&& log.length() > 2 * liveBytes) {
+					compact();
+				}
+			} catch (IOException e) {
+				logError("Error saving a property: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	protected synchronized void deleteProperty(String key) {
+		if (key == null || !index.containsKey(key)) {
+			return;
+		}
+		try {
+			log.seek(log.length());
+			write(log, key.getBytes(ENCODING), new byte[0]);
+			liveBytes -= index.remove(key).recordLength;
+		} catch (IOException e) {
+			logError("Error deleting a property: " + e.getMessage());
+		}
+	}
+
+	@Override
+	protected synchronized byte[] getBinaryProperty(String key) {
+		Location location = index.get(key);
+		if (location == null) {
+			return null;
+		}
+		try {
+			byte[] value = new byte[location.valueLength];
+			log.seek(location.valueOffset);
+			log.readFully(value);
+			return value;
+		} catch (IOException e) {
+			logError("Error reading a property: " + e.getMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized void deleteCache() {
+		super.deleteCache();
+		try {
+			log.setLength(0);
+		} catch (IOException e) {
+			logError("Error deleting the cache: " + e.getMessage());
+		}
+		index.clear();
+		liveBytes = 0;
+	}
+
+	/**
+	 * Rewrites the log keeping only the last value of every key.
+	 *
+	 * @throws IOException
+	 *             If the new log couldn't be written. The old one is kept.
+	 */
+	/* package */synchronized void compact() throws IOException {
+		File compacted = compactionFile();
+		Map<String, Location> newIndex = new HashMap<String, Location>();
+		RandomAccessFile output = new RandomAccessFile(compacted, "rw");
+		try {
+			output.setLength(0);
+			for (Map.Entry<String, Location> entry : index.entrySet()) {
+				Location location = entry.getValue();
+				byte[] value = new byte[location.valueLength];
+				log.seek(location.valueOffset);
+				log.readFully(value);
+				newIndex.put(entry.getKey(),
+						write(output, entry.getKey().getBytes(ENCODING), value));
+			}
+			output.getFD().sync();
+		} catch (IOException e) {
+			output.close();
+			compacted.delete();
+			throw e;
+		}
+		output.close();
+		log.close();
+		if (!compacted.renameTo(file)
+				&& !(file.delete() && compacted.renameTo(file))) {
+			recoverCompaction();
+			open();
+			throw new IOException("Couldn't replace the log "
+					+ file.getPath());
+		}
+		log = new RandomAccessFile(file, "rw");
+		index.clear();
+		index.putAll(newIndex);
+	}
+
+	/**
+	 * Closes the log. The instance can't be used afterwards.
+	 *
+	 * @throws IOException
+	 *             If there was any problem closing the file.
+	 */
+	public synchronized void close() throws IOException {
+		log.close();
+	}
+
+	/* package */synchronized long getLogSize() throws IOException {
+		return log.length();
+	}
+
+	/**
+	 * Appends a record to the end of the log and updates the index.
+	 */
+	private void append(String key, byte[] value) throws IOException {
+		log.seek(log.length());
+		Location location = write(log, key.getBytes(ENCODING), value);
+		Location previous = index.put(key, location);
+		if (previous != null) {
+			liveBytes -= previous.recordLength;
+		}
+		liveBytes += location.recordLength;
+	}
+
+	/**
+	 * Writes a record at the current position of the given file.
+	 *
+	 * @return Location of the written value.
+	 */
+	private static Location write(RandomAccessFile output, byte[] key,
+			byte[] value) throws IOException {
+		long start = output.getFilePointer();
+		byte[] record = new byte[RECORD_OVERHEAD + key.length + value.length];
+		putInt(record, 0, key.length);
+		putInt(record, 4, value.length);
+		System.arraycopy(key, 0, record, 8, key.length);
+		System.arraycopy(value, 0, record, 8 + key.length, value.length);
+		putLong(record, record.length - 8,
+				checksum(record, record.length - 8));
+		output.write(record);
+		return new Location(start + 8 + key.length, value.length,
+				record.length);
+	}
+
+	/**
+	 * Opens the log and rebuilds the index from its records. Anything after
+	 * the last valid record is truncated.
+	 */
+	private void open() throws IOException {
+		log = new RandomAccessFile(file, "rw");
+		index.clear();
+		liveBytes = 0;
+		long length = log.length();
+		long position = 0;
+		byte[] header = new byte[8];
+		while (position + RECORD_OVERHEAD <= length) {
+			log.seek(position);
+			log.readFully(header);
+			int keyLength = getInt(header, 0);
+			int valueLength = getInt(header, 4);
+			if (keyLength <= 0 || valueLength < 0
+					|| position + RECORD_OVERHEAD + keyLength + valueLength > length) {
+				break;
+			}
+			byte[] record = new byte[RECORD_OVERHEAD + keyLength + valueLength];
+			System.arraycopy(header, 0, record, 0, header.length);
+			log.readFully(record, header.length, record.length
+					- header.length);
+			if (getLong(record, record.length - 8) != checksum(record,
+					record.length - 8)) {
+				break;
+			}
+			String key = new String(record, 8, keyLength, ENCODING);
+			Location previous = valueLength > 0 ? index.put(key,
+					new Location(position + 8 + keyLength, valueLength,
+							record.length)) : index.remove(key);
+			if (previous != null) {
+				liveBytes -= previous.recordLength;
+			}
+			if (valueLength > 0) {
+				liveBytes += record.length;
+			}
+			position += record.length;
+		}
+		if (position < length) {
+			logError("Discarding " + (length - position)
+					+ " corrupted bytes at the end of the cache log.");
+			log.setLength(position);
+		}
+	}
+
+	/**
+	 * Finishes or discards a compaction interrupted by a crash. The new log
+	 * is only valid if the old one had already been deleted.
+	 */
+	private void recoverCompaction() throws IOException {
+		File compacted = compactionFile();
+		if (compacted.exists()) {
+			if (!file.exists()) {
+				if (!compacted.renameTo(file)) {
+					throw new IOException("Couldn't recover the log "
+							+ compacted.getPath());
+				}
+			} else {
+				compacted.delete();
+			}
+		}
+	}
+
+	private File compactionFile() {
+		return new File(file.getPath() + COMPACTION_SUFFIX);
+	}
+
+	private static long checksum(byte[] data, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		return crc.getValue();
+	}
+
+	private static void putInt(byte[] data, int offset, int value) {
+		for (int i = 0; i < 4; i++) {
+			data[offset + i] = (byte) (value >>> (24 - 8 * i));
+		}
+	}
+
+	private static int getInt(byte[] data, int offset) {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static void putLong(byte[] data, int offset, long value) {
+		for (int i = 0; i < 8; i++) {
+			data[offset + i] = (byte) (value >>> (56 - 8 * i));
+		}
+	}
+
+	private static long getLong(byte[] data, int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (data[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static void logError(String message) {
+		PlatformManager.getInstance().buildLogger().logError(message);
+	}
+
+	/**
+	 * Position of a value inside the log.
+	 */
+	private static class Location {
+		private final long valueOffset;
+		private final int valueLength;
+		private final int recordLength;
+
+		private Location(long valueOffset, int valueLength, int recordLength) {
+			this.valueOffset = valueOffset;
+			this.valueLength = valueLength;
+			this.recordLength = recordLength;
+		}
+	}
+}
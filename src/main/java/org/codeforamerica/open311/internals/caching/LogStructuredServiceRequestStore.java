@@ -0,0 +1,85 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.internals.platform.PlatformManager;
+
+/**
+ * {@link ServiceRequestStore} which keeps the requests in the log of a
+ * {@link LogStructuredCache}, so saving a request costs as much as the
+ * request, no matter how many requests are stored. The requests are encoded
+ * by a {@link BinaryCacheCodec} and they never expire.
+ *
+ * Only one instance must use a file at the same time. Thread-safe.
+ */
+public class LogStructuredServiceRequestStore implements ServiceRequestStore {
+    private static final String REQUEST_PREFIX = "request:";
+    private static final String LAST_UPDATE_PREFIX = "last_update:";
+    private static final Date NEVER = new Date(Long.MAX_VALUE);
+    private final LogStructuredCache log;
+    private final CacheCodec codec = new BinaryCacheCodec();
+
+    /**
+     * Opens (or creates) a store.
+     *
+     * @param file File of the store.
+     */
+    public LogStructuredServiceRequestStore(File file) {
+        log = new LogStructuredCache(file);
+    }
+
+    @Override
+    public ServiceRequest getServiceRequest(String mirror,
+                                            String serviceRequestId) {
+        byte[] data = log.getBinaryProperty(REQUEST_PREFIX + mirror + "|"
+                + serviceRequestId);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return (ServiceRequest) codec.decode(data).getObject();
+        } catch (IOException e) {
+            logError("Error decoding a stored request: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void saveServiceRequest(String mirror, ServiceRequest serviceRequest) {
+        try {
+            log.saveBinaryProperty(REQUEST_PREFIX + mirror + "|"
+                            + serviceRequest.getServiceRequestId(),
+                    codec.encode(new CacheableObject(serviceRequest, NEVER)));
+        } catch (IOException e) {
+            logError("Error encoding a stored request: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Date getLastUpdate(String mirror) {
+        String lastUpdate = log.getProperty(LAST_UPDATE_PREFIX + mirror);
+        return lastUpdate != null ? new Date(Long.parseLong(lastUpdate)) : null;
+    }
+
+    @Override
+    public void saveLastUpdate(String mirror, Date lastUpdate) {
+        log.saveProperty(LAST_UPDATE_PREFIX + mirror,
+                String.valueOf(lastUpdate.getTime()));
+    }
+
+    /**
+     * Closes the file of the store, it can't be used anymore.
+     *
+     * @throws IOException If there was any problem closing the file.
+     */
+    public void close() throws IOException {
+        log.close();
+    }
+
+    private static void logError(String message) {
+        PlatformManager.getInstance().buildLogger().logError(message);
+    }
+}
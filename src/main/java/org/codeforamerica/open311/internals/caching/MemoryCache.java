@@ -0,0 +1,61 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded, in-memory store of already deserialized
+ * {@link CacheableObject} instances. When it is full, the least recently used
+ * entry is evicted. Expired entries are kept (they can still be served as
+ * stale) until they are evicted or replaced.
+ *
+ * Thread-safe.
+ */
+/* package */class MemoryCache {
+	private final Map<String, CacheableObject> entries;
+
+	/**
+	 * @param maxEntries
+	 *            Maximum number of kept objects.
+	 */
+	/* package */MemoryCache(final int maxEntries) {
+		this.entries = new LinkedHashMap<String, CacheableObject>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 3326421371256532415L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, CacheableObject> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Looks for an entry, even if it has expired.
+	 *
+	 * @param key
+	 *            Key of the object.
+	 * @return The entry or <code>null</code> if it isn't stored.
+	 */
+	/* package */synchronized CacheableObject get(String key) {
+		return entries.get(key);
+	}
+
+	/* package */synchronized void put(String key,
+			CacheableObject cacheableObject) {
+		entries.put(key, cacheableObject);
+	}
+
+	/* package */synchronized void remove(String key) {
+		entries.remove(key);
+	}
+
+	/* package */synchronized void clear() {
+		entries.clear();
+	}
+
+	/* package */synchronized int size() {
+		return entries.size();
+	}
+}
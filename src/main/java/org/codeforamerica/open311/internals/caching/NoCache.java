@@ -1,5 +1,6 @@
 package org.codeforamerica.open311.internals.caching;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.codeforamerica.open311.facade.data.City;
@@ -9,6 +10,7 @@ import org.codeforamerica.open311.facade.data.ServiceDefinition;
 import org.codeforamerica.open311.facade.data.ServiceDiscoveryInfo;
 import org.codeforamerica.open311.facade.data.ServiceRequest;
 import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
+import org.codeforamerica.open311.internals.network.Validators;
 
 /**
  * This class is a special implementation of the {@link Cache} interface which
@@ -51,11 +53,43 @@ public class NoCache implements Cache {
 		return null;
 	}
 
+	@Override
+	public void saveListOfServices(String endpointUrl, List<Service> services,
+			Validators validators) {
+	}
+
+	@Override
+	public Validators retrieveServiceListValidators(String endpointUrl) {
+		return null;
+	}
+
+	@Override
+	public List<Service> renewServiceList(String endpointUrl) {
+		return null;
+	}
+
 	@Override
 	public void saveServiceDefinition(String endpointUrl, String serviceCode,
 			ServiceDefinition serviceDefinition) {
 	}
 
+	@Override
+	public void saveServiceDefinition(String endpointUrl, String serviceCode,
+			ServiceDefinition serviceDefinition, Validators validators) {
+	}
+
+	@Override
+	public Validators retrieveServiceDefinitionValidators(String endpointUrl,
+			String serviceCode) {
+		return null;
+	}
+
+	@Override
+	public ServiceDefinition renewServiceDefinition(String endpointUrl,
+			String serviceCode) {
+		return null;
+	}
+
 	@Override
 	public ServiceDefinition retrieveCachedServiceDefinition(
 			String endpointUrl, String serviceCode) {
@@ -73,6 +107,12 @@ public class NoCache implements Cache {
 		return null;
 	}
 
+	@Override
+	public List<GETServiceRequestsFilter> getMissingServiceRequestFilters(
+			String endpointUrl, GETServiceRequestsFilter filter) {
+		return Collections.singletonList(filter);
+	}
+
 	@Override
 	public void saveSingleServiceRequest(String endpointUrl,
 			String serviceRequestId, ServiceRequest request) {
@@ -93,4 +133,20 @@ public class NoCache implements Cache {
 			int timeToLiveInHours) {
 	}
 
+	@Override
+	public List<Service> retrieveStaleServiceList(String endpointUrl) {
+		return null;
+	}
+
+	@Override
+	public ServiceDefinition retrieveStaleServiceDefinition(
+			String endpointUrl, String serviceCode) {
+		return null;
+	}
+
+	@Override
+	public void setStaleTimeToLive(CacheableOperation operation,
+			int staleTimeToLiveInHours) {
+	}
+
 }
@@ -46,12 +46,12 @@ public class RegularJavaCache extends AbstractCache {
 	}
 
 	@Override
-	protected void saveProperty(String key, String value) {
+	protected synchronized void saveProperty(String key, String value) {
 		if (key != null && key.length() > 0 && value != null
 				&& value.length() > 0) {
 			try {
 				properties.setProperty(key, value);
-				properties.store(new FileOutputStream(FILE), null);
+				store();
 			} catch (IOException e) {
 				PlatformManager.getInstance().buildLogger()
 						.logError("Error saving a property: " + e.getMessage());
@@ -59,20 +59,49 @@ public class RegularJavaCache extends AbstractCache {
 		}
 	}
 
+	@Override
+	protected synchronized void deleteProperty(String key) {
+		if (properties.remove(key) != null) {
+			try {
+				store();
+			} catch (IOException e) {
+				PlatformManager.getInstance().buildLogger()
+						.logError("Error deleting a property: " + e.getMessage());
+			}
+		}
+	}
+
 	@Override
 	protected String getProperty(String key) {
 		return properties.getProperty(key);
 	}
 
 	@Override
-	public void deleteCache() {
+	public synchronized void deleteCache() {
+		super.deleteCache();
 		try {
 			properties.clear();
-			properties.store(new FileOutputStream(FILE), null);
+			store();
 		} catch (IOException e) {
 			PlatformManager.getInstance().buildLogger()
 					.logError("Error deleting the cache: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Writes all the properties to the cache file. Callers must hold the lock
+	 * of the instance, so two threads never write the file at the same time.
+	 * 
+	 * @throws IOException
+	 *             If the file couldn't be written.
+	 */
+	private void store() throws IOException {
+		FileOutputStream output = new FileOutputStream(FILE);
+		try {
+			properties.store(output, null);
+		} finally {
+			output.close();
+		}
+	}
+
 }
@@ -0,0 +1,66 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * {@link CacheCodec} which uses the Java serialization. It can encode any
+ * {@link Serializable} object, but the encoded data carries the description
+ * of every class, so it is big and slow to decode.
+ */
+public class SerializationCacheCodec implements CacheCodec {
+    /**
+     * First bytes of every Java serialization stream.
+     */
+    /* package */ static final int STREAM_MAGIC = 0xACED;
+
+    @Override
+    public byte[] encode(CacheableObject cacheableObject) throws IOException {
+        return serialize(cacheableObject);
+    }
+
+    @Override
+    public CacheableObject decode(byte[] data) throws IOException {
+        Object object = deserialize(data);
+        if (!(object instanceof CacheableObject)) {
+            throw new IOException("Not a cached object");
+        }
+        return (CacheableObject) object;
+    }
+
+    /**
+     * @return <code>true</code> if the data starts like a Java serialization
+     * stream.
+     */
+    /* package */
+    static boolean isSerialized(byte[] data) {
+        return data.length >= 2
+                && ((data[0] & 0xFF) << 8 | (data[1] & 0xFF)) == STREAM_MAGIC;
+    }
+
+    /* package */
+    static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(object);
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    /* package */
+    static Object deserialize(byte[] data) throws IOException {
+        ObjectInputStream input = new ObjectInputStream(
+                new ByteArrayInputStream(data));
+        try {
+            return input.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            input.close();
+        }
+    }
+}
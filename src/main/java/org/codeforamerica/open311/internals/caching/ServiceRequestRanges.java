@@ -0,0 +1,193 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+
+/**
+ * Index of the time ranges which were asked to the endpoint with the same
+ * filter (same service code, status...). A range which is covered by the
+ * fetched segments can be answered without asking the endpoint, and only the
+ * uncovered slices of a range have to be fetched.
+ *
+ * The index only keeps the bounds of the segments: the requests of every
+ * segment are a cache entry of their own (check {@link Segment#id}), so
+ * adding a segment doesn't rewrite the requests of the others. A segment
+ * which is partially replaced by a newer one keeps its entry, its bounds
+ * just shrink.
+ *
+ * Segments are sorted and disjoint, times are inclusive milliseconds since the
+ * epoch. Every segment expires on its own. Instances are immutable, so they
+ * can be shared by the memory tier.
+ */
+/* package */class ServiceRequestRanges implements Serializable {
+    private static final long serialVersionUID = -3981754163200871513L;
+    private final List<Segment> segments;
+    /**
+     * Id of the next new segment.
+     */
+    private final long nextId;
+
+    /* package */ServiceRequestRanges() {
+        this(Collections.<Segment>emptyList(), 0);
+    }
+
+    /* package */ServiceRequestRanges(List<Segment> segments, long nextId) {
+        this.segments = Collections.unmodifiableList(new ArrayList<Segment>(
+                segments));
+        this.nextId = nextId;
+    }
+
+    /* package */List<Segment> getSegments() {
+        return segments;
+    }
+
+    /* package */long getNextId() {
+        return nextId;
+    }
+
+    /**
+     * Builds a segment with a new id, which has to be added to this index.
+     *
+     * @param start      First instant of the range.
+     * @param end        Last instant of the range.
+     * @param expiration Time when the segment stops being valid.
+     * @return A new segment.
+     */
+    /* package */Segment newSegment(long start, long end, long expiration) {
+        return new Segment(start, end, expiration, nextId);
+    }
+
+    /**
+     * Builds a new index with a fetched segment. The overlapped parts of the
+     * previous segments are replaced and the expired ones are dropped.
+     *
+     * @param segment Fetched segment, built by {@link #newSegment(long, long, long)}.
+     * @param now     Current time.
+     * @return A new index.
+     */
+    /* package */ServiceRequestRanges add(Segment segment, long now) {
+        List<Segment> result = new ArrayList<Segment>();
+        boolean added = false;
+        for (Segment current : segments) {
+            if (current.expiration <= now) {
+                continue;
+            }
+            if (current.start < segment.start) {
+                result.add(current.slice(current.start,
+                        Math.min(current.end, segment.start - 1)));
+            }
+            if (current.end > segment.end) {
+                if (!added) {
+                    result.add(segment);
+                    added = true;
+                }
+                result.add(current.slice(
+                        Math.max(current.start, segment.end + 1), current.end));
+            }
+        }
+        if (!added) {
+            result.add(segment);
+        }
+        return new ServiceRequestRanges(result, Math.max(nextId,
+                segment.id + 1));
+    }
+
+    /**
+     * Looks for the segments of a range.
+     *
+     * @param start First instant of the range.
+     * @param end   Last instant of the range.
+     * @param now   Current time.
+     * @return The live segments which overlap the range, sorted, or
+     * <code>null</code> if the range isn't fully covered by them.
+     */
+    /* package */List<Segment> get(long start, long end, long now) {
+        if (!getGaps(start, end, now).isEmpty()) {
+            return null;
+        }
+        List<Segment> result = new ArrayList<Segment>();
+        for (Segment segment : segments) {
+            if (segment.expiration > now && segment.start <= end
+                    && segment.end >= start) {
+                result.add(segment);
+            }
+        }
+        return result;
+    }
+    /**
+     * Computes the slices of a range which aren't covered by live segments.
+     *
+     * @param start First instant of the range.
+     * @param end   Last instant of the range.
+     * @param now   Current time.
+     * @return Pairs (start, end) of the uncovered slices, sorted.
+     */
+    /* package */List<long[]> getGaps(long start, long end, long now) {
+        List<long[]> gaps = new ArrayList<long[]>();
+        long next = start;
+        for (Segment segment : segments) {
+            if (segment.expiration <= now || segment.end < next) {
+                continue;
+            }
+            if (segment.start > end) {
+                break;
+            }
+            if (segment.start > next) {
+                gaps.add(new long[]{next, segment.start - 1});
+            }
+            if (segment.end >= end) {
+                return gaps;
+            }
+            next = segment.end + 1;
+        }
+        gaps.add(new long[]{next, end});
+        return gaps;
+    }
+
+    /**
+     * Time range which was fetched from the endpoint.
+     */
+    /* package */static final class Segment implements Serializable {
+        private static final long serialVersionUID = 6120398764413250983L;
+        final long start;
+        final long end;
+        final long expiration;
+        /**
+         * Identifies the cache entry with the requests of the segment, which
+         * may be wider than the segment if it was partially replaced.
+         */
+        final long id;
+
+        /**
+         * @param start      First instant of the range.
+         * @param end        Last instant of the range.
+         * @param expiration Time when the segment stops being valid.
+         * @param id         Id of the entry with the requests of the segment.
+         */
+        /* package */Segment(long start, long end, long expiration, long id) {
+            this.start = start;
+            this.end = end;
+            this.expiration = expiration;
+            this.id = id;
+        }
+
+        private Segment slice(long sliceStart, long sliceEnd) {
+            if (sliceStart == start && sliceEnd == end) {
+                return this;
+            }
+            return new Segment(sliceStart, sliceEnd, expiration, id);
+        }
+
+        /**
+         * @return <code>true</code> if the request belongs to the segment.
+         */
+        /* package */boolean contains(ServiceRequest request) {
+            long time = request.getRequestedDatetime().getTime();
+            return time >= start && time <= end;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.codeforamerica.open311.internals.caching;
+
+import java.util.Date;
+
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+
+/**
+ * Persistent local copy of the service requests of one or more endpoints.
+ * Unlike the {@link Cache}, the stored requests never expire: they are
+ * replaced when they change. Every mirror (an endpoint and a jurisdiction)
+ * keeps the date of the last update it has seen.
+ *
+ * Implementations must be thread-safe.
+ */
+public interface ServiceRequestStore {
+
+    /**
+     * Looks for a stored service request.
+     *
+     * @param mirror           Identifier of the mirror.
+     * @param serviceRequestId Id of the request.
+     * @return The last stored version of the request or <code>null</code> if
+     * it isn't stored.
+     */
+    ServiceRequest getServiceRequest(String mirror, String serviceRequestId);
+
+    /**
+     * Saves a service request, replacing the previous version with the same
+     * id.
+     *
+     * @param mirror         Identifier of the mirror.
+     * @param serviceRequest Request to save, it must have an id.
+     */
+    void saveServiceRequest(String mirror, ServiceRequest serviceRequest);
+
+    /**
+     * @param mirror Identifier of the mirror.
+     * @return The latest update date seen in the mirror or <code>null</code>
+     * if it has never been synchronized.
+     */
+    Date getLastUpdate(String mirror);
+
+    /**
+     * Saves the latest update date seen in the mirror.
+     *
+     * @param mirror     Identifier of the mirror.
+     * @param lastUpdate Latest update date.
+     */
+    void saveLastUpdate(String mirror, Date lastUpdate);
+}
@@ -0,0 +1,102 @@
+package org.codeforamerica.open311.internals.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link Future} which is completed from outside, once the result (or the
+ * failure) of an operation is known. Only the first completion counts.
+ *
+ * @param <T> Type of the result.
+ */
+public class ResultFuture<T> implements Future<T> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private T result;
+    private Throwable failure;
+    private boolean cancelled;
+
+    /**
+     * Completes the future with a result.
+     *
+     * @param result Result of the operation.
+     * @return <code>true</code> if this call completed the future.
+     */
+    public boolean set(T result) {
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.result = result;
+            done.countDown();
+        }
+        return true;
+    }
+
+    /**
+     * Completes the future with a failure.
+     *
+     * @param failure Cause of the failure.
+     * @return <code>true</code> if this call completed the future.
+     */
+    public boolean setException(Throwable failure) {
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.failure = failure;
+            done.countDown();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            cancelled = true;
+            done.countDown();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private synchronized T getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+package org.codeforamerica.open311.internals.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces identical concurrent calls: while a call with a given key is
+ * running, other calls with the same key don't run, they wait for it and get
+ * its result (the same object) or its failure. Once it finishes, the next call
+ * with that key runs again.
+ *
+ * Thread-safe.
+ */
+public class SingleFlight {
+    private final ConcurrentMap<Object, ResultFuture<Object>> calls = new ConcurrentHashMap<Object, ResultFuture<Object>>();
+
+    /**
+     * Runs a call, or waits for the running call with the same key.
+     *
+     * @param key  Identifies the call (it must implement
+     *             <code>equals</code> and <code>hashCode</code>).
+     * @param call Call to run if there isn't one with the same key.
+     * @param <T>  Type of the result.
+     * @return The result of the call.
+     * @throws ExecutionException   If the call failed, its cause is the thrown
+     *                              exception (the same for every caller).
+     * @throws InterruptedException If the thread was interrupted while it was
+     *                              waiting.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Object key, Callable<T> call)
+            throws ExecutionException, InterruptedException {
+        ResultFuture<Object> future = new ResultFuture<Object>();
+        ResultFuture<Object> running = calls.putIfAbsent(key, future);
+        if (running != null) {
+            return (T) running.get();
+        }
+        try {
+            T result = call.call();
+            future.set(result);
+            return result;
+        } catch (Exception e) {
+            future.setException(e);
+            throw new ExecutionException(e);
+        } catch (Error e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * @return Number of calls which are running.
+     */
+    public int size() {
+        return calls.size();
+    }
+}
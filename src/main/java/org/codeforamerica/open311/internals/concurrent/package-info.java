@@ -0,0 +1,4 @@
+/**
+ * Concurrency related functionality (futures, executors...).
+ */
+package org.codeforamerica.open311.internals.concurrent;
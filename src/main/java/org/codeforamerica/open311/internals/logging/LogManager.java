@@ -1,7 +1,8 @@
 package org.codeforamerica.open311.internals.logging;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codeforamerica.open311.internals.platform.PlatformManager;
 
@@ -23,9 +24,11 @@ public class LogManager {
 	 */
 	private static LogManager instance = new LogManager();
 	/**
-	 * Contains a wrapper if it has to be logged.
+	 * Contains a wrapper if it has to be logged. It is read by every operation
+	 * of every wrapper, whatever the thread.
 	 */
-	private static Set<Object> loggedObjects = new HashSet<Object>();
+	private static Set<Object> loggedObjects = Collections
+			.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
 
 	/**
 	 * Prevents other classes to instantiate this class.
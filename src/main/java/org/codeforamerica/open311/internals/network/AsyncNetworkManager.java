@@ -0,0 +1,57 @@
+package org.codeforamerica.open311.internals.network;
+
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.codeforamerica.open311.facade.Format;
+
+/**
+ * A {@link NetworkManager} which is also able to perform non-blocking
+ * requests. The calling thread is never blocked: the result is delivered to
+ * a {@link ResponseCallback} when it is available.
+ */
+public interface AsyncNetworkManager extends NetworkManager {
+
+    /**
+     * Sends a GET HTTP request without blocking the calling thread.
+     *
+     * @param url      Target.
+     * @param callback Receives the server response or the failure.
+     */
+    void doGetAsync(HttpUrl url, ResponseCallback callback);
+
+    /**
+     * Sends a POST HTTP request without blocking the calling thread.
+     *
+     * @param url        Target.
+     * @param parameters Parameters of the POST operation.
+     * @param callback   Receives the server response or the failure.
+     */
+    void doPostAsync(HttpUrl url, Map<String, String> parameters,
+                     ResponseCallback callback);
+
+    /**
+     * Receives the result of a non-blocking request. Implementations shouldn't
+     * do heavy work in these methods because they are called from the network
+     * threads.
+     */
+    interface ResponseCallback {
+        /**
+         * Called when the server sent a successful response.
+         *
+         * @param response Server response.
+         * @param format   Format detected from the response.
+         */
+        void onResponse(String response, Format format);
+
+        /**
+         * Called if there was any problem with the connection or the response
+         * was not successful.
+         *
+         * @param e Cause of the failure.
+         */
+        void onFailure(IOException e);
+    }
+}
@@ -0,0 +1,97 @@
+package org.codeforamerica.open311.internals.network;
+
+/**
+ * Stops sending requests to a failing server for a while. After a number of
+ * consecutive failures the circuit opens and requests are rejected at once.
+ * Once the open time elapses, a single trial request is let through: the
+ * circuit closes if it succeeds and opens again if it fails. Thread-safe.
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold Consecutive failures which open the circuit.
+     * @param openMillis       Time (in milliseconds) the circuit stays open
+     *                         before a trial request.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1 || openMillis < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Checks if a request can be sent. If it returns <code>true</code>, the
+     * outcome of the request has to be recorded.
+     *
+     * @return <code>false</code> if the circuit is open (or a trial request is
+     * running).
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openMillis) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records that the server answered.
+     */
+    public synchronized void recordSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records that the server failed or couldn't be reached.
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker [state=" + state + ", failures=" + failures
+                + "]";
+    }
+
+    /**
+     * States of the circuit.
+     */
+    public enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests are rejected.
+         */
+        OPEN,
+        /**
+         * A trial request is running, others are rejected.
+         */
+        HALF_OPEN
+    }
+}
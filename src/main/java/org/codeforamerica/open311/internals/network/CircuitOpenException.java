@@ -0,0 +1,19 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to a server whose
+ * {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = -6114409216395843713L;
+
+    /**
+     * @param server Server which is failing.
+     */
+    public CircuitOpenException(String server) {
+        super("Circuit open - " + server
+                + " is failing, the request wasn't sent");
+    }
+}
@@ -0,0 +1,180 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes compressed response bodies (<code>Content-Encoding</code>) while
+ * they are read, so a compressed body is never held in memory, and counts the
+ * received and decoded bytes.
+ */
+/* package */ final class ContentDecoding {
+    /**
+     * Value of the <code>Accept-Encoding</code> header: the encodings which
+     * can be decoded.
+     */
+    /* package */ static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private ContentDecoding() {
+    }
+
+    /**
+     * Wraps a response body so it is decoded while it is read. The sizes are
+     * recorded once the body is fully read or closed.
+     *
+     * @param body            Body as it is received.
+     * @param contentEncoding Value of the <code>Content-Encoding</code>
+     *                        header, it can be <code>null</code>.
+     * @param statistics      Receives the sizes of the body.
+     * @return The decoded body.
+     * @throws IOException If the encoding is not supported or the body is not
+     *                     properly encoded.
+     */
+    /* package */ static InputStream decode(InputStream body,
+                                            String contentEncoding, TransferStatistics statistics)
+            throws IOException {
+        CountingInputStream received = new CountingInputStream(body);
+        String encoding = contentEncoding != null ? contentEncoding.trim()
+                .toLowerCase(Locale.ENGLISH) : "";
+        InputStream decoded;
+        if (encoding.length() == 0 || encoding.equals("identity")) {
+            decoded = received;
+        } else if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            decoded = new GZIPInputStream(received);
+        } else if (encoding.equals("deflate")) {
+            decoded = inflate(received);
+        } else {
+            body.close();
+            throw new IOException("Unsupported content encoding - "
+                    + contentEncoding);
+        }
+        return new DecodedInputStream(decoded, received, decoded != received,
+                statistics);
+    }
+
+    /**
+     * "deflate" should be a zlib stream, but some servers send the raw
+     * deflate data, so the header is checked.
+     */
+    private static InputStream inflate(InputStream body) throws IOException {
+        PushbackInputStream input = new PushbackInputStream(body, 2);
+        int first = input.read();
+        int second = input.read();
+        if (second != -1) {
+            input.unread(second);
+        }
+        if (first != -1) {
+            input.unread(first);
+        }
+        boolean zlib = first != -1 && second != -1 && (first & 0x0F) == 8
+                && ((first << 8) | second) % 31 == 0;
+        return new InflaterInputStream(input, new Inflater(!zlib));
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+    }
+
+    /**
+     * Counts the decoded bytes and records the sizes at the end of the body.
+     */
+    private static class DecodedInputStream extends CountingInputStream {
+        private final CountingInputStream received;
+        private final boolean compressed;
+        private final TransferStatistics statistics;
+        private boolean recorded;
+
+        private DecodedInputStream(InputStream decoded,
+                                   CountingInputStream received, boolean compressed,
+                                   TransferStatistics statistics) {
+            super(decoded);
+            this.received = received;
+            this.compressed = compressed;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                record();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                record();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                record();
+            }
+        }
+
+        private void record() {
+            if (!recorded) {
+                recorded = true;
+                statistics.record(compressed, received.count,
+                        compressed ? super.count : received.count);
+            }
+        }
+    }
+}
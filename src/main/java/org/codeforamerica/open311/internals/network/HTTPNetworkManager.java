@@ -2,8 +2,13 @@ package org.codeforamerica.open311.internals.network;
 
 import android.util.Log;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.FormBody;
 import okhttp3.HttpUrl;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -12,16 +17,23 @@ import okhttp3.Response;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.UnknownServiceException;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 
 import org.codeforamerica.open311.facade.Format;
 import org.codeforamerica.open311.facade.data.Header;
@@ -33,14 +45,52 @@ import javax.net.ssl.X509TrustManager;
  * Implementation using the <a href="http://square.github.io/okhttp/">
  * okHttp</> library.
  *
+ * Compressed responses (gzip and deflate) are asked for explicitly and
+ * decoded while they are read, the bytes received from every endpoint are
+ * recorded (check {@link #getTransferStatistics()}).
+ *
  * @author Santiago Munín <santimunin@gmail.com>
  * @author Milo van der Linden <milo@dogodigi.net>
  */
-public class HTTPNetworkManager implements NetworkManager {
-    private Format format;
-    private List<Header> headers = new ArrayList<Header>();
+public class HTTPNetworkManager implements AsyncNetworkManager,
+        StreamingNetworkManager {
+    /**
+     * Maximum number of idle connections kept alive by the default pool.
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    /**
+     * Time (in minutes) an idle connection is kept alive by the default pool.
+     */
+    public static final long DEFAULT_KEEP_ALIVE_MINUTES = 5;
+    /**
+     * Maximum number of concurrent requests of the default dispatcher.
+     */
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+    /**
+     * Maximum number of concurrent requests per host of the default
+     * dispatcher.
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+    /**
+     * Client shared by every instance built with the default constructor.
+     */
+    private static OkHttpClient sharedHttpClient;
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+    private static final int HTTP_NOT_MODIFIED = 304;
+    /**
+     * Format of the last response, responses carry their own format so it is
+     * only kept for {@link #getFormat()}.
+     */
+    private volatile Format format;
+    private final List<Header> headers = new CopyOnWriteArrayList<Header>();
+    private final ConcurrentMap<String, TransferStatistics> transferStatistics = new ConcurrentHashMap<String, TransferStatistics>();
+    /**
+     * Urls of the endpoints whose transfers are recorded on their own.
+     */
+    private final Set<String> endpointUrls = new CopyOnWriteArraySet<String>();
+    private final OkHttpClient client;
 
-    private X509TrustManager provideX509TrustManager() throws CertificateException, IOException {
+    private static X509TrustManager provideX509TrustManager() throws CertificateException, IOException {
         // Add the certificate for open311_io so older versions of Android (<4.3) will not fail.
         CertificateFactory cf = CertificateFactory.getInstance("X.509");
         InputStream open311_io = HTTPNetworkManager.class.getResourceAsStream("/www_open311_io.crt");
@@ -55,39 +105,97 @@ public class HTTPNetworkManager implements NetworkManager {
             TrustManager[] trustManagers = CompositeX509TrustManager.getTrustManagers(keyStore);
             return (X509TrustManager) trustManagers[0];
         } catch (NoSuchAlgorithmException exception) {
-            Log.e(getClass().getSimpleName(), "no trust manager available", exception);
+            Log.e(HTTPNetworkManager.class.getSimpleName(), "no trust manager available", exception);
         } catch (KeyStoreException exception) {
-            Log.e(getClass().getSimpleName(), "no trust manager available", exception);
+            Log.e(HTTPNetworkManager.class.getSimpleName(), "no trust manager available", exception);
         } finally {
             open311_io.close();
+            peoriagov_org.close();
         }
         return null;
     }
 
-    private OkHttpClient provideHttpClient(TLSSocketFactory sslSocketFactory, X509TrustManager trustManager) {
-        return new OkHttpClient.Builder()
-                .sslSocketFactory(sslSocketFactory, trustManager)
-                .build();
-    }
-
-    private OkHttpClient getHttpClient() {
+    /**
+     * Builds a client with the bundled certificates. The certificates, the
+     * trust manager and the {@link TLSSocketFactory} are created only once per
+     * client, so every connection of the client shares the same TLS session
+     * cache.
+     *
+     * @param connectionPool Pool which keeps the connections alive.
+     * @param dispatcher     Dispatcher which limits the concurrent requests.
+     * @return A client or <code>null</code> if the TLS configuration failed.
+     */
+    private static OkHttpClient buildHttpClient(ConnectionPool connectionPool, Dispatcher dispatcher) {
         try {
             X509TrustManager tm = provideX509TrustManager();
             TLSSocketFactory tlsSocketFactory = new TLSSocketFactory(tm);
-            return provideHttpClient(tlsSocketFactory, tm);
+            return new OkHttpClient.Builder()
+                    .sslSocketFactory(tlsSocketFactory, tm)
+                    .connectionPool(connectionPool)
+                    .dispatcher(dispatcher)
+                    .build();
         } catch (KeyManagementException e) {
-            Log.e(getClass().getSimpleName(), "no tls ssl socket factory available", e);
+            Log.e(HTTPNetworkManager.class.getSimpleName(), "no tls ssl socket factory available", e);
         } catch (NoSuchAlgorithmException e) {
-            Log.e(getClass().getSimpleName(), "no tls ssl socket factory available", e);
+            Log.e(HTTPNetworkManager.class.getSimpleName(), "no tls ssl socket factory available", e);
         } catch (CertificateException e) {
-            Log.e(getClass().getSimpleName(), "CertificateException", e);
+            Log.e(HTTPNetworkManager.class.getSimpleName(), "CertificateException", e);
         } catch (IOException e) {
-            Log.e(getClass().getSimpleName(), "IOException", e);
+            Log.e(HTTPNetworkManager.class.getSimpleName(), "IOException", e);
         }
         return null;
     }
 
+    /**
+     * Returns the process-wide client, building it the first time.
+     *
+     * @return The shared client or <code>null</code> if it couldn't be built.
+     */
+    private static synchronized OkHttpClient getSharedHttpClient() {
+        if (sharedHttpClient == null) {
+            sharedHttpClient = buildHttpClient(
+                    new ConnectionPool(DEFAULT_MAX_IDLE_CONNECTIONS,
+                            DEFAULT_KEEP_ALIVE_MINUTES, TimeUnit.MINUTES),
+                    buildDispatcher(DEFAULT_MAX_REQUESTS,
+                            DEFAULT_MAX_REQUESTS_PER_HOST));
+        }
+        return sharedHttpClient;
+    }
+
+    private static Dispatcher buildDispatcher(int maxRequests, int maxRequestsPerHost) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        return dispatcher;
+    }
+
+    /**
+     * Builds an instance which uses the process-wide client, so connections
+     * (and TLS sessions) are reused among all the instances.
+     */
     public HTTPNetworkManager() {
+        this(getSharedHttpClient());
+    }
+
+    /**
+     * Builds an instance with its own client, useful if the default pool or
+     * dispatcher limits don't fit your needs.
+     *
+     * @param maxIdleConnections Maximum number of idle connections kept alive.
+     * @param keepAliveDuration  Time an idle connection is kept alive.
+     * @param timeUnit           Unit of the <code>keepAliveDuration</code>.
+     * @param maxRequests        Maximum number of concurrent requests.
+     * @param maxRequestsPerHost Maximum number of concurrent requests per host.
+     */
+    public HTTPNetworkManager(int maxIdleConnections, long keepAliveDuration,
+                              TimeUnit timeUnit, int maxRequests, int maxRequestsPerHost) {
+        this(buildHttpClient(
+                new ConnectionPool(maxIdleConnections, keepAliveDuration, timeUnit),
+                buildDispatcher(maxRequests, maxRequestsPerHost)));
+    }
+
+    private HTTPNetworkManager(OkHttpClient client) {
+        this.client = client;
         Locale locale = Locale.getDefault();
         Header mHeader = new Header("Accept-Language", locale.getLanguage() + "-" + locale.getCountry() + ", " + locale.getLanguage() + ";q=0.7, *;q=0.5");
         this.headers.add(mHeader);
@@ -95,6 +203,9 @@ public class HTTPNetworkManager implements NetworkManager {
 
     private Request.Builder setRequestBuilder() {
         Request.Builder requestBuilder = new Request.Builder();
+        // okHttp only asks for gzip and hides the received size otherwise.
+        requestBuilder.header("Accept-Encoding",
+                ContentDecoding.ACCEPT_ENCODING);
         for (Header mH : this.headers) {
             requestBuilder.addHeader(mH.getKey(), mH.getValue());
         }
@@ -103,31 +214,61 @@ public class HTTPNetworkManager implements NetworkManager {
 
     @Override
     public String doGet(HttpUrl url) throws IOException {
-        OkHttpClient client = getHttpClient();
+        return execute(buildGetRequest(url));
+    }
+
+
+    @Override
+    public String doPost(HttpUrl url, Map<String, String> parameters) throws IOException {
+        return execute(buildPostRequest(url, parameters));
+    }
+
+    @Override
+    public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+        return doGetStream(url, null);
+    }
+
+    @Override
+    public NetworkResponse doGetStream(HttpUrl url, Validators validators)
+            throws IOException {
         Request.Builder mRequestbuilder = setRequestBuilder();
         mRequestbuilder.url(url);
-        Request request = mRequestbuilder.build();
-        if (client != null) {
-            Response response = client.newCall(request).execute();
-            if (response.isSuccessful()) {
-                setFormatFromResponse(response);
-                return response.body().string();
-            } else {
-                throw new IOException(
-                        "Invalid response - " + response.message()
-                );
+        if (validators != null) {
+            if (validators.getETag() != null) {
+                mRequestbuilder.header("If-None-Match", validators.getETag());
+            }
+            if (validators.getLastModified() != null) {
+                mRequestbuilder.header("If-Modified-Since",
+                        validators.getLastModified());
             }
-        } else {
-            throw new IOException(
-                    "OkHttpClient not set"
-            );
         }
+        return open(mRequestbuilder.build());
     }
 
+    @Override
+    public NetworkResponse doPostStream(HttpUrl url,
+                                        Map<String, String> parameters) throws IOException {
+        return open(buildPostRequest(url, parameters));
+    }
 
     @Override
-    public String doPost(HttpUrl url, Map<String, String> parameters) throws IOException {
-        OkHttpClient client = getHttpClient();
+    public void doGetAsync(HttpUrl url, ResponseCallback callback) {
+        enqueue(buildGetRequest(url), callback);
+    }
+
+    @Override
+    public void doPostAsync(HttpUrl url, Map<String, String> parameters,
+                            ResponseCallback callback) {
+        enqueue(buildPostRequest(url, parameters), callback);
+    }
+
+    private Request buildGetRequest(HttpUrl url) {
+        Request.Builder mRequestbuilder = setRequestBuilder();
+        mRequestbuilder.url(url);
+        return mRequestbuilder.build();
+    }
+
+    private Request buildPostRequest(HttpUrl url, Map<String, String> parameters) {
         Request.Builder mRequestbuilder = setRequestBuilder();
         mRequestbuilder.url(url);
         FormBody.Builder formBuilder = new FormBody.Builder();
@@ -136,24 +277,192 @@ public class HTTPNetworkManager implements NetworkManager {
         }
         RequestBody body = formBuilder.build();
         mRequestbuilder.post(body);
-        Request request = mRequestbuilder.build();
-        Response response;
-        if (client != null) {
-            response = client.newCall(request).execute();
-            if (response.isSuccessful()) {
-                setFormatFromResponse(response);
-                return response.body().string();
-            } else {
-                throw new IOException(
-                        "Invalid response - " + response.message()
-                );
-            }
-        } else {
+        return mRequestbuilder.build();
+    }
+
+    /**
+     * Executes a request with the client of this instance and reads the whole
+     * body. The body is always closed so the connection can go back to the
+     * pool.
+     *
+     * @param request Request to execute.
+     * @return Body of the response.
+     * @throws IOException If there was any problem with the connection or the
+     *                     response is not successful.
+     */
+    private String execute(Request request) throws IOException {
+        if (client == null) {
             throw new IOException(
                     "OkHttpClient not set"
             );
         }
+        Response response = client.newCall(request).execute();
+        try {
+            checkResponse(response);
+            this.format = getFormatFromResponse(response);
+            return readBody(response);
+        } finally {
+            response.body().close();
+        }
+    }
+
+    /**
+     * Executes a request with the client of this instance without reading the
+     * body.
+     *
+     * @param request Request to execute.
+     * @return The response, it has to be closed by the caller.
+     * @throws IOException If there was any problem with the connection or the
+     *                     response is not successful.
+     */
+    private NetworkResponse open(Request request) throws IOException {
+        if (client == null) {
+            throw new IOException(
+                    "OkHttpClient not set"
+            );
+        }
+        Response response = client.newCall(request).execute();
+        try {
+            Validators validators = Validators.from(response.header("ETag"),
+                    response.header("Last-Modified"));
+            if (response.code() == HTTP_NOT_MODIFIED) {
+                response.body().close();
+                return NetworkResponse.notModified(validators);
+            }
+            checkResponse(response);
+            Format responseFormat = getFormatFromResponse(response);
+            this.format = responseFormat;
+            return new NetworkResponse(openBody(response), responseFormat,
+                    getCharset(response), validators);
+        } catch (IOException e) {
+            response.body().close();
+            throw e;
+        }
+    }
 
+    /**
+     * Enqueues a request in the dispatcher of the client of this instance. No
+     * thread is blocked while waiting for the server.
+     *
+     * @param request  Request to enqueue.
+     * @param callback Receives the body of the response or the failure.
+     */
+    private void enqueue(Request request, final ResponseCallback callback) {
+        if (client == null) {
+            callback.onFailure(new IOException(
+                    "OkHttpClient not set"
+            ));
+            return;
+        }
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                callback.onFailure(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                String body;
+                Format responseFormat;
+                try {
+                    checkResponse(response);
+                    responseFormat = getFormatFromResponse(response);
+                    body = readBody(response);
+                } catch (IOException e) {
+                    callback.onFailure(e);
+                    return;
+                } finally {
+                    response.body().close();
+                }
+                callback.onResponse(body, responseFormat);
+            }
+        });
+    }
+
+    /**
+     * Opens the body of a response, decoding it if it is compressed.
+     */
+    private InputStream openBody(Response response) throws IOException {
+        return ContentDecoding.decode(response.body().byteStream(),
+                response.header("Content-Encoding"),
+                getTransferStatistics(getEndpoint(response.request().url())));
+    }
+
+    /**
+     * Reads the whole (decoded) body of a response.
+     */
+    private String readBody(Response response) throws IOException {
+        NetworkResponse body = new NetworkResponse(openBody(response), null,
+                getCharset(response));
+        try {
+            return body.readBody();
+        } finally {
+            body.close();
+        }
+    }
+
+    private static Charset getCharset(Response response) {
+        MediaType contentType = response.body().contentType();
+        return contentType != null ? contentType.charset(DEFAULT_CHARSET)
+                : DEFAULT_CHARSET;
+    }
+
+    /**
+     * Records the transfers of the requests to an endpoint on their own, even
+     * if its server hosts more endpoints (for example, the production and the
+     * test ones). The {@link org.codeforamerica.open311.facade.APIWrapper}s
+     * add their endpoints.
+     *
+     * @param endpointUrl Url of the endpoint, the prefix of its requests.
+     */
+    public void addEndpoint(String endpointUrl) {
+        if (endpointUrl != null && endpointUrl.length() > 0) {
+            endpointUrls.add(endpointUrl);
+        }
+    }
+
+    /**
+     * @return The longest known endpoint url which begins the url, or its
+     * server (scheme, host and port) if there isn't any.
+     */
+    /* package */ String getEndpoint(HttpUrl url) {
+        String endpoint = RateLimitedNetworkManager.getLongestPrefix(
+                endpointUrls, url);
+        return endpoint != null ? endpoint : url.scheme() + "://" + url.host()
+                + ":" + url.port();
+    }
+
+    private TransferStatistics getTransferStatistics(String endpoint) {
+        TransferStatistics statistics = transferStatistics.get(endpoint);
+        if (statistics == null) {
+            statistics = new TransferStatistics();
+            TransferStatistics previous = transferStatistics.putIfAbsent(endpoint,
+                    statistics);
+            if (previous != null) {
+                statistics = previous;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Bytes received from every endpoint, compressed and decoded, so the
+     * bandwidth saved by the compression can be checked.
+     *
+     * @return An unmodifiable view (updated while requests are done) whose
+     * keys are the endpoint urls (check {@link #addEndpoint(String)}) or, for
+     * the requests to unknown endpoints, their servers.
+     */
+    public Map<String, TransferStatistics> getTransferStatistics() {
+        return Collections.unmodifiableMap(transferStatistics);
+    }
+
+    private void checkResponse(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new HTTPStatusException(response.code(),
+                    "Invalid response - " + response.message()
+            );
+        }
     }
 
     @Override
@@ -172,14 +481,14 @@ public class HTTPNetworkManager implements NetworkManager {
         return this.format;
     }
 
-    private void setFormatFromResponse(Response response) throws UnknownServiceException {
+    private Format getFormatFromResponse(Response response) throws UnknownServiceException {
         if (response.body().contentType().subtype().equals("xml")) {
-            this.format = Format.XML;
+            return Format.XML;
         } else if (response.body().contentType().subtype().equals("json")) {
-            this.format = Format.JSON;
+            return Format.JSON;
         } else if (response.body().contentType().subtype().equals("plain")) {
             //TORONTO fix
-            this.format = Format.JSON;
+            return Format.JSON;
         } else {
             throw new UnknownServiceException(
                     "Invalid response type - " + response.body().contentType().subtype()
@@ -0,0 +1,35 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answered with an unsuccessful HTTP status code.
+ */
+public class HTTPStatusException extends IOException {
+    private static final long serialVersionUID = 2873468502395617024L;
+    private final int code;
+
+    /**
+     * @param code    HTTP status code of the response.
+     * @param message Description of the problem.
+     */
+    public HTTPStatusException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    /**
+     * @return HTTP status code of the response.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return <code>true</code> if the server failed or was overloaded (5xx,
+     * 408 or 429), so the request could succeed later.
+     */
+    public boolean isServerFailure() {
+        return code >= 500 || code == 408 || code == 429;
+    }
+}
@@ -5,9 +5,11 @@ import com.google.gson.GsonBuilder;
 
 import okhttp3.HttpUrl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +25,7 @@ import org.codeforamerica.open311.facade.data.ServiceRequest;
 import org.codeforamerica.open311.facade.data.ServiceRequestIdResponse;
 import org.codeforamerica.open311.facade.data.Value;
 import org.codeforamerica.open311.facade.exceptions.GeoReportV2Error;
+import org.codeforamerica.open311.internals.parsing.DataParser;
 import org.codeforamerica.open311.internals.parsing.DateParser;
 
 /**
@@ -30,8 +33,12 @@ import org.codeforamerica.open311.internals.parsing.DateParser;
  *
  * @author Santiago Munín <santimunin@gmail.com>
  */
-public class MockNetworkManager implements NetworkManager {
-    private Format format = Format.XML;
+public class MockNetworkManager implements StreamingNetworkManager {
+    /**
+     * ETag of every response.
+     */
+    public static final String ETAG = "\"mock\"";
+    private volatile Format format = Format.XML;
 
     public MockNetworkManager(Format format) {
         this.format = format;
@@ -39,6 +46,56 @@ public class MockNetworkManager implements NetworkManager {
 
     @Override
     public String doGet(HttpUrl url) throws IOException {
+        return get(url, format);
+    }
+
+    @Override
+    public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+        return doGetStream(url, null);
+    }
+
+    /**
+     * Every response has the same ETag ({@link #ETAG}), so a conditional GET
+     * which sends it is answered with "not modified".
+     */
+    @Override
+    public NetworkResponse doGetStream(HttpUrl url, Validators validators)
+            throws IOException {
+        if (validators != null && ETAG.equals(validators.getETag())) {
+            return NetworkResponse.notModified(validators);
+        }
+        Format responseFormat = format;
+        return new NetworkResponse(new ByteArrayInputStream(get(url,
+                responseFormat).getBytes(DataParser.TEXT_FORMAT)),
+                responseFormat, Charset.forName(DataParser.TEXT_FORMAT),
+                new Validators(ETAG, null));
+    }
+
+    @Override
+    public NetworkResponse doPostStream(HttpUrl url,
+                                        Map<String, String> parameters) throws IOException {
+        Format responseFormat = format;
+        return new NetworkResponse(new ByteArrayInputStream(post(url,
+                responseFormat).getBytes(DataParser.TEXT_FORMAT)),
+                responseFormat, Charset.forName(DataParser.TEXT_FORMAT));
+    }
+
+    @Override
+    public String doPost(HttpUrl url, Map<String, String> parameters)
+            throws IOException {
+        return post(url, format);
+    }
+
+    /**
+     * Selects the response of a GET request. The format is read only once by
+     * the callers, so it doesn't change in the middle of a request.
+     *
+     * @param url    Request URL.
+     * @param format Format of the response.
+     * @return Empty if it doesn't find any suitable response.
+     * @throws IOException If the url asks for a simulated error.
+     */
+    private String get(HttpUrl url, Format format) throws IOException {
         if (url.toString().contains("simulateIOException")) {
             throw new IOException();
         }
@@ -51,9 +108,15 @@ public class MockNetworkManager implements NetworkManager {
         return "";
     }
 
-    @Override
-    public String doPost(HttpUrl url, Map<String, String> parameters)
-            throws IOException {
+    /**
+     * Selects the response of a POST request.
+     *
+     * @param url    Request URL.
+     * @param format Format of the response.
+     * @return Empty if it doesn't find any suitable response.
+     * @throws IOException If the url asks for a simulated error.
+     */
+    private String post(HttpUrl url, Format format) throws IOException {
         if (url.toString().contains("simulateIOException")) {
             throw new IOException();
         }
@@ -64,7 +127,6 @@ public class MockNetworkManager implements NetworkManager {
             return JSONPOSTResponse(url);
         }
         return "";
-
     }
 
     /**
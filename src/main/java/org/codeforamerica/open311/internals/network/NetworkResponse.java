@@ -0,0 +1,114 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.codeforamerica.open311.facade.Format;
+
+/**
+ * Body of a server response which hasn't been read yet, together with the
+ * format detected from it and its {@link Validators}. It has to be closed once
+ * the body has been consumed.
+ *
+ * The answer to a conditional GET can be "not modified", which doesn't have a
+ * body.
+ */
+public class NetworkResponse implements Closeable {
+    private final InputStream body;
+    private final Format format;
+    private final Charset charset;
+    private final Validators validators;
+
+    /**
+     * @param body    Body of the response.
+     * @param format  Format detected from the response.
+     * @param charset Charset of the body, used when it is read as text.
+     */
+    public NetworkResponse(InputStream body, Format format, Charset charset) {
+        this(body, format, charset, null);
+    }
+
+    /**
+     * @param body       Body of the response, <code>null</code> if the server
+     *                   answered "not modified".
+     * @param format     Format detected from the response.
+     * @param charset    Charset of the body, used when it is read as text.
+     * @param validators Validators of the response, it can be
+     *                   <code>null</code>.
+     */
+    public NetworkResponse(InputStream body, Format format, Charset charset,
+                           Validators validators) {
+        this.body = body;
+        this.format = format;
+        this.charset = charset;
+        this.validators = validators;
+    }
+
+    /**
+     * Builds the answer to a conditional GET whose response hasn't changed.
+     *
+     * @param validators Validators sent by the server.
+     * @return A response without body.
+     */
+    public static NetworkResponse notModified(Validators validators) {
+        return new NetworkResponse(null, null, null, validators);
+    }
+
+    /**
+     * @return <code>true</code> if the server answered that the response of
+     * a conditional GET hasn't changed. There isn't any body then.
+     */
+    public boolean isNotModified() {
+        return body == null;
+    }
+
+    /**
+     * @return Validators of the response or <code>null</code> if it hasn't
+     * any.
+     */
+    public Validators getValidators() {
+        return validators;
+    }
+
+    /**
+     * @return Body of the response, it is read from the connection while it is
+     * consumed.
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * @return Format detected from the response.
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Reads the whole body as text. Use it only when the response can't be
+     * consumed as a stream.
+     *
+     * @return Body of the response.
+     * @throws IOException If there was any problem reading it.
+     */
+    public String readBody() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = body.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return new String(buffer.toByteArray(), charset.name());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (body != null) {
+            body.close();
+        }
+    }
+}
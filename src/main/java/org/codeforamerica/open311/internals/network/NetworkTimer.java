@@ -0,0 +1,69 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.codeforamerica.open311.internals.concurrent.DaemonThreadFactory;
+
+/**
+ * Timer of the delayed non-blocking requests (retries, rate limits...). Its
+ * thread only sends the requests, so it must not block: the requests to
+ * blocking network managers are handed to a pool when they are due.
+ */
+/* package */ final class NetworkTimer {
+    private static ScheduledExecutorService scheduler;
+    private static ExecutorService blockingExecutor;
+
+    private NetworkTimer() {
+    }
+
+    /**
+     * @return The process-wide timer, built the first time.
+     */
+    /* package */ static synchronized ScheduledExecutorService get() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "open311-timer");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Sends a request after a delay.
+     *
+     * @param request  Sends the request.
+     * @param delay    Delay of the request.
+     * @param unit     Unit of the delay.
+     * @param blocking <code>true</code> if the request blocks until the
+     *                 response arrives, it is sent from a pool which builds
+     *                 threads on demand then.
+     */
+    /* package */ static void schedule(final Runnable request, long delay,
+                                      TimeUnit unit, boolean blocking) {
+        get().schedule(!blocking ? request : new Runnable() {
+            @Override
+            public void run() {
+                getBlockingExecutor().execute(request);
+            }
+        }, delay, unit);
+    }
+
+    private static synchronized ExecutorService getBlockingExecutor() {
+        if (blockingExecutor == null) {
+            blockingExecutor = Executors.newCachedThreadPool(
+                    new DaemonThreadFactory("open311-network-"));
+        }
+        return blockingExecutor;
+    }
+}
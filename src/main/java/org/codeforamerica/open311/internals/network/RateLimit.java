@@ -0,0 +1,37 @@
+package org.codeforamerica.open311.internals.network;
+
+/**
+ * Maximum rate of requests: a sustained number of requests per second and a
+ * burst of requests which can be sent at once after a quiet period. Immutable.
+ */
+public class RateLimit {
+    private final double requestsPerSecond;
+    private final int burst;
+
+    /**
+     * @param requestsPerSecond Sustained rate (greater than 0).
+     * @param burst             Requests which can be sent at once (at least
+     *                          1).
+     */
+    public RateLimit(double requestsPerSecond, int burst) {
+        if (!(requestsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimit [requestsPerSecond=" + requestsPerSecond
+                + ", burst=" + burst + "]";
+    }
+}
@@ -0,0 +1,19 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a {@link RateLimitedNetworkManager} instead of sending a request
+ * which would have to wait longer than allowed.
+ */
+public class RateLimitExceededException extends IOException {
+    private static final long serialVersionUID = 4417529361760342058L;
+
+    /**
+     * @param url Target of the rejected request.
+     */
+    public RateLimitExceededException(String url) {
+        super("Rate limit exceeded - the request to " + url
+                + " wasn't sent");
+    }
+}
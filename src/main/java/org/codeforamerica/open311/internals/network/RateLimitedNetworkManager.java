@@ -0,0 +1,420 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.HttpUrl;
+
+import org.codeforamerica.open311.facade.APIWrapper;
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.facade.data.Server;
+import org.codeforamerica.open311.internals.parsing.DataParser;
+
+/**
+ * Wraps a {@link NetworkManager} to keep the requests below the quotas of the
+ * servers. Every request takes a token from the {@link RateLimit} of its
+ * endpoint and from the one of its <code>api_key</code> (if they have been
+ * configured):
+ * <ul>
+ * <li>Endpoints are matched by the beginning of the request url, the longest
+ * configured endpoint url wins. Requests to other servers use the default
+ * rate limit, if any, per server (scheme, host and port).</li>
+ * <li>The <code>api_key</code> is taken from the query or from the
+ * parameters of a POST request. GET operations don't send it, so a key can
+ * also be bound to an endpoint (check {@link #setApiKey(String, String)}):
+ * every request to it counts against the key. The {@link APIWrapper}
+ * instances bind their key when they are built.</li>
+ * </ul>
+ * When there isn't any token, the request is queued up to a maximum wait and
+ * rejected with a {@link RateLimitExceededException} after that (with a
+ * maximum of 0, requests fail fast). Non-blocking requests don't block any
+ * thread while they are queued. The waits are recorded (check
+ * {@link #getWaitedMillis()}).
+ *
+ * Usage: <code>new APIWrapperFactory(city).setNetworkManager(new
+ * RateLimitedNetworkManager(new HTTPNetworkManager(), new RateLimit(2, 5),
+ * 10000))</code>.
+ */
+public class RateLimitedNetworkManager implements StreamingNetworkManager,
+        AsyncNetworkManager {
+    private static final String API_KEY = "api_key";
+    private static final Charset CHARSET = Charset
+            .forName(DataParser.TEXT_FORMAT);
+    private final NetworkManager networkManager;
+    private final RateLimit defaultRateLimit;
+    private final long maxWaitNanos;
+    /**
+     * Buckets, guarded by this instance.
+     */
+    private final Map<String, TokenBucket> endpointBuckets = new HashMap<String, TokenBucket>();
+    private final Map<String, TokenBucket> apiKeyBuckets = new HashMap<String, TokenBucket>();
+    private final Map<String, TokenBucket> serverBuckets = new HashMap<String, TokenBucket>();
+    private final Map<String, String> endpointApiKeys = new HashMap<String, String>();
+    private final AtomicLong delayedRequests = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    private final AtomicLong waitedNanos = new AtomicLong();
+
+    /**
+     * @param networkManager   Network manager which sends the requests.
+     * @param defaultRateLimit Rate limit of every server whose endpoints
+     *                         haven't been configured, <code>null</code> to
+     *                         leave them unlimited.
+     * @param maxWaitMillis    Maximum time (in milliseconds) a request can be
+     *                         queued, <code>0</code> to fail fast.
+     */
+    public RateLimitedNetworkManager(NetworkManager networkManager,
+                                     RateLimit defaultRateLimit, long maxWaitMillis) {
+        if (networkManager == null || maxWaitMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid rate limited network manager");
+        }
+        this.networkManager = networkManager;
+        this.defaultRateLimit = defaultRateLimit;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Sets the rate limit of an endpoint.
+     *
+     * @param endpointUrl Url of the endpoint (every url which begins with it).
+     * @param rateLimit   Rate limit, <code>null</code> to remove it.
+     */
+    public synchronized void setRateLimit(String endpointUrl,
+                                          RateLimit rateLimit) {
+        setRateLimit(endpointBuckets, endpointUrl, rateLimit);
+    }
+
+    /**
+     * Sets the rate limit of the endpoints of a server (production, test and
+     * discovery urls). They share the limit.
+     *
+     * @param server    Server.
+     * @param rateLimit Rate limit, <code>null</code> to remove it.
+     */
+    public synchronized void setRateLimit(Server server, RateLimit rateLimit) {
+        TokenBucket bucket = rateLimit != null ? new TokenBucket(rateLimit,
+                System.nanoTime()) : null;
+        for (String url : new String[]{server.getBaseURL(),
+                server.getTestURL(), server.getDiscoveryUrl()}) {
+            if (url != null && url.length() > 0) {
+                if (bucket != null) {
+                    endpointBuckets.put(url, bucket);
+                } else {
+                    endpointBuckets.remove(url);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the rate limit of an API key, shared by every endpoint.
+     *
+     * @param apiKey    API key.
+     * @param rateLimit Rate limit, <code>null</code> to remove it.
+     */
+    public synchronized void setApiKeyRateLimit(String apiKey,
+                                                RateLimit rateLimit) {
+        setRateLimit(apiKeyBuckets, apiKey, rateLimit);
+    }
+
+    /**
+     * Binds an API key to an endpoint, so the requests to it which don't
+     * carry the key count against its rate limit too.
+     *
+     * @param endpointUrl Url of the endpoint (every url which begins with it).
+     * @param apiKey      API key, <code>null</code> to remove the binding.
+     */
+    public synchronized void setApiKey(String endpointUrl, String apiKey) {
+        if (endpointUrl == null || endpointUrl.length() == 0) {
+            return;
+        }
+        if (apiKey != null && apiKey.length() > 0) {
+            endpointApiKeys.put(endpointUrl, apiKey);
+        } else {
+            endpointApiKeys.remove(endpointUrl);
+        }
+    }
+
+    @Override
+    public String doGet(HttpUrl url) throws IOException {
+        acquire(url, null);
+        return networkManager.doGet(url);
+    }
+
+    @Override
+    public String doPost(HttpUrl url, Map<String, String> parameters)
+            throws IOException {
+        acquire(url, parameters);
+        return networkManager.doPost(url, parameters);
+    }
+
+    @Override
+    public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+        return doGetStream(url, null);
+    }
+
+    @Override
+    public NetworkResponse doGetStream(HttpUrl url, Validators validators)
+            throws IOException {
+        acquire(url, null);
+        if (networkManager instanceof StreamingNetworkManager) {
+            return ((StreamingNetworkManager) networkManager).doGetStream(url,
+                    validators);
+        }
+        return buffered(networkManager.doGet(url));
+    }
+
+    @Override
+    public NetworkResponse doPostStream(HttpUrl url,
+                                        Map<String, String> parameters) throws IOException {
+        acquire(url, parameters);
+        if (networkManager instanceof StreamingNetworkManager) {
+            return ((StreamingNetworkManager) networkManager).doPostStream(
+                    url, parameters);
+        }
+        return buffered(networkManager.doPost(url, parameters));
+    }
+
+    /**
+     * Queued requests are sent from a timer when their token is available. If
+     * the wrapped network manager is not an {@link AsyncNetworkManager}, they
+     * are sent from the calling thread if there is no wait, otherwise from a
+     * pool of the library (never from the timer thread).
+     */
+    @Override
+    public void doGetAsync(final HttpUrl url, final ResponseCallback callback) {
+        enqueue(url, null, callback, new Runnable() {
+            @Override
+            public void run() {
+                if (networkManager instanceof AsyncNetworkManager) {
+                    ((AsyncNetworkManager) networkManager).doGetAsync(url,
+                            callback);
+                    return;
+                }
+                String response;
+                try {
+                    response = networkManager.doGet(url);
+                } catch (IOException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onResponse(response, networkManager.getFormat());
+            }
+        });
+    }
+
+    @Override
+    public void doPostAsync(final HttpUrl url,
+                            final Map<String, String> parameters, final ResponseCallback callback) {
+        enqueue(url, parameters, callback, new Runnable() {
+            @Override
+            public void run() {
+                if (networkManager instanceof AsyncNetworkManager) {
+                    ((AsyncNetworkManager) networkManager).doPostAsync(url,
+                            parameters, callback);
+                    return;
+                }
+                String response;
+                try {
+                    response = networkManager.doPost(url, parameters);
+                } catch (IOException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onResponse(response, networkManager.getFormat());
+            }
+        });
+    }
+
+    @Override
+    public void setFormat(Format format) {
+        networkManager.setFormat(format);
+    }
+
+    @Override
+    public void setHeader(String key, String value) {
+        networkManager.setHeader(key, value);
+    }
+
+    @Override
+    public Format getFormat() {
+        return networkManager.getFormat();
+    }
+
+    /**
+     * @return Number of requests which had to wait for a token.
+     */
+    public long getDelayedRequests() {
+        return delayedRequests.get();
+    }
+
+    /**
+     * @return Number of requests which were rejected because they would have
+     * waited too long.
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    /**
+     * @return Total time (in milliseconds) requests waited for a token.
+     */
+    public long getWaitedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitedNanos.get());
+    }
+
+    /**
+     * Waits for the tokens of a request.
+     */
+    private void acquire(HttpUrl url, Map<String, String> parameters)
+            throws IOException {
+        long wait = reserve(url, parameters);
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for the rate limit");
+            }
+        }
+    }
+
+    /**
+     * Sends a request once its tokens are available, without blocking.
+     */
+    private void enqueue(HttpUrl url, Map<String, String> parameters,
+                         ResponseCallback callback, Runnable request) {
+        long wait;
+        try {
+            wait = reserve(url, parameters);
+        } catch (RateLimitExceededException e) {
+            callback.onFailure(e);
+            return;
+        }
+        if (wait > 0) {
+            NetworkTimer.schedule(request, wait, TimeUnit.NANOSECONDS,
+                    !(networkManager instanceof AsyncNetworkManager));
+        } else {
+            request.run();
+        }
+    }
+
+    /**
+     * Reserves the tokens of a request and records the wait.
+     *
+     * @return Nanoseconds until the tokens are available.
+     * @throws RateLimitExceededException If it is longer than the maximum
+     *                                    wait, nothing is reserved then.
+     */
+    private long reserve(HttpUrl url, Map<String, String> parameters)
+            throws RateLimitExceededException {
+        String apiKey = url.queryParameter(API_KEY);
+        if (apiKey == null && parameters != null) {
+            apiKey = parameters.get(API_KEY);
+        }
+        long wait = tryReserve(url, apiKey);
+        if (wait < 0) {
+            rejectedRequests.incrementAndGet();
+            // The url isn't included, it can contain the API key.
+            throw new RateLimitExceededException(url.host());
+        }
+        if (wait > 0) {
+            delayedRequests.incrementAndGet();
+            waitedNanos.addAndGet(wait);
+        }
+        return wait;
+    }
+
+    /**
+     * @return Nanoseconds until the tokens of every bucket of the request are
+     * available or <code>-1</code> if it is longer than the maximum wait.
+     */
+    private synchronized long tryReserve(HttpUrl url, String apiKey) {
+        long now = System.nanoTime();
+        List<TokenBucket> buckets = new ArrayList<TokenBucket>(2);
+        TokenBucket endpointBucket = getEndpointBucket(url, now);
+        if (endpointBucket != null) {
+            buckets.add(endpointBucket);
+        }
+        if (apiKey == null) {
+            String endpoint = getLongestPrefix(endpointApiKeys.keySet(), url);
+            apiKey = endpoint != null ? endpointApiKeys.get(endpoint) : null;
+        }
+        if (apiKey != null && apiKeyBuckets.containsKey(apiKey)) {
+            buckets.add(apiKeyBuckets.get(apiKey));
+        }
+        long wait = 0;
+        for (TokenBucket bucket : buckets) {
+            wait = Math.max(wait, bucket.getWait(now));
+        }
+        if (wait > maxWaitNanos) {
+            return -1;
+        }
+        for (TokenBucket bucket : buckets) {
+            bucket.reserve(now);
+        }
+        return wait;
+    }
+
+    private TokenBucket getEndpointBucket(HttpUrl url, long now) {
+        String endpoint = getLongestPrefix(endpointBuckets.keySet(), url);
+        if (endpoint != null) {
+            return endpointBuckets.get(endpoint);
+        }
+        if (defaultRateLimit == null) {
+            return null;
+        }
+        String server = url.scheme() + "://" + url.host() + ":" + url.port();
+        TokenBucket bucket = serverBuckets.get(server);
+        if (bucket == null) {
+            bucket = new TokenBucket(defaultRateLimit, now);
+            serverBuckets.put(server, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * @return The longest endpoint url which begins the url of the request or
+     * <code>null</code> if there isn't any.
+     */
+    /* package */ static String getLongestPrefix(Set<String> endpointUrls,
+                                                 HttpUrl url) {
+        String target = url.toString();
+        String endpoint = null;
+        for (String endpointUrl : endpointUrls) {
+            if (target.startsWith(endpointUrl)
+                    && (endpoint == null || endpointUrl.length() > endpoint
+                    .length())) {
+                endpoint = endpointUrl;
+            }
+        }
+        return endpoint;
+    }
+
+    private static void setRateLimit(Map<String, TokenBucket> buckets,
+                                     String key, RateLimit rateLimit) {
+        if (key == null || key.length() == 0) {
+            return;
+        }
+        if (rateLimit != null) {
+            buckets.put(key, new TokenBucket(rateLimit, System.nanoTime()));
+        } else {
+            buckets.remove(key);
+        }
+    }
+
+    private NetworkResponse buffered(String response) {
+        return new NetworkResponse(new ByteArrayInputStream(
+                response.getBytes(CHARSET)), networkManager.getFormat(), CHARSET);
+    }
+}
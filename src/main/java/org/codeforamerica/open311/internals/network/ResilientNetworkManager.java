@@ -0,0 +1,349 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.UnknownServiceException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.internals.parsing.DataParser;
+
+/**
+ * Wraps a {@link NetworkManager} to make it resilient to failing servers:
+ * <ul>
+ * <li>GET requests are idempotent, so they are sent again after a failure,
+ * following a {@link RetryPolicy}. POST requests are sent once.</li>
+ * <li>Every server (scheme, host and port) has a {@link CircuitBreaker}:
+ * while it is open, requests fail at once with a
+ * {@link CircuitOpenException} instead of waiting for a timeout.</li>
+ * </ul>
+ * Connection problems and server failures (5xx, 408, 429) count as failures.
+ * Any other unsuccessful response means the server is up, so it is neither
+ * retried nor counted.
+ *
+ * While a circuit is open, wrappers whose cache has a stale time to live
+ * (check
+ * {@link org.codeforamerica.open311.internals.caching.Cache#setStaleTimeToLive})
+ * keep serving the expired service lists and definitions.
+ *
+ * Usage: <code>new APIWrapperFactory(city).setNetworkManager(new
+ * ResilientNetworkManager(new HTTPNetworkManager()))</code>. It can wrap a
+ * {@link RateLimitedNetworkManager}, so every retry is rate limited too.
+ */
+public class ResilientNetworkManager implements StreamingNetworkManager,
+        AsyncNetworkManager {
+    /**
+     * Default number of consecutive failures which open a circuit.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    /**
+     * Default time (in milliseconds) a circuit stays open.
+     */
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+    private static final Charset CHARSET = Charset
+            .forName(DataParser.TEXT_FORMAT);
+    private final NetworkManager networkManager;
+    private final RetryPolicy retryPolicy;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Builds an instance with the {@link RetryPolicy#DEFAULT} policy and the
+     * default circuit breakers.
+     *
+     * @param networkManager Network manager which sends the requests.
+     */
+    public ResilientNetworkManager(NetworkManager networkManager) {
+        this(networkManager, RetryPolicy.DEFAULT, DEFAULT_FAILURE_THRESHOLD,
+                DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * @param networkManager   Network manager which sends the requests.
+     * @param retryPolicy      Retries of the GET requests.
+     * @param failureThreshold Consecutive failures which open the circuit of
+     *                         a server.
+     * @param openMillis       Time (in milliseconds) a circuit stays open.
+     */
+    public ResilientNetworkManager(NetworkManager networkManager,
+                                   RetryPolicy retryPolicy, int failureThreshold, long openMillis) {
+        if (networkManager == null || retryPolicy == null
+                || failureThreshold < 1 || openMillis < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid resilient network manager");
+        }
+        this.networkManager = networkManager;
+        this.retryPolicy = retryPolicy;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    @Override
+    public String doGet(final HttpUrl url) throws IOException {
+        return execute(url, true, new Attempt<String>() {
+            @Override
+            public String run() throws IOException {
+                return networkManager.doGet(url);
+            }
+        });
+    }
+
+    @Override
+    public String doPost(final HttpUrl url, final Map<String, String> parameters)
+            throws IOException {
+        return execute(url, false, new Attempt<String>() {
+            @Override
+            public String run() throws IOException {
+                return networkManager.doPost(url, parameters);
+            }
+        });
+    }
+
+    @Override
+    public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+        return doGetStream(url, null);
+    }
+
+    /**
+     * Only opening the response is retried, failures while its body is read
+     * are not.
+     */
+    @Override
+    public NetworkResponse doGetStream(final HttpUrl url,
+                                       final Validators validators) throws IOException {
+        return execute(url, true, new Attempt<NetworkResponse>() {
+            @Override
+            public NetworkResponse run() throws IOException {
+                if (networkManager instanceof StreamingNetworkManager) {
+                    return ((StreamingNetworkManager) networkManager)
+                            .doGetStream(url, validators);
+                }
+                return buffered(networkManager.doGet(url));
+            }
+        });
+    }
+
+    @Override
+    public NetworkResponse doPostStream(final HttpUrl url,
+                                        final Map<String, String> parameters) throws IOException {
+        return execute(url, false, new Attempt<NetworkResponse>() {
+            @Override
+            public NetworkResponse run() throws IOException {
+                if (networkManager instanceof StreamingNetworkManager) {
+                    return ((StreamingNetworkManager) networkManager)
+                            .doPostStream(url, parameters);
+                }
+                return buffered(networkManager.doPost(url, parameters));
+            }
+        });
+    }
+
+    /**
+     * Retries are scheduled, no thread is blocked while waiting. If the
+     * wrapped network manager is not an {@link AsyncNetworkManager}, the
+     * first request is sent from the calling thread and the retries from a
+     * pool of the library, never from the timer thread.
+     */
+    @Override
+    public void doGetAsync(final HttpUrl url, ResponseCallback callback) {
+        enqueue(url, 1, retryPolicy.getMaxAttempts(), new AsyncAttempt() {
+            @Override
+            public void run(ResponseCallback callback) {
+                if (networkManager instanceof AsyncNetworkManager) {
+                    ((AsyncNetworkManager) networkManager).doGetAsync(url,
+                            callback);
+                } else {
+                    String response;
+                    try {
+                        response = networkManager.doGet(url);
+                    } catch (IOException e) {
+                        callback.onFailure(e);
+                        return;
+                    }
+                    callback.onResponse(response, networkManager.getFormat());
+                }
+            }
+        }, callback);
+    }
+
+    @Override
+    public void doPostAsync(final HttpUrl url,
+                            final Map<String, String> parameters, ResponseCallback callback) {
+        enqueue(url, 1, 1, new AsyncAttempt() {
+            @Override
+            public void run(ResponseCallback callback) {
+                if (networkManager instanceof AsyncNetworkManager) {
+                    ((AsyncNetworkManager) networkManager).doPostAsync(url,
+                            parameters, callback);
+                } else {
+                    String response;
+                    try {
+                        response = networkManager.doPost(url, parameters);
+                    } catch (IOException e) {
+                        callback.onFailure(e);
+                        return;
+                    }
+                    callback.onResponse(response, networkManager.getFormat());
+                }
+            }
+        }, callback);
+    }
+
+    @Override
+    public void setFormat(Format format) {
+        networkManager.setFormat(format);
+    }
+
+    @Override
+    public void setHeader(String key, String value) {
+        networkManager.setHeader(key, value);
+    }
+
+    @Override
+    public Format getFormat() {
+        return networkManager.getFormat();
+    }
+
+    /**
+     * @param url Any url of the server.
+     * @return The circuit breaker of the server of the given url.
+     */
+    public CircuitBreaker getCircuitBreaker(HttpUrl url) {
+        String server = url.scheme() + "://" + url.host() + ":" + url.port();
+        CircuitBreaker circuitBreaker = circuitBreakers.get(server);
+        if (circuitBreaker == null) {
+            circuitBreaker = new CircuitBreaker(failureThreshold, openMillis);
+            CircuitBreaker previous = circuitBreakers.putIfAbsent(server,
+                    circuitBreaker);
+            if (previous != null) {
+                circuitBreaker = previous;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Sends a request until it succeeds, it fails without being a server
+     * failure or there are no attempts left.
+     */
+    private <T> T execute(HttpUrl url, boolean idempotent, Attempt<T> attempt)
+            throws IOException {
+        CircuitBreaker circuitBreaker = getCircuitBreaker(url);
+        int maxAttempts = idempotent ? retryPolicy.getMaxAttempts() : 1;
+        for (int i = 1; ; i++) {
+            if (!circuitBreaker.allowRequest()) {
+                throw new CircuitOpenException(url.host());
+            }
+            T result;
+            try {
+                result = attempt.run();
+            } catch (IOException e) {
+                if (!isFailure(e)) {
+                    circuitBreaker.recordSuccess();
+                    throw e;
+                }
+                circuitBreaker.recordFailure();
+                if (i >= maxAttempts) {
+                    throw e;
+                }
+                sleep(retryPolicy.getDelay(i));
+                continue;
+            } catch (RuntimeException e) {
+                circuitBreaker.recordFailure();
+                throw e;
+            }
+            circuitBreaker.recordSuccess();
+            return result;
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link #execute(HttpUrl, boolean, Attempt)}.
+     */
+    private void enqueue(final HttpUrl url, final int attempt,
+                         final int maxAttempts, final AsyncAttempt asyncAttempt,
+                         final ResponseCallback callback) {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(url);
+        if (!circuitBreaker.allowRequest()) {
+            callback.onFailure(new CircuitOpenException(url.host()));
+            return;
+        }
+        asyncAttempt.run(new ResponseCallback() {
+            @Override
+            public void onResponse(String response, Format format) {
+                circuitBreaker.recordSuccess();
+                callback.onResponse(response, format);
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                if (!isFailure(e)) {
+                    circuitBreaker.recordSuccess();
+                    callback.onFailure(e);
+                    return;
+                }
+                circuitBreaker.recordFailure();
+                if (attempt >= maxAttempts) {
+                    callback.onFailure(e);
+                    return;
+                }
+                NetworkTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        enqueue(url, attempt + 1, maxAttempts, asyncAttempt,
+                                callback);
+                    }
+                }, retryPolicy.getDelay(attempt), TimeUnit.MILLISECONDS,
+                        !(networkManager instanceof AsyncNetworkManager));
+            }
+        });
+    }
+
+    /**
+     * @return <code>false</code> if the server answered, so it is up, or the
+     * request wasn't sent because of a {@link RateLimitedNetworkManager}.
+     */
+    private static boolean isFailure(IOException e) {
+        if (e instanceof HTTPStatusException) {
+            return ((HTTPStatusException) e).isServerFailure();
+        }
+        return !(e instanceof UnknownServiceException)
+                && !(e instanceof RateLimitExceededException);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    private NetworkResponse buffered(String response) {
+        return new NetworkResponse(new ByteArrayInputStream(
+                response.getBytes(CHARSET)), networkManager.getFormat(), CHARSET);
+    }
+
+    /**
+     * Sends a request once.
+     */
+    private interface Attempt<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Sends a request once without blocking.
+     */
+    private interface AsyncAttempt {
+        void run(ResponseCallback callback);
+    }
+}
@@ -0,0 +1,62 @@
+package org.codeforamerica.open311.internals.network;
+
+/**
+ * How many times an idempotent request is sent and how long to wait between
+ * attempts: an exponential backoff with "full jitter" (a random delay between
+ * zero and the backoff), so the clients of a server which is recovering don't
+ * retry at the same time. Immutable.
+ */
+public class RetryPolicy {
+    /**
+     * Sends every request once.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+    /**
+     * Three attempts, waiting up to 200ms and 400ms.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 200, 5000);
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxAttempts        Number of times a request is sent at most (at
+     *                           least 1).
+     * @param initialDelayMillis Maximum wait before the second attempt, it is
+     *                           doubled for every following attempt.
+     * @param maxDelayMillis     Maximum wait between two attempts.
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis,
+                       long maxDelayMillis) {
+        if (maxAttempts < 1 || initialDelayMillis < 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Computes the wait after a failed attempt.
+     *
+     * @param attempt Number of the failed attempt (starting at 1).
+     * @return A random delay (in milliseconds) between 0 and the backoff of
+     * the attempt.
+     */
+    public long getDelay(int attempt) {
+        double backoff = Math.min(maxDelayMillis, initialDelayMillis
+                * Math.pow(2, Math.max(0, attempt - 1)));
+        return (long) (Math.random() * (backoff + 1));
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy [maxAttempts=" + maxAttempts
+                + ", initialDelayMillis=" + initialDelayMillis
+                + ", maxDelayMillis=" + maxDelayMillis + "]";
+    }
+}
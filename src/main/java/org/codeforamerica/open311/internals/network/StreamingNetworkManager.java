@@ -0,0 +1,57 @@
+package org.codeforamerica.open311.internals.network;
+
+import okhttp3.HttpUrl;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A {@link NetworkManager} which is able to hand over the body of a response
+ * as a stream, so it can be parsed while it is received, without keeping a
+ * copy of the whole body in memory.
+ * <p/>
+ * Every {@link NetworkResponse} carries the format detected from it, so
+ * concurrent requests don't depend on {@link NetworkManager#getFormat()}.
+ */
+public interface StreamingNetworkManager extends NetworkManager {
+
+    /**
+     * Sends a GET HTTP request and returns the body of the response without
+     * reading it.
+     *
+     * @param url Target.
+     * @return The response, which has to be closed by the caller.
+     * @throws IOException If there was any problem with the connection or the
+     *                     response was not successful.
+     */
+    NetworkResponse doGetStream(HttpUrl url) throws IOException;
+
+    /**
+     * Sends a conditional GET HTTP request: if the response hasn't changed
+     * since it got the given validators, the server can answer that it hasn't
+     * been modified, without a body (check
+     * {@link NetworkResponse#isNotModified()}).
+     *
+     * @param url        Target.
+     * @param validators Validators of the previous response, with
+     *                   <code>null</code> it is a regular GET.
+     * @return The response, which has to be closed by the caller.
+     * @throws IOException If there was any problem with the connection or the
+     *                     response was not successful.
+     */
+    NetworkResponse doGetStream(HttpUrl url, Validators validators)
+            throws IOException;
+
+    /**
+     * Sends a POST HTTP request and returns the body of the response without
+     * reading it.
+     *
+     * @param url        Target.
+     * @param parameters Parameters of the POST operation.
+     * @return The response, which has to be closed by the caller.
+     * @throws IOException If there was any problem with the connection or the
+     *                     response was not successful.
+     */
+    NetworkResponse doPostStream(HttpUrl url, Map<String, String> parameters)
+            throws IOException;
+}
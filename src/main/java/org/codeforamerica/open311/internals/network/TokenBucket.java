@@ -0,0 +1,59 @@
+package org.codeforamerica.open311.internals.network;
+
+/**
+ * Token bucket which enforces a {@link RateLimit}: it holds up to
+ * <code>burst</code> tokens, refilled at the sustained rate, and every request
+ * takes one. Tokens can be reserved in advance (the balance gets negative),
+ * so queued requests are served in order.
+ *
+ * Not thread-safe, the {@link RateLimitedNetworkManager} serializes the
+ * calls.
+ */
+/* package */ class TokenBucket {
+    private final double nanosPerToken;
+    private final int capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Builds a full bucket.
+     *
+     * @param rateLimit Rate of the bucket.
+     * @param now       Current time, in nanoseconds.
+     */
+    /* package */ TokenBucket(RateLimit rateLimit, long now) {
+        this.nanosPerToken = 1000000000 / rateLimit.getRequestsPerSecond();
+        this.capacity = rateLimit.getBurst();
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * @param now Current time, in nanoseconds.
+     * @return Nanoseconds until a token is available (<code>0</code> if there
+     * is one now).
+     */
+    /* package */ long getWait(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens)
+                * nanosPerToken);
+    }
+
+    /**
+     * Takes a token, even if it isn't available yet.
+     *
+     * @param now Current time, in nanoseconds.
+     */
+    /* package */ void reserve(long now) {
+        refill(now);
+        tokens--;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill)
+                    / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes received from a host by a {@link HTTPNetworkManager}: those which
+ * went through the network (compressed if the server honoured the
+ * <code>Accept-Encoding</code> header) and those which were handed to the
+ * parsers once decoded. Thread-safe.
+ */
+public class TransferStatistics {
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * Adds a response once its body has been read.
+     *
+     * @param compressed Whether the body was compressed.
+     * @param received   Bytes read from the network.
+     * @param decoded    Bytes of the decoded body.
+     */
+    /* package */ void record(boolean compressed, long received, long decoded) {
+        responses.incrementAndGet();
+        if (compressed) {
+            compressedResponses.incrementAndGet();
+        }
+        receivedBytes.addAndGet(received);
+        decodedBytes.addAndGet(decoded);
+    }
+
+    /**
+     * @return Number of read responses.
+     */
+    public long getResponses() {
+        return responses.get();
+    }
+
+    /**
+     * @return Number of read responses whose body was compressed.
+     */
+    public long getCompressedResponses() {
+        return compressedResponses.get();
+    }
+
+    /**
+     * @return Bytes read from the network.
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * @return Bytes of the decoded bodies.
+     */
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    /**
+     * @return Bytes which didn't go through the network thanks to the
+     * compression.
+     */
+    public long getSavedBytes() {
+        return getDecodedBytes() - getReceivedBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferStatistics [responses=" + getResponses()
+                + ", compressedResponses=" + getCompressedResponses()
+                + ", receivedBytes=" + getReceivedBytes() + ", decodedBytes="
+                + getDecodedBytes() + "]";
+    }
+}
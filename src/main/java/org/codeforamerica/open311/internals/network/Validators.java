@@ -0,0 +1,46 @@
+package org.codeforamerica.open311.internals.network;
+
+import java.io.Serializable;
+
+/**
+ * Validators of a response (<code>ETag</code> and
+ * <code>Last-Modified</code> headers). They are sent back in a conditional
+ * GET (<code>If-None-Match</code> and <code>If-Modified-Since</code>), so
+ * the server can answer <code>304 Not Modified</code> without a body if the
+ * response hasn't changed.
+ */
+public class Validators implements Serializable {
+    private static final long serialVersionUID = -4410245536391370637L;
+    private final String eTag;
+    private final String lastModified;
+
+    /**
+     * @param eTag         Value of the <code>ETag</code> header, it can be
+     *                     <code>null</code>.
+     * @param lastModified Value of the <code>Last-Modified</code> header, it
+     *                     can be <code>null</code>.
+     */
+    public Validators(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Builds the validators of a response.
+     *
+     * @return The validators or <code>null</code> if the response doesn't
+     * have any.
+     */
+    public static Validators from(String eTag, String lastModified) {
+        return eTag != null || lastModified != null ? new Validators(eTag,
+                lastModified) : null;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -1,5 +1,7 @@
 package org.codeforamerica.open311.internals.parsing;
 
+import java.io.FilterInputStream;
+import java.io.InputStream;
 import java.net.URL;
 
 import org.codeforamerica.open311.facade.exceptions.DataParsingException;
@@ -73,4 +75,22 @@ public abstract class AbstractParser implements DataParser {
 					"Invalid data, none of the required keywords detected.");
 		}
 	}
+
+	/**
+	 * Wraps a stream so the underlying parsers can't close it. Some of them
+	 * close their input once they finish, but the streams given to a
+	 * {@link DataParser} belong to the caller.
+	 * 
+	 * @param data
+	 *            Stream of data.
+	 * @return A view of the stream which ignores the <code>close()</code>
+	 *         calls.
+	 */
+	protected InputStream unclosable(InputStream data) {
+		return new FilterInputStream(data) {
+			@Override
+			public void close() {
+			}
+		};
+	}
 }
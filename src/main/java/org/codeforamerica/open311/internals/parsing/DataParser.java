@@ -1,7 +1,9 @@
 package org.codeforamerica.open311.internals.parsing;
 
+import java.io.InputStream;
 import java.util.List;
 
+import org.codeforamerica.open311.facade.ServiceRequestConsumer;
 import org.codeforamerica.open311.facade.data.POSTServiceRequestResponse;
 import org.codeforamerica.open311.facade.data.Service;
 import org.codeforamerica.open311.facade.data.ServiceDefinition;
@@ -77,6 +79,9 @@ public interface DataParser {
     String ENDPOINTS_TAG = "endpoints";
 	String START_DATE_TAG = "start_date";
 	String END_DATE_TAG = "end_date";
+	String UPDATED_AFTER_TAG = "updated_after";
+	String PAGE_TAG = "page";
+	String PAGE_SIZE_TAG = "page_size";
 	String EMAIL_TAG = "email";
 	String DEVICE_ID_TAG = "device_id";
 	String FIRST_NAME_TAG = "first_name";
@@ -111,6 +116,18 @@ public interface DataParser {
 	List<Service> parseServiceList(String rawData)
 			throws DataParsingException;
 
+	/**
+	 * Parses the response to the GET service list operation while it is read.
+	 * 
+	 * @param data
+	 *            Stream of data. It is not closed.
+	 * @return A list of {@link Service} objects.
+	 * @throws DataParsingException
+	 *             If there was any problem parsing the data.
+	 */
+	List<Service> parseServiceList(InputStream data)
+			throws DataParsingException;
+
 	/**
 	 * Parses a service definition.
 	 * 
@@ -124,6 +141,19 @@ public interface DataParser {
 	ServiceDefinition parseServiceDefinition(String rawData)
 			throws DataParsingException;
 
+	/**
+	 * Parses a service definition while it is read.
+	 * 
+	 * @param data
+	 *            Stream of data. It is not closed.
+	 * @throws DataParsingException
+	 *             If there was any problem parsing the data.
+	 * 
+	 * @return A service definition object.
+	 */
+	ServiceDefinition parseServiceDefinition(InputStream data)
+			throws DataParsingException;
+
 	/**
 	 * Parses the response to the GET service request id from a token.
 	 * 
@@ -148,6 +178,34 @@ public interface DataParser {
 	List<ServiceRequest> parseServiceRequests(String rawData)
 			throws DataParsingException;
 
+	/**
+	 * Parses a list of service requests while it is read, without building an
+	 * intermediate copy of the whole text.
+	 * 
+	 * @param data
+	 *            Stream of data. It is not closed.
+	 * @return A list of ServiceRequest objects.
+	 * @throws DataParsingException
+	 *             If there was any problem parsing the data.
+	 */
+	List<ServiceRequest> parseServiceRequests(InputStream data)
+			throws DataParsingException;
+
+	/**
+	 * Parses a list of service requests while it is read, handing every
+	 * request to the consumer as soon as it is built. The requests are not
+	 * kept by the parser.
+	 * 
+	 * @param data
+	 *            Stream of data. It is not closed.
+	 * @param consumer
+	 *            Receives the requests.
+	 * @throws DataParsingException
+	 *             If there was any problem parsing the data.
+	 */
+	void parseServiceRequests(InputStream data, ServiceRequestConsumer consumer)
+			throws DataParsingException;
+
 	/**
 	 * Parses the response of a POST Service Request operation.
 	 * 
@@ -172,6 +230,19 @@ public interface DataParser {
 	GeoReportV2Error parseGeoReportV2Errors(String rawData)
 			throws DataParsingException;
 
+	/**
+	 * Parses an error while it is read and returns an object with its
+	 * information.
+	 * 
+	 * @param data
+	 *            Stream of data. It is not closed.
+	 * @return Error information.
+	 * @throws DataParsingException
+	 *             If there was any problem parsing the data.
+	 */
+	GeoReportV2Error parseGeoReportV2Errors(InputStream data)
+			throws DataParsingException;
+
 	/**
 	 * Parses a service discovery and returns an object with its information.
 	 * 
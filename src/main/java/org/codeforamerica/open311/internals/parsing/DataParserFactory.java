@@ -1,9 +1,12 @@
 package org.codeforamerica.open311.internals.parsing;
 
 import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.internals.platform.PlatformManager;
 
 /**
- * Builds instances of {@link DataParser}.
+ * Builds instances of {@link DataParser}. Parsers are stateless and
+ * thread-safe, so only one of each format is built and it is handed out to
+ * every caller.
  * 
  * Singleton class.
  * 
@@ -13,6 +16,15 @@ import org.codeforamerica.open311.facade.Format;
 public class DataParserFactory {
 
 	private static DataParserFactory instance = new DataParserFactory();
+	/**
+	 * Shared XML parser, it depends on the platform.
+	 */
+	private final DataParser xmlParser = PlatformManager.getInstance()
+			.buildXMLParser();
+	/**
+	 * Shared JSON parser.
+	 */
+	private final DataParser jsonParser = new JSONParser();
 
 	private DataParserFactory() {
 	}
@@ -26,15 +38,15 @@ public class DataParserFactory {
 	 * 
 	 * @param format
 	 *            Desired format.
-	 * @return an instance of {@link DataParser} of <code>null</code> if the
-	 *         given format is not supported.
+	 * @return the shared instance of {@link DataParser} of <code>null</code>
+	 *         if the given format is not supported.
 	 */
 	public DataParser buildDataParser(Format format) {
 		if (format == Format.XML) {
-			return new XMLParser();
+			return xmlParser;
 		}
 		if (format == Format.JSON) {
-			return new JSONParser();
+			return jsonParser;
 		}
 		return null;
 	}
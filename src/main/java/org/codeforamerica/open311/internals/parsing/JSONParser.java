@@ -2,17 +2,22 @@ package org.codeforamerica.open311.internals.parsing;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
+import org.codeforamerica.open311.facade.ServiceRequestConsumer;
 import org.codeforamerica.open311.facade.data.POSTServiceRequestResponse;
 import org.codeforamerica.open311.facade.data.Service;
 import org.codeforamerica.open311.facade.data.ServiceDefinition;
@@ -24,25 +29,58 @@ import org.codeforamerica.open311.facade.exceptions.GeoReportV2Error;
 
 /**
  * Implementation of a {@link DataParser} which takes JSON data as input.
- * List<Service> result = new LinkedList<Service>();
+ * <p/>
+ * The data is read with a {@link JsonReader}: lists are built element by
+ * element while the input is read. The {@link Gson} instance and its adapters
+ * are immutable and shared by every parser (check
+ * {@link JSONTypeAdapterFactory}).
  *
  * @author Santiago Munín <santimunin@gmail.com>
  */
 public class JSONParser extends AbstractParser {
 
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(new JSONTypeAdapterFactory()).create();
+    private static final TypeAdapter<Service> SERVICE_ADAPTER = GSON
+            .getAdapter(Service.class);
+    private static final TypeAdapter<ServiceDefinition> SERVICE_DEFINITION_ADAPTER = GSON
+            .getAdapter(ServiceDefinition.class);
+    private static final TypeAdapter<ServiceRequest> SERVICE_REQUEST_ADAPTER = GSON
+            .getAdapter(ServiceRequest.class);
+    private static final TypeAdapter<ServiceDiscoveryInfo> SERVICE_DISCOVERY_ADAPTER = GSON
+            .getAdapter(ServiceDiscoveryInfo.class);
+    private static final Type SERVICE_REQUEST_ID_LIST_TYPE = new TypeToken<ArrayList<ServiceRequestIdResponse>>() {
+    }.getType();
+    private static final Type POST_SERVICE_REQUEST_RESPONSE_LIST_TYPE = new TypeToken<ArrayList<POSTServiceRequestResponse>>() {
+    }.getType();
+    private static final Type ERROR_LIST_TYPE = new TypeToken<ArrayList<GeoReportV2Error>>() {
+    }.getType();
+
     @Override
     public List<Service> parseServiceList(String rawData)
             throws DataParsingException {
-        List<Service> result;
+        return parseServiceList(new StringReader(rawData));
+    }
+
+    @Override
+    public List<Service> parseServiceList(InputStream data)
+            throws DataParsingException {
+        return parseServiceList(getReader(data));
+    }
+
+    private List<Service> parseServiceList(Reader data)
+            throws DataParsingException {
         try {
-            Gson gson = new Gson();
-            Type listType = new TypeToken<ArrayList<Service>>() {
-            }.getType();
-            result = gson.fromJson(rawData, listType);
+            JsonReader reader = getJsonReader(data);
+            if (isEmpty(reader)) {
+                return null;
+            }
+            List<Service> result = readList(reader, SERVICE_ADAPTER);
+            checkEndOfDocument(reader);
+            return result;
         } catch (Exception e) {
             throw new DataParsingException(e.getMessage());
         }
-        return result;
     }
 
     /**
@@ -55,14 +93,28 @@ public class JSONParser extends AbstractParser {
     @Override
     public ServiceDefinition parseServiceDefinition(String rawData)
             throws DataParsingException {
-        ServiceDefinition result;
+        return parseServiceDefinition(new StringReader(rawData));
+    }
+
+    @Override
+    public ServiceDefinition parseServiceDefinition(InputStream data)
+            throws DataParsingException {
+        return parseServiceDefinition(getReader(data));
+    }
+
+    private ServiceDefinition parseServiceDefinition(Reader data)
+            throws DataParsingException {
         try {
-            Gson gson = new Gson();
-            result = gson.fromJson(rawData, ServiceDefinition.class);
+            JsonReader reader = getJsonReader(data);
+            if (isEmpty(reader)) {
+                return null;
+            }
+            ServiceDefinition result = SERVICE_DEFINITION_ADAPTER.read(reader);
+            checkEndOfDocument(reader);
+            return result;
         } catch (Exception e) {
             throw new DataParsingException(e.getMessage());
         }
-        return result;
     }
 
     @Override
@@ -70,10 +122,7 @@ public class JSONParser extends AbstractParser {
             String rawData) throws DataParsingException {
         List<ServiceRequestIdResponse> result;
         try {
-            Gson gson = new Gson();
-            Type listType = new TypeToken<ArrayList<ServiceRequestIdResponse>>() {
-            }.getType();
-            result = gson.fromJson(rawData, listType);
+            result = GSON.fromJson(rawData, SERVICE_REQUEST_ID_LIST_TYPE);
 
             if (result.size() == 0) {
                 return null;
@@ -88,28 +137,97 @@ public class JSONParser extends AbstractParser {
     @Override
     public List<ServiceRequest> parseServiceRequests(String rawData)
             throws DataParsingException {
-        List<ServiceRequest> result;
+        return parseServiceRequests(new StringReader(rawData));
+    }
+
+    @Override
+    public List<ServiceRequest> parseServiceRequests(InputStream data)
+            throws DataParsingException {
+        return parseServiceRequests(getReader(data));
+    }
+
+    @Override
+    public void parseServiceRequests(InputStream data,
+                                     ServiceRequestConsumer consumer) throws DataParsingException {
+        parseServiceRequests(getReader(data), consumer);
+    }
+
+    private List<ServiceRequest> parseServiceRequests(Reader data)
+            throws DataParsingException {
+        final List<ServiceRequest> result = new ArrayList<ServiceRequest>();
+        boolean empty = !parseServiceRequests(data,
+                new ServiceRequestConsumer() {
+                    @Override
+                    public void accept(ServiceRequest serviceRequest) {
+                        result.add(serviceRequest);
+                    }
+                });
+        return empty ? null : result;
+    }
+
+    /**
+     * Reads the service requests one by one.
+     *
+     * @param data     JSON data.
+     * @param consumer Receives the requests.
+     * @return <code>false</code> if there was no data at all.
+     * @throws DataParsingException If the data is not a list of requests.
+     */
+    private boolean parseServiceRequests(Reader data,
+                                         ServiceRequestConsumer consumer) throws DataParsingException {
         try {
-            Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").create();
-            Type listType = new TypeToken<ArrayList<ServiceRequest>>() {
-            }.getType();
-            result = gson.fromJson(rawData, listType);
-            return result;
+            JsonReader reader = getJsonReader(data);
+            if (isEmpty(reader)) {
+                return false;
+            }
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // Toronto wraps the service_requests array in a json object.
+                reader.beginObject();
+                boolean found = false;
+                while (reader.hasNext()) {
+                    if (!found && reader.nextName().equals(
+                            SERVICE_REQUESTS_TAG)) {
+                        readServiceRequests(reader, consumer);
+                        found = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (!found) {
+                    throw new DataParsingException(
+                            "The obtained response is not a list of service requests");
+                }
+            } else {
+                readServiceRequests(reader, consumer);
+            }
+            checkEndOfDocument(reader);
+            return true;
         } catch (Exception e) {
-            //Toronto, wraps the service_requests array in a json object..
             throw new DataParsingException(e.getMessage());
         }
     }
 
+    private void readServiceRequests(JsonReader reader,
+                                     ServiceRequestConsumer consumer) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            consumer.accept(SERVICE_REQUEST_ADAPTER.read(reader));
+        }
+        reader.endArray();
+    }
+
     @Override
     public POSTServiceRequestResponse parsePostServiceRequestResponse(
             String rawData) throws DataParsingException {
         List<POSTServiceRequestResponse> result;
         try {
-            Gson gson = new Gson();
-            Type listType = new TypeToken<ArrayList<POSTServiceRequestResponse>>() {
-            }.getType();
-            result = gson.fromJson(rawData, listType);
+            result = GSON.fromJson(rawData,
+                    POST_SERVICE_REQUEST_RESPONSE_LIST_TYPE);
 
             if (result.size() == 0) {
                 return null;
@@ -124,13 +242,21 @@ public class JSONParser extends AbstractParser {
     @Override
     public GeoReportV2Error parseGeoReportV2Errors(String rawData)
             throws DataParsingException {
+        return parseGeoReportV2Errors(new StringReader(rawData));
+    }
+
+    @Override
+    public GeoReportV2Error parseGeoReportV2Errors(InputStream data)
+            throws DataParsingException {
+        return parseGeoReportV2Errors(getReader(data));
+    }
+
+    private GeoReportV2Error parseGeoReportV2Errors(Reader data)
+            throws DataParsingException {
         List<GeoReportV2Error> result;
         try {
-            Gson gson = new Gson();
-            Type listType = new TypeToken<ArrayList<GeoReportV2Error>>() {
-            }.getType();
-            result = gson.fromJson(rawData, listType);
-            if (result.size() == 0) {
+            result = GSON.fromJson(data, ERROR_LIST_TYPE);
+            if (result == null || result.size() == 0) {
                 throw new DataParsingException(
                         "The obtained response is not an error object");
             } else {
@@ -144,25 +270,96 @@ public class JSONParser extends AbstractParser {
     @Override
     public ServiceDiscoveryInfo parseServiceDiscovery(String rawData)
             throws DataParsingException {
-        ServiceDiscoveryInfo result;
         try {
-            Gson gson = new GsonBuilder()
-                    .registerTypeAdapter(Date.class, new DateDeserializer())
-                    .create();
-            result = gson.fromJson(rawData, ServiceDiscoveryInfo.class);
+            JsonReader reader = getJsonReader(new StringReader(rawData));
+            if (isEmpty(reader)) {
+                return null;
+            }
+            ServiceDiscoveryInfo result = SERVICE_DISCOVERY_ADAPTER.read(reader);
+            checkEndOfDocument(reader);
             return result;
         } catch (Exception e) {
             throw new DataParsingException(e.getMessage());
         }
     }
 
-    private class DateDeserializer implements JsonDeserializer<Date> {
+    /**
+     * Reads a JSON array element by element.
+     *
+     * @param reader  Reader placed before the array.
+     * @param adapter Adapter of the elements.
+     * @return List of elements or <code>null</code> if the array is null.
+     * @throws IOException If the data is not valid.
+     */
+    private <T> List<T> readList(JsonReader reader, TypeAdapter<T> adapter)
+            throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<T> result = new ArrayList<T>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            result.add(adapter.read(reader));
+        }
+        reader.endArray();
+        return result;
+    }
 
-        @Override
-        public Date deserialize(JsonElement jsonElement, Type typeOF,
-                                JsonDeserializationContext context) throws JsonParseException {
-            DateParser dateParser = new DateParser();
-            return dateParser.parseDate(jsonElement.getAsString());
+    /**
+     * Checks if there is no data at all. Gson returns <code>null</code> in
+     * that case instead of failing.
+     *
+     * @param reader Reader at the beginning of the document.
+     * @return <code>true</code> if the document is empty.
+     * @throws IOException If the data is not valid.
+     */
+    private boolean isEmpty(JsonReader reader) throws IOException {
+        try {
+            reader.peek();
+            return false;
+        } catch (EOFException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Checks that nothing follows the parsed value, as Gson does.
+     *
+     * @param reader Reader after the parsed value.
+     * @throws IOException If there is more data.
+     */
+    private void checkEndOfDocument(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new IOException("JSON document was not fully consumed.");
+        }
+    }
+
+    /**
+     * Builds a lenient reader, as Gson does.
+     *
+     * @param data JSON data.
+     * @return A reader of the data.
+     */
+    private JsonReader getJsonReader(Reader data) {
+        JsonReader reader = new JsonReader(data);
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * Decodes the given stream. It is read on demand, so the whole response is
+     * never held in memory as a String.
+     *
+     * @param data JSON stream.
+     * @return A reader of the stream.
+     * @throws DataParsingException If the text format is not supported.
+     */
+    private Reader getReader(InputStream data) throws DataParsingException {
+        try {
+            return new InputStreamReader(data, DataParser.TEXT_FORMAT);
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
         }
     }
 }
@@ -0,0 +1,452 @@
+package org.codeforamerica.open311.internals.parsing;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.facade.data.AttributeInfo;
+import org.codeforamerica.open311.facade.data.AttributeInfo.Datatype;
+import org.codeforamerica.open311.facade.data.Endpoint;
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.data.ServiceDiscoveryInfo;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.ServiceRequest.Status;
+import org.codeforamerica.open311.facade.data.Value;
+
+/**
+ * Provides hand-written {@link TypeAdapter}s for the objects which are parsed
+ * more often ({@link Service}, {@link ServiceDefinition},
+ * {@link ServiceRequest} and {@link ServiceDiscoveryInfo}). They read the
+ * fields straight from the {@link JsonReader} and build the objects through
+ * their constructors, avoiding the reflection based binding.
+ * <p/>
+ * Only reading is done by hand, writing is delegated to the default adapters.
+ * <p/>
+ * Unknown fields are skipped. Enumerations are read case insensitively, as
+ * the XML parser does.
+ */
+/* package */ class JSONTypeAdapterFactory implements TypeAdapterFactory {
+
+    private static final DateParser DATE_PARSER = new DateParser();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType == Service.class) {
+            return (TypeAdapter<T>) new ServiceAdapter(
+                    gson.getDelegateAdapter(this, TypeToken.get(Service.class)));
+        }
+        if (rawType == ServiceDefinition.class) {
+            return (TypeAdapter<T>) new ServiceDefinitionAdapter(
+                    gson.getDelegateAdapter(this,
+                            TypeToken.get(ServiceDefinition.class)));
+        }
+        if (rawType == ServiceRequest.class) {
+            return (TypeAdapter<T>) new ServiceRequestAdapter(
+                    gson.getDelegateAdapter(this,
+                            TypeToken.get(ServiceRequest.class)));
+        }
+        if (rawType == ServiceDiscoveryInfo.class) {
+            return (TypeAdapter<T>) new ServiceDiscoveryInfoAdapter(
+                    gson.getDelegateAdapter(this,
+                            TypeToken.get(ServiceDiscoveryInfo.class)));
+        }
+        return null;
+    }
+
+    /**
+     * Base of the adapters, it contains the common reading operations.
+     */
+    private abstract static class ReadingAdapter<T> extends TypeAdapter<T> {
+        private final TypeAdapter<T> delegate;
+
+        private ReadingAdapter(TypeAdapter<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            delegate.write(out, value);
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readObject(in);
+        }
+
+        /**
+         * Reads the object, the next token is not <code>null</code>.
+         */
+        protected abstract T readObject(JsonReader in) throws IOException;
+
+        protected String nextString(JsonReader in) throws IOException {
+            switch (in.peek()) {
+                case NULL:
+                    in.nextNull();
+                    return null;
+                case BOOLEAN:
+                    return String.valueOf(in.nextBoolean());
+                default:
+                    return in.nextString();
+            }
+        }
+
+        protected Boolean nextBoolean(JsonReader in) throws IOException {
+            switch (in.peek()) {
+                case NULL:
+                    in.nextNull();
+                    return null;
+                case BOOLEAN:
+                    return in.nextBoolean();
+                default:
+                    return Boolean.valueOf(in.nextString());
+            }
+        }
+
+        protected Integer nextInteger(JsonReader in) throws IOException {
+            String value = nextString(in);
+            return value != null && value.length() > 0 ? Integer
+                    .valueOf(value) : null;
+        }
+
+        protected Long nextLong(JsonReader in) throws IOException {
+            String value = nextString(in);
+            return value != null && value.length() > 0 ? Long.valueOf(value)
+                    : null;
+        }
+
+        protected Float nextFloat(JsonReader in) throws IOException {
+            String value = nextString(in);
+            return value != null && value.length() > 0 ? Float.valueOf(value)
+                    : null;
+        }
+
+        protected Date nextDate(JsonReader in) throws IOException {
+            String value = nextString(in);
+            return value != null ? DATE_PARSER.parseDate(value) : null;
+        }
+
+        protected URL nextUrl(JsonReader in) throws IOException {
+            String value = nextString(in);
+            if (value == null) {
+                return null;
+            }
+            try {
+                return new URL(value.trim());
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    private static class ServiceAdapter extends ReadingAdapter<Service> {
+
+        private ServiceAdapter(TypeAdapter<Service> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        protected Service readObject(JsonReader in) throws IOException {
+            String code = null, name = null, description = null, keywords = null, group = null;
+            Boolean metadata = null;
+            Service.Type type = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals(DataParser.SERVICE_CODE_TAG)) {
+                    code = nextString(in);
+                } else if (field.equals(DataParser.SERVICE_NAME_TAG)) {
+                    name = nextString(in);
+                } else if (field.equals(DataParser.DESCRIPTION_TAG)) {
+                    description = nextString(in);
+                } else if (field.equals(DataParser.METADATA_TAG)) {
+                    metadata = nextBoolean(in);
+                } else if (field.equals(DataParser.TYPE_TAG)) {
+                    String rawType = nextString(in);
+                    type = rawType != null ? Service.Type
+                            .getFromString(rawType) : null;
+                } else if (field.equals(DataParser.KEYWORDS_TAG)) {
+                    keywords = nextString(in);
+                } else if (field.equals(DataParser.SERVICE_GROUP_TAG)) {
+                    group = nextString(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Service(code, name, description, metadata, type,
+                    keywords, group);
+        }
+    }
+
+    private static class ServiceDefinitionAdapter extends
+            ReadingAdapter<ServiceDefinition> {
+
+        private ServiceDefinitionAdapter(
+                TypeAdapter<ServiceDefinition> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        protected ServiceDefinition readObject(JsonReader in)
+                throws IOException {
+            String serviceCode = null;
+            List<AttributeInfo> attributes = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals(DataParser.SERVICE_CODE_TAG)) {
+                    serviceCode = nextString(in);
+                } else if (field.equals(DataParser.ATTRIBUTES_TAG)
+                        && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    attributes = new LinkedList<AttributeInfo>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        attributes.add(readAttribute(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ServiceDefinition(serviceCode, attributes);
+        }
+
+        private AttributeInfo readAttribute(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Boolean variable = null, required = null;
+            String code = null, datatypeDescription = null, description = null;
+            Datatype datatype = null;
+            Integer order = null;
+            Value[] values = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals(DataParser.VARIABLE_TAG)) {
+                    variable = nextBoolean(in);
+                } else if (field.equals(DataParser.CODE_TAG)) {
+                    code = nextString(in);
+                } else if (field.equals(DataParser.DATATYPE_TAG)) {
+                    String rawDatatype = nextString(in);
+                    datatype = rawDatatype != null ? Datatype
+                            .getFromString(rawDatatype) : null;
+                } else if (field.equals(DataParser.REQUIRED_TAG)) {
+                    required = nextBoolean(in);
+                } else if (field.equals(DataParser.DATATYPE_DESCRIPTION_TAG)) {
+                    datatypeDescription = nextString(in);
+                } else if (field.equals(DataParser.ORDER_TAG)) {
+                    order = nextInteger(in);
+                } else if (field.equals(DataParser.DESCRIPTION_TAG)) {
+                    description = nextString(in);
+                } else if (field.equals(DataParser.VALUES_TAG)
+                        && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    values = readValues(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new AttributeInfo(variable, code, datatype, required,
+                    datatypeDescription, order, description, values);
+        }
+
+        private Value[] readValues(JsonReader in) throws IOException {
+            List<Value> values = new ArrayList<Value>();
+            in.beginArray();
+            while (in.hasNext()) {
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    values.add(null);
+                    continue;
+                }
+                String key = null, name = null;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String field = in.nextName();
+                    if (field.equals(DataParser.KEY_TAG)) {
+                        key = nextString(in);
+                    } else if (field.equals(DataParser.NAME_TAG)) {
+                        name = nextString(in);
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+                values.add(new Value(key, name));
+            }
+            in.endArray();
+            return values.toArray(new Value[values.size()]);
+        }
+    }
+
+    private static class ServiceRequestAdapter extends
+            ReadingAdapter<ServiceRequest> {
+
+        private ServiceRequestAdapter(TypeAdapter<ServiceRequest> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        protected ServiceRequest readObject(JsonReader in) throws IOException {
+            String serviceRequestId = null, statusNotes = null, serviceName = null,
+                    serviceCode = null, description = null, agencyResponsible = null,
+                    serviceNotice = null, address = null;
+            Status status = null;
+            Date requestedDatetime = null, updatedDatetime = null, expectedDatetime = null;
+            Long addressId = null;
+            Integer zipCode = null;
+            Float latitude = null, longitude = null;
+            URL mediaUrl = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals(DataParser.SERVICE_REQUEST_ID_TAG)) {
+                    serviceRequestId = nextString(in);
+                } else if (field.equals(DataParser.STATUS_TAG)) {
+                    String rawStatus = nextString(in);
+                    status = rawStatus != null ? Status
+                            .getFromString(rawStatus) : null;
+                } else if (field.equals(DataParser.STATUS_NOTES_TAG)) {
+                    statusNotes = nextString(in);
+                } else if (field.equals(DataParser.SERVICE_NAME_TAG)) {
+                    serviceName = nextString(in);
+                } else if (field.equals(DataParser.SERVICE_CODE_TAG)) {
+                    serviceCode = nextString(in);
+                } else if (field.equals(DataParser.DESCRIPTION_TAG)) {
+                    description = nextString(in);
+                } else if (field.equals(DataParser.AGENCY_RESPONSIBLE_TAG)) {
+                    agencyResponsible = nextString(in);
+                } else if (field.equals(DataParser.SERVICE_NOTICE_TAG)) {
+                    serviceNotice = nextString(in);
+                } else if (field.equals(DataParser.REQUESTED_DATETIME_TAG)) {
+                    requestedDatetime = nextDate(in);
+                } else if (field.equals(DataParser.UPDATED_DATETIME_TAG)) {
+                    updatedDatetime = nextDate(in);
+                } else if (field.equals(DataParser.EXPECTED_DATETIME_TAG)) {
+                    expectedDatetime = nextDate(in);
+                } else if (field.equals(DataParser.ADDRESS_TAG)) {
+                    address = nextString(in);
+                } else if (field.equals(DataParser.ADDRESS_ID_TAG)) {
+                    addressId = nextLong(in);
+                } else if (field.equals(DataParser.ZIPCODE_TAG)) {
+                    zipCode = nextInteger(in);
+                } else if (field.equals(DataParser.LATITUDE_TAG)) {
+                    latitude = nextFloat(in);
+                } else if (field.equals(DataParser.LONGITUDE_TAG)) {
+                    longitude = nextFloat(in);
+                } else if (field.equals(DataParser.MEDIA_URL_TAG)) {
+                    mediaUrl = nextUrl(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ServiceRequest(serviceRequestId, status, statusNotes,
+                    serviceName, serviceCode, description, agencyResponsible,
+                    serviceNotice, requestedDatetime, updatedDatetime,
+                    expectedDatetime, address, addressId, zipCode, latitude,
+                    longitude, mediaUrl);
+        }
+    }
+
+    private static class ServiceDiscoveryInfoAdapter extends
+            ReadingAdapter<ServiceDiscoveryInfo> {
+
+        private ServiceDiscoveryInfoAdapter(
+                TypeAdapter<ServiceDiscoveryInfo> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        protected ServiceDiscoveryInfo readObject(JsonReader in)
+                throws IOException {
+            Date changeset = null;
+            String contact = null, keyService = null;
+            List<Endpoint> endpoints = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals(DataParser.CHANGESET_TAG)) {
+                    changeset = nextDate(in);
+                } else if (field.equals(DataParser.CONTACT_TAG)) {
+                    contact = nextString(in);
+                } else if (field.equals(DataParser.KEY_SERVICE_TAG)) {
+                    keyService = nextString(in);
+                } else if (field.equals(DataParser.ENDPOINTS_TAG)
+                        && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    endpoints = new ArrayList<Endpoint>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        endpoints.add(readEndpoint(in));
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ServiceDiscoveryInfo(changeset, contact, keyService,
+                    endpoints);
+        }
+
+        private Endpoint readEndpoint(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String specificationUrl = null, url = null, type = null;
+            Date changeset = null;
+            List<Format> formats = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (field.equals(DataParser.SPECIFICATION_TAG)) {
+                    specificationUrl = nextString(in);
+                } else if (field.equals(DataParser.URL_TAG)) {
+                    url = nextString(in);
+                } else if (field.equals(DataParser.CHANGESET_TAG)) {
+                    changeset = nextDate(in);
+                } else if (field.equals(DataParser.TYPE_TAG)) {
+                    type = nextString(in);
+                } else if (field.equals(DataParser.FORMATS_TAG)
+                        && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    formats = new ArrayList<Format>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        String format = nextString(in);
+                        formats.add(format != null ? Format
+                                .getFromHTTPContentTypeString(format) : null);
+                    }
+                    in.endArray();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return new Endpoint(specificationUrl, url, changeset, type,
+                    formats);
+        }
+    }
+}
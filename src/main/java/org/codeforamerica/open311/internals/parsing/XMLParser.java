@@ -2,6 +2,7 @@ package org.codeforamerica.open311.internals.parsing;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -17,6 +18,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 import org.codeforamerica.open311.facade.EndpointType;
 import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.facade.ServiceRequestConsumer;
 import org.codeforamerica.open311.facade.data.AttributeInfo;
 import org.codeforamerica.open311.facade.data.AttributeInfo.Datatype;
 import org.codeforamerica.open311.facade.data.Endpoint;
@@ -38,45 +40,68 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
- * Parses XML files using DOM.
+ * Parses XML files using DOM. Instances are stateless and thread-safe, every
+ * thread parses with its own {@link DocumentBuilder}.
  *
  * @author Santiago Munín <santimunin@gmail.com>
  *
  */
 public class XMLParser extends AbstractParser {
 
-    private DocumentBuilder dBuilder;
-    private DateParser dateParser = new DateParser();
-
     /**
-     * Creates an instance of an XMLParser creating a {@link DocumentBuilder}.
+     * Looking up the implementation of the factory is expensive, so it is
+     * done only once.
+     */
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory
+            .newInstance();
+    /**
+     * A {@link DocumentBuilder} can't be used by two threads at the same time,
+     * so each thread keeps (and reuses) its own.
      */
-    public XMLParser() {
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<DocumentBuilder>() {
+        @Override
+        protected DocumentBuilder initialValue() {
+            try {
+                synchronized (DOCUMENT_BUILDER_FACTORY) {
+                    return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+                }
+            } catch (ParserConfigurationException e) {
+                throw new Error(
+                        "Cannot create a DocumentBuilder which satisfies the configuration requested.");
+            }
+        }
+    };
+    protected final DateParser dateParser = new DateParser();
+
+    @Override
+    public List<Service> parseServiceList(String rawData)
+            throws DataParsingException {
         try {
-            dBuilder = DocumentBuilderFactory.newInstance()
-                    .newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new Error(
-                    "Cannot create a DocumentBuilder which satisfies the configuration requested.");
+            return parseServiceList(getDocument(rawData));
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
         }
     }
 
     @Override
-    public List<Service> parseServiceList(String rawData)
+    public List<Service> parseServiceList(InputStream data)
             throws DataParsingException {
-        List<Service> result = new LinkedList<Service>();
         try {
-            Document doc = getDocument(rawData);
-            NodeList serviceNodeList = doc.getElementsByTagName(SERVICE_TAG);
-            for (int i = 0; i < serviceNodeList.getLength(); i++) {
-                Node serviceNode = serviceNodeList.item(i);
-                if (serviceNode.getNodeType() == Node.ELEMENT_NODE) {
-                    result.add(getService((Element) serviceNode));
-                }
-            }
+            return parseServiceList(getDocument(data));
         } catch (Exception e) {
             throw new DataParsingException(e.getMessage());
         }
+    }
+
+    private List<Service> parseServiceList(Document doc) {
+        List<Service> result = new LinkedList<Service>();
+        NodeList serviceNodeList = doc.getElementsByTagName(SERVICE_TAG);
+        for (int i = 0; i < serviceNodeList.getLength(); i++) {
+            Node serviceNode = serviceNodeList.item(i);
+            if (serviceNode.getNodeType() == Node.ELEMENT_NODE) {
+                result.add(getService((Element) serviceNode));
+            }
+        }
         return result;
     }
 
@@ -105,18 +130,31 @@ public class XMLParser extends AbstractParser {
     public ServiceDefinition parseServiceDefinition(String rawData)
             throws DataParsingException {
         try {
-            Document doc = getDocument(rawData);
-            NodeList serviceDefinitionNodeList = doc
-                    .getElementsByTagName(SERVICE_DEFINITION_TAG);
-            for (int i = 0; i < serviceDefinitionNodeList.getLength(); i++) {
-                Node serviceDefinitionNode = serviceDefinitionNodeList.item(i);
-                if (serviceDefinitionNode.getNodeType() == Node.ELEMENT_NODE) {
-                    return getServiceDefinition((Element) serviceDefinitionNode);
-                }
-            }
+            return parseServiceDefinition(getDocument(rawData));
         } catch (Exception e) {
             throw new DataParsingException(e.getMessage());
         }
+    }
+
+    @Override
+    public ServiceDefinition parseServiceDefinition(InputStream data)
+            throws DataParsingException {
+        try {
+            return parseServiceDefinition(getDocument(data));
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
+        }
+    }
+
+    private ServiceDefinition parseServiceDefinition(Document doc) {
+        NodeList serviceDefinitionNodeList = doc
+                .getElementsByTagName(SERVICE_DEFINITION_TAG);
+        for (int i = 0; i < serviceDefinitionNodeList.getLength(); i++) {
+            Node serviceDefinitionNode = serviceDefinitionNodeList.item(i);
+            if (serviceDefinitionNode.getNodeType() == Node.ELEMENT_NODE) {
+                return getServiceDefinition((Element) serviceDefinitionNode);
+            }
+        }
         return null;
     }
 
@@ -212,23 +250,61 @@ public class XMLParser extends AbstractParser {
     @Override
     public List<ServiceRequest> parseServiceRequests(String rawData)
             throws DataParsingException {
-        List<ServiceRequest> result = new LinkedList<ServiceRequest>();
         try {
-            Document doc = getDocument(rawData);
-            NodeList serviceRequestsIdList = doc
-                    .getElementsByTagName(SERVICE_REQUEST_TAG);
-            for (int i = 0; i < serviceRequestsIdList.getLength(); i++) {
-                Node serviceRequestIdNode = serviceRequestsIdList.item(i);
-                if (serviceRequestIdNode.getNodeType() == Node.ELEMENT_NODE) {
-                    result.add(getServiceRequest((Element) serviceRequestIdNode));
-                }
-            }
+            return parseServiceRequests(getDocument(rawData));
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
+        }
+    }
+
+    @Override
+    public List<ServiceRequest> parseServiceRequests(InputStream data)
+            throws DataParsingException {
+        try {
+            return parseServiceRequests(getDocument(data));
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the service requests of the document. The DOM is built anyway,
+     * so the consumer only saves the final list.
+     */
+    @Override
+    public void parseServiceRequests(InputStream data,
+                                     ServiceRequestConsumer consumer) throws DataParsingException {
+        try {
+            parseServiceRequests(getDocument(data), consumer);
         } catch (Exception e) {
             throw new DataParsingException(e.getMessage());
         }
+    }
+
+    private List<ServiceRequest> parseServiceRequests(Document doc)
+            throws MalformedURLException {
+        final List<ServiceRequest> result = new LinkedList<ServiceRequest>();
+        parseServiceRequests(doc, new ServiceRequestConsumer() {
+            @Override
+            public void accept(ServiceRequest serviceRequest) {
+                result.add(serviceRequest);
+            }
+        });
         return result;
     }
 
+    private void parseServiceRequests(Document doc,
+                                      ServiceRequestConsumer consumer) throws MalformedURLException {
+        NodeList serviceRequestsIdList = doc
+                .getElementsByTagName(SERVICE_REQUEST_TAG);
+        for (int i = 0; i < serviceRequestsIdList.getLength(); i++) {
+            Node serviceRequestIdNode = serviceRequestsIdList.item(i);
+            if (serviceRequestIdNode.getNodeType() == Node.ELEMENT_NODE) {
+                consumer.accept(getServiceRequest((Element) serviceRequestIdNode));
+            }
+        }
+    }
+
     /**
      * Builds a {@link ServiceRequest} object from an {@link Element} of the
      * DOM.
@@ -327,21 +403,35 @@ public class XMLParser extends AbstractParser {
     public GeoReportV2Error parseGeoReportV2Errors(String rawData)
             throws DataParsingException {
         try {
-            Document doc = getDocument(rawData);
-            NodeList errorNodes = doc.getElementsByTagName(ERROR_TAG);
-            for (int i = 0; i < errorNodes.getLength(); i++) {
-                Node errorNode = errorNodes.item(i);
-                if (errorNode.getNodeType() == Node.ELEMENT_NODE) {
-                    return getGeoReportErrorFromXMLElement((Element) errorNode);
-                }
-            }
-            throw new DataParsingException(
-                    "The obtained response is not an error object");
+            return parseGeoReportV2Errors(getDocument(rawData));
         } catch (Exception e) {
             throw new DataParsingException(e.getMessage());
         }
     }
 
+    @Override
+    public GeoReportV2Error parseGeoReportV2Errors(InputStream data)
+            throws DataParsingException {
+        try {
+            return parseGeoReportV2Errors(getDocument(data));
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
+        }
+    }
+
+    private GeoReportV2Error parseGeoReportV2Errors(Document doc)
+            throws DataParsingException {
+        NodeList errorNodes = doc.getElementsByTagName(ERROR_TAG);
+        for (int i = 0; i < errorNodes.getLength(); i++) {
+            Node errorNode = errorNodes.item(i);
+            if (errorNode.getNodeType() == Node.ELEMENT_NODE) {
+                return getGeoReportErrorFromXMLElement((Element) errorNode);
+            }
+        }
+        throw new DataParsingException(
+                "The obtained response is not an error object");
+    }
+
     /**
      * Builds a {@link GeoReportV2Error} object from an {@link Element} of the
      * DOM.
@@ -447,10 +537,29 @@ public class XMLParser extends AbstractParser {
      */
     private Document getDocument(String rawData)
             throws SAXException, IOException {
-        Document doc = dBuilder.parse(new InputSource(new ByteArrayInputStream(
-                rawData.getBytes(DataParser.TEXT_FORMAT))));
-        doc.getDocumentElement().normalize();
-        return doc;
+        return getDocument(new ByteArrayInputStream(
+                rawData.getBytes(DataParser.TEXT_FORMAT)));
+    }
+
+    /**
+     * Returns a {@link Document} representing the DOM of the XML stream. The
+     * encoding is taken from the XML declaration.
+     *
+     * @param data XML stream, it is not closed.
+     * @return A document built with the given data.
+     * @throws SAXException
+     * @throws IOException
+     */
+    private Document getDocument(InputStream data)
+            throws SAXException, IOException {
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        try {
+            Document doc = builder.parse(new InputSource(unclosable(data)));
+            doc.getDocumentElement().normalize();
+            return doc;
+        } finally {
+            builder.reset();
+        }
     }
 
     /**
@@ -478,7 +587,7 @@ public class XMLParser extends AbstractParser {
      * @return The integer value (or <code>null</code> if the rawInt is empty or
      * <code>null</code>).
      */
-    private int parseInt(String rawInt) {
+    protected int parseInt(String rawInt) {
         try {
             return (rawInt != null && rawInt.length() > 0) ? Integer
                     .parseInt(rawInt) : 0;
@@ -496,7 +605,7 @@ public class XMLParser extends AbstractParser {
      * @return The long value (or <code>null</code> if the rawLong is empty or
      * <code>null</code>).
      */
-    private long parseLong(String rawLong) {
+    protected long parseLong(String rawLong) {
         try {
             return (rawLong != null && rawLong.length() > 0) ? Long
                     .parseLong(rawLong) : 0;
@@ -514,7 +623,7 @@ public class XMLParser extends AbstractParser {
      * @return The float value (or <code>null</code> if the rawFloat is empty or
      * <code>null</code>).
      */
-    private Float parseFloat(String rawFloat) {
+    protected Float parseFloat(String rawFloat) {
         return (rawFloat != null && rawFloat.length() > 0) ? Float
                 .valueOf(rawFloat) : null;
     }
@@ -528,7 +637,7 @@ public class XMLParser extends AbstractParser {
      * @return The float value (or <code>null</code> if the rawBoolean is empty
      * or <code>null</code>).
      */
-    private Boolean parseBoolean(String rawBoolean) {
+    protected Boolean parseBoolean(String rawBoolean) {
         return (rawBoolean != null && rawBoolean.length() > 0) ? Boolean
                 .valueOf(rawBoolean) : Boolean.FALSE;
     }
@@ -0,0 +1,402 @@
+package org.codeforamerica.open311.internals.parsing;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.codeforamerica.open311.facade.ServiceRequestConsumer;
+import org.codeforamerica.open311.facade.data.AttributeInfo;
+import org.codeforamerica.open311.facade.data.AttributeInfo.Datatype;
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.ServiceRequest.Status;
+import org.codeforamerica.open311.facade.data.Value;
+import org.codeforamerica.open311.facade.exceptions.DataParsingException;
+
+/**
+ * Parses XML files using a pull parser (StAX). The service list, the service
+ * definitions and the service requests are built in a single forward pass, no
+ * DOM is built for them. The rest of the operations are inherited from the
+ * {@link XMLParser}.
+ * <p/>
+ * The results are the same as the DOM ones: the value of a field is the text
+ * content of the first element with that tag inside the parent element.
+ * <p/>
+ * The {@link XMLInputFactory} is configured once and only creates readers, so
+ * instances are thread-safe too.
+ * <p/>
+ * <b>NOTE</b>: javax.xml.stream is not available under Android, use the
+ * {@link XMLParser} there.
+ */
+public class XMLStreamParser extends XMLParser {
+
+    private static final XMLInputFactory INPUT_FACTORY = buildInputFactory();
+
+    @Override
+    public List<Service> parseServiceList(String rawData)
+            throws DataParsingException {
+        return parseServiceList(toStream(rawData));
+    }
+
+    @Override
+    public List<Service> parseServiceList(InputStream data)
+            throws DataParsingException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(data);
+            List<Service> result = new LinkedList<Service>();
+            while (nextElement(reader, SERVICE_TAG)) {
+                result.add(buildService(readFields(reader, null, null)));
+            }
+            return result;
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
+        } finally {
+            close(reader);
+        }
+    }
+
+    @Override
+    public ServiceDefinition parseServiceDefinition(String rawData)
+            throws DataParsingException {
+        return parseServiceDefinition(toStream(rawData));
+    }
+
+    @Override
+    public ServiceDefinition parseServiceDefinition(InputStream data)
+            throws DataParsingException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(data);
+            ServiceDefinition result = null;
+            if (nextElement(reader, SERVICE_DEFINITION_TAG)) {
+                result = readServiceDefinition(reader);
+                // The rest of the document is checked anyway.
+                while (reader.hasNext()) {
+                    reader.next();
+                }
+            }
+            return result;
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
+        } finally {
+            close(reader);
+        }
+    }
+
+    @Override
+    public List<ServiceRequest> parseServiceRequests(String rawData)
+            throws DataParsingException {
+        return parseServiceRequests(toStream(rawData));
+    }
+
+    @Override
+    public List<ServiceRequest> parseServiceRequests(InputStream data)
+            throws DataParsingException {
+        final List<ServiceRequest> result = new LinkedList<ServiceRequest>();
+        parseServiceRequests(data, new ServiceRequestConsumer() {
+            @Override
+            public void accept(ServiceRequest serviceRequest) {
+                result.add(serviceRequest);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void parseServiceRequests(InputStream data,
+                                     ServiceRequestConsumer consumer) throws DataParsingException {
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(data);
+            while (nextElement(reader, SERVICE_REQUEST_TAG)) {
+                consumer.accept(buildServiceRequest(readFields(reader, null,
+                        null)));
+            }
+        } catch (Exception e) {
+            throw new DataParsingException(e.getMessage());
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Builds a {@link Service} object from the fields of a service element.
+     *
+     * @param fields Text content of the elements of a service.
+     * @return An object wrapping the given information.
+     */
+    private Service buildService(Map<String, String> fields) {
+        return new Service(get(fields, SERVICE_CODE_TAG), get(fields,
+                SERVICE_NAME_TAG), get(fields, DESCRIPTION_TAG),
+                parseBoolean(get(fields, METADATA_TAG)),
+                Service.Type.getFromString(get(fields, TYPE_TAG)), get(fields,
+                KEYWORDS_TAG), get(fields, SERVICE_GROUP_TAG));
+    }
+
+    /**
+     * Reads a service definition element. The reader has to be placed at its
+     * start tag, it will be left at its end tag.
+     *
+     * @param reader Reader of the document.
+     * @return An object wrapping the information of the element.
+     * @throws XMLStreamException If the document is not well formed.
+     */
+    private ServiceDefinition readServiceDefinition(XMLStreamReader reader)
+            throws XMLStreamException {
+        String serviceCode = null;
+        List<AttributeInfo> attributes = new LinkedList<AttributeInfo>();
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = getName(reader);
+                if (name.equals(ATTRIBUTE_TAG)) {
+                    List<Map<String, String>> values = new ArrayList<Map<String, String>>();
+                    attributes.add(buildAttributeInfo(
+                            readFields(reader, VALUE_TAG, values), values));
+                } else if (serviceCode == null
+                        && name.equals(SERVICE_CODE_TAG)) {
+                    serviceCode = get(readFields(reader, null, null),
+                            SERVICE_CODE_TAG);
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+            }
+        }
+        return new ServiceDefinition(serviceCode != null ? serviceCode : "",
+                attributes);
+    }
+
+    /**
+     * Builds an {@link AttributeInfo} object from the fields of an attribute
+     * element.
+     *
+     * @param fields Text content of the elements of the attribute.
+     * @param values Fields of each value element of the attribute.
+     * @return An object wrapping the given information.
+     */
+    private AttributeInfo buildAttributeInfo(Map<String, String> fields,
+                                             List<Map<String, String>> values) {
+        Value[] parsedValues = new Value[values.size()];
+        for (int i = 0; i < parsedValues.length; i++) {
+            Map<String, String> value = values.get(i);
+            parsedValues[i] = new Value(get(value, KEY_TAG), get(value,
+                    NAME_TAG));
+        }
+        return new AttributeInfo(parseBoolean(get(fields, VARIABLE_TAG)), get(
+                fields, CODE_TAG), Datatype.getFromString(get(fields,
+                DATATYPE_TAG)), parseBoolean(get(fields, REQUIRED_TAG)), get(
+                fields, DATATYPE_DESCRIPTION_TAG), parseInt(get(fields,
+                ORDER_TAG)), get(fields, DESCRIPTION_TAG), parsedValues);
+    }
+
+    /**
+     * Builds a {@link ServiceRequest} object from the fields of a request
+     * element.
+     *
+     * @param fields Text content of the elements of the request.
+     * @return An object wrapping the given information.
+     */
+    private ServiceRequest buildServiceRequest(Map<String, String> fields) {
+        return new ServiceRequest(get(fields, SERVICE_REQUEST_ID_TAG),
+                Status.getFromString(get(fields, STATUS_TAG)), get(fields,
+                STATUS_NOTES_TAG), get(fields, SERVICE_NAME_TAG), get(
+                fields, SERVICE_CODE_TAG), get(fields, DESCRIPTION_TAG),
+                get(fields, AGENCY_RESPONSIBLE_TAG), get(fields,
+                SERVICE_NOTICE_TAG), dateParser.parseDate(get(fields,
+                REQUESTED_DATETIME_TAG)), dateParser.parseDate(get(fields,
+                UPDATED_DATETIME_TAG)), dateParser.parseDate(get(fields,
+                EXPECTED_DATETIME_TAG)), get(fields, ADDRESS_TAG),
+                parseLong(get(fields, ADDRESS_ID_TAG)), parseInt(get(fields,
+                ZIPCODE_TAG)), parseFloat(get(fields, LATITUDE_TAG)),
+                parseFloat(get(fields, LONGITUDE_TAG)), buildUrl(get(fields,
+                MEDIA_URL_TAG).trim()));
+    }
+
+    /**
+     * Moves the reader to the next start tag with the given name.
+     *
+     * @param reader Reader of the document.
+     * @param tag    Desired tag.
+     * @return <code>false</code> if the end of the document was reached.
+     * @throws XMLStreamException If the document is not well formed.
+     */
+    private boolean nextElement(XMLStreamReader reader, String tag)
+            throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT
+                    && getName(reader).equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads an element and returns the text content of its descendants
+     * indexed by tag. If a tag appears more than once, the first one (in
+     * document order) is kept, as it is done by the DOM parser. The element
+     * itself is included. The reader has to be placed at the start tag of the
+     * element, it will be left at its end tag.
+     *
+     * @param reader    Reader of the document.
+     * @param nestedTag Tag of the descendants which fields have to be read
+     *                  separately too, it can be <code>null</code>.
+     * @param nested    Receives the fields of every <code>nestedTag</code>
+     *                  element.
+     * @return Text content of the descendants.
+     * @throws XMLStreamException If the document is not well formed.
+     */
+    private Map<String, String> readFields(XMLStreamReader reader,
+                                           String nestedTag, List<Map<String, String>> nested)
+            throws XMLStreamException {
+        Map<String, String> fields = new HashMap<String, String>();
+        LinkedList<Frame> open = new LinkedList<Frame>();
+        open.push(new Frame(getName(reader), fields, null, nestedTag));
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    open.push(new Frame(getName(reader), fields,
+                            open.peek().nestedFields, nestedTag));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    String text = reader.getText();
+                    for (Frame frame : open) {
+                        frame.content.append(text);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    Frame frame = open.pop();
+                    String content = frame.content.toString();
+                    if (frame.firstInFields) {
+                        fields.put(frame.name, content);
+                    }
+                    if (frame.firstInNested) {
+                        frame.nestedFields.put(frame.name, content);
+                    }
+                    if (frame.nestedRoot && nested != null) {
+                        nested.add(frame.nestedFields);
+                    }
+                    if (open.isEmpty()) {
+                        return fields;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        throw new XMLStreamException("Unexpected end of the document");
+    }
+
+    /**
+     * Returns the value of a field.
+     *
+     * @param fields Fields of an element.
+     * @param tag    Desired tag.
+     * @return Content of the tag or <code>""</code> if it doesn't exist.
+     */
+    private String get(Map<String, String> fields, String tag) {
+        String value = fields.get(tag);
+        return value != null ? value : "";
+    }
+
+    /**
+     * Returns the name of the current element as the DOM parser would (with
+     * its prefix, if any).
+     *
+     * @param reader Reader placed at a start or end tag.
+     * @return Qualified name of the element.
+     */
+    private String getName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        return prefix != null && prefix.length() > 0 ? prefix + ":"
+                + reader.getLocalName() : reader.getLocalName();
+    }
+
+    private InputStream toStream(String rawData) throws DataParsingException {
+        try {
+            return new ByteArrayInputStream(
+                    rawData.getBytes(DataParser.TEXT_FORMAT));
+        } catch (UnsupportedEncodingException e) {
+            throw new DataParsingException(e.getMessage());
+        }
+    }
+
+    private void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // Nothing to do, the underlying stream is not closed anyway.
+            }
+        }
+    }
+
+    /**
+     * Builds the factory of readers, it is shared by every instance.
+     *
+     * @return A configured factory.
+     */
+    private static XMLInputFactory buildInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(
+                XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * An open element while reading the fields of another one.
+     */
+    private static class Frame {
+        private final String name;
+        private final StringBuilder content = new StringBuilder();
+        private final boolean firstInFields;
+        private final Map<String, String> nestedFields;
+        private final boolean nestedRoot;
+        private final boolean firstInNested;
+
+        private Frame(String name, Map<String, String> fields,
+                      Map<String, String> parentNestedFields, String nestedTag) {
+            this.name = name;
+            this.firstInFields = !fields.containsKey(name);
+            if (firstInFields) {
+                // Keeps the document order, the content is set at the end tag.
+                fields.put(name, "");
+            }
+            if (parentNestedFields == null && name.equals(nestedTag)) {
+                this.nestedFields = new HashMap<String, String>();
+                this.nestedRoot = true;
+                this.firstInNested = false;
+            } else {
+                this.nestedFields = parentNestedFields;
+                this.nestedRoot = false;
+                this.firstInNested = parentNestedFields != null
+                        && !parentNestedFields.containsKey(name);
+                if (firstInNested) {
+                    parentNestedFields.put(name, "");
+                }
+            }
+        }
+    }
+}
@@ -2,11 +2,15 @@ package org.codeforamerica.open311.internals.platform;
 
 import org.codeforamerica.open311.internals.caching.AndroidCache;
 import org.codeforamerica.open311.internals.caching.Cache;
+import org.codeforamerica.open311.internals.caching.LogStructuredCache;
 import org.codeforamerica.open311.internals.caching.NoCache;
 import org.codeforamerica.open311.internals.caching.RegularJavaCache;
 import org.codeforamerica.open311.internals.logging.AndroidLogger;
 import org.codeforamerica.open311.internals.logging.Logger;
 import org.codeforamerica.open311.internals.logging.RegularJavaLogger;
+import org.codeforamerica.open311.internals.parsing.DataParser;
+import org.codeforamerica.open311.internals.parsing.XMLParser;
+import org.codeforamerica.open311.internals.parsing.XMLStreamParser;
 
 /**
  * Builds some objects which implementation depends of the execution
@@ -42,11 +46,13 @@ public class PlatformManager {
 	/**
 	 * Builds a cache instance taking care of the execution environment.
 	 * 
-	 * @return {@link NoCache} under Android, {@link RegularJavaCache}
-	 *         otherwise. {@link AndroidCache} has to be built explicitly.
+	 * @return {@link NoCache} under Android, {@link LogStructuredCache}
+	 *         otherwise. {@link AndroidCache} and {@link RegularJavaCache} have
+	 *         to be built explicitly.
 	 */
 	public Cache buildCache() {
-		return androidPlatform ? new NoCache() : RegularJavaCache.getInstance();
+		return androidPlatform ? new NoCache() : LogStructuredCache
+				.getInstance();
 	}
 
 	/**
@@ -59,4 +65,14 @@ public class PlatformManager {
 		return androidPlatform ? new AndroidLogger() : new RegularJavaLogger();
 	}
 
+	/**
+	 * Builds an XML parser taking care of the execution environment.
+	 * 
+	 * @return {@link XMLParser} (DOM) under Android, where javax.xml.stream is
+	 *         not available. {@link XMLStreamParser} otherwise.
+	 */
+	public DataParser buildXMLParser() {
+		return androidPlatform ? new XMLParser() : new XMLStreamParser();
+	}
+
 }
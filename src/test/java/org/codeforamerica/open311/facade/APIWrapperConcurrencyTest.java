@@ -0,0 +1,302 @@
+package org.codeforamerica.open311.facade;
+
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
+import org.codeforamerica.open311.internals.caching.NoCache;
+import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.codeforamerica.open311.internals.network.NetworkResponse;
+import org.codeforamerica.open311.internals.network.Validators;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shares {@link APIWrapper} instances (one per format) among many threads.
+ * Every thread must get the expected results.
+ */
+public class APIWrapperConcurrencyTest {
+    private static final int THREADS = 64;
+    private static final int ITERATIONS = 20;
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[API WRAPPER CONCURRENCY TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[API WRAPPER CONCURRENCY TEST] Ends");
+    }
+
+    @Test
+    public void sharedWrapperTest() throws InterruptedException {
+        final APIWrapper[] wrappers = new APIWrapper[]{
+                new APIWrapper("http://www.fakeurl/", Format.XML,
+                        EndpointType.TEST, new MockNetworkManager(Format.XML),
+                        new NoCache(), "", ""),
+                new APIWrapper("http://www.fakeurl/", Format.JSON,
+                        EndpointType.TEST, new MockNetworkManager(Format.JSON),
+                        new NoCache(), "", "")};
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int operation = i % 4;
+            final APIWrapper wrapper = wrappers[(i / 4) % 2];
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            switch (operation) {
+                                case 0:
+                                    GlobalTests.serviceListTest(wrapper
+                                            .getServiceList());
+                                    break;
+                                case 1:
+                                    GlobalTests.serviceDefinitionTest(wrapper
+                                            .getServiceDefinition("001"));
+                                    break;
+                                case 2:
+                                    GlobalTests.serviceRequestsTest(wrapper
+                                            .getServiceRequests(new GETServiceRequestsFilter()));
+                                    break;
+                                default:
+                                    GlobalTests.serviceIdFromTokenTest(wrapper
+                                            .getServiceRequestIdFromToken("222"));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    } finally {
+                        finish.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue("Threads didn't finish", finish.await(60, TimeUnit.SECONDS));
+        assertTrue("Failures: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * Identical concurrent misses share one network call and its result.
+     */
+    @Test
+    public void coalescingTest() throws InterruptedException {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final APIWrapper wrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST, new MockNetworkManager(
+                Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url)
+                    throws IOException {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+                return super.doGetStream(url);
+            }
+        }, new NoCache(), "", "");
+        final List<Object> results = new CopyOnWriteArrayList<Object>();
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(wrapper.getServiceList());
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        // Every thread is blocked, either in the network or waiting for it.
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(60000);
+        }
+        assertTrue("Failures: " + failures, failures.isEmpty());
+        assertEquals(1, calls.get());
+        assertEquals(THREADS, results.size());
+        // Callers share the parsed result, but they can't modify it.
+        for (Object result : results) {
+            assertEquals(results.get(0), result);
+        }
+    }
+
+    /**
+     * Wrappers with different caches don't share their calls: every cache
+     * saves the result.
+     */
+    @Test
+    public void separateCachesTest() throws InterruptedException {
+        final CountDownLatch overlap = new CountDownLatch(2);
+        MockNetworkManager networkManager = new MockNetworkManager(Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url)
+                    throws IOException {
+                // Both calls reach the network at the same time.
+                overlap.countDown();
+                try {
+                    if (!overlap.await(10, TimeUnit.SECONDS)) {
+                        throw new IOException("The calls were coalesced");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+                return super.doGetStream(url);
+            }
+        };
+        final AtomicInteger saved = new AtomicInteger();
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            final APIWrapper wrapper = new APIWrapper("http://www.fakeurl/",
+                    Format.XML, EndpointType.TEST, networkManager,
+                    new NoCache() {
+                        @Override
+                        public void saveListOfServices(String endpointUrl,
+                                                       List<Service> services, Validators validators) {
+                            saved.incrementAndGet();
+                        }
+                    }, "", "");
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        GlobalTests.serviceListTest(wrapper.getServiceList());
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(60000);
+        }
+        assertTrue("Failures: " + failures, failures.isEmpty());
+        assertEquals(2, saved.get());
+    }
+
+    /**
+     * Definitions are fetched with bounded parallelism and a failure doesn't
+     * abort the rest.
+     */
+    @Test
+    public void prefetchTest() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        APIWrapper wrapper = new APIWrapper("http://www.fakeurl/", Format.XML,
+                EndpointType.TEST, new MockNetworkManager(Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                } finally {
+                    running.decrementAndGet();
+                }
+                if (url.toString().contains("services/bad")) {
+                    throw new IOException("Unavailable");
+                }
+                return super.doGetStream(url);
+            }
+        }, new NoCache(), "", "");
+        List<Service> services = new ArrayList<Service>();
+        for (int i = 0; i < 10; i++) {
+            services.add(new Service("00" + i, "Service", null, true, null,
+                    null, null));
+        }
+        services.add(new Service("bad", "Service", null, true, null, null, null));
+        services.add(new Service("plain", "Service", null, false, null, null,
+                null));
+        BatchResult<String, ServiceDefinition> result = wrapper
+                .prefetchServiceDefinitions(services, 3);
+        assertFalse(result.isSuccessful());
+        assertEquals(10, result.getResults().size());
+        assertEquals("000", result.getResults().keySet().iterator().next());
+        assertTrue(result.getFailures().get("bad") instanceof APIWrapperException);
+        assertFalse(result.getResults().containsKey("plain"));
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    /**
+     * Batch requests and prefetches sent from every thread of the executor of the
+     * asynchronous callbacks mustn't wait for a thread of that executor.
+     */
+    @Test
+    public void batchFromCallbacksTest() throws InterruptedException {
+        final APIWrapper wrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST, new MockNetworkManager(
+                Format.XML), new NoCache(), "", "");
+        final List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            ids.add("id-" + i);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        final CountDownLatch started = new CountDownLatch(threads);
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        for (int i = 0; i < threads; i++) {
+            AsyncAPIWrapper.getDefaultExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Every thread of the pool is busy.
+                        started.countDown();
+                        started.await();
+                        assertTrue(wrapper.getServiceRequestsByIds(ids)
+                                .isSuccessful());
+                        wrapper.prefetchServiceDefinitions(Arrays.asList(
+                                new Service("001", "Service", null, true,
+                                        null, null, null)));
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+        assertTrue(finished.await(30, TimeUnit.SECONDS));
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+}
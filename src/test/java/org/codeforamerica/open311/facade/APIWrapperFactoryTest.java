@@ -2,8 +2,26 @@ package org.codeforamerica.open311.facade;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
 
 import org.codeforamerica.open311.facade.data.City;
+import org.codeforamerica.open311.facade.data.Server;
+import org.codeforamerica.open311.facade.data.ServiceDiscoveryInfo;
 import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
 import org.codeforamerica.open311.internals.caching.NoCache;
 import org.codeforamerica.open311.internals.network.HTTPNetworkManager;
@@ -62,4 +80,121 @@ public class APIWrapperFactoryTest {
         assertEquals(wrapper.getWrapperInfo(),
                 "https://www.endpoint.com - UNKNOWN");
     }
+
+    @Test
+    public void cachedDiscoveryTest() throws APIWrapperException, ClassNotFoundException {
+        Server server = new Servers().getServer("San Francisco, CA");
+        final ServiceDiscoveryInfo[] cached = new ServiceDiscoveryInfo[1];
+        NoCache cache = new NoCache() {
+            @Override
+            public void saveServiceDiscovery(Server server,
+                                             ServiceDiscoveryInfo serviceDiscovery) {
+                cached[0] = serviceDiscovery;
+            }
+
+            @Override
+            public ServiceDiscoveryInfo retrieveCachedServiceDiscoveryInfo(Server server) {
+                return cached[0];
+            }
+        };
+        new APIWrapperFactory(server, EndpointType.TEST).setNetworkManager(
+                new MockNetworkManager(Format.XML)).setCache(cache).build();
+        assertNotNull(cached[0]);
+        APIWrapper wrapper = new APIWrapperFactory(server, EndpointType.TEST)
+                .setNetworkManager(new MockNetworkManager(Format.XML) {
+                    @Override
+                    public String doGet(HttpUrl url) throws IOException {
+                        throw new IOException("The discovery is cached");
+                    }
+                }).setCache(cache).build();
+        assertEquals("https://open311.sfgov.org/dev/v2 - TEST",
+                wrapper.getWrapperInfo());
+    }
+
+    @Test
+    public void buildAsyncTest() throws InterruptedException, ExecutionException {
+        final AtomicInteger discoveries = new AtomicInteger();
+        // The download waits until the other San Francisco build has missed
+        // the cache and is waiting for it, so they overlap.
+        final CountDownLatch lookups = new CountDownLatch(2);
+        final List<Thread> builders = new CopyOnWriteArrayList<Thread>();
+        final Server server = new Servers().getServer("San Francisco, CA");
+        NoCache cache = new NoCache() {
+            @Override
+            public ServiceDiscoveryInfo retrieveCachedServiceDiscoveryInfo(
+                    Server cached) {
+                if (cached.getName().equals(server.getName())) {
+                    builders.add(Thread.currentThread());
+                    lookups.countDown();
+                }
+                return super.retrieveCachedServiceDiscoveryInfo(cached);
+            }
+        };
+        MockNetworkManager networkManager = new MockNetworkManager(Format.XML) {
+            @Override
+            public String doGet(HttpUrl url) throws IOException {
+                discoveries.incrementAndGet();
+                try {
+                    if (url.toString().equals(server.getDiscoveryUrl())) {
+                        awaitOverlap(lookups, builders);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+                return super.doGet(url);
+            }
+        };
+        Server down = new Server().setName("Down").setDiscoveryUrl(
+                "http://down.example/simulateIOException/discovery.xml");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<APIWrapper>> futures = APIWrapperFactory.buildAsync(
+                    Arrays.asList(
+                            new APIWrapperFactory(server, EndpointType.TEST)
+                                    .setNetworkManager(networkManager)
+                                    .setCache(cache),
+                            new APIWrapperFactory(server, EndpointType.TEST)
+                                    .setNetworkManager(networkManager)
+                                    .setCache(cache),
+                            new APIWrapperFactory(down, EndpointType.TEST)
+                                    .setNetworkManager(networkManager)
+                                    .setCache(new NoCache())), executor);
+            assertEquals(3, futures.size());
+            assertEquals("https://open311.sfgov.org/dev/v2 - TEST", futures
+                    .get(0).get().getWrapperInfo());
+            assertEquals("https://open311.sfgov.org/dev/v2 - TEST", futures
+                    .get(1).get().getWrapperInfo());
+            try {
+                futures.get(2).get();
+                fail("The discovery of the server is down");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof APIWrapperException);
+            }
+            // The identical discoveries were downloaded once.
+            assertEquals(2, discoveries.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until every build but the current one has looked up the cache
+     * and is waiting for the running download.
+     */
+    private static void awaitOverlap(CountDownLatch lookups,
+                                     List<Thread> builders) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        if (!lookups.await(5, TimeUnit.SECONDS)) {
+            throw new IOException("The builds didn't overlap");
+        }
+        for (Thread builder : builders) {
+            while (builder != Thread.currentThread()
+                    && builder.getState() != Thread.State.WAITING) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("The builds didn't overlap");
+                }
+                Thread.yield();
+            }
+        }
+    }
 }
@@ -19,6 +19,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -104,6 +105,21 @@ public class APIWrapperJSONTest {
         GlobalTests.serviceRequestTest(serviceRequest);
     }
 
+    @Test
+    public void streamServiceRequests() throws APIWrapperException,
+            IOException {
+        final List<ServiceRequest> requests = new ArrayList<ServiceRequest>();
+        int count = wrapper.streamServiceRequests(null,
+                new ServiceRequestConsumer() {
+                    @Override
+                    public void accept(ServiceRequest serviceRequest) {
+                        requests.add(serviceRequest);
+                    }
+                });
+        assertEquals(requests.size(), count);
+        GlobalTests.serviceRequestsTest(requests);
+    }
+
     @Test
     public void postServiceRequest() throws APIWrapperException {
 
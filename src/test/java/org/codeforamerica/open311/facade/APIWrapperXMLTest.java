@@ -4,7 +4,14 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
+
+import okhttp3.HttpUrl;
 
 import org.codeforamerica.open311.facade.data.POSTServiceRequestResponse;
 import org.codeforamerica.open311.facade.data.Service;
@@ -18,6 +25,10 @@ import org.codeforamerica.open311.facade.data.operations.POSTServiceRequestData;
 import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
 import org.codeforamerica.open311.internals.caching.NoCache;
 import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.codeforamerica.open311.internals.network.NetworkResponse;
+import org.codeforamerica.open311.internals.network.RateLimit;
+import org.codeforamerica.open311.internals.network.RateLimitedNetworkManager;
+import org.codeforamerica.open311.internals.network.Validators;
 import org.codeforamerica.open311.internals.parsing.DataParser;
 import org.codeforamerica.open311.internals.parsing.XMLParser;
 import org.junit.AfterClass;
@@ -64,6 +75,245 @@ public class APIWrapperXMLTest {
         GlobalTests.serviceListTest(services);
     }
 
+    /**
+     * Stale data is returned at once and refreshed in the refresh executor.
+     */
+    @Test
+    public void staleServiceListTest() throws APIWrapperException, IOException, ClassNotFoundException {
+        final List<Service> stale = new ArrayList<Service>();
+        final List<List<Service>> saved = new ArrayList<List<Service>>();
+        APIWrapper staleWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST,
+                new MockNetworkManager(Format.XML), new NoCache() {
+            @Override
+            public List<Service> retrieveStaleServiceList(String endpointUrl) {
+                return stale;
+            }
+
+            @Override
+            public void saveListOfServices(String endpointUrl,
+                                           List<Service> services, Validators validators) {
+                saved.add(services);
+            }
+        }, "", "");
+        final List<Runnable> refreshes = new ArrayList<Runnable>();
+        staleWrapper.setRefreshExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                refreshes.add(command);
+            }
+        });
+        assertEquals(stale, staleWrapper.getServiceList());
+        // Only one refresh at a time.
+        assertEquals(stale, staleWrapper.getServiceList());
+        assertEquals(1, refreshes.size());
+        assertTrue(saved.isEmpty());
+        refreshes.get(0).run();
+        assertEquals(1, saved.size());
+        GlobalTests.serviceListTest(saved.get(0));
+        staleWrapper.getServiceList();
+        assertEquals(2, refreshes.size());
+    }
+
+    /**
+     * An expired list is revalidated: it is renewed if it hasn't been
+     * modified and fetched again if its validators don't match.
+     */
+    @Test
+    public void conditionalServiceListTest() throws APIWrapperException, IOException, ClassNotFoundException {
+        final List<Service> cached = new ArrayList<Service>();
+        final Validators[] validators = {new Validators(MockNetworkManager.ETAG, null)};
+        final List<Validators> saved = new ArrayList<Validators>();
+        APIWrapper conditionalWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST,
+                new MockNetworkManager(Format.XML), new NoCache() {
+            @Override
+            public Validators retrieveServiceListValidators(String endpointUrl) {
+                return validators[0];
+            }
+
+            @Override
+            public List<Service> renewServiceList(String endpointUrl) {
+                return cached;
+            }
+
+            @Override
+            public void saveListOfServices(String endpointUrl,
+                                           List<Service> services, Validators validators) {
+                saved.add(validators);
+            }
+        }, "", "");
+        assertEquals(cached, conditionalWrapper.getServiceList());
+        assertTrue(saved.isEmpty());
+
+        validators[0] = new Validators("\"old\"", null);
+        GlobalTests.serviceListTest(conditionalWrapper.getServiceList());
+        assertEquals(1, saved.size());
+        assertEquals(MockNetworkManager.ETAG, saved.get(0).getETag());
+    }
+
+    /**
+     * Cached ids are served locally and the rest are asked in url-length-safe
+     * operations.
+     */
+    @Test
+    public void serviceRequestsByIdsTest() throws APIWrapperException {
+        final List<HttpUrl> urls = Collections
+                .synchronizedList(new ArrayList<HttpUrl>());
+        final List<String> saved = Collections
+                .synchronizedList(new ArrayList<String>());
+        final ServiceRequest cached = new ServiceRequest("cached", Status.OPEN,
+                null, null, "001", null, null, null, null, null, null, null,
+                null, null, null, null, null);
+        APIWrapper batchWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST, new MockNetworkManager(
+                Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+                urls.add(url);
+                return super.doGetStream(url);
+            }
+        }, new NoCache() {
+            @Override
+            public ServiceRequest retrieveCachedServiceRequest(
+                    String endpointUrl, String serviceRequestId) {
+                return serviceRequestId.equals("cached") ? cached : null;
+            }
+
+            @Override
+            public void saveSingleServiceRequest(String endpointUrl,
+                                                 String serviceRequestId, ServiceRequest request) {
+                saved.add(serviceRequestId);
+            }
+        }, "", "");
+        List<String> ids = new ArrayList<String>(Arrays.asList("638349",
+                "cached", "638344"));
+        for (int i = 0; i < 300; i++) {
+            ids.add("unknown-" + i);
+        }
+        BatchResult<String, ServiceRequest> result = batchWrapper
+                .getServiceRequestsByIds(ids);
+        assertTrue(result.isSuccessful());
+        assertEquals(Arrays.asList("638349", "cached", "638344"),
+                new ArrayList<String>(result.getResults().keySet()));
+        assertSame(cached, result.getResults().get("cached"));
+        assertEquals("638344", result.getResults().get("638344")
+                .getServiceRequestId());
+        // Two requests per operation in the mock responses.
+        assertTrue(urls.size() > 1);
+        assertEquals(2 * urls.size(), saved.size());
+        for (HttpUrl url : urls) {
+            assertTrue(url.toString().length() <= APIWrapper.MAX_URL_LENGTH);
+            assertFalse(url.queryParameter("service_request_id").contains(
+                    "cached"));
+        }
+        assertTrue(batchWrapper.getServiceRequestsByIds(
+                Collections.<String>emptyList()).getResults().isEmpty());
+    }
+
+    /**
+     * A failed operation only fails its own ids, the requests found by the
+     * rest are returned.
+     */
+    @Test
+    public void failedServiceRequestsByIdsTest() throws APIWrapperException {
+        APIWrapper batchWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST, new MockNetworkManager(
+                Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+                if (url.queryParameter("service_request_id").contains(
+                        "unknown-299")) {
+                    throw new IOException("Failing operation");
+                }
+                return super.doGetStream(url);
+            }
+        }, new NoCache(), "", "");
+        List<String> ids = new ArrayList<String>(Arrays.asList("638349",
+                "638344"));
+        for (int i = 0; i < 300; i++) {
+            ids.add("unknown-" + i);
+        }
+        BatchResult<String, ServiceRequest> result = batchWrapper
+                .getServiceRequestsByIds(ids);
+        assertFalse(result.isSuccessful());
+        assertEquals(Arrays.asList("638349", "638344"), new ArrayList<String>(
+                result.getResults().keySet()));
+        // Only the last operation failed.
+        assertTrue(result.getFailures().get("unknown-299") instanceof APIWrapperException);
+        assertFalse(result.getFailures().containsKey("unknown-0"));
+    }
+
+    /**
+     * Only the missing slice of a partially cached range is fetched, even if
+     * it can't be cached as a range afterwards.
+     */
+    @Test
+    public void partialServiceRequestRangeTest() throws APIWrapperException,
+            IOException, ClassNotFoundException {
+        final List<HttpUrl> urls = Collections
+                .synchronizedList(new ArrayList<HttpUrl>());
+        final Date gapStart = new Date(20 * 24L * 3600 * 1000);
+        final GETServiceRequestsFilter filter = new GETServiceRequestsFilter()
+                .setStartDate(new Date(24L * 3600 * 1000)).setEndDate(
+                        new Date(31 * 24L * 3600 * 1000));
+        final List<ServiceRequest> cached = Collections
+                .singletonList(new ServiceRequest("cached", Status.OPEN, null,
+                        null, "001", null, null, null, null, null, null, null,
+                        null, null, null, null, null));
+        APIWrapper rangeWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST, new MockNetworkManager(
+                Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+                urls.add(url);
+                return super.doGetStream(url);
+            }
+        }, new NoCache() {
+            @Override
+            public List<ServiceRequest> retrieveCachedServiceRequests(
+                    String endpointUrl, GETServiceRequestsFilter slice) {
+                return slice.getEndDate().before(gapStart) ? cached : null;
+            }
+
+            @Override
+            public List<GETServiceRequestsFilter> getMissingServiceRequestFilters(
+                    String endpointUrl, GETServiceRequestsFilter slice) {
+                return Collections.singletonList(new GETServiceRequestsFilter(
+                        slice).setStartDate(gapStart));
+            }
+        }, "", "");
+        List<ServiceRequest> result = rangeWrapper.getServiceRequests(filter);
+        assertEquals(1, urls.size());
+        assertEquals(new GETServiceRequestsFilter(filter).setStartDate(
+                gapStart).getOptionalParametersMap().get("start_date"),
+                urls.get(0).queryParameter("start_date"));
+        assertEquals(3, result.size());
+        assertEquals("cached", result.get(0).getServiceRequestId());
+    }
+
+    /**
+     * The GET operations of a wrapper count against the rate limit of its
+     * API key.
+     */
+    @Test
+    public void apiKeyRateLimitTest() throws APIWrapperException,
+            IOException, ClassNotFoundException {
+        RateLimitedNetworkManager networkManager = new RateLimitedNetworkManager(
+                new MockNetworkManager(Format.XML), null, 0);
+        networkManager.setApiKeyRateLimit("key", new RateLimit(0.1, 1));
+        APIWrapper keyWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST, networkManager, new NoCache(),
+                "", "key");
+        keyWrapper.getServiceList();
+        try {
+            keyWrapper.getServiceRequests(null);
+            fail("API key rate limit exceeded");
+        } catch (APIWrapperException e) {
+            assertEquals(1, networkManager.getRejectedRequests());
+        }
+    }
+
     @Test
     public void getServiceDefinitionTest() throws APIWrapperException, IOException, ClassNotFoundException {
         ServiceDefinition serviceDefinition = wrapper
@@ -103,6 +353,21 @@ public class APIWrapperXMLTest {
         GlobalTests.serviceRequestTest(serviceRequest);
     }
 
+    @Test
+    public void streamServiceRequests() throws APIWrapperException,
+            IOException {
+        final List<ServiceRequest> requests = new ArrayList<ServiceRequest>();
+        int count = wrapper.streamServiceRequests(null,
+                new ServiceRequestConsumer() {
+                    @Override
+                    public void accept(ServiceRequest serviceRequest) {
+                        requests.add(serviceRequest);
+                    }
+                });
+        assertEquals(requests.size(), count);
+        GlobalTests.serviceRequestsTest(requests);
+    }
+
     @Test
     public void postServiceRequest() throws APIWrapperException {
 
@@ -0,0 +1,152 @@
+package org.codeforamerica.open311.facade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codeforamerica.open311.facade.data.operations.POSTServiceRequestData;
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException.Error;
+import org.codeforamerica.open311.internals.caching.NoCache;
+import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.codeforamerica.open311.internals.network.Validators;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link AsyncAPIWrapper} (uses a {@link MockNetworkManager}).
+ */
+public class AsyncAPIWrapperTest {
+
+    private static AsyncAPIWrapper wrapper, errorWrapper, apierrorWrapper;
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[ASYNC API WRAPPER TEST] Starts");
+        wrapper = new APIWrapper("http://www.fakeurl/", Format.XML,
+                EndpointType.TEST, new MockNetworkManager(Format.XML),
+                new NoCache(), "", "").async();
+        errorWrapper = new APIWrapper("http://www.fakeurl/simulateIOException",
+                Format.XML, EndpointType.TEST,
+                new MockNetworkManager(Format.XML), new NoCache(), "", "")
+                .async();
+        apierrorWrapper = new APIWrapper("http://www.fakeurl/simulateAPIError",
+                Format.XML, EndpointType.TEST,
+                new MockNetworkManager(Format.XML), new NoCache(), "", "key")
+                .async();
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[ASYNC API WRAPPER TEST] Ends");
+    }
+
+    @Test
+    public void getServicesTest() throws Exception {
+        GlobalTests.serviceListTest(wrapper.getServiceList().get(5,
+                TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void callbackTest() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<List<Service>> result = new AtomicReference<List<Service>>();
+        wrapper.getServiceList(new APICallback<List<Service>>() {
+            @Override
+            public void onSuccess(List<Service> services) {
+                result.set(services);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(APIWrapperException exception) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        GlobalTests.serviceListTest(result.get());
+    }
+
+    @Test
+    public void getServiceDefinitionTest() throws Exception {
+        GlobalTests.serviceDefinitionTest(wrapper.getServiceDefinition("001")
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * The service list and definitions share the stale data and the
+     * conditional requests of the blocking wrapper.
+     */
+    @Test
+    public void staleAndConditionalTest() throws Exception {
+        final List<Service> stale = new ArrayList<Service>();
+        final ServiceDefinition renewed = new ServiceDefinition("001", null);
+        AsyncAPIWrapper cachedWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST,
+                new MockNetworkManager(Format.XML), new NoCache() {
+            @Override
+            public List<Service> retrieveStaleServiceList(String endpointUrl) {
+                return stale;
+            }
+
+            @Override
+            public Validators retrieveServiceDefinitionValidators(
+                    String endpointUrl, String serviceCode) {
+                return new Validators(MockNetworkManager.ETAG, null);
+            }
+
+            @Override
+            public ServiceDefinition renewServiceDefinition(
+                    String endpointUrl, String serviceCode) {
+                return renewed;
+            }
+        }, "", "").async();
+        assertEquals(stale, cachedWrapper.getServiceList().get(5,
+                TimeUnit.SECONDS));
+        assertSame(renewed, cachedWrapper.getServiceDefinition("001").get(5,
+                TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getServiceRequestsTest() throws Exception {
+        GlobalTests.serviceRequestsTest(wrapper.getServiceRequests(null, null)
+                .get(5, TimeUnit.SECONDS));
+        GlobalTests.serviceRequestTest(wrapper.getServiceRequest("006", null)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void networkErrorTest() throws Exception {
+        try {
+            errorWrapper.getServiceList().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(Error.NETWORK_MANAGER,
+                    ((APIWrapperException) e.getCause()).getError());
+        }
+    }
+
+    @Test
+    public void apiErrorTest() throws Exception {
+        try {
+            apierrorWrapper.postServiceRequest(
+                    new POSTServiceRequestData("001", 0, null), null).get(5,
+                    TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            GlobalTests.errorTest(((APIWrapperException) e.getCause())
+                    .getGeoReportError());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.codeforamerica.open311.facade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+
+import org.codeforamerica.open311.facade.data.Server;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.internals.caching.NoCache;
+import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link MultiServerQuery} class.
+ */
+public class MultiServerQueryTest {
+    private ExecutorService executor;
+    private Server fast;
+    private Server slow;
+    private Server down;
+    private MultiServerQuery query;
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[MULTI SERVER QUERY TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[MULTI SERVER QUERY TEST] Ends");
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+        fast = new Servers().getServer("San Francisco, CA");
+        slow = new Server().setName("Slow")
+                .setDiscoveryUrl("http://slow.example/discovery.xml");
+        down = new Server().setName("Down")
+                .setDiscoveryUrl("http://down.example/simulateIOException/discovery.xml");
+        query = new MultiServerQuery(Arrays.asList(slow, fast, down),
+                EndpointType.TEST).setNetworkManager(
+                new MockNetworkManager(Format.XML) {
+                    @Override
+                    public String doGet(HttpUrl url) throws IOException {
+                        if (url.host().equals("slow.example")) {
+                            try {
+                                Thread.sleep(10000);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e.getMessage());
+                            }
+                        }
+                        return super.doGet(url);
+                    }
+                }).setCache(new NoCache()).setExecutor(executor)
+                .setTimeout(500);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void partialResultsTest() {
+        long start = System.currentTimeMillis();
+        BatchResult<Server, List<ServiceRequest>> result = query
+                .getServiceRequests(null);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertFalse(result.isSuccessful());
+        assertEquals(1, result.getResults().size());
+        assertEquals(2, result.getResults().get(fast).size());
+        assertEquals(Arrays.asList(slow, down), new ArrayList<Server>(result
+                .getFailures().keySet()));
+        assertTrue(result.getFailures().get(slow) instanceof TimeoutException);
+    }
+
+    @Test
+    public void streamTest() {
+        final List<ServiceRequest> merged = new ArrayList<ServiceRequest>();
+        BatchResult<Server, Integer> result = query.streamServiceRequests(
+                null, new MultiServerConsumer() {
+                    @Override
+                    public void accept(Server server,
+                                       ServiceRequest serviceRequest) {
+                        assertEquals(fast, server);
+                        merged.add(serviceRequest);
+                    }
+                });
+        assertEquals(2, merged.size());
+        assertEquals(Integer.valueOf(2), result.getResults().get(fast));
+        assertEquals(2, result.getFailures().size());
+    }
+
+    /**
+     * The default executor has a thread per server processed at once,
+     * regardless of the number of processors.
+     */
+    @Test
+    public void defaultExecutorTest() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<Server> servers = new ArrayList<Server>();
+        for (int i = 0; i < 8; i++) {
+            servers.add(new Server().setName("City " + i).setDiscoveryUrl(
+                    "http://city" + i + ".example/discovery.xml"));
+        }
+        BatchResult<Server, List<ServiceRequest>> result = new MultiServerQuery(
+                servers, EndpointType.TEST).setNetworkManager(
+                new MockNetworkManager(Format.XML) {
+                    @Override
+                    public String doGet(HttpUrl url) throws IOException {
+                        int now = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), now));
+                        }
+                        try {
+                            Thread.sleep(300);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e.getMessage());
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                        return super.doGet(url);
+                    }
+                }).setCache(new NoCache()).setParallelism(8).setTimeout(10000)
+                .getServiceRequests(null);
+        assertTrue(result.isSuccessful());
+        assertEquals(8, maxRunning.get());
+    }
+
+    /**
+     * A server which waits for a thread held by a timed out one times out
+     * too.
+     */
+    @Test
+    public void queuedTimeoutTest() {
+        final CountDownLatch release = new CountDownLatch(1);
+        MultiServerQuery stuck = new MultiServerQuery(Arrays.asList(slow,
+                fast), EndpointType.TEST).setNetworkManager(
+                new MockNetworkManager(Format.XML) {
+                    @Override
+                    public String doGet(HttpUrl url) throws IOException {
+                        if (url.host().equals("slow.example")) {
+                            // Like a blocking read, it ignores interruptions.
+                            boolean released = false;
+                            while (!released) {
+                                try {
+                                    released = release.await(10,
+                                            TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                    // Ignored.
+                                }
+                            }
+                        }
+                        return super.doGet(url);
+                    }
+                }).setCache(new NoCache()).setParallelism(1).setTimeout(300);
+        try {
+            long start = System.currentTimeMillis();
+            BatchResult<Server, List<ServiceRequest>> result = stuck
+                    .getServiceRequests(null);
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            assertTrue(result.getFailures().get(slow) instanceof TimeoutException);
+            assertTrue(result.getFailures().get(fast) instanceof TimeoutException);
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package org.codeforamerica.open311.facade;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.codeforamerica.open311.facade.data.City;
+import org.codeforamerica.open311.facade.data.Server;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -8,6 +12,8 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by miblon on 9/1/16.
@@ -37,6 +43,69 @@ public class ServersTest {
         assertEquals(10, City.EINDHOVEN.getMap().getZoom());
     }
 
+    @Test
+    public void lookupsTest() {
+        Server sanFrancisco = servers.getServer("san francisco, ca");
+        assertNotNull(sanFrancisco);
+        String name = sanFrancisco.getName();
+        assertEquals(name, new Servers().getServer("San Francisco, CA")
+                .getName());
+        assertEquals(name, servers.getServerByJurisdictionId(
+                sanFrancisco.getJurisdictionId().toUpperCase()).getName());
+        assertEquals(name, servers.getServerByBaseUrl(
+                sanFrancisco.getBaseURL() + "/").getName());
+        boolean inCountry = false;
+        for (Server server : servers.getServersByCountry(sanFrancisco
+                .getCountry())) {
+            inCountry |= name.equals(server.getName());
+        }
+        assertTrue(inCountry);
+        assertTrue(servers.getServersByCountry("Atlantis").isEmpty());
+        assertNull(servers.getServer(null));
+        List<Server> found = servers.findServers("San F");
+        assertEquals(1, found.size());
+        assertEquals(name, found.get(0).getName());
+        assertEquals(servers.getCollection().size(), servers.findServers("")
+                .size());
+    }
+
+    @Test
+    public void setCollectionTest() {
+        Server server = new Server().setName("Eindhoven").setBaseURL(
+                "https://www.open311.io/api/v2/");
+        Servers custom = new Servers().setCollection(Arrays.asList(server));
+        assertEquals(1, custom.getCollection().size());
+        assertEquals("Eindhoven", custom.getServer("EINDHOVEN").getName());
+        assertEquals("Eindhoven", custom.getServerByBaseUrl(
+                "https://www.open311.io/api/v2").getName());
+        assertNull(custom.getServer("San Francisco, CA"));
+        assertNotNull(new Servers().getServer("San Francisco, CA"));
+        // The indexed server is a copy.
+        server.setName("Other");
+        assertNotNull(custom.getServer("Eindhoven"));
+        assertNull(custom.getServer("Other"));
+    }
+
+    /**
+     * Changing a returned server doesn't affect the other users of the
+     * index.
+     */
+    @Test
+    public void returnedCopiesTest() {
+        Server sanFrancisco = servers.getServer("San Francisco, CA");
+        String baseUrl = sanFrancisco.getBaseURL();
+        sanFrancisco.setApiKey("secret");
+        sanFrancisco.setName("Changed").setBaseURL("http://changed/");
+        Server again = new Servers().getServer("San Francisco, CA");
+        assertNotSame(sanFrancisco, again);
+        assertNull(again.getApiKey());
+        assertEquals(baseUrl, again.getBaseURL());
+        assertNull(servers.getServer("Changed"));
+        assertNotNull(servers.getServerByBaseUrl(baseUrl));
+        servers.getCollection().get(0).setApiKey("secret");
+        assertNull(servers.getCollection().get(0).getApiKey());
+    }
+
     @AfterClass
     public static void testFinish() {
         System.out.println("[SERVERS TEST] Ends");
@@ -0,0 +1,199 @@
+package org.codeforamerica.open311.facade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.ServiceRequest.Status;
+import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
+import org.codeforamerica.open311.internals.caching.LogStructuredServiceRequestStore;
+import org.codeforamerica.open311.internals.caching.NoCache;
+import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.codeforamerica.open311.internals.network.NetworkResponse;
+import org.codeforamerica.open311.internals.parsing.DateParser;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link ServiceRequestSynchronizer} class.
+ */
+public class ServiceRequestSynchronizerTest {
+    private final List<HttpUrl> urls = new ArrayList<HttpUrl>();
+    private File file;
+    private LogStructuredServiceRequestStore store;
+    private APIWrapper wrapper;
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[SERVICE REQUEST SYNCHRONIZER TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[SERVICE REQUEST SYNCHRONIZER TEST] Ends");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("open311", ".log");
+        store = new LogStructuredServiceRequestStore(file);
+        wrapper = new APIWrapper("http://www.fakeurl/", Format.XML,
+                EndpointType.TEST, new MockNetworkManager(Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+                urls.add(url);
+                return super.doGetStream(url);
+            }
+        }, new NoCache(), "", "");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        file.delete();
+    }
+
+    @Test
+    public void synchronizeTest() throws APIWrapperException, IOException {
+        ServiceRequestSynchronizer synchronizer = new ServiceRequestSynchronizer(
+                wrapper, store);
+        final List<ServiceRequestChange> notified = new ArrayList<ServiceRequestChange>();
+        synchronizer.addListener(new ServiceRequestChangeListener() {
+            @Override
+            public void onChange(ServiceRequestChange change) {
+                notified.add(change);
+            }
+        });
+        List<ServiceRequestChange> changes = synchronizer.synchronize();
+        assertEquals(2, changes.size());
+        assertEquals(changes, notified);
+        for (ServiceRequestChange change : changes) {
+            assertEquals(ServiceRequestChange.Type.NEW, change.getType());
+        }
+        assertFalse(urls.get(0).queryParameterNames().contains(
+                "updated_after"));
+
+        // The mirror survives a restart.
+        store.close();
+        store = new LogStructuredServiceRequestStore(file);
+        synchronizer = new ServiceRequestSynchronizer(wrapper, store);
+        assertNotNull(store.getServiceRequest(synchronizer.getMirror(),
+                "638344"));
+        assertTrue(synchronizer.synchronize().isEmpty());
+        // The mock ignores the pages: two responses per synchronization.
+        assertNotNull(urls.get(2).queryParameter("updated_after"));
+    }
+
+    /**
+     * The changes are asked page by page, and the next synchronization
+     * includes the second of the latest update.
+     */
+    @Test
+    public void pagedSynchronizeTest() throws APIWrapperException {
+        final List<HttpUrl> pagedUrls = new ArrayList<HttpUrl>();
+        APIWrapper pagedWrapper = new APIWrapper("http://www.fakeurl/",
+                Format.XML, EndpointType.TEST, new MockNetworkManager(
+                Format.XML) {
+            @Override
+            public NetworkResponse doGetStream(HttpUrl url) throws IOException {
+                pagedUrls.add(url);
+                String page = url.queryParameter("page");
+                String xml;
+                if ("1".equals(page)) {
+                    xml = requestsXML("1", "2010-04-14T06:00:01Z", "2",
+                            "2010-04-14T06:00:05Z");
+                } else if ("2".equals(page)) {
+                    xml = requestsXML("3", "2010-04-14T06:00:03Z");
+                } else {
+                    xml = requestsXML();
+                }
+                return new NetworkResponse(new ByteArrayInputStream(xml
+                        .getBytes("UTF-8")), Format.XML, Charset
+                        .forName("UTF-8"));
+            }
+        }, new NoCache(), "", "");
+        ServiceRequestSynchronizer synchronizer = new ServiceRequestSynchronizer(
+                pagedWrapper, store).setPageSize(2);
+        assertEquals(3, synchronizer.synchronize().size());
+        // A short page isn't the last one, an empty one is.
+        assertEquals(3, pagedUrls.size());
+        assertEquals("2", pagedUrls.get(1).queryParameter("page"));
+        assertEquals("2", pagedUrls.get(1).queryParameter("page_size"));
+        Date lastUpdate = store.getLastUpdate(synchronizer.getMirror());
+        assertEquals(new DateParser().parseDate("2010-04-14T06:00:05Z"),
+                lastUpdate);
+
+        assertTrue(synchronizer.synchronize().isEmpty());
+        assertEquals(lastUpdate.getTime() - 1000, new DateParser().parseDate(
+                pagedUrls.get(3).queryParameter("updated_after")).getTime());
+    }
+
+    /**
+     * The response of an endpoint which ignores the pages may have been cut,
+     * the latest update only moves to its oldest request.
+     */
+    @Test
+    public void ignoredPagesTest() throws APIWrapperException {
+        ServiceRequestSynchronizer synchronizer = new ServiceRequestSynchronizer(
+                wrapper, store);
+        assertEquals(2, synchronizer.synchronize().size());
+        assertEquals(2, urls.size());
+        // 638344 is the oldest request of the mock responses.
+        assertEquals(new DateParser().parseDate("2010-04-14T06:37:38-08:00"),
+                store.getLastUpdate(synchronizer.getMirror()));
+    }
+
+    @Test
+    public void changeTypesTest() throws APIWrapperException {
+        ServiceRequestSynchronizer synchronizer = new ServiceRequestSynchronizer(
+                wrapper, store);
+        String mirror = synchronizer.getMirror();
+        // 638344 is closed and 638349 is open in the mock responses.
+        store.saveServiceRequest(mirror, request("638344", Status.OPEN));
+        store.saveServiceRequest(mirror, request("638349", Status.OPEN));
+        List<ServiceRequestChange> changes = synchronizer.synchronize();
+        assertEquals(2, changes.size());
+        assertEquals(ServiceRequestChange.Type.CLOSED, changes.get(0)
+                .getType());
+        assertEquals(Status.OPEN, changes.get(0).getPrevious().getStatus());
+        assertEquals(ServiceRequestChange.Type.UPDATED, changes.get(1)
+                .getType());
+        assertEquals(Status.CLOSED, store.getServiceRequest(mirror, "638344")
+                .getStatus());
+    }
+
+    /**
+     * @param fields Pairs (id, updated date).
+     */
+    private static String requestsXML(String... fields) {
+        StringBuilder xml = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?><service_requests>");
+        for (int i = 0; i < fields.length; i += 2) {
+            xml.append("<request><service_request_id>").append(fields[i])
+                    .append("</service_request_id><status>open</status>")
+                    .append("<updated_datetime>").append(fields[i + 1])
+                    .append("</updated_datetime></request>");
+        }
+        return xml.append("</service_requests>").toString();
+    }
+
+    private ServiceRequest request(String id, Status status) {
+        return new ServiceRequest(id, status, null, null, "006", null, null,
+                null, null, null, null, null, null, null, null, null, null);
+    }
+}
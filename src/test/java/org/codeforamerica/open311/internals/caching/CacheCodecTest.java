@@ -0,0 +1,169 @@
+package org.codeforamerica.open311.internals.caching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+
+import org.codeforamerica.open311.facade.EndpointType;
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.facade.GlobalTests;
+import org.codeforamerica.open311.facade.data.Endpoint;
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.data.ServiceDiscoveryInfo;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.exceptions.DataParsingException;
+import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.codeforamerica.open311.internals.network.NetworkManager;
+import org.codeforamerica.open311.internals.network.Validators;
+import org.codeforamerica.open311.internals.parsing.DataParser;
+import org.codeforamerica.open311.internals.parsing.XMLParser;
+import org.joda.time.DateTime;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link CacheCodec} implementations.
+ */
+public class CacheCodecTest {
+    private static final String BASE_URL = "http://www.fakeurl/";
+    private NetworkManager netManager = new MockNetworkManager(Format.XML);
+    private DataParser parser = new XMLParser();
+    private CacheCodec binaryCodec = new BinaryCacheCodec();
+    private CacheCodec serializationCodec = new SerializationCacheCodec();
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[CACHE CODEC TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[CACHE CODEC TEST] Ends");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void roundTripTest() throws IOException, DataParsingException {
+        GlobalTests.serviceListTest((List<Service>) binaryRoundTrip(
+                (Serializable) parser.parseServiceList(get("services.xml"))));
+        GlobalTests.serviceDefinitionTest((ServiceDefinition) binaryRoundTrip(
+                parser.parseServiceDefinition(get("services/001.xml"))));
+        GlobalTests.serviceRequestsTest((List<ServiceRequest>) binaryRoundTrip(
+                (Serializable) parser.parseServiceRequests(get("requests.xml"))));
+        assertEquals("test", binaryRoundTrip("test"));
+        assertNull(binaryRoundTrip(null));
+        assertEquals(new Date(5), binaryRoundTrip(new Date(5)));
+    }
+
+    @Test
+    public void serviceDiscoveryRoundTripTest() throws IOException,
+            DataParsingException {
+        ServiceDiscoveryInfo original = parser
+                .parseServiceDiscovery(get("discovery.xml"));
+        ServiceDiscoveryInfo decoded = (ServiceDiscoveryInfo) binaryRoundTrip(original);
+        assertEquals(original.getChangeset(), decoded.getChangeset());
+        assertEquals(original.getContact(), decoded.getContact());
+        assertEquals(original.getKeyService(), decoded.getKeyService());
+        assertEquals(original.getEndpoints().size(), decoded.getEndpoints()
+                .size());
+        for (int i = 0; i < original.getEndpoints().size(); i++) {
+            Endpoint endpoint = original.getEndpoints().get(i);
+            Endpoint decodedEndpoint = decoded.getEndpoints().get(i);
+            assertEquals(endpoint.getSpecificationUrl(),
+                    decodedEndpoint.getSpecificationUrl());
+            assertEquals(endpoint.getUrl(), decodedEndpoint.getUrl());
+            assertEquals(endpoint.getChangeset(),
+                    decodedEndpoint.getChangeset());
+            assertEquals(endpoint.getType(), decodedEndpoint.getType());
+            assertEquals(endpoint.getBestFormat(),
+                    decodedEndpoint.getBestFormat());
+        }
+        assertEquals(original.getMoreSuitableEndpoint(EndpointType.TEST)
+                .getUrl(), decoded.getMoreSuitableEndpoint(EndpointType.TEST)
+                .getUrl());
+    }
+
+    @Test
+    public void serviceRequestRangesRoundTripTest() throws IOException {
+        ServiceRequestRanges ranges = new ServiceRequestRanges();
+        ranges = ranges.add(ranges.newSegment(0, 999, Long.MAX_VALUE), 0);
+        ranges = ranges.add(ranges.newSegment(1000, Long.MAX_VALUE - 1,
+                Long.MAX_VALUE), 0);
+        ServiceRequestRanges decoded = (ServiceRequestRanges) binaryRoundTrip(ranges);
+        assertEquals(2, decoded.getNextId());
+        assertEquals(2, decoded.getSegments().size());
+        assertEquals(Long.MAX_VALUE - 1, decoded.getSegments().get(1).end);
+        assertEquals(Long.MAX_VALUE, decoded.getSegments().get(1).expiration);
+        assertEquals(1, decoded.getSegments().get(1).id);
+        assertEquals(2, decoded.get(0, Long.MAX_VALUE - 1, 0).size());
+    }
+
+    @Test
+    public void sizeTest() throws IOException, DataParsingException {
+        CacheableObject requests = new CacheableObject(
+                (Serializable) parser.parseServiceRequests(get("requests.xml")),
+                24);
+        int binarySize = binaryCodec.encode(requests).length;
+        int serializedSize = serializationCodec.encode(requests).length;
+        assertTrue(binarySize + " >= " + serializedSize,
+                binarySize * 2 < serializedSize);
+    }
+
+    @Test
+    public void expirationTest() throws IOException {
+        Date expiration = new DateTime().minusHours(1).toDate();
+        CacheableObject decoded = binaryCodec.decode(binaryCodec
+                .encode(new CacheableObject("test", expiration)));
+        assertEquals(expiration, decoded.getExpirationTime());
+        assertNull(decoded.getObject());
+    }
+
+    @Test
+    public void validatorsTest() throws IOException {
+        CacheableObject decoded = binaryCodec.decode(binaryCodec
+                .encode(new CacheableObject("test", new Date(),
+                        new Validators("\"1\"", null))));
+        assertEquals("\"1\"", decoded.getValidators().getETag());
+        assertNull(decoded.getValidators().getLastModified());
+        assertNull(binaryCodec.decode(binaryCodec.encode(new CacheableObject(
+                "test", 1))).getValidators());
+    }
+
+    /**
+     * Entries written before the binary codec existed can still be read.
+     */
+    @Test
+    public void serializedEntriesTest() throws IOException {
+        byte[] serialized = serializationCodec.encode(new CacheableObject(
+                "test", 1));
+        assertEquals("test", binaryCodec.decode(serialized).getObject());
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedEntryTest() throws IOException {
+        byte[] data = binaryCodec.encode(new CacheableObject("test", 1));
+        byte[] truncated = new byte[data.length - 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        binaryCodec.decode(truncated);
+    }
+
+    private Object binaryRoundTrip(Serializable object) throws IOException {
+        byte[] data = binaryCodec.encode(new CacheableObject(object, 1));
+        assertFalse(SerializationCacheCodec.isSerialized(data));
+        return binaryCodec.decode(data).getObject();
+    }
+
+    private String get(String path) throws IOException {
+        return netManager.doGet(HttpUrl.parse(BASE_URL + path));
+    }
+}
@@ -1,12 +1,21 @@
 package org.codeforamerica.open311.internals.caching;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+
+import net.iharder.Base64;
 
 import org.codeforamerica.open311.facade.APIWrapper;
 import org.codeforamerica.open311.facade.APIWrapperFactory;
@@ -18,10 +27,14 @@ import org.codeforamerica.open311.facade.data.Server;
 import org.codeforamerica.open311.facade.data.Service;
 import org.codeforamerica.open311.facade.data.ServiceDefinition;
 import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.data.ServiceRequest.Status;
 import org.codeforamerica.open311.facade.data.operations.GETServiceRequestsFilter;
 import org.codeforamerica.open311.facade.exceptions.APIWrapperException;
 import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.codeforamerica.open311.internals.network.Validators;
 import org.codeforamerica.open311.internals.platform.PlatformManager;
+import org.codeforamerica.open311.internals.caching.Cache.CacheableOperation;
+import org.joda.time.DateTime;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -73,6 +86,35 @@ public class CacheTest {
                         .size());
     }
 
+    @Test
+    public void testSharedListsAreUnmodifiable() throws APIWrapperException, ClassNotFoundException, IOException {
+        String endpoint = "http://www.fakeurl/";
+        List<Service> services = new LinkedList<Service>();
+        services.add(new Service("001", "Service", null, false, null, null,
+                null));
+        cache.saveListOfServices(endpoint, services);
+        // The cache keeps its own copy.
+        services.clear();
+        List<Service> cached = cache.retrieveCachedServiceList(endpoint);
+        assertEquals(1, cached.size());
+        try {
+            cached.clear();
+            fail("Cached lists are shared");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(1, cache.retrieveCachedServiceList(endpoint).size());
+        }
+
+        APIWrapper wrapper = new APIWrapperFactory(City.SAN_FRANCISCO,
+                EndpointType.TEST).setCache(cache).setNetworkManager(
+                new MockNetworkManager(Format.XML)).build();
+        try {
+            wrapper.getServiceList().clear();
+            fail("Returned lists are shared");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(2, wrapper.getServiceList().size());
+        }
+    }
+
     @Test
     public void testServiceDefinitionCaching() throws APIWrapperException, ClassNotFoundException, IOException {
         APIWrapperFactory wrapperFactory = new APIWrapperFactory(
@@ -107,6 +149,148 @@ public class CacheTest {
         assertEquals(cachedRequests.size(), requests.size());
     }
 
+    /**
+     * Filters with the same arguments share their entry, whatever the order in
+     * which the arguments were set.
+     */
+    @Test
+    public void testServiceRequestsFilterKey() {
+        Date start = new Date(0);
+        GETServiceRequestsFilter filter = new GETServiceRequestsFilter()
+                .setServiceCode("001").setStatus(Status.OPEN)
+                .setStartDate(start);
+        GETServiceRequestsFilter reordered = new GETServiceRequestsFilter()
+                .setStartDate(start).setStatus(Status.OPEN)
+                .setServiceCode("001");
+        assertEquals(filter.getCacheKey(), reordered.getCacheKey());
+        assertEquals(filter, reordered);
+        assertFalse(filter.getCacheKey().equals(
+                new GETServiceRequestsFilter().setServiceCode("001")
+                        .getCacheKey()));
+        assertEquals("", new GETServiceRequestsFilter().getCacheKey());
+
+        cache.saveServiceRequestList("http://www.fakeurl/", filter,
+                new LinkedList<ServiceRequest>());
+        assertNotNull(cache.retrieveCachedServiceRequests(
+                "http://www.fakeurl/", reordered));
+        assertNull(cache.retrieveCachedServiceRequests("http://www.fakeurl/",
+                new GETServiceRequestsFilter().setServiceCode("001")));
+    }
+
+    /**
+     * Ranges covered by previous responses are answered from the cache and
+     * only the missing slices have to be fetched.
+     */
+    @Test
+    public void testServiceRequestRanges() {
+        String endpoint = "http://www.fakeurl/";
+        GETServiceRequestsFilter january = rangeFilter(1, 31);
+        cache.saveServiceRequestList(endpoint, january,
+                requestsOnDays(1, 10, 20, 31));
+        assertNull(cache.retrieveCachedServiceRequests(endpoint,
+                rangeFilter(1, 31).setServiceCode("002")));
+
+        List<ServiceRequest> cached = cache.retrieveCachedServiceRequests(
+                endpoint, rangeFilter(5, 20));
+        assertEquals(2, cached.size());
+        assertEquals("10", cached.get(0).getServiceRequestId());
+        assertEquals("20", cached.get(1).getServiceRequestId());
+        assertTrue(cache.getMissingServiceRequestFilters(endpoint,
+                rangeFilter(5, 20)).isEmpty());
+
+        GETServiceRequestsFilter overlapping = rangeFilter(20, 45);
+        assertNull(cache.retrieveCachedServiceRequests(endpoint, overlapping));
+        List<GETServiceRequestsFilter> missing = cache
+                .getMissingServiceRequestFilters(endpoint, overlapping);
+        assertEquals(1, missing.size());
+        assertEquals(day(31).getTime() + 1000, missing.get(0).getStartDate()
+                .getTime());
+        assertEquals(day(45), missing.get(0).getEndDate());
+        assertEquals("001", missing.get(0).getOptionalParametersMap()
+                .get("service_code"));
+
+        cache.saveServiceRequestList(endpoint, missing.get(0),
+                requestsOnDays(40));
+        cached = cache.retrieveCachedServiceRequests(endpoint, overlapping);
+        assertEquals(3, cached.size());
+        assertEquals("40", cached.get(2).getServiceRequestId());
+
+        GETServiceRequestsFilter uncached = rangeFilter(60, 70);
+        assertEquals(Collections.singletonList(uncached), new NoCache()
+                .getMissingServiceRequestFilters(endpoint, uncached));
+    }
+
+    /**
+     * Every segment has its own entry, so saving a segment doesn't write the
+     * requests of the others again.
+     */
+    @Test
+    public void testServiceRequestSegmentEntries() {
+        CountingCache countingCache = new CountingCache(0);
+        countingCache.saveServiceRequestList("a", rangeFilter(1, 10),
+                requestsOnDays(1, 5));
+        assertEquals(2, countingCache.properties.size());
+        Map<String, String> before = new HashMap<String, String>(
+                countingCache.properties);
+        countingCache.saveServiceRequestList("a", rangeFilter(10, 20),
+                requestsOnDays(15));
+        assertEquals(3, countingCache.properties.size());
+        int unchanged = 0;
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (entry.getValue().equals(
+                    countingCache.properties.get(entry.getKey()))) {
+                unchanged++;
+            }
+        }
+        assertEquals(1, unchanged);
+        List<ServiceRequest> cached = countingCache
+                .retrieveCachedServiceRequests("a", rangeFilter(3, 18));
+        assertEquals(2, cached.size());
+        assertEquals("5", cached.get(0).getServiceRequestId());
+        assertEquals("15", cached.get(1).getServiceRequestId());
+    }
+
+    /**
+     * The entries of the segments which are replaced are deleted.
+     */
+    @Test
+    public void testReplacedSegmentEntries() {
+        CountingCache countingCache = new CountingCache(2);
+        for (int i = 0; i < 5; i++) {
+            countingCache.saveServiceRequestList("a", rangeFilter(1, 10),
+                    requestsOnDays(5));
+        }
+        countingCache.saveServiceRequestList("a", rangeFilter(20, 30),
+                requestsOnDays(25));
+        // The index and the entries of its two segments.
+        assertEquals(3, countingCache.properties.size());
+        countingCache.saveServiceRequestList("a", rangeFilter(1, 40),
+                requestsOnDays(2));
+        assertEquals(2, countingCache.properties.size());
+        assertEquals(1, countingCache.retrieveCachedServiceRequests("a",
+                rangeFilter(1, 40)).size());
+    }
+
+    /**
+     * A response which reaches the limit of the endpoint may be capped, so it
+     * only answers its own filter.
+     */
+    @Test
+    public void testCappedServiceRequestRange() {
+        CountingCache countingCache = new CountingCache(2);
+        countingCache.setServiceRequestsLimit(3);
+        GETServiceRequestsFilter january = rangeFilter(1, 31);
+        countingCache.saveServiceRequestList("a", january,
+                requestsOnDays(1, 10, 20));
+        assertEquals(3, countingCache.retrieveCachedServiceRequests("a",
+                january).size());
+        assertNull(countingCache.retrieveCachedServiceRequests("a",
+                rangeFilter(5, 20)));
+        assertEquals(Collections.singletonList(rangeFilter(5, 20)),
+                countingCache.getMissingServiceRequestFilters("a",
+                        rangeFilter(5, 20)));
+    }
+
     @Test
     public void testServiceRequestCaching() throws APIWrapperException, ClassNotFoundException, IOException {
         APIWrapperFactory wrapperFactory = new APIWrapperFactory(
@@ -158,4 +342,127 @@ public class CacheTest {
         cache.saveSingleServiceRequest(null, null, null);
         assertNull(cache.retrieveCachedServiceRequest(null, null));
     }
+
+    @Test
+    public void testMemoryTier() {
+        CountingCache countingCache = new CountingCache(2);
+        countingCache.saveCitiesInfo("test");
+        assertEquals("test", countingCache.retrieveCitiesInfo());
+        assertEquals("test", countingCache.retrieveCitiesInfo());
+        assertEquals(0, countingCache.reads);
+        // The least recently used object is evicted from memory only.
+        countingCache.saveServiceRequestList("a",
+                new GETServiceRequestsFilter(), new LinkedList<ServiceRequest>());
+        countingCache.saveListOfServices("a", new LinkedList<Service>());
+        assertNotNull(countingCache.retrieveCitiesInfo());
+        assertEquals(1, countingCache.reads);
+        assertNotNull(countingCache.retrieveCitiesInfo());
+        assertEquals(1, countingCache.reads);
+        countingCache.deleteCache();
+        assertNull(countingCache.retrieveCitiesInfo());
+    }
+
+    @Test
+    public void testStaleTimeToLive() throws IOException {
+        CountingCache countingCache = new CountingCache(2);
+        Date expiration = new DateTime().minusHours(2).toDate();
+        countingCache.saveProperty(
+                CacheableOperation.GET_SERVICE_LIST + "a",
+                Base64.encodeBytes(new BinaryCacheCodec()
+                        .encode(new CacheableObject(new LinkedList<Service>(),
+                                expiration))));
+        assertNull(countingCache.retrieveCachedServiceList("a"));
+        assertNull(countingCache.retrieveStaleServiceList("a"));
+        countingCache.setStaleTimeToLive(CacheableOperation.GET_SERVICE_LIST,
+                3);
+        assertNotNull(countingCache.retrieveStaleServiceList("a"));
+        assertNull(countingCache.retrieveCachedServiceList("a"));
+        assertNull(countingCache.retrieveStaleServiceDefinition("a", "001"));
+        countingCache.setStaleTimeToLive(CacheableOperation.GET_SERVICE_LIST,
+                1);
+        assertNull(countingCache.retrieveStaleServiceList("a"));
+        // Decoded once, then served from memory.
+        assertEquals(1, countingCache.reads);
+    }
+
+    @Test
+    public void testRenew() throws IOException {
+        CountingCache countingCache = new CountingCache(2);
+        assertNull(countingCache.renewServiceList("a"));
+        Date expiration = new DateTime().minusHours(2).toDate();
+        countingCache.saveProperty(
+                CacheableOperation.GET_SERVICE_LIST + "a",
+                Base64.encodeBytes(new BinaryCacheCodec()
+                        .encode(new CacheableObject(new LinkedList<Service>(),
+                                expiration, new Validators("\"1\"", null)))));
+        assertNull(countingCache.retrieveCachedServiceList("a"));
+        assertEquals("\"1\"", countingCache.retrieveServiceListValidators("a")
+                .getETag());
+        assertNotNull(countingCache.renewServiceList("a"));
+        assertNotNull(countingCache.retrieveCachedServiceList("a"));
+        assertEquals("\"1\"", countingCache.retrieveServiceListValidators("a")
+                .getETag());
+
+        countingCache.saveServiceDefinition("a", "001",
+                new ServiceDefinition("001", null), new Validators(null,
+                        "Tue, 15 Nov 1994 12:45:26 GMT"));
+        assertEquals("Tue, 15 Nov 1994 12:45:26 GMT", countingCache
+                .retrieveServiceDefinitionValidators("a", "001")
+                .getLastModified());
+        assertNull(countingCache.retrieveServiceDefinitionValidators("a", "002"));
+    }
+
+    /**
+     * Keeps the persistent tier in a map and counts its reads.
+     */
+    private static class CountingCache extends AbstractCache {
+        private final Map<String, String> properties = new HashMap<String, String>();
+        private int reads;
+
+        CountingCache(int memoryCacheSize) {
+            super(memoryCacheSize);
+        }
+
+        @Override
+        protected void saveProperty(String key, String value) {
+            properties.put(key, value);
+        }
+
+        @Override
+        protected void deleteProperty(String key) {
+            properties.remove(key);
+        }
+
+        @Override
+        protected String getProperty(String key) {
+            reads++;
+            return properties.get(key);
+        }
+
+        @Override
+        public void deleteCache() {
+            super.deleteCache();
+            properties.clear();
+        }
+    }
+
+    private GETServiceRequestsFilter rangeFilter(int firstDay, int lastDay) {
+        return new GETServiceRequestsFilter().setServiceCode("001")
+                .setStartDate(day(firstDay))
+                .setEndDate(day(lastDay));
+    }
+
+    private List<ServiceRequest> requestsOnDays(int... days) {
+        List<ServiceRequest> requests = new LinkedList<ServiceRequest>();
+        for (int day : days) {
+            requests.add(new ServiceRequest(String.valueOf(day), Status.OPEN,
+                    null, null, "001", null, null, null, day(day), null, null,
+                    null, null, null, null, null, null));
+        }
+        return requests;
+    }
+
+    private Date day(int day) {
+        return new Date(day * 24L * 3600 * 1000);
+    }
 }
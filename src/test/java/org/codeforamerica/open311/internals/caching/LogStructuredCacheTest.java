@@ -0,0 +1,172 @@
+package org.codeforamerica.open311.internals.caching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link LogStructuredCache} class.
+ */
+public class LogStructuredCacheTest {
+    private File file;
+    private LogStructuredCache cache;
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[LOG STRUCTURED CACHE TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[LOG STRUCTURED CACHE TEST] Ends");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("open311", ".log");
+        cache = new LogStructuredCache(file, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        file.delete();
+        new File(file.getPath() + ".compact").delete();
+    }
+
+    @Test
+    public void reopenTest() throws IOException {
+        cache.saveProperty("a", "1");
+        cache.saveProperty("b", "2");
+        cache.saveProperty("a", "3");
+        assertEquals("3", cache.getProperty("a"));
+        cache.close();
+        cache = new LogStructuredCache(file, 0);
+        assertEquals("3", cache.getProperty("a"));
+        assertEquals("2", cache.getProperty("b"));
+        assertNull(cache.getProperty("c"));
+    }
+
+    @Test
+    public void deletePropertyTest() throws IOException {
+        cache.saveProperty("a", "1");
+        cache.saveProperty("b", "2");
+        cache.deleteProperty("a");
+        cache.deleteProperty("c");
+        assertNull(cache.getProperty("a"));
+        cache.close();
+        cache = new LogStructuredCache(file, 0);
+        assertNull(cache.getProperty("a"));
+        assertEquals("2", cache.getProperty("b"));
+        cache.compact();
+        assertNull(cache.getProperty("a"));
+        assertEquals("2", cache.getProperty("b"));
+    }
+
+    @Test
+    public void appendOnlyTest() throws IOException {
+        cache = reopen(Long.MAX_VALUE);
+        cache.saveProperty("a", "1");
+        long size = cache.getLogSize();
+        cache.saveProperty("a", "2");
+        assertEquals(2 * size, cache.getLogSize());
+    }
+
+    @Test
+    public void compactionTest() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            cache.saveProperty("a", "value" + i);
+        }
+        cache.saveProperty("b", "other");
+        long size = cache.getLogSize();
+        cache.compact();
+        assertTrue(cache.getLogSize() <= size);
+        assertEquals("value9", cache.getProperty("a"));
+        assertEquals("other", cache.getProperty("b"));
+        cache = reopen(0);
+        assertEquals("value9", cache.getProperty("a"));
+        assertEquals("other", cache.getProperty("b"));
+    }
+
+    @Test
+    public void tornRecordTest() throws IOException {
+        cache = reopen(Long.MAX_VALUE);
+        cache.saveProperty("a", "1");
+        long validSize = cache.getLogSize();
+        cache.saveProperty("b", "2");
+        cache.close();
+        // A crash in the middle of the second append.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+        cache = new LogStructuredCache(file, Long.MAX_VALUE);
+        assertEquals("1", cache.getProperty("a"));
+        assertNull(cache.getProperty("b"));
+        assertEquals(validSize, cache.getLogSize());
+        cache.saveProperty("b", "2");
+        assertEquals("2", cache.getProperty("b"));
+    }
+
+    @Test
+    public void corruptedRecordTest() throws IOException {
+        cache = reopen(Long.MAX_VALUE);
+        cache.saveProperty("a", "1");
+        cache.saveProperty("b", "2");
+        cache.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 9);
+        raf.write('X');
+        raf.close();
+        cache = new LogStructuredCache(file, Long.MAX_VALUE);
+        assertEquals("1", cache.getProperty("a"));
+        assertNull(cache.getProperty("b"));
+    }
+
+    @Test
+    public void interruptedCompactionTest() throws IOException {
+        cache.saveProperty("a", "1");
+        cache.close();
+        File compacted = new File(file.getPath() + ".compact");
+        // Compaction which didn't finish: the old log is still there.
+        RandomAccessFile raf = new RandomAccessFile(compacted, "rw");
+        raf.write(new byte[]{1, 2, 3});
+        raf.close();
+        cache = new LogStructuredCache(file, 0);
+        assertFalse(compacted.exists());
+        assertEquals("1", cache.getProperty("a"));
+        // Compaction which had already deleted the old log.
+        cache.compact();
+        cache.close();
+        assertTrue(file.renameTo(compacted));
+        cache = new LogStructuredCache(file, 0);
+        assertEquals("1", cache.getProperty("a"));
+    }
+
+    @Test
+    public void deleteCacheTest() throws IOException {
+        cache.saveCitiesInfo("test");
+        assertEquals("test", cache.retrieveCitiesInfo());
+        cache.deleteCache();
+        assertNull(cache.retrieveCitiesInfo());
+        assertEquals(0, cache.getLogSize());
+        cache = reopen(0);
+        assertNull(cache.retrieveCitiesInfo());
+    }
+
+    private LogStructuredCache reopen(long minCompactionSize)
+            throws IOException {
+        cache.close();
+        return new LogStructuredCache(file, minCompactionSize);
+    }
+}
@@ -0,0 +1,110 @@
+package org.codeforamerica.open311.internals.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ContentDecoding} class.
+ */
+public class ContentDecodingTest {
+    private static final byte[] BODY = buildBody();
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[CONTENT DECODING TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[CONTENT DECODING TEST] Ends");
+    }
+
+    @Test
+    public void gzipTest() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(BODY);
+        gzip.close();
+        TransferStatistics statistics = new TransferStatistics();
+        assertArrayEquals(BODY, read(ContentDecoding.decode(
+                new ByteArrayInputStream(compressed.toByteArray()), "gzip",
+                statistics)));
+        assertEquals(1, statistics.getCompressedResponses());
+        assertEquals(compressed.size(), statistics.getReceivedBytes());
+        assertEquals(BODY.length, statistics.getDecodedBytes());
+        assertEquals(BODY.length - compressed.size(),
+                statistics.getSavedBytes());
+    }
+
+    @Test
+    public void deflateTest() throws IOException {
+        TransferStatistics statistics = new TransferStatistics();
+        // zlib stream and raw deflate data.
+        assertArrayEquals(BODY, read(ContentDecoding.decode(
+                new ByteArrayInputStream(deflate(false)), "deflate",
+                statistics)));
+        assertArrayEquals(BODY, read(ContentDecoding.decode(
+                new ByteArrayInputStream(deflate(true)), "Deflate",
+                statistics)));
+        assertEquals(2, statistics.getCompressedResponses());
+        assertEquals(2 * BODY.length, statistics.getDecodedBytes());
+    }
+
+    @Test
+    public void identityTest() throws IOException {
+        TransferStatistics statistics = new TransferStatistics();
+        assertArrayEquals(BODY, read(ContentDecoding.decode(
+                new ByteArrayInputStream(BODY), null, statistics)));
+        assertEquals(1, statistics.getResponses());
+        assertEquals(0, statistics.getCompressedResponses());
+        assertEquals(BODY.length, statistics.getReceivedBytes());
+        assertEquals(0, statistics.getSavedBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedEncodingTest() throws IOException {
+        ContentDecoding.decode(new ByteArrayInputStream(BODY), "br",
+                new TransferStatistics());
+    }
+
+    private static byte[] deflate(boolean raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(compressed,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        deflater.write(BODY);
+        deflater.close();
+        return compressed.toByteArray();
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            output.write(chunk, 0, read);
+        }
+        input.close();
+        return output.toByteArray();
+    }
+
+    private static byte[] buildBody() {
+        StringBuilder body = new StringBuilder("<service_requests>");
+        for (int i = 0; i < 200; i++) {
+            body.append("<request><service_request_id>").append(i)
+                    .append("</service_request_id><status>open</status></request>");
+        }
+        return body.append("</service_requests>").toString().getBytes();
+    }
+}
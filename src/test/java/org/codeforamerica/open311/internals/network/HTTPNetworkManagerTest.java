@@ -0,0 +1,46 @@
+package org.codeforamerica.open311.internals.network;
+
+import static org.junit.Assert.assertEquals;
+
+import okhttp3.HttpUrl;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link HTTPNetworkManager} class without network.
+ */
+public class HTTPNetworkManagerTest {
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[HTTP NETWORK MANAGER TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[HTTP NETWORK MANAGER TEST] Ends");
+    }
+
+    /**
+     * Transfers are recorded by the longest known endpoint, or by server.
+     */
+    @Test
+    public void transferStatisticsEndpointTest() {
+        HTTPNetworkManager networkManager = new HTTPNetworkManager();
+        networkManager.addEndpoint("https://open311.example/v2/");
+        networkManager.addEndpoint("https://open311.example/v2/test/");
+        assertEquals("https://open311.example/v2/", networkManager
+                .getEndpoint(HttpUrl
+                        .parse("https://open311.example/v2/services.xml")));
+        assertEquals("https://open311.example/v2/test/", networkManager
+                .getEndpoint(HttpUrl
+                        .parse("https://open311.example/v2/test/services.xml")));
+        assertEquals("https://open311.example:443", networkManager
+                .getEndpoint(HttpUrl
+                        .parse("https://open311.example/discovery.xml")));
+        assertEquals("http://other.example:8080", networkManager
+                .getEndpoint(HttpUrl
+                        .parse("http://other.example:8080/v2/services.xml")));
+    }
+}
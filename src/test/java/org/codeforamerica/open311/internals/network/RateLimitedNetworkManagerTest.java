@@ -0,0 +1,167 @@
+package org.codeforamerica.open311.internals.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.HttpUrl;
+
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.internals.network.AsyncNetworkManager.ResponseCallback;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RateLimitedNetworkManager} and {@link TokenBucket}
+ * classes.
+ */
+public class RateLimitedNetworkManagerTest {
+    private static final HttpUrl SERVICES = HttpUrl
+            .parse("http://www.fakeurl/services.xml");
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[RATE LIMITED NETWORK MANAGER TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[RATE LIMITED NETWORK MANAGER TEST] Ends");
+    }
+
+    @Test
+    public void tokenBucketTest() {
+        TokenBucket bucket = new TokenBucket(new RateLimit(2, 2), 0);
+        assertEquals(0, bucket.getWait(0));
+        bucket.reserve(0);
+        bucket.reserve(0);
+        assertEquals(SECOND / 2, bucket.getWait(0));
+        // Reserved in advance, the next one waits longer.
+        bucket.reserve(0);
+        assertEquals(SECOND, bucket.getWait(0));
+        assertEquals(0, bucket.getWait(SECOND));
+        // It is never refilled over the burst.
+        assertEquals(0, bucket.getWait(100 * SECOND));
+        bucket.reserve(100 * SECOND);
+        bucket.reserve(100 * SECOND);
+        assertTrue(bucket.getWait(100 * SECOND) > 0);
+    }
+
+    @Test
+    public void failFastTest() throws IOException {
+        RateLimitedNetworkManager networkManager = new RateLimitedNetworkManager(
+                new MockNetworkManager(Format.XML), new RateLimit(0.1, 2), 0);
+        assertNotNull(networkManager.doGet(SERVICES));
+        assertNotNull(networkManager.doGetStream(SERVICES));
+        try {
+            networkManager.doGet(SERVICES);
+            fail("Rate limit exceeded");
+        } catch (RateLimitExceededException e) {
+            assertEquals(1, networkManager.getRejectedRequests());
+        }
+        // Another server has its own bucket.
+        assertNotNull(networkManager.doGet(HttpUrl
+                .parse("http://other.fakeurl/services.xml")));
+        assertEquals(0, networkManager.getDelayedRequests());
+    }
+
+    @Test
+    public void endpointAndApiKeyTest() throws IOException {
+        RateLimitedNetworkManager networkManager = new RateLimitedNetworkManager(
+                new MockNetworkManager(Format.XML), null, 0);
+        networkManager.setRateLimit("http://www.fakeurl/", new RateLimit(0.1, 1));
+        networkManager.setApiKeyRateLimit("key", new RateLimit(0.1, 1));
+        assertNotNull(networkManager.doGet(SERVICES));
+        try {
+            networkManager.doGet(SERVICES);
+            fail("Endpoint rate limit exceeded");
+        } catch (RateLimitExceededException e) {
+            // Expected.
+        }
+        // Without a default rate limit, other servers are unlimited.
+        HttpUrl other = HttpUrl.parse("http://other.fakeurl/requests.xml");
+        assertNotNull(networkManager.doGet(other));
+        assertNotNull(networkManager.doGet(other));
+
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("api_key", "key");
+        networkManager.doPost(other, parameters);
+        try {
+            networkManager.doGet(other.newBuilder()
+                    .addQueryParameter("api_key", "key").build());
+            fail("API key rate limit exceeded");
+        } catch (RateLimitExceededException e) {
+            assertEquals(2, networkManager.getRejectedRequests());
+        }
+    }
+
+    /**
+     * GET operations don't send the API key, the one bound to the endpoint
+     * is counted.
+     */
+    @Test
+    public void boundApiKeyTest() throws IOException {
+        RateLimitedNetworkManager networkManager = new RateLimitedNetworkManager(
+                new MockNetworkManager(Format.XML), null, 0);
+        networkManager.setApiKeyRateLimit("key", new RateLimit(0.1, 1));
+        networkManager.setApiKey("http://www.fakeurl/", "key");
+        assertNotNull(networkManager.doGet(SERVICES));
+        try {
+            networkManager.doGetStream(SERVICES);
+            fail("API key rate limit exceeded");
+        } catch (RateLimitExceededException e) {
+            assertEquals(1, networkManager.getRejectedRequests());
+        }
+        networkManager.setApiKey("http://www.fakeurl/", null);
+        assertNotNull(networkManager.doGet(SERVICES));
+    }
+
+    @Test
+    public void queuedAsyncTest() throws InterruptedException {
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+        RateLimitedNetworkManager networkManager = new RateLimitedNetworkManager(
+                new MockNetworkManager(Format.XML) {
+                    @Override
+                    public String doGet(HttpUrl url) throws IOException {
+                        threads.add(Thread.currentThread().getName());
+                        return super.doGet(url);
+                    }
+                }, new RateLimit(20, 1), 1000);
+        final CountDownLatch done = new CountDownLatch(2);
+        final AtomicReference<String> response = new AtomicReference<String>();
+        ResponseCallback callback = new ResponseCallback() {
+            @Override
+            public void onResponse(String body, Format format) {
+                response.set(body);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+            }
+        };
+        networkManager.doGetAsync(SERVICES, callback);
+        // Queued for 50ms, the calling thread isn't blocked.
+        networkManager.doGetAsync(SERVICES, callback);
+        assertEquals(1, networkManager.getDelayedRequests());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(response.get());
+        assertTrue(networkManager.getWaitedMillis() > 0);
+        // The queued blocking request doesn't run in the timer thread.
+        assertEquals(2, threads.size());
+        assertFalse(threads.contains("open311-timer"));
+    }
+}
@@ -0,0 +1,217 @@
+package org.codeforamerica.open311.internals.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.HttpUrl;
+
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.internals.network.AsyncNetworkManager.ResponseCallback;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ResilientNetworkManager} class.
+ */
+public class ResilientNetworkManagerTest {
+    private static final HttpUrl URL = HttpUrl
+            .parse("http://www.fakeurl/services.xml");
+    private static final RetryPolicy NO_WAIT = new RetryPolicy(3, 0, 0);
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[RESILIENT NETWORK MANAGER TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[RESILIENT NETWORK MANAGER TEST] Ends");
+    }
+
+    @Test
+    public void retryTest() throws IOException {
+        FailingNetworkManager failing = new FailingNetworkManager(2,
+                new IOException("Connection reset"));
+        ResilientNetworkManager networkManager = new ResilientNetworkManager(
+                failing, NO_WAIT, 5, 1000);
+        assertNotNull(networkManager.doGet(URL));
+        assertEquals(3, failing.calls.get());
+
+        failing.failures.set(3);
+        try {
+            networkManager.doGetStream(URL);
+            fail("Three failures");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+        assertEquals(6, failing.calls.get());
+    }
+
+    @Test
+    public void notRetriedTest() throws IOException {
+        FailingNetworkManager failing = new FailingNetworkManager(1,
+                new HTTPStatusException(404, "Invalid response - Not Found"));
+        ResilientNetworkManager networkManager = new ResilientNetworkManager(
+                failing, NO_WAIT, 1, 1000);
+        try {
+            networkManager.doGet(URL);
+            fail("Not found");
+        } catch (HTTPStatusException e) {
+            assertEquals(404, e.getCode());
+        }
+        assertEquals(1, failing.calls.get());
+        // The server answered.
+        assertEquals(CircuitBreaker.State.CLOSED, networkManager
+                .getCircuitBreaker(URL).getState());
+
+        failing.failure = new HTTPStatusException(503, "Unavailable");
+        failing.failures.set(1);
+        try {
+            networkManager.doPost(URL, Collections.<String, String>emptyMap());
+            fail("POST requests aren't retried");
+        } catch (HTTPStatusException e) {
+            assertEquals(503, e.getCode());
+        }
+        assertEquals(2, failing.calls.get());
+    }
+
+    @Test
+    public void circuitBreakerTest() throws IOException, InterruptedException {
+        FailingNetworkManager failing = new FailingNetworkManager(3,
+                new IOException("Timeout"));
+        ResilientNetworkManager networkManager = new ResilientNetworkManager(
+                failing, RetryPolicy.NONE, 2, 100);
+        for (int i = 0; i < 2; i++) {
+            try {
+                networkManager.doGet(URL);
+                fail("Failing server");
+            } catch (IOException e) {
+                assertEquals("Timeout", e.getMessage());
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, networkManager
+                .getCircuitBreaker(URL).getState());
+        try {
+            networkManager.doGet(URL.newBuilder().encodedPath("/requests.xml")
+                    .build());
+            fail("Open circuit");
+        } catch (CircuitOpenException e) {
+            assertEquals(2, failing.calls.get());
+        }
+        // Other servers are not affected.
+        assertEquals(CircuitBreaker.State.CLOSED, networkManager
+                .getCircuitBreaker(HttpUrl.parse("http://other.fakeurl/"))
+                .getState());
+
+        Thread.sleep(150);
+        // The trial request fails, so the circuit opens again.
+        try {
+            networkManager.doGet(URL);
+            fail("Failing server");
+        } catch (IOException e) {
+            assertEquals("Timeout", e.getMessage());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, networkManager
+                .getCircuitBreaker(URL).getState());
+        Thread.sleep(150);
+        assertNotNull(networkManager.doGet(URL));
+        assertEquals(CircuitBreaker.State.CLOSED, networkManager
+                .getCircuitBreaker(URL).getState());
+    }
+
+    @Test
+    public void asyncRetryTest() throws InterruptedException {
+        FailingNetworkManager failing = new FailingNetworkManager(2,
+                new IOException("Connection reset"));
+        ResilientNetworkManager networkManager = new ResilientNetworkManager(
+                failing, new RetryPolicy(3, 10, 10), 5, 1000);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> response = new AtomicReference<String>();
+        networkManager.doGetAsync(URL, new ResponseCallback() {
+            @Override
+            public void onResponse(String body, Format format) {
+                response.set(body);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(response.get());
+        assertEquals(3, failing.calls.get());
+        // The blocking retries don't run in the timer thread.
+        assertFalse(failing.threads.contains("open311-timer"));
+    }
+
+    @Test
+    public void delayTest() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 300);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelay(1) <= 100);
+            assertTrue(policy.getDelay(2) <= 200);
+            assertTrue(policy.getDelay(4) <= 300);
+            assertTrue(policy.getDelay(1) >= 0);
+        }
+    }
+
+    /**
+     * Fails a number of times, then answers like a {@link MockNetworkManager}.
+     */
+    private static class FailingNetworkManager extends MockNetworkManager {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final List<String> threads = new CopyOnWriteArrayList<String>();
+        private final AtomicInteger failures;
+        private volatile IOException failure;
+
+        FailingNetworkManager(int failures, IOException failure) {
+            super(Format.XML);
+            this.failures = new AtomicInteger(failures);
+            this.failure = failure;
+        }
+
+        private void call() throws IOException {
+            calls.incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+            if (failures.getAndDecrement() > 0) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public String doGet(HttpUrl url) throws IOException {
+            call();
+            return super.doGet(url);
+        }
+
+        @Override
+        public NetworkResponse doGetStream(HttpUrl url, Validators validators)
+                throws IOException {
+            call();
+            return super.doGetStream(url, validators);
+        }
+
+        @Override
+        public String doPost(HttpUrl url, Map<String, String> parameters)
+                throws IOException {
+            call();
+            return super.doPost(url, parameters);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.codeforamerica.open311.internals.parsing;
 
 import okhttp3.HttpUrl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -203,4 +204,42 @@ public class JSONParserTest {
         assertEquals(EndpointType.TEST, endpoint.getType());
         assertEquals(dateParser.parseDate("2011-04-20T17:48:34Z"), endpoint.getChangeset());
     }
+
+    /**
+     * Service requests can be read from a stream and wrapped in an object
+     * (Toronto).
+     */
+    @Test
+    public void serviceRequestsFromStreamTest() throws IOException,
+            DataParsingException {
+        String data = netManager.doGet(HttpUrl.parse(BASE_URL
+                + "/requests.json"));
+        GlobalTests.serviceRequestsTest(parser
+                .parseServiceRequests(new ByteArrayInputStream(data
+                        .getBytes(DataParser.TEXT_FORMAT))));
+        GlobalTests.serviceRequestsTest(parser
+                .parseServiceRequests("{\"service_requests\":" + data + "}"));
+    }
+
+    /**
+     * Values are written in lower case by the endpoints, as the GeoReport v2
+     * specification says.
+     */
+    @Test
+    public void lowerCaseValuesTest() throws DataParsingException {
+        List<ServiceRequest> requests = parser
+                .parseServiceRequests("[{\"service_request_id\":\"1\","
+                        + "\"status\":\"open\",\"zipcode\":\"94122\","
+                        + "\"requested_datetime\":\"2010-04-14T06:37:38-08:00\","
+                        + "\"unknown\":{\"field\":[1,2]}}]");
+        ServiceRequest request = requests.get(0);
+        assertEquals(ServiceRequest.Status.OPEN, request.getStatus());
+        assertEquals(94122, request.getZipCode().intValue());
+        assertEquals(dateParser.parseDate("2010-04-14T06:37:38-08:00"),
+                request.getRequestedDatetime());
+        List<Service> services = parser
+                .parseServiceList("[{\"service_code\":\"001\",\"metadata\":true,"
+                        + "\"type\":\"realtime\"}]");
+        assertEquals(Service.Type.REALTIME, services.get(0).getType());
+    }
 }
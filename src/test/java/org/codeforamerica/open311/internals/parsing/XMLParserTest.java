@@ -3,11 +3,14 @@ package org.codeforamerica.open311.internals.parsing;
 import okhttp3.HttpUrl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.codeforamerica.open311.facade.EndpointType;
 import org.codeforamerica.open311.facade.Format;
@@ -216,4 +219,38 @@ public class XMLParserTest {
         assertEquals(endpoint.getChangeset(),
                 dateParser.parseDate("2011-04-20T17:48:34Z"));
     }
+
+    /**
+     * One parser is shared by several threads (as the
+     * {@link DataParserFactory} does).
+     */
+    @Test
+    public void sharedParserTest() throws Exception {
+        assertSame(DataParserFactory.getInstance().buildDataParser(Format.XML),
+                DataParserFactory.getInstance().buildDataParser(Format.XML));
+        final String data = netManager.doGet(HttpUrl.parse(BASE_URL
+                + "/requests.xml"));
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            GlobalTests.serviceRequestsTest(parser
+                                    .parseServiceRequests(data));
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("Failures: " + failures, failures.isEmpty());
+    }
 }
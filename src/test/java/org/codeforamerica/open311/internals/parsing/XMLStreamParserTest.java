@@ -0,0 +1,183 @@
+package org.codeforamerica.open311.internals.parsing;
+
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.codeforamerica.open311.facade.Format;
+import org.codeforamerica.open311.facade.GlobalTests;
+import org.codeforamerica.open311.facade.data.AttributeInfo;
+import org.codeforamerica.open311.facade.data.Service;
+import org.codeforamerica.open311.facade.data.ServiceDefinition;
+import org.codeforamerica.open311.facade.data.ServiceRequest;
+import org.codeforamerica.open311.facade.exceptions.DataParsingException;
+import org.codeforamerica.open311.internals.network.MockNetworkManager;
+import org.codeforamerica.open311.internals.network.NetworkManager;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link XMLStreamParser} class. Its results are compared with
+ * the ones of the {@link XMLParser} (DOM).
+ */
+public class XMLStreamParserTest {
+    private NetworkManager netManager = new MockNetworkManager(Format.XML);
+    private DataParser parser = new XMLStreamParser();
+    private DataParser domParser = new XMLParser();
+    private static final String BASE_URL = "http://www.fakeurl";
+
+    @BeforeClass
+    public static void testInitialization() {
+        System.out.println("[XML STREAM PARSER TEST] Starts");
+    }
+
+    @AfterClass
+    public static void testFinish() {
+        System.out.println("[XML STREAM PARSER TEST] Ends");
+    }
+
+    @Test
+    public void serviceListParsingTest() throws IOException,
+            DataParsingException {
+        String data = get("/services.xml");
+        List<Service> services = parser.parseServiceList(data);
+        GlobalTests.serviceListTest(services);
+        GlobalTests.serviceListTest(parser.parseServiceList(stream(data)));
+        List<Service> domServices = domParser.parseServiceList(data);
+        for (int i = 0; i < services.size(); i++) {
+            Service service = services.get(i);
+            Service domService = domServices.get(i);
+            assertEquals(domService.getServiceCode(), service.getServiceCode());
+            assertEquals(domService.getServiceName(), service.getServiceName());
+            assertEquals(domService.getDescription(), service.getDescription());
+            assertEquals(domService.hasMetadata(), service.hasMetadata());
+            assertEquals(domService.getType(), service.getType());
+            assertEquals(domService.getKeywords(), service.getKeywords());
+            assertEquals(domService.getGroup(), service.getGroup());
+        }
+    }
+
+    @Test(expected = DataParsingException.class)
+    public void serviceListParsingWithErrorsTest() throws IOException,
+            DataParsingException {
+        parser.parseServiceList(get("/services.xml") + "ERRORSTRING");
+    }
+
+    @Test
+    public void serviceDefinitionParsingTest() throws IOException,
+            DataParsingException {
+        String data = get("/services/001.xml");
+        ServiceDefinition definition = parser.parseServiceDefinition(data);
+        GlobalTests.serviceDefinitionTest(definition);
+        GlobalTests.serviceDefinitionTest(parser
+                .parseServiceDefinition(stream(data)));
+        ServiceDefinition domDefinition = domParser
+                .parseServiceDefinition(data);
+        assertEquals(domDefinition.getServiceCode(),
+                definition.getServiceCode());
+        assertEquals(domDefinition.getAttributes().size(), definition
+                .getAttributes().size());
+        for (int i = 0; i < definition.getAttributes().size(); i++) {
+            AttributeInfo attribute = definition.getAttributes().get(i);
+            AttributeInfo domAttribute = domDefinition.getAttributes().get(i);
+            assertEquals(domAttribute.isVariable(), attribute.isVariable());
+            assertEquals(domAttribute.getCode(), attribute.getCode());
+            assertEquals(domAttribute.getDatatype(), attribute.getDatatype());
+            assertEquals(domAttribute.isRequired(), attribute.isRequired());
+            assertEquals(domAttribute.getDatatypeDescription(),
+                    attribute.getDatatypeDescription());
+            assertEquals(domAttribute.getOrder(), attribute.getOrder());
+            assertEquals(domAttribute.getDescription(),
+                    attribute.getDescription());
+            assertEquals(domAttribute.getValues().length,
+                    attribute.getValues().length);
+            for (int j = 0; j < attribute.getValues().length; j++) {
+                assertEquals(domAttribute.getValues()[j].getKey(),
+                        attribute.getValues()[j].getKey());
+                assertEquals(domAttribute.getValues()[j].getName(),
+                        attribute.getValues()[j].getName());
+            }
+        }
+    }
+
+    @Test(expected = DataParsingException.class)
+    public void serviceDefinitionParsingWithErrorTest() throws IOException,
+            DataParsingException {
+        parser.parseServiceDefinition(get("/services/001.xml") + "ERRORSTRING");
+    }
+
+    @Test
+    public void serviceRequestsTest() throws IOException,
+            DataParsingException {
+        String data = get("/requests.xml");
+        List<ServiceRequest> requests = parser.parseServiceRequests(data);
+        GlobalTests.serviceRequestsTest(requests);
+        GlobalTests.serviceRequestsTest(parser
+                .parseServiceRequests(stream(data)));
+        List<ServiceRequest> domRequests = domParser.parseServiceRequests(data);
+        for (int i = 0; i < requests.size(); i++) {
+            ServiceRequest request = requests.get(i);
+            ServiceRequest domRequest = domRequests.get(i);
+            assertArrayEquals(new Object[]{domRequest.getServiceRequestId(),
+                            domRequest.getStatus(), domRequest.getStatusNotes(),
+                            domRequest.getServiceName(),
+                            domRequest.getServiceCode(),
+                            domRequest.getDescription(),
+                            domRequest.getAgencyResponsible(),
+                            domRequest.getServiceNotice(),
+                            domRequest.getRequestedDatetime(),
+                            domRequest.getUpdatedDatetime(),
+                            domRequest.getExpectedDatetime(),
+                            domRequest.getAddress(), domRequest.getAddressId(),
+                            domRequest.getZipCode(), domRequest.getLatitude(),
+                            domRequest.getLongitude(), domRequest.getMediaUrl()},
+                    new Object[]{request.getServiceRequestId(),
+                            request.getStatus(), request.getStatusNotes(),
+                            request.getServiceName(), request.getServiceCode(),
+                            request.getDescription(),
+                            request.getAgencyResponsible(),
+                            request.getServiceNotice(),
+                            request.getRequestedDatetime(),
+                            request.getUpdatedDatetime(),
+                            request.getExpectedDatetime(),
+                            request.getAddress(), request.getAddressId(),
+                            request.getZipCode(), request.getLatitude(),
+                            request.getLongitude(), request.getMediaUrl()});
+        }
+    }
+
+    @Test(expected = DataParsingException.class)
+    public void serviceRequestsWithErrorTest() throws IOException,
+            DataParsingException {
+        parser.parseServiceRequests(get("/requests.xml") + "ERRORSTRING");
+    }
+
+    /**
+     * An error document is not a list of requests, it must be detected by the
+     * error parser.
+     */
+    @Test
+    public void errorDocumentTest() throws IOException, DataParsingException {
+        String error = netManager.doPost(HttpUrl.parse(BASE_URL
+                + "/requests/simulateAPIError.xml"), null);
+        assertEquals(0, parser.parseServiceRequests(error).size());
+        assertNull(parser.parseServiceDefinition(error));
+        GlobalTests.errorTest(parser.parseGeoReportV2Errors(error));
+    }
+
+    private String get(String path) throws IOException {
+        return netManager.doGet(HttpUrl.parse(BASE_URL + path));
+    }
+
+    private InputStream stream(String data) throws IOException {
+        return new ByteArrayInputStream(data.getBytes(DataParser.TEXT_FORMAT));
+    }
+}